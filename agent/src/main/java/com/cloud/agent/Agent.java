@@ -69,6 +69,7 @@ import com.cloud.agent.api.StartupCommand;
 import com.cloud.agent.transport.Request;
 import com.cloud.agent.transport.Response;
 import com.cloud.exception.AgentControlChannelException;
+import com.cloud.exception.UnsupportedVersionException;
 import com.cloud.host.Host;
 import com.cloud.resource.ServerResource;
 import com.cloud.utils.PropertiesUtil;
@@ -136,6 +137,7 @@ public class Agent implements HandlerFactory, IAgentControl {
     long _sequence = 0;
     long _lastPingResponseTime = 0;
     long _pingInterval = 0;
+    Request.Version _wireVersion = Request.Version.v1;
     AtomicInteger _inProgress = new AtomicInteger();
 
     StartupTask _startup = null;
@@ -486,6 +488,7 @@ public class Agent implements HandlerFactory, IAgentControl {
         startup.setGuid(getResourceGuid());
         startup.setResourceName(getResourceName());
         startup.setVersion(getVersion());
+        startup.setWireVersion(Request.Version.v4.ordinal());
     }
 
     @Override
@@ -511,6 +514,7 @@ public class Agent implements HandlerFactory, IAgentControl {
 
         setLink(null);
         cancelTasks();
+        _wireVersion = Request.Version.v1;
 
         _resource.disconnected();
 
@@ -573,6 +577,12 @@ public class Agent implements HandlerFactory, IAgentControl {
 
         setId(startup.getHostId());
         _pingInterval = (long)startup.getPingInterval() * 1000; // change to ms.
+        try {
+            _wireVersion = Request.Version.get((byte)startup.getWireVersion());
+        } catch (final UnsupportedVersionException e) {
+            s_logger.warn("Management server asked for an unknown wire version " + startup.getWireVersion() + ", using " + Request.Version.v1);
+            _wireVersion = Request.Version.v1;
+        }
 
         setLastPingResponseTime();
         scheduleWatch(link, response, _pingInterval, _pingInterval);
@@ -853,6 +863,7 @@ public class Agent implements HandlerFactory, IAgentControl {
             final PingCommand ping = _resource.getCurrentStatus(getId());
             final Request request = new Request(_id, -1, ping, false);
             request.setSequence(getNextSequence());
+            request.setVersion(_wireVersion);
             if (s_logger.isDebugEnabled()) {
                 s_logger.debug("Sending ping: " + request.toString());
             }
@@ -949,6 +960,7 @@ public class Agent implements HandlerFactory, IAgentControl {
     }
 
     private void postRequest(final Request request) throws AgentControlChannelException {
+        request.setVersion(_wireVersion);
         if (_link != null) {
             try {
                 _link.send(request.toBytes());
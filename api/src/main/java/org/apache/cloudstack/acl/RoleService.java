@@ -30,6 +30,13 @@ public interface RoleService {
     ConfigKey<Boolean> EnableDynamicApiChecker = new ConfigKey<>("Advanced", Boolean.class, "dynamic.apichecker.enabled", "false",
             "If set to true, this enables the dynamic role-based api access checker and disables the default static role-based api access checker.", true);
 
+    ConfigKey<Integer> DynamicApiCheckerCachePeriod = new ConfigKey<>("Advanced", Integer.class, "dynamic.apichecker.cache.period", "60",
+            "Seconds the dynamic role-based api access checker keeps the compiled permissions of a role. Role changes made through this management server are applied immediately, "
+            + "changes made through other management servers after at most this period. 0 disables the cache.", true);
+
+    /* published with the role id when a role or its permissions change */
+    String MESSAGE_ROLE_CHANGED_EVENT = "Message.RoleChanged.Event";
+
     boolean isEnabled();
 
     /**
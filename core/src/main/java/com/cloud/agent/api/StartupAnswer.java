@@ -22,6 +22,7 @@ package com.cloud.agent.api;
 public class StartupAnswer extends Answer {
     long hostId;
     int pingInterval;
+    int wireVersion;
 
     protected StartupAnswer() {
     }
@@ -43,4 +44,16 @@ public class StartupAnswer extends Answer {
     public int getPingInterval() {
         return pingInterval;
     }
+
+    /**
+     * @return the wire protocol version the agent should use for the requests
+     * it sends, management servers that predate the negotiation send 0 (v1).
+     */
+    public int getWireVersion() {
+        return wireVersion;
+    }
+
+    public void setWireVersion(int wireVersion) {
+        this.wireVersion = wireVersion;
+    }
 }
@@ -47,6 +47,7 @@ public class StartupCommand extends Command {
     String resourceName;
     String gatewayIpAddress;
     String msHostList;
+    int wireVersion;
 
     public StartupCommand(Host.Type type) {
         this.type = type;
@@ -290,6 +291,18 @@ public class StartupCommand extends Command {
         this.msHostList = msHostList;
     }
 
+    /**
+     * @return the highest wire protocol version the agent is able to decode,
+     * agents that predate the negotiation report 0 (v1).
+     */
+    public int getWireVersion() {
+        return wireVersion;
+    }
+
+    public void setWireVersion(int wireVersion) {
+        this.wireVersion = wireVersion;
+    }
+
     @Override
     public boolean executeInSequence() {
         return false;
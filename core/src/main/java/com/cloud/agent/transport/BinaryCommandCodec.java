@@ -0,0 +1,921 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.agent.transport;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.log4j.Logger;
+
+import com.google.gson.Gson;
+
+import com.cloud.serializer.GsonHelper;
+import com.cloud.utils.exception.CloudRuntimeException;
+
+/**
+ * BinaryCommandCodec marshals the commands and answers carried by a
+ * {@link Request} when the link has negotiated {@link Request.Version#v4}.
+ *
+ * The format is schema driven: the first time a class appears in a payload
+ * its name and the names of its serializable fields are written once, after
+ * that every instance of the class is written as a sequence of tagged field
+ * values in schema order. Field names are resolved against the local class
+ * on the receiving side so that agents and management servers running
+ * different releases can still talk to each other, unknown fields are
+ * skipped and missing fields keep the value set by the constructor, which
+ * matches what Gson does for the v1 protocol.
+ *
+ * The same fields as with Gson are serialized: everything except static and
+ * transient fields. Types from the JDK that are not handled natively are
+ * delegated to Gson.
+ */
+public final class BinaryCommandCodec {
+    private static final Logger s_logger = Logger.getLogger(BinaryCommandCodec.class);
+
+    private static final Gson s_gson = GsonHelper.getGson();
+
+    private static final byte NULL = 0;
+    private static final byte FALSE = 1;
+    private static final byte TRUE = 2;
+    private static final byte BYTE = 3;
+    private static final byte SHORT = 4;
+    private static final byte INT = 5;
+    private static final byte LONG = 6;
+    private static final byte FLOAT = 7;
+    private static final byte DOUBLE = 8;
+    private static final byte CHAR = 9;
+    private static final byte STRING = 10;
+    private static final byte ENUM = 11;
+    private static final byte DATE = 12;
+    private static final byte BYTES = 13;
+    private static final byte PRIMITIVE_ARRAY = 14;
+    private static final byte ARRAY = 15;
+    private static final byte LIST = 16;
+    private static final byte SET = 17;
+    private static final byte MAP = 18;
+    private static final byte OBJECT = 19;
+    private static final byte JSON = 20;
+
+    private static final ConcurrentHashMap<Class<?>, ClassSchema> s_schemas = new ConcurrentHashMap<Class<?>, ClassSchema>();
+    private static final ConcurrentHashMap<String, Class<?>> s_classes = new ConcurrentHashMap<String, Class<?>>();
+    private static final Class<?> UNKNOWN_CLASS = Void.class;
+
+    private BinaryCommandCodec() {
+    }
+
+    public static byte[] encode(final Object value) {
+        final Encoder encoder = new Encoder();
+        try {
+            encoder.writeValue(value);
+        } catch (IllegalAccessException e) {
+            throw new CloudRuntimeException("Unable to encode " + value.getClass().getName(), e);
+        }
+        return encoder.toByteArray();
+    }
+
+    public static Object decode(final byte[] bytes, final int offset, final int length) {
+        final Decoder decoder = new Decoder(bytes, offset, length);
+        try {
+            return decoder.readValue(decoder.readByte(), null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            throw new CloudRuntimeException("Unable to decode binary payload", e);
+        }
+    }
+
+    public static Object decode(final byte[] bytes) {
+        return decode(bytes, 0, bytes.length);
+    }
+
+    protected static ClassSchema getSchema(final Class<?> clazz) {
+        ClassSchema schema = s_schemas.get(clazz);
+        if (schema == null) {
+            schema = new ClassSchema(clazz);
+            final ClassSchema existing = s_schemas.putIfAbsent(clazz, schema);
+            if (existing != null) {
+                schema = existing;
+            }
+        }
+        return schema;
+    }
+
+    protected static Class<?> findClass(final String name) {
+        Class<?> clazz = s_classes.get(name);
+        if (clazz == null) {
+            try {
+                clazz = Class.forName(name, false, BinaryCommandCodec.class.getClassLoader());
+            } catch (ClassNotFoundException e) {
+                try {
+                    clazz = Class.forName(name, false, Thread.currentThread().getContextClassLoader());
+                } catch (ClassNotFoundException e1) {
+                    s_logger.warn("Unable to find class " + name + ", its content will be skipped");
+                    clazz = UNKNOWN_CLASS;
+                }
+            }
+            s_classes.put(name, clazz);
+        }
+        return clazz == UNKNOWN_CLASS ? null : clazz;
+    }
+
+    protected static boolean isDelegatedToGson(final Class<?> clazz) {
+        final String name = clazz.getName();
+        return name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("sun.");
+    }
+
+    /**
+     * Serializable fields of a class, in a stable order: super class fields
+     * first, then the fields of each class sorted by name.
+     */
+    protected static final class ClassSchema {
+        final Class<?> clazz;
+        final FieldInfo[] fields;
+        final Map<String, FieldInfo> byName;
+        final Constructor<?> constructor;
+
+        ClassSchema(final Class<?> clazz) {
+            this.clazz = clazz;
+            final List<Class<?>> hierarchy = new ArrayList<Class<?>>();
+            for (Class<?> c = clazz; c != null && c != Object.class; c = c.getSuperclass()) {
+                hierarchy.add(0, c);
+            }
+            final List<FieldInfo> fields = new ArrayList<FieldInfo>();
+            byName = new HashMap<String, FieldInfo>();
+            for (final Class<?> c : hierarchy) {
+                final Field[] declared = c.getDeclaredFields();
+                Arrays.sort(declared, new Comparator<Field>() {
+                    @Override
+                    public int compare(final Field f1, final Field f2) {
+                        return f1.getName().compareTo(f2.getName());
+                    }
+                });
+                for (final Field field : declared) {
+                    final int modifiers = field.getModifiers();
+                    if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()) {
+                        continue;
+                    }
+                    field.setAccessible(true);
+                    final FieldInfo info = new FieldInfo(field);
+                    fields.add(info);
+                    // a field hidden by a sub class is still written, but it is resolved by its closest declaration
+                    byName.put(info.name, info);
+                }
+            }
+            this.fields = fields.toArray(new FieldInfo[fields.size()]);
+
+            Constructor<?> ctor = null;
+            try {
+                ctor = clazz.getDeclaredConstructor();
+                ctor.setAccessible(true);
+            } catch (NoSuchMethodException | RuntimeException e) {
+                ctor = null;
+            }
+            constructor = ctor;
+        }
+
+        Object newInstance() throws ReflectiveOperationException {
+            if (constructor != null) {
+                return constructor.newInstance();
+            }
+            return UnsafeHolder.allocateInstance(clazz);
+        }
+    }
+
+    protected static final class FieldInfo {
+        final Field field;
+        final String name;
+        final Class<?> type;
+
+        FieldInfo(final Field field) {
+            this.field = field;
+            name = field.getName();
+            type = field.getType();
+        }
+    }
+
+    /**
+     * Classes without a no-arg constructor are allocated the same way Gson
+     * does it, without running any constructor.
+     */
+    private static final class UnsafeHolder {
+        private static final Object s_unsafe;
+        private static final java.lang.reflect.Method s_allocateInstance;
+
+        static {
+            Object unsafe = null;
+            java.lang.reflect.Method allocate = null;
+            try {
+                final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                final Field f = unsafeClass.getDeclaredField("theUnsafe");
+                f.setAccessible(true);
+                unsafe = f.get(null);
+                allocate = unsafeClass.getMethod("allocateInstance", Class.class);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                s_logger.warn("Unable to access sun.misc.Unsafe, classes without default constructor can not be decoded", e);
+            }
+            s_unsafe = unsafe;
+            s_allocateInstance = allocate;
+        }
+
+        static Object allocateInstance(final Class<?> clazz) throws ReflectiveOperationException {
+            if (s_allocateInstance == null) {
+                throw new InstantiationException("No default constructor for " + clazz.getName());
+            }
+            return s_allocateInstance.invoke(s_unsafe, clazz);
+        }
+    }
+
+    private static final class Encoder {
+        private byte[] _buf = new byte[512];
+        private int _pos = 0;
+        private final Map<Class<?>, Integer> _classIndex = new HashMap<Class<?>, Integer>();
+        private final List<Boolean> _schemaSent = new ArrayList<Boolean>();
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(_buf, _pos);
+        }
+
+        private void ensure(final int size) {
+            if (_pos + size > _buf.length) {
+                _buf = Arrays.copyOf(_buf, Math.max(_buf.length << 1, _pos + size));
+            }
+        }
+
+        void writeByte(final int b) {
+            ensure(1);
+            _buf[_pos++] = (byte)b;
+        }
+
+        void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                _buf[_pos++] = (byte)((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            _buf[_pos++] = (byte)value;
+        }
+
+        void writeVarInt(final int value) {
+            writeVarLong(value & 0xFFFFFFFFL);
+        }
+
+        void writeZigZag(final long value) {
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        void writeFixed(long value, final int bytes) {
+            ensure(bytes);
+            for (int i = 0; i < bytes; i++) {
+                _buf[_pos++] = (byte)value;
+                value >>>= 8;
+            }
+        }
+
+        void writeString(final String value) {
+            final int length = value.length();
+            boolean ascii = true;
+            for (int i = 0; i < length; i++) {
+                if (value.charAt(i) >= 0x80) {
+                    ascii = false;
+                    break;
+                }
+            }
+            if (ascii) {
+                writeVarInt(length);
+                ensure(length);
+                for (int i = 0; i < length; i++) {
+                    _buf[_pos++] = (byte)value.charAt(i);
+                }
+            } else {
+                writeRaw(value.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        void writeRaw(final byte[] bytes) {
+            writeVarInt(bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, _buf, _pos, bytes.length);
+            _pos += bytes.length;
+        }
+
+        /**
+         * @return true if the schema for the class still has to be written.
+         */
+        boolean writeClassRef(final Class<?> clazz, final boolean withSchema) {
+            Integer index = _classIndex.get(clazz);
+            if (index == null) {
+                index = _classIndex.size();
+                _classIndex.put(clazz, index);
+                _schemaSent.add(Boolean.FALSE);
+                writeVarInt(index);
+                writeString(clazz.getName());
+            } else {
+                writeVarInt(index);
+            }
+            if (withSchema && !_schemaSent.get(index)) {
+                _schemaSent.set(index, Boolean.TRUE);
+                return true;
+            }
+            return false;
+        }
+
+        void writeValue(final Object value) throws IllegalAccessException {
+            if (value == null) {
+                writeByte(NULL);
+                return;
+            }
+            final Class<?> clazz = value.getClass();
+            if (clazz == String.class) {
+                writeByte(STRING);
+                writeString((String)value);
+            } else if (clazz == Integer.class) {
+                writeByte(INT);
+                writeZigZag((Integer)value);
+            } else if (clazz == Long.class) {
+                writeByte(LONG);
+                writeZigZag((Long)value);
+            } else if (clazz == Boolean.class) {
+                writeByte((Boolean)value ? TRUE : FALSE);
+            } else if (clazz == Double.class) {
+                writeByte(DOUBLE);
+                writeFixed(Double.doubleToRawLongBits((Double)value), 8);
+            } else if (clazz == Float.class) {
+                writeByte(FLOAT);
+                writeFixed(Float.floatToRawIntBits((Float)value), 4);
+            } else if (clazz == Short.class) {
+                writeByte(SHORT);
+                writeZigZag((Short)value);
+            } else if (clazz == Byte.class) {
+                writeByte(BYTE);
+                writeByte((Byte)value);
+            } else if (clazz == Character.class) {
+                writeByte(CHAR);
+                writeVarInt((Character)value);
+            } else if (value instanceof Enum) {
+                writeByte(ENUM);
+                writeClassRef(((Enum<?>)value).getDeclaringClass(), false);
+                writeString(((Enum<?>)value).name());
+            } else if (value instanceof Date) {
+                writeByte(DATE);
+                writeZigZag(((Date)value).getTime());
+            } else if (clazz == byte[].class) {
+                writeByte(BYTES);
+                writeRaw((byte[])value);
+            } else if (clazz.isArray()) {
+                writeArray(value, clazz);
+            } else if (value instanceof Collection) {
+                final Collection<?> collection = (Collection<?>)value;
+                writeByte(value instanceof Set ? SET : LIST);
+                writeVarInt(collection.size());
+                for (final Object element : collection) {
+                    writeValue(element);
+                }
+            } else if (value instanceof Map) {
+                final Map<?, ?> map = (Map<?, ?>)value;
+                writeByte(MAP);
+                writeVarInt(map.size());
+                for (final Map.Entry<?, ?> entry : map.entrySet()) {
+                    writeValue(entry.getKey());
+                    writeValue(entry.getValue());
+                }
+            } else if (isDelegatedToGson(clazz)) {
+                writeByte(JSON);
+                writeClassRef(clazz, false);
+                writeString(s_gson.toJson(value, clazz));
+            } else {
+                writeObject(value, clazz);
+            }
+        }
+
+        private void writeArray(final Object value, final Class<?> clazz) throws IllegalAccessException {
+            final Class<?> component = clazz.getComponentType();
+            final int length = Array.getLength(value);
+            if (component.isPrimitive()) {
+                writeByte(PRIMITIVE_ARRAY);
+                if (component == int.class) {
+                    writeByte(INT);
+                    writeVarInt(length);
+                    for (final int i : (int[])value) {
+                        writeZigZag(i);
+                    }
+                } else if (component == long.class) {
+                    writeByte(LONG);
+                    writeVarInt(length);
+                    for (final long l : (long[])value) {
+                        writeZigZag(l);
+                    }
+                } else if (component == double.class) {
+                    writeByte(DOUBLE);
+                    writeVarInt(length);
+                    for (final double d : (double[])value) {
+                        writeFixed(Double.doubleToRawLongBits(d), 8);
+                    }
+                } else if (component == float.class) {
+                    writeByte(FLOAT);
+                    writeVarInt(length);
+                    for (final float f : (float[])value) {
+                        writeFixed(Float.floatToRawIntBits(f), 4);
+                    }
+                } else if (component == short.class) {
+                    writeByte(SHORT);
+                    writeVarInt(length);
+                    for (final short s : (short[])value) {
+                        writeZigZag(s);
+                    }
+                } else if (component == char.class) {
+                    writeByte(CHAR);
+                    writeVarInt(length);
+                    for (final char c : (char[])value) {
+                        writeVarInt(c);
+                    }
+                } else {
+                    writeByte(TRUE);
+                    writeVarInt(length);
+                    for (final boolean b : (boolean[])value) {
+                        writeByte(b ? TRUE : FALSE);
+                    }
+                }
+                return;
+            }
+            writeByte(ARRAY);
+            writeClassRef(component, false);
+            writeVarInt(length);
+            final Object[] array = (Object[])value;
+            for (final Object element : array) {
+                writeValue(element);
+            }
+        }
+
+        private void writeObject(final Object value, final Class<?> clazz) throws IllegalAccessException {
+            final ClassSchema schema = getSchema(clazz);
+            writeByte(OBJECT);
+            if (writeClassRef(clazz, true)) {
+                writeVarInt(schema.fields.length);
+                for (final FieldInfo field : schema.fields) {
+                    writeString(field.name);
+                }
+            }
+            for (final FieldInfo info : schema.fields) {
+                final Field field = info.field;
+                final Class<?> type = info.type;
+                if (!type.isPrimitive()) {
+                    writeValue(field.get(value));
+                } else if (type == int.class) {
+                    writeByte(INT);
+                    writeZigZag(field.getInt(value));
+                } else if (type == long.class) {
+                    writeByte(LONG);
+                    writeZigZag(field.getLong(value));
+                } else if (type == boolean.class) {
+                    writeByte(field.getBoolean(value) ? TRUE : FALSE);
+                } else if (type == double.class) {
+                    writeByte(DOUBLE);
+                    writeFixed(Double.doubleToRawLongBits(field.getDouble(value)), 8);
+                } else if (type == float.class) {
+                    writeByte(FLOAT);
+                    writeFixed(Float.floatToRawIntBits(field.getFloat(value)), 4);
+                } else if (type == short.class) {
+                    writeByte(SHORT);
+                    writeZigZag(field.getShort(value));
+                } else if (type == byte.class) {
+                    writeByte(BYTE);
+                    writeByte(field.getByte(value));
+                } else {
+                    writeByte(CHAR);
+                    writeVarInt(field.getChar(value));
+                }
+            }
+        }
+    }
+
+    private static final class Decoder {
+        private final byte[] _buf;
+        private int _pos;
+        private final int _end;
+        private final List<Class<?>> _classes = new ArrayList<Class<?>>();
+        private final List<FieldInfo[]> _schemas = new ArrayList<FieldInfo[]>();
+
+        Decoder(final byte[] buf, final int offset, final int length) {
+            _buf = buf;
+            _pos = offset;
+            _end = offset + length;
+        }
+
+        byte readByte() {
+            if (_pos >= _end) {
+                throw new CloudRuntimeException("Unexpected end of binary payload");
+            }
+            return _buf[_pos++];
+        }
+
+        long readVarLong() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                final byte b = readByte();
+                value |= (long)(b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new CloudRuntimeException("Malformed variable length number in binary payload");
+        }
+
+        int readVarInt() {
+            return (int)readVarLong();
+        }
+
+        long readZigZag() {
+            final long value = readVarLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        long readFixed(final int bytes) {
+            if (_pos + bytes > _end) {
+                throw new CloudRuntimeException("Unexpected end of binary payload");
+            }
+            long value = 0;
+            for (int i = 0; i < bytes; i++) {
+                value |= (long)(_buf[_pos++] & 0xFF) << (i * 8);
+            }
+            return value;
+        }
+
+        String readString() {
+            final int length = readVarInt();
+            if (length < 0 || _pos + length > _end) {
+                throw new CloudRuntimeException("Invalid string length in binary payload: " + length);
+            }
+            final String value = new String(_buf, _pos, length, StandardCharsets.UTF_8);
+            _pos += length;
+            return value;
+        }
+
+        byte[] readRaw() {
+            final int length = readVarInt();
+            if (length < 0 || _pos + length > _end) {
+                throw new CloudRuntimeException("Invalid byte array length in binary payload: " + length);
+            }
+            final byte[] value = Arrays.copyOfRange(_buf, _pos, _pos + length);
+            _pos += length;
+            return value;
+        }
+
+        /**
+         * @return the index of the class in the class table, the class itself may be null if it does not exist here.
+         */
+        int readClassRef() {
+            final int index = readVarInt();
+            if (index == _classes.size()) {
+                _classes.add(findClass(readString()));
+                _schemas.add(null);
+            } else if (index > _classes.size() || index < 0) {
+                throw new CloudRuntimeException("Invalid class reference in binary payload: " + index);
+            }
+            return index;
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Object readValue(final byte tag, final Class<?> declared) throws ReflectiveOperationException {
+            switch (tag) {
+            case NULL:
+                return null;
+            case FALSE:
+                return Boolean.FALSE;
+            case TRUE:
+                return Boolean.TRUE;
+            case BYTE:
+                return readByte();
+            case SHORT:
+                return (short)readZigZag();
+            case INT:
+                return (int)readZigZag();
+            case LONG:
+                return readZigZag();
+            case FLOAT:
+                return Float.intBitsToFloat((int)readFixed(4));
+            case DOUBLE:
+                return Double.longBitsToDouble(readFixed(8));
+            case CHAR:
+                return (char)readVarInt();
+            case STRING:
+                return readString();
+            case ENUM: {
+                final Class<?> clazz = _classes.get(readClassRef());
+                final String name = readString();
+                if (clazz == null || !clazz.isEnum()) {
+                    return null;
+                }
+                try {
+                    return Enum.valueOf((Class<? extends Enum>)clazz, name);
+                } catch (IllegalArgumentException e) {
+                    s_logger.debug("Unknown constant " + name + " for " + clazz.getName());
+                    return null;
+                }
+            }
+            case DATE:
+                return new Date(readZigZag());
+            case BYTES:
+                return readRaw();
+            case PRIMITIVE_ARRAY:
+                return readPrimitiveArray();
+            case ARRAY: {
+                final Class<?> component = _classes.get(readClassRef());
+                final int length = readVarInt();
+                final Object[] array = (Object[])Array.newInstance(component != null ? component : Object.class, length);
+                for (int i = 0; i < length; i++) {
+                    final Object element = readValue(readByte(), component);
+                    if (element == null || array.getClass().getComponentType().isInstance(element)) {
+                        array[i] = element;
+                    }
+                }
+                return array;
+            }
+            case LIST:
+            case SET: {
+                final int length = readVarInt();
+                final Collection collection = newCollection(declared, tag == SET, length);
+                for (int i = 0; i < length; i++) {
+                    collection.add(readValue(readByte(), null));
+                }
+                return collection;
+            }
+            case MAP: {
+                final int length = readVarInt();
+                final Map map = newMap(declared, length);
+                for (int i = 0; i < length; i++) {
+                    final Object key = readValue(readByte(), null);
+                    final Object value = readValue(readByte(), null);
+                    if (key != null && value != null || !(map instanceof ConcurrentMap)) {
+                        map.put(key, value);
+                    }
+                }
+                return map;
+            }
+            case OBJECT:
+                return readObject();
+            case JSON: {
+                final Class<?> clazz = _classes.get(readClassRef());
+                final String json = readString();
+                return clazz == null ? null : s_gson.fromJson(json, clazz);
+            }
+            default:
+                throw new CloudRuntimeException("Unknown tag in binary payload: " + tag);
+            }
+        }
+
+        private Object readPrimitiveArray() {
+            final byte kind = readByte();
+            final int length = readVarInt();
+            switch (kind) {
+            case INT: {
+                final int[] array = new int[length];
+                for (int i = 0; i < length; i++) {
+                    array[i] = (int)readZigZag();
+                }
+                return array;
+            }
+            case LONG: {
+                final long[] array = new long[length];
+                for (int i = 0; i < length; i++) {
+                    array[i] = readZigZag();
+                }
+                return array;
+            }
+            case DOUBLE: {
+                final double[] array = new double[length];
+                for (int i = 0; i < length; i++) {
+                    array[i] = Double.longBitsToDouble(readFixed(8));
+                }
+                return array;
+            }
+            case FLOAT: {
+                final float[] array = new float[length];
+                for (int i = 0; i < length; i++) {
+                    array[i] = Float.intBitsToFloat((int)readFixed(4));
+                }
+                return array;
+            }
+            case SHORT: {
+                final short[] array = new short[length];
+                for (int i = 0; i < length; i++) {
+                    array[i] = (short)readZigZag();
+                }
+                return array;
+            }
+            case CHAR: {
+                final char[] array = new char[length];
+                for (int i = 0; i < length; i++) {
+                    array[i] = (char)readVarInt();
+                }
+                return array;
+            }
+            case TRUE: {
+                final boolean[] array = new boolean[length];
+                for (int i = 0; i < length; i++) {
+                    array[i] = readByte() == TRUE;
+                }
+                return array;
+            }
+            default:
+                throw new CloudRuntimeException("Unknown primitive array kind in binary payload: " + kind);
+            }
+        }
+
+        private Object readObject() throws ReflectiveOperationException {
+            final int index = readClassRef();
+            final Class<?> clazz = _classes.get(index);
+            FieldInfo[] fields = _schemas.get(index);
+            if (fields == null) {
+                final ClassSchema local = clazz != null ? getSchema(clazz) : null;
+                final int count = readVarInt();
+                fields = new FieldInfo[count];
+                for (int i = 0; i < count; i++) {
+                    final String name = readString();
+                    if (local != null) {
+                        fields[i] = i < local.fields.length && local.fields[i].name.equals(name) ? local.fields[i] : local.byName.get(name);
+                    }
+                }
+                _schemas.set(index, fields);
+            }
+
+            final Object target = clazz != null ? getSchema(clazz).newInstance() : null;
+            for (final FieldInfo info : fields) {
+                final byte tag = readByte();
+                if (info == null || target == null) {
+                    readValue(tag, null);
+                    continue;
+                }
+                final Class<?> type = info.type;
+                if (type.isPrimitive()) {
+                    readPrimitive(tag, info, target);
+                    continue;
+                }
+                final Object value = readValue(tag, type);
+                // as with Gson, a null value leaves the default of the field untouched
+                if (value == null) {
+                    continue;
+                }
+                final Object converted = coerce(value, type);
+                if (converted != null) {
+                    info.field.set(target, converted);
+                } else if (s_logger.isDebugEnabled()) {
+                    s_logger.debug("Skipping field " + info.name + " of " + clazz.getName() + ", " + value.getClass().getName() + " is not compatible with " + type.getName());
+                }
+            }
+            return target;
+        }
+
+        private void readPrimitive(final byte tag, final FieldInfo info, final Object target) throws ReflectiveOperationException {
+            final Field field = info.field;
+            final Class<?> type = info.type;
+            if (type == int.class && tag == INT) {
+                field.setInt(target, (int)readZigZag());
+            } else if (type == long.class && tag == LONG) {
+                field.setLong(target, readZigZag());
+            } else if (type == boolean.class && (tag == TRUE || tag == FALSE)) {
+                field.setBoolean(target, tag == TRUE);
+            } else if (type == double.class && tag == DOUBLE) {
+                field.setDouble(target, Double.longBitsToDouble(readFixed(8)));
+            } else {
+                final Object value = readValue(tag, type);
+                if (value == null) {
+                    return;
+                }
+                final Object converted = coerce(value, type);
+                if (converted != null) {
+                    field.set(target, converted);
+                }
+            }
+        }
+    }
+
+    /**
+     * Converts a decoded value to the declared type of the field, which may
+     * differ when the sending side runs a different release.
+     *
+     * @return the value to set or null if it is not compatible.
+     */
+    private static Object coerce(final Object value, final Class<?> type) {
+        final Class<?> boxed = box(type);
+        if (boxed.isInstance(value)) {
+            return value;
+        }
+        if (value instanceof Number) {
+            final Number number = (Number)value;
+            if (boxed == Long.class) {
+                return number.longValue();
+            } else if (boxed == Integer.class) {
+                return number.intValue();
+            } else if (boxed == Double.class) {
+                return number.doubleValue();
+            } else if (boxed == Float.class) {
+                return number.floatValue();
+            } else if (boxed == Short.class) {
+                return number.shortValue();
+            } else if (boxed == Byte.class) {
+                return number.byteValue();
+            }
+        }
+        return null;
+    }
+
+    private static Class<?> box(final Class<?> type) {
+        if (!type.isPrimitive()) {
+            return type;
+        } else if (type == int.class) {
+            return Integer.class;
+        } else if (type == long.class) {
+            return Long.class;
+        } else if (type == boolean.class) {
+            return Boolean.class;
+        } else if (type == double.class) {
+            return Double.class;
+        } else if (type == float.class) {
+            return Float.class;
+        } else if (type == short.class) {
+            return Short.class;
+        } else if (type == byte.class) {
+            return Byte.class;
+        }
+        return Character.class;
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static Collection newCollection(final Class<?> declared, final boolean set, final int size) throws ReflectiveOperationException {
+        if (declared != null && Collection.class.isAssignableFrom(declared)) {
+            if (!declared.isInterface() && !Modifier.isAbstract(declared.getModifiers())) {
+                try {
+                    return (Collection)declared.getConstructor().newInstance();
+                } catch (NoSuchMethodException e) {
+                    s_logger.trace("No default constructor for " + declared.getName());
+                }
+            }
+            if (SortedSet.class.isAssignableFrom(declared)) {
+                return new TreeSet();
+            } else if (Set.class.isAssignableFrom(declared)) {
+                return new LinkedHashSet(size);
+            } else if (Queue.class.isAssignableFrom(declared)) {
+                return new ArrayDeque(size);
+            } else if (List.class.isAssignableFrom(declared)) {
+                return new ArrayList(size);
+            }
+        }
+        return set ? new LinkedHashSet(size) : new ArrayList(size);
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static Map newMap(final Class<?> declared, final int size) throws ReflectiveOperationException {
+        if (declared != null && Map.class.isAssignableFrom(declared)) {
+            if (!declared.isInterface() && !Modifier.isAbstract(declared.getModifiers())) {
+                try {
+                    return (Map)declared.getConstructor().newInstance();
+                } catch (NoSuchMethodException e) {
+                    s_logger.trace("No default constructor for " + declared.getName());
+                }
+            }
+            if (SortedMap.class.isAssignableFrom(declared)) {
+                return new TreeMap();
+            } else if (ConcurrentMap.class.isAssignableFrom(declared)) {
+                return new ConcurrentHashMap(size);
+            }
+        }
+        return new LinkedHashMap(size);
+    }
+}
@@ -26,6 +26,7 @@ import java.io.StringReader;
 import java.lang.reflect.Type;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
@@ -85,7 +86,8 @@ public class Request {
     public enum Version {
         v1, // using gson to marshall
         v2, // now using gson as marshalled.
-        v3; // Adding routing information into the Request data structure.
+        v3, // Adding routing information into the Request data structure.
+        v4; // Using BinaryCommandCodec instead of gson, negotiated per link.
 
         public static Version get(final byte ver) throws UnsupportedVersionException {
             for (final Version version : Version.values()) {
@@ -114,6 +116,7 @@ public class Request {
     protected long _agentId;
     protected Command[] _cmds;
     protected String _content;
+    protected byte[] _payload;
     protected String _agentName;
 
     protected Request() {
@@ -139,6 +142,11 @@ public class Request {
         _content = content;
     }
 
+    protected Request(Version ver, long seq, long agentId, long mgmtId, long via, short flags, final byte[] payload) {
+        this(ver, seq, agentId, mgmtId, via, flags, (Command[])null);
+        _payload = payload;
+    }
+
     public Request(long agentId, long mgmtId, Command command, boolean fromServer) {
         this(agentId, mgmtId, new Command[] {command}, true, fromServer);
     }
@@ -219,6 +227,14 @@ public class Request {
         return _ver;
     }
 
+    /**
+     * Sets the wire protocol version used by toBytes(). Only the versions
+     * negotiated with the peer on the link should be set here.
+     */
+    public void setVersion(Version ver) {
+        _ver = ver;
+    }
+
     public void setAgentId(long agentId) {
         _agentId = agentId;
     }
@@ -246,6 +262,15 @@ public class Request {
 
     public Command[] getCommands() {
         if (_cmds == null) {
+            if (_payload != null) {
+                try {
+                    _cmds = (Command[])BinaryCommandCodec.decode(_payload);
+                } catch (RuntimeException e) {
+                    s_logger.warn("Unable to decode binary commands of " + _payload.length + " bytes", e);
+                    _cmds = new Command[] { new BadCommand() };
+                }
+                return _cmds;
+            }
             try {
                 StringReader reader = new StringReader(_content);
                 JsonReader jsonReader = new JsonReader(reader);
@@ -261,6 +286,17 @@ public class Request {
         return _cmds;
     }
 
+    /**
+     * Deserializes the content received from the wire, either the gson
+     * content or the binary payload of a v4 request.
+     */
+    protected Command[] deserialize(Class<? extends Command[]> clazz) {
+        if (_payload != null) {
+            return clazz.cast(BinaryCommandCodec.decode(_payload));
+        }
+        return s_gson.fromJson(_content, clazz);
+    }
+
     protected String getType() {
         return "Cmd ";
     }
@@ -330,10 +366,20 @@ public class Request {
         final ByteBuffer[] buffers = new ByteBuffer[2];
         ByteBuffer tmp;
 
-        if (_content == null) {
-            _content = s_gson.toJson(_cmds, _cmds.getClass());
+        if (_ver == Version.v4) {
+            if (_payload == null) {
+                // parsed requests only carry their content until the commands are needed
+                final Command[] cmds = this instanceof Response ? ((Response)this).getAnswers() : getCommands();
+                _payload = BinaryCommandCodec.encode(cmds);
+            }
+            tmp = ByteBuffer.wrap(_payload);
+        } else {
+            if (_content == null) {
+                final Command[] cmds = this instanceof Response ? ((Response)this).getAnswers() : getCommands();
+                _content = s_gson.toJson(cmds, cmds.getClass());
+            }
+            tmp = ByteBuffer.wrap(_content.getBytes());
         }
-        tmp = ByteBuffer.wrap(_content.getBytes());
         int capacity = tmp.capacity();
         /* Check if we need to compress the data */
         if (capacity >= 8192) {
@@ -401,9 +447,9 @@ public class Request {
         if (logContent) {
             if (_cmds == null) {
                 try {
-                    _cmds = s_gson.fromJson(_content, this instanceof Response ? Answer[].class : Command[].class);
+                    _cmds = deserialize(this instanceof Response ? Answer[].class : Command[].class);
                 } catch (RuntimeException e) {
-                    s_logger.error("Unable to deserialize from json: " + _content);
+                    s_logger.error("Unable to deserialize from " + (_payload != null ? "binary payload" : "json: " + _content));
                     throw e;
                 }
             }
@@ -424,7 +470,7 @@ public class Request {
             }
         } else {
             if (_cmds == null) {
-                _cmds = s_gson.fromJson(_content, this instanceof Response ? Answer[].class : Command[].class);
+                _cmds = deserialize(this instanceof Response ? Answer[].class : Command[].class);
             }
             content.append("{ ");
             for (Command cmd : _cmds) {
@@ -491,7 +537,7 @@ public class Request {
         ByteBuffer buff = ByteBuffer.wrap(bytes);
         final byte ver = buff.get();
         final Version version = Version.get(ver);
-        if (version.ordinal() != Version.v1.ordinal() && version.ordinal() != Version.v3.ordinal()) {
+        if (version.ordinal() != Version.v1.ordinal() && version.ordinal() != Version.v3.ordinal() && version.ordinal() != Version.v4.ordinal()) {
             throw new UnsupportedVersionException("This version is no longer supported: " + version.toString(), UnsupportedVersionException.IncompatibleVersion);
         }
         buff.get();
@@ -505,7 +551,7 @@ public class Request {
         final long agentId = buff.getLong();
 
         long via;
-        if (version.ordinal() == Version.v1.ordinal()) {
+        if (version.ordinal() == Version.v1.ordinal() || version.ordinal() == Version.v4.ordinal()) {
             via = buff.getLong();
         } else {
             via = agentId;
@@ -526,6 +572,15 @@ public class Request {
             offset = 0;
         }
 
+        if (version == Version.v4) {
+            final byte[] payload = offset == 0 ? command : Arrays.copyOfRange(command, offset, command.length);
+            if (isRequest) {
+                return new Request(version, seq, agentId, mgmtId, via, flags, payload);
+            } else {
+                return new Response(version, seq, agentId, mgmtId, via, flags, payload);
+            }
+        }
+
         final String content = new String(command, offset, command.length - offset);
 
         if (isRequest) {
@@ -26,6 +26,10 @@ public class ConsoleProxyConnectionInfo {
     public String tag;
     public long createTime;
     public long lastUsedTime;
+    public long bytesToViewer;
+    public long framesToViewer;
+    public long bytesFromViewer;
+    public long backpressureStalls;
 
     public ConsoleProxyConnectionInfo() {
     }
@@ -0,0 +1,70 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.agent.transport;
+
+import com.cloud.agent.api.Answer;
+import com.cloud.agent.api.Command;
+import com.cloud.agent.transport.Request.Version;
+
+/**
+ * Compares the v1 (gson) and v4 (binary) wire protocols on a ping of
+ * BinaryCommandCodecTest.VMS VMs and its stats answer. It is not a unit test,
+ * run it by hand with the test classpath of this module.
+ */
+public class BinaryCommandCodecBenchmark {
+    private static final int ITERATIONS = 100;
+
+    public static void main(final String[] args) throws Exception {
+        System.out.println("Benchmarking v1 (gson) against v4 (binary) wire protocol with " + BinaryCommandCodecTest.VMS + " VMs per message");
+        final Command[] cmds = new Command[] {BinaryCommandCodecTest.createPing()};
+        final Answer[] answers = new Answer[] {BinaryCommandCodecTest.createStatsAnswer()};
+
+        final long[] v1 = benchmark(Version.v1, cmds, answers);
+        final long[] v4 = benchmark(Version.v4, cmds, answers);
+
+        System.out.println("v1: " + v1[0] + " bytes on wire, " + ITERATIONS * 1000000000L / v1[1] + " messages/s encode+decode");
+        System.out.println("v4: " + v4[0] + " bytes on wire, " + ITERATIONS * 1000000000L / v4[1] + " messages/s encode+decode");
+    }
+
+    /**
+     * @return the bytes on the wire of one ping request and one stats response and the time it took to encode and decode them ITERATIONS times.
+     */
+    private static long[] benchmark(final Version version, final Command[] cmds, final Answer[] answers) throws Exception {
+        long size = 0;
+        long start = 0;
+        // the first half warms up the JIT
+        for (int i = 0; i < ITERATIONS * 2; i++) {
+            if (i == ITERATIONS) {
+                start = System.nanoTime();
+            }
+            final Request request = new Request(1, 2, cmds, true, false);
+            request.setVersion(version);
+            final byte[] requestBytes = request.getBytes();
+            final Request parsed = Request.parse(requestBytes);
+            parsed.getCommands();
+
+            final Response response = new Response(parsed, answers);
+            final byte[] responseBytes = response.getBytes();
+            Response.parse(responseBytes).getAnswers();
+            size = requestBytes.length + responseBytes.length;
+        }
+        return new long[] {size, System.nanoTime() - start};
+    }
+}
@@ -0,0 +1,107 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.agent.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.cloud.agent.api.Answer;
+import com.cloud.agent.api.Command;
+import com.cloud.agent.api.GetVmStatsAnswer;
+import com.cloud.agent.api.GetVmStatsCommand;
+import com.cloud.agent.api.HostVmStateReportEntry;
+import com.cloud.agent.api.PingRoutingCommand;
+import com.cloud.agent.api.VmStatsEntry;
+import com.cloud.agent.transport.Request.Version;
+import com.cloud.host.Host;
+import com.cloud.vm.VirtualMachine.PowerState;
+
+public class BinaryCommandCodecTest {
+    static final int VMS = 150;
+
+    static PingRoutingCommand createPing() {
+        final Map<String, HostVmStateReportEntry> report = new HashMap<String, HostVmStateReportEntry>();
+        for (int i = 0; i < VMS; i++) {
+            report.put("i-2-" + i + "-VM", new HostVmStateReportEntry(i % 7 == 0 ? PowerState.PowerOff : PowerState.PowerOn, "kvm-host-01"));
+        }
+        final PingRoutingCommand ping = new PingRoutingCommand(Host.Type.Routing, 42L, report);
+        ping.setGatewayAccessible(false);
+        return ping;
+    }
+
+    static GetVmStatsAnswer createStatsAnswer() {
+        final List<String> names = new ArrayList<String>();
+        final HashMap<String, VmStatsEntry> stats = new HashMap<String, VmStatsEntry>();
+        for (int i = 0; i < VMS; i++) {
+            final String name = "i-2-" + i + "-VM";
+            names.add(name);
+            stats.put(name, new VmStatsEntry(1048576d + i, 524288d, 1048576d, 12.5d * (i % 8), 1024.25d * i, 2048.5d * i, 2, "vm"));
+        }
+        return new GetVmStatsAnswer(new GetVmStatsCommand(names, "guid", "kvm-host-01"), stats);
+    }
+
+    @Test
+    public void testPingRoundTrip() {
+        final PingRoutingCommand ping = createPing();
+        final Command[] decoded = (Command[])BinaryCommandCodec.decode(BinaryCommandCodec.encode(new Command[] {ping}));
+
+        assertEquals(1, decoded.length);
+        final PingRoutingCommand copy = (PingRoutingCommand)decoded[0];
+        assertEquals(42L, copy.getHostId());
+        assertEquals(Host.Type.Routing, copy.getHostType());
+        assertEquals(false, copy.isGatewayAccessible());
+        assertEquals(true, copy.isVnetAccessible());
+        assertEquals(VMS, copy.getHostVmStateReport().size());
+        assertEquals(PowerState.PowerOff, copy.getHostVmStateReport().get("i-2-0-VM").getState());
+        assertEquals("kvm-host-01", copy.getHostVmStateReport().get("i-2-1-VM").getHost());
+    }
+
+    @Test
+    public void testAnswerRoundTrip() {
+        final GetVmStatsAnswer answer = createStatsAnswer();
+        final Answer[] decoded = (Answer[])BinaryCommandCodec.decode(BinaryCommandCodec.encode(new Answer[] {answer}));
+
+        final GetVmStatsAnswer copy = (GetVmStatsAnswer)decoded[0];
+        assertTrue(copy.getResult());
+        assertEquals(HashMap.class, copy.getVmStatsMap().getClass());
+        final VmStatsEntry entry = copy.getVmStatsMap().get("i-2-3-VM");
+        assertEquals(1024.25d * 3, entry.getNetworkReadKBs(), 0);
+        assertEquals(2, entry.getNumCPUs());
+        assertEquals("vm", entry.getEntityType());
+    }
+
+    @Test
+    public void testBinaryPayloadIsSmallerThanGson() throws Exception {
+        final Command[] cmds = new Command[] {createPing()};
+
+        final Request v1 = new Request(1, 2, cmds, true, false);
+        final Request v4 = new Request(1, 2, cmds, true, false);
+        v4.setVersion(Version.v4);
+
+        assertTrue("Binary payload should be smaller than gson", v4.getBytes().length < v1.getBytes().length);
+    }
+}
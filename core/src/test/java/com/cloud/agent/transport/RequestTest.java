@@ -137,6 +137,63 @@ public class RequestTest extends TestCase {
         compareRequest(cresp, sresp);
     }
 
+    public void testSerDeserV4() throws Exception {
+        s_logger.info("Testing serializing and deserializing with the binary wire protocol");
+
+        SecStorageFirewallCfgCommand cmd1 = new SecStorageFirewallCfgCommand();
+        cmd1.addPortConfig("abc", "24", true, "eth0");
+        NfsTO nfs = new NfsTO("nfs://192.168.56.10/opt/storage/secondary", DataStoreRole.Image);
+        ListTemplateCommand cmd2 = new ListTemplateCommand(nfs);
+        Request sreq = new Request(2, 3, new Command[] {cmd1, cmd2}, true, true);
+        sreq.setSequence(892403719);
+        sreq.setVersion(Version.v4);
+
+        byte[] bytes = sreq.getBytes();
+        assertEquals(Version.v4, Request.getVersion(bytes));
+        assert Request.getSequence(bytes) == 892403719;
+        assert Request.getViaAgentId(bytes) == 2;
+
+        Request creq = Request.parse(bytes);
+        compareRequest(creq, sreq);
+        assertEquals("24", ((SecStorageFirewallCfgCommand)creq.getCommands()[0]).getPortConfigs().get(0).getPort());
+        assertEquals("nfs://192.168.56.10/opt/storage/secondary", ((NfsTO)((ListTemplateCommand)creq.getCommands()[1]).getDataStore()).getUrl());
+        assertNotNull(creq.toString());
+
+        Response cresp = new Response(creq, new Answer(cmd1, true, "No Problem"));
+        bytes = cresp.getBytes();
+        Response sresp = Response.parse(bytes);
+        assertEquals(Version.v4, sresp.getVersion());
+        assertEquals("No Problem", sresp.getAnswer().getDetails());
+        compareRequest(cresp, sresp);
+    }
+
+    public void testParsedRequestResentAsV4() throws Exception {
+        s_logger.info("Testing a request parsed from the gson wire format and forwarded with the binary wire protocol");
+
+        SecStorageFirewallCfgCommand cmd1 = new SecStorageFirewallCfgCommand();
+        cmd1.addPortConfig("abc", "24", true, "eth0");
+        Request sreq = new Request(2, 3, new Command[] {cmd1}, true, true);
+        sreq.setSequence(892403720);
+
+        // a peer management server forwards the bytes, the owner parses them and sends them to the agent
+        Request forwarded = Request.parse(sreq.getBytes());
+        forwarded.setVersion(Version.v4);
+        byte[] bytes = forwarded.getBytes();
+        assertEquals(Version.v4, Request.getVersion(bytes));
+
+        Request creq = Request.parse(bytes);
+        assertEquals(sreq.getSequence(), creq.getSequence());
+        assertEquals(sreq.getAgentId(), creq.getAgentId());
+        assertEquals("24", ((SecStorageFirewallCfgCommand)creq.getCommands()[0]).getPortConfigs().get(0).getPort());
+
+        // and the other way around, a binary request forwarded to an agent on the gson wire format
+        Request back = Request.parse(bytes);
+        back.setVersion(Version.v1);
+        creq = Request.parse(back.getBytes());
+        assertEquals(Version.v1, creq.getVersion());
+        assertEquals("24", ((SecStorageFirewallCfgCommand)creq.getCommands()[0]).getPortConfigs().get(0).getPort());
+    }
+
     public void testSerDeserTO() {
         s_logger.info("Testing serializing and deserializing interface TO works as expected");
 
@@ -34,6 +34,11 @@ public interface AlertManager extends Manager, AlertService {
     static final ConfigKey<Double> StorageAllocatedCapacityThreshold = new ConfigKey<Double>(Double.class, "cluster.storage.allocated.capacity.notificationthreshold",
         "Alert", "0.75", "Percentage (as a value between 0 and 1) of allocated storage utilization above which alerts will be sent about low storage available.", true,
         ConfigKey.Scope.Cluster, null);
+    static final ConfigKey<Integer> CapacityRecalculationWorkers = new ConfigKey<Integer>(Integer.class, "capacity.recalculate.workers", "Advanced", "4",
+        "Number of threads used to recalculate host and storage pool capacities, management server restart needed.", false, ConfigKey.Scope.Global, null);
+    static final ConfigKey<Integer> CapacityFullRecalculationInterval = new ConfigKey<Integer>(Integer.class, "capacity.full.recalculate.interval", "Advanced", "3600",
+        "Interval in seconds between two recalculations of the capacity of all hosts and storage pools by the capacity checker. In between, only the hosts and pools "
+        + "which had vm or volume state changes are recalculated.", true, ConfigKey.Scope.Global, null);
 
     void clearAlert(AlertType alertType, long dataCenterId, long podId);
 
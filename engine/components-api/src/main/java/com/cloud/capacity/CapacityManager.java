@@ -16,6 +16,8 @@
 // under the License.
 package com.cloud.capacity;
 
+import java.util.Set;
+
 import org.apache.cloudstack.framework.config.ConfigKey;
 import org.apache.cloudstack.storage.datastore.db.StoragePoolVO;
 
@@ -83,6 +85,16 @@ public interface CapacityManager {
                     true,
                     ConfigKey.Scope.ImageStore,
                     null);
+    static final ConfigKey<Integer> HostCapacityIndexTtl =
+            new ConfigKey<Integer>(
+                    Integer.class,
+                    "host.capacity.index.ttl",
+                    "Advanced",
+                    "30",
+                    "Seconds for which the in-memory host capacity used by the host allocators is trusted before it is reloaded from the database. 0 disables the index",
+                    true,
+                    ConfigKey.Scope.Global,
+                    null);
 
     public boolean releaseVmCapacity(VirtualMachine vm, boolean moveFromReserved, boolean moveToReservered, Long hostId);
 
@@ -136,4 +148,20 @@ public interface CapacityManager {
     long getUsedBytes(StoragePoolVO pool);
 
     long getUsedIops(StoragePoolVO pool);
+
+    /**
+     * Returns the hosts whose vm capacity may have changed through a vm state transition
+     * since the previous call, and forgets them.
+     */
+    Set<Long> pollDirtyHosts();
+
+    /**
+     * Returns the storage pools whose allocated capacity may have changed through a volume
+     * state transition since the previous call, and forgets them.
+     */
+    Set<Long> pollDirtyStoragePools();
+
+    int getDirtyHostCount();
+
+    int getDirtyStoragePoolCount();
 }
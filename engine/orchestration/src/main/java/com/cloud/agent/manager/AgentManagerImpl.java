@@ -75,6 +75,7 @@ import com.cloud.agent.api.StartupSecondaryStorageCommand;
 import com.cloud.agent.api.StartupStorageCommand;
 import com.cloud.agent.api.UnsupportedAnswer;
 import com.cloud.agent.transport.Request;
+import com.cloud.agent.transport.Request.Version;
 import com.cloud.agent.transport.Response;
 import com.cloud.alert.AlertManager;
 import com.cloud.configuration.ManagementServiceConfiguration;
@@ -202,6 +203,8 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
             "Percentage (as a value between 0 and 1) of direct.agent.pool.size to be used as upper thread cap for a single direct agent to process requests", false);
     protected final ConfigKey<Boolean> CheckTxnBeforeSending = new ConfigKey<Boolean>("Developer", Boolean.class, "check.txn.before.sending.agent.commands", "false",
             "This parameter allows developers to enable a check to see if a transaction wraps commands that are sent to the resource.  This is not to be enabled on production systems.", true);
+    protected final ConfigKey<Boolean> BinaryWireProtocol = new ConfigKey<Boolean>("Advanced", Boolean.class, "agent.binary.wire.protocol", "false",
+            "Use the binary wire protocol (v4) instead of gson with the agents that support it. Applies to agents connecting after the change.", true);
 
     @Override
     public boolean configure(final String name, final Map<String, Object> params) throws ConfigurationException {
@@ -1107,6 +1110,9 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
                 }
 
                 attache = createAttacheForConnect(host, link);
+                if (attache instanceof ConnectedAgentAttache) {
+                    ((ConnectedAgentAttache)attache).setWireVersion(negotiateWireVersion(startup[0]));
+                }
                 attache = notifyMonitorsOfConnection(attache, startup, false);
             }
         } catch (final Exception e) {
@@ -1172,6 +1178,17 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
         }
     }
 
+    /**
+     * Picks the wire protocol version for a connecting agent, agents that
+     * don't advertise the binary protocol keep using gson.
+     */
+    protected Version negotiateWireVersion(final StartupCommand startup) {
+        if (BinaryWireProtocol.value() && startup.getWireVersion() >= Version.v4.ordinal()) {
+            return Version.v4;
+        }
+        return Version.v1;
+    }
+
     protected class HandleAgentConnectTask extends ManagedContextRunnable {
         Link _link;
         Command[] _cmds;
@@ -1208,6 +1225,7 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
             if (cmd instanceof StartupRoutingCommand || cmd instanceof StartupProxyCommand || cmd instanceof StartupSecondaryStorageCommand ||
                     cmd instanceof StartupStorageCommand) {
                 answers[i] = new StartupAnswer((StartupCommand) cmds[i], 0, mgmtServiceConf.getPingInterval());
+                answers[i].setWireVersion(negotiateWireVersion((StartupCommand) cmds[i]).ordinal());
                 break;
             }
         }
@@ -1725,7 +1743,7 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
     @Override
     public ConfigKey<?>[] getConfigKeys() {
         return new ConfigKey<?>[] { CheckTxnBeforeSending, Workers, Port, Wait, AlertWait, DirectAgentLoadSize, DirectAgentPoolSize,
-            DirectAgentThreadCap };
+            DirectAgentThreadCap, BinaryWireProtocol };
     }
 
     protected class SetHostParamsListener implements Listener {
@@ -623,7 +623,7 @@ public class ClusteredAgentManagerImpl extends AgentManagerImpl implements Clust
 
                 final byte[] data = task.getData();
                 final Version ver = Request.getVersion(data);
-                if (ver.ordinal() != Version.v1.ordinal() && ver.ordinal() != Version.v3.ordinal()) {
+                if (ver.ordinal() != Version.v1.ordinal() && ver.ordinal() != Version.v3.ordinal() && ver.ordinal() != Version.v4.ordinal()) {
                     s_logger.warn("Wrong version for clustered agent request");
                     super.doTask(task);
                     return;
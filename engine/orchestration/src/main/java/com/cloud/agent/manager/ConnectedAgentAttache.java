@@ -32,15 +32,21 @@ public class ConnectedAgentAttache extends AgentAttache {
     private static final Logger s_logger = Logger.getLogger(ConnectedAgentAttache.class);
 
     protected Link _link;
+    protected Request.Version _wireVersion = Request.Version.v1;
 
     public ConnectedAgentAttache(final AgentManagerImpl agentMgr, final long id, final String name, final Link link, final boolean maintenance) {
         super(agentMgr, id, name, maintenance);
         _link = link;
     }
 
+    public void setWireVersion(final Request.Version wireVersion) {
+        _wireVersion = wireVersion;
+    }
+
     @Override
     public synchronized void send(final Request req) throws AgentUnavailableException {
         try {
+            req.setVersion(_wireVersion);
             _link.send(req.toBytes());
         } catch (ClosedChannelException e) {
             throw new AgentUnavailableException("Channel is closed", _id);
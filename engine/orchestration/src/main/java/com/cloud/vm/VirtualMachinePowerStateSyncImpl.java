@@ -21,7 +21,9 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 
 import org.apache.cloudstack.framework.messagebus.MessageBus;
@@ -32,6 +34,7 @@ import com.cloud.agent.api.HostVmStateReportEntry;
 import com.cloud.configuration.ManagementServiceConfiguration;
 import com.cloud.utils.DateUtil;
 import com.cloud.utils.exception.CloudRuntimeException;
+import com.cloud.utils.mgmt.JmxUtil;
 import com.cloud.vm.dao.VMInstanceDao;
 
 public class VirtualMachinePowerStateSyncImpl implements VirtualMachinePowerStateSync {
@@ -41,9 +44,71 @@ public class VirtualMachinePowerStateSyncImpl implements VirtualMachinePowerStat
     @Inject VMInstanceDao _instanceDao;
     @Inject ManagementServiceConfiguration mgmtServiceConf;
 
+    private final Map<Long, HostSyncStats> _hostSyncStats = new ConcurrentHashMap<Long, HostSyncStats>();
+
+    /**
+     * Latency of the VM power state reconciliation of one host, kept since the management server started.
+     */
+    public static class HostSyncStats {
+        private long _reports;
+        private long _totalMillis;
+        private long _maxMillis;
+        private long _lastMillis;
+        private int _lastReportSize;
+
+        synchronized void record(long millis, int reportSize) {
+            _reports++;
+            _totalMillis += millis;
+            _maxMillis = Math.max(_maxMillis, millis);
+            _lastMillis = millis;
+            _lastReportSize = reportSize;
+        }
+
+        public synchronized long getReports() {
+            return _reports;
+        }
+
+        public synchronized long getAverageMillis() {
+            return _reports == 0 ? 0 : _totalMillis / _reports;
+        }
+
+        public synchronized long getMaxMillis() {
+            return _maxMillis;
+        }
+
+        public synchronized long getLastMillis() {
+            return _lastMillis;
+        }
+
+        public synchronized int getLastReportSize() {
+            return _lastReportSize;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return "reports: " + _reports + ", last: " + _lastMillis + "ms (" + _lastReportSize + " VMs), avg: " + getAverageMillis() + "ms, max: " + _maxMillis + "ms";
+        }
+    }
+
     public VirtualMachinePowerStateSyncImpl() {
     }
 
+    @PostConstruct
+    public void init() {
+        try {
+            JmxUtil.registerMBean("VirtualMachinePowerStateSync", "HostSyncStats", new VmPowerStateSyncMBeanImpl(_hostSyncStats));
+        } catch (Exception e) {
+            s_logger.warn("Failed to register VM power state sync MBean", e);
+        }
+    }
+
+    /**
+     * @return sync latency statistics of the hosts that reported to this management server, keyed by host id.
+     */
+    public Map<Long, HostSyncStats> getHostSyncStats() {
+        return _hostSyncStats;
+    }
+
     @Override
     public void resetHostSyncState(long hostId) {
         s_logger.info("Reset VM power state sync for host: " + hostId);
@@ -54,8 +119,7 @@ public class VirtualMachinePowerStateSyncImpl implements VirtualMachinePowerStat
     public void processHostVmStateReport(long hostId, Map<String, HostVmStateReportEntry> report) {
             s_logger.debug("Process host VM state report. host: " + hostId);
 
-        Map<Long, VirtualMachine.PowerState> translatedInfo = convertVmStateReport(report);
-        processReport(hostId, translatedInfo);
+        processTimedReport(hostId, report);
     }
 
     @Override
@@ -63,8 +127,26 @@ public class VirtualMachinePowerStateSyncImpl implements VirtualMachinePowerStat
         if (s_logger.isDebugEnabled())
             s_logger.debug("Process host VM state report from ping process. host: " + hostId);
 
+        processTimedReport(hostId, report);
+    }
+
+    private void processTimedReport(long hostId, Map<String, HostVmStateReportEntry> report) {
+        long start = System.currentTimeMillis();
         Map<Long, VirtualMachine.PowerState> translatedInfo = convertVmStateReport(report);
         processReport(hostId, translatedInfo);
+        long duration = System.currentTimeMillis() - start;
+
+        HostSyncStats stats = _hostSyncStats.get(hostId);
+        if (stats == null) {
+            _hostSyncStats.putIfAbsent(hostId, new HostSyncStats());
+            stats = _hostSyncStats.get(hostId);
+        }
+        stats.record(duration, translatedInfo.size());
+        if (duration > mgmtServiceConf.getPingInterval() * 1000L) {
+            s_logger.warn("VM power state sync of host " + hostId + " took " + duration + "ms, longer than the ping interval. " + stats);
+        } else if (s_logger.isDebugEnabled()) {
+            s_logger.debug("VM power state sync of host " + hostId + " took " + duration + "ms. " + stats);
+        }
     }
 
     private void processReport(long hostId, Map<Long, VirtualMachine.PowerState> translatedInfo) {
@@ -73,22 +155,20 @@ public class VirtualMachinePowerStateSyncImpl implements VirtualMachinePowerStat
             s_logger.debug("Process VM state report. host: " + hostId + ", number of records in report: " + translatedInfo.size());
         }
 
-        for (Map.Entry<Long, VirtualMachine.PowerState> entry : translatedInfo.entrySet()) {
-
-            if (s_logger.isDebugEnabled())
-                s_logger.debug("VM state report. host: " + hostId + ", vm id: " + entry.getKey() + ", power state: " + entry.getValue());
-
-            if (_instanceDao.updatePowerState(entry.getKey(), hostId, entry.getValue(), DateUtil.currentGMTTime())) {
-                if (s_logger.isInfoEnabled()) {
-                    s_logger.debug("VM state report is updated. host: " + hostId + ", vm id: " + entry.getKey() + ", power state: " + entry.getValue());
-                }
+        if (s_logger.isTraceEnabled()) {
+            for (Map.Entry<Long, VirtualMachine.PowerState> entry : translatedInfo.entrySet()) {
+                s_logger.trace("VM state report. host: " + hostId + ", vm id: " + entry.getKey() + ", power state: " + entry.getValue());
+            }
+        }
 
-                _messageBus.publish(null, VirtualMachineManager.Topics.VM_POWER_STATE, PublishScope.GLOBAL, entry.getKey());
-            } else {
-                if (s_logger.isTraceEnabled()) {
-                    s_logger.trace("VM power state does not change, skip DB writing. vm id: " + entry.getKey());
-                }
+        // one read and one batched write for the whole report, unchanged VMs are not written
+        List<Long> updatedVms = _instanceDao.updatePowerState(translatedInfo, hostId, DateUtil.currentGMTTime());
+        for (Long vmId : updatedVms) {
+            if (s_logger.isDebugEnabled()) {
+                s_logger.debug("VM state report is updated. host: " + hostId + ", vm id: " + vmId + ", power state: " + translatedInfo.get(vmId));
             }
+
+            _messageBus.publish(null, VirtualMachineManager.Topics.VM_POWER_STATE, PublishScope.GLOBAL, vmId);
         }
 
         // any state outdates should be checked against the time before this list was retrieved
@@ -184,8 +264,17 @@ public class VirtualMachinePowerStateSyncImpl implements VirtualMachinePowerStat
             return map;
         }
 
+        if (states.isEmpty()) {
+            return map;
+        }
+
+        Map<String, VMInstanceVO> vms = new HashMap<String, VMInstanceVO>();
+        for (VMInstanceVO vm : _instanceDao.listByInstanceNames(states.keySet())) {
+            vms.put(vm.getInstanceName(), vm);
+        }
+
         for (Map.Entry<String, HostVmStateReportEntry> entry : states.entrySet()) {
-            VMInstanceVO vm = findVM(entry.getKey());
+            VMInstanceVO vm = vms.get(entry.getKey());
             if (vm != null) {
                 map.put(vm.getId(), entry.getValue().getState());
             } else {
@@ -195,8 +284,4 @@ public class VirtualMachinePowerStateSyncImpl implements VirtualMachinePowerStat
 
         return map;
     }
-
-    private VMInstanceVO findVM(String vmName) {
-        return _instanceDao.findVMByInstanceName(vmName);
-    }
 }
@@ -0,0 +1,66 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.vm;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.StandardMBean;
+
+import com.cloud.vm.VirtualMachinePowerStateSyncImpl.HostSyncStats;
+
+public class VmPowerStateSyncMBeanImpl extends StandardMBean implements VmPowerStateSyncMBean {
+    private final Map<Long, HostSyncStats> _hostSyncStats;
+
+    protected VmPowerStateSyncMBeanImpl(Map<Long, HostSyncStats> hostSyncStats) {
+        super(VmPowerStateSyncMBean.class, false);
+        _hostSyncStats = hostSyncStats;
+    }
+
+    @Override
+    public int getHostCount() {
+        return _hostSyncStats.size();
+    }
+
+    @Override
+    public long getMaxLastSyncMs() {
+        long max = 0;
+        for (HostSyncStats stats : _hostSyncStats.values()) {
+            max = Math.max(max, stats.getLastMillis());
+        }
+        return max;
+    }
+
+    @Override
+    public List<Map<String, String>> getHostSyncStats() {
+        List<Map<String, String>> results = new ArrayList<Map<String, String>>();
+        for (Map.Entry<Long, HostSyncStats> entry : _hostSyncStats.entrySet()) {
+            HostSyncStats stats = entry.getValue();
+            Map<String, String> map = new HashMap<String, String>();
+            map.put("hostId", Long.toString(entry.getKey()));
+            map.put("reports", Long.toString(stats.getReports()));
+            map.put("lastMs", Long.toString(stats.getLastMillis()));
+            map.put("avgMs", Long.toString(stats.getAverageMillis()));
+            map.put("maxMs", Long.toString(stats.getMaxMillis()));
+            map.put("lastReportSize", Integer.toString(stats.getLastReportSize()));
+            results.add(map);
+        }
+        return results;
+    }
+}
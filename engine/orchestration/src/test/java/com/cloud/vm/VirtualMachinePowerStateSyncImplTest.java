@@ -0,0 +1,111 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.vm;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.cloudstack.framework.messagebus.MessageBus;
+import org.apache.cloudstack.framework.messagebus.PublishScope;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.cloud.agent.api.HostVmStateReportEntry;
+import com.cloud.configuration.ManagementServiceConfiguration;
+import com.cloud.vm.VirtualMachine.PowerState;
+import com.cloud.vm.dao.VMInstanceDao;
+
+@RunWith(MockitoJUnitRunner.class)
+public class VirtualMachinePowerStateSyncImplTest {
+
+    @InjectMocks
+    private VirtualMachinePowerStateSyncImpl powerStateSync = new VirtualMachinePowerStateSyncImpl();
+
+    @Mock
+    private VMInstanceDao instanceDao;
+    @Mock
+    private MessageBus messageBus;
+    @Mock
+    private ManagementServiceConfiguration mgmtServiceConf;
+
+    private Map<String, HostVmStateReportEntry> report = new HashMap<String, HostVmStateReportEntry>();
+
+    @Before
+    public void setup() {
+        report.put("i-2-1-VM", new HostVmStateReportEntry(PowerState.PowerOn, "host1"));
+        report.put("i-2-2-VM", new HostVmStateReportEntry(PowerState.PowerOff, "host1"));
+        report.put("i-2-3-VM", new HostVmStateReportEntry(PowerState.PowerOn, "host1"));
+
+        VMInstanceVO vm1 = Mockito.mock(VMInstanceVO.class);
+        when(vm1.getId()).thenReturn(1L);
+        when(vm1.getInstanceName()).thenReturn("i-2-1-VM");
+        VMInstanceVO vm2 = Mockito.mock(VMInstanceVO.class);
+        when(vm2.getId()).thenReturn(2L);
+        when(vm2.getInstanceName()).thenReturn("i-2-2-VM");
+        when(instanceDao.listByInstanceNames(Mockito.<Collection<String>>any())).thenReturn(Arrays.asList(vm1, vm2));
+        when(instanceDao.findByHostInStates(anyLong(), Mockito.<VirtualMachine.State>anyVararg())).thenReturn(new ArrayList<VMInstanceVO>());
+        when(mgmtServiceConf.getPingInterval()).thenReturn(60);
+    }
+
+    @Test
+    public void testConvertVmStateReportUsesSingleLookup() {
+        Map<Long, PowerState> converted = powerStateSync.convertVmStateReport(report);
+
+        Assert.assertEquals(2, converted.size());
+        Assert.assertEquals(PowerState.PowerOn, converted.get(1L));
+        Assert.assertEquals(PowerState.PowerOff, converted.get(2L));
+        verify(instanceDao, times(1)).listByInstanceNames(Mockito.<Collection<String>>any());
+        verify(instanceDao, never()).findVMByInstanceName(any(String.class));
+    }
+
+    @Test
+    public void testProcessReportPublishesOnlyUpdatedVms() {
+        when(instanceDao.updatePowerState(anyMapOf(Long.class, PowerState.class), eq(10L), any(Date.class))).thenReturn(Arrays.asList(2L));
+
+        powerStateSync.processHostVmStatePingReport(10L, report);
+
+        verify(instanceDao, times(1)).updatePowerState(anyMapOf(Long.class, PowerState.class), eq(10L), any(Date.class));
+        verify(instanceDao, never()).updatePowerState(anyLong(), anyLong(), any(PowerState.class), any(Date.class));
+        verify(messageBus, times(1)).publish(null, VirtualMachineManager.Topics.VM_POWER_STATE, PublishScope.GLOBAL, 2L);
+        Assert.assertEquals(1, powerStateSync.getHostSyncStats().get(10L).getReports());
+        Assert.assertEquals(2, powerStateSync.getHostSyncStats().get(10L).getLastReportSize());
+
+        VmPowerStateSyncMBean mbean = new VmPowerStateSyncMBeanImpl(powerStateSync.getHostSyncStats());
+        Assert.assertEquals(1, mbean.getHostCount());
+        Assert.assertEquals("10", mbean.getHostSyncStats().get(0).get("hostId"));
+        Assert.assertEquals("2", mbean.getHostSyncStats().get(0).get("lastReportSize"));
+    }
+}
@@ -0,0 +1,62 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.vm;
+
+import org.apache.cloudstack.framework.jobs.impl.CompactJobPayloadCodec;
+import org.apache.cloudstack.framework.jobs.impl.JavaSerializationJobPayloadCodec;
+import org.apache.cloudstack.framework.jobs.impl.JobPayloadCodec;
+
+/**
+ * Compares the payload size and the encode and decode throughput of the java and compact job
+ * payload codecs on a VmWorkStart. It is not a unit test, run it by hand with the test classpath
+ * of this module.
+ */
+public class VmWorkSerializerBenchmark {
+    private static final int ITERATIONS = 20000;
+
+    public static void main(final String[] args) {
+        final VmWorkStart work = VmWorkSerializerTest.createStartWork();
+        for (JobPayloadCodec codec : new JobPayloadCodec[] {new JavaSerializationJobPayloadCodec(), new CompactJobPayloadCodec()}) {
+            final String encoded = codec.encode(work);
+            final long[] times = benchmark(codec, work, encoded);
+            System.out.println(codec.getName() + ": " + encoded.length() + " chars, "
+                    + ITERATIONS * 1000000000L / times[0] + " encodes/s, "
+                    + ITERATIONS * 1000000000L / times[1] + " decodes/s");
+        }
+    }
+
+    /**
+     * @return the time it took to encode and to decode the work ITERATIONS times.
+     */
+    private static long[] benchmark(final JobPayloadCodec codec, final VmWorkStart work, final String encoded) {
+        long encodeTime = 0;
+        long decodeTime = 0;
+        // the first half warms up the JIT
+        for (int i = 0; i < ITERATIONS * 2; i++) {
+            final long start = System.nanoTime();
+            codec.encode(work);
+            final long encodeEnd = System.nanoTime();
+            codec.decode(encoded);
+            final long decodeEnd = System.nanoTime();
+            if (i >= ITERATIONS) {
+                encodeTime += encodeEnd - start;
+                decodeTime += decodeEnd - encodeEnd;
+            }
+        }
+        return new long[] {encodeTime, decodeTime};
+    }
+}
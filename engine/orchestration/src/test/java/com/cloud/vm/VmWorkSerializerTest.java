@@ -0,0 +1,69 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.vm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.cloudstack.framework.jobs.impl.CompactJobPayloadCodec;
+import org.apache.cloudstack.framework.jobs.impl.JavaSerializationJobPayloadCodec;
+import org.apache.cloudstack.framework.jobs.impl.JobPayloadCodec;
+import org.junit.Test;
+
+import com.cloud.deploy.DataCenterDeployment;
+import com.cloud.deploy.DeploymentPlanner.ExcludeList;
+
+public class VmWorkSerializerTest {
+    static VmWorkStart createStartWork() {
+        VmWorkStart work = new VmWorkStart(2L, 3L, 1234L, VirtualMachineManagerImpl.VM_WORK_JOB_HANDLER);
+        DataCenterDeployment plan = new DataCenterDeployment(1L, 2L, 3L, null, null, null);
+        ExcludeList avoids = new ExcludeList();
+        for (long id = 1; id <= 10; id++) {
+            avoids.addHost(id);
+        }
+        avoids.addCluster(7L);
+        plan.setAvoids(avoids);
+        work.setPlan(plan);
+        work.setDeploymentPlanner("FirstFitPlanner");
+
+        Map<VirtualMachineProfile.Param, Object> params = new HashMap<VirtualMachineProfile.Param, Object>();
+        params.put(VirtualMachineProfile.Param.VmPassword, "password");
+        params.put(VirtualMachineProfile.Param.BootIntoSetup, Boolean.TRUE);
+        work.setParams(params);
+        return work;
+    }
+
+    @Test
+    public void testRoundTripWithEachCodec() {
+        for (JobPayloadCodec codec : new JobPayloadCodec[] {new JavaSerializationJobPayloadCodec(), new CompactJobPayloadCodec()}) {
+            VmWorkStart copy = (VmWorkStart)codec.decode(codec.encode(createStartWork()));
+            assertEquals(1234L, copy.getVmId());
+            assertEquals("FirstFitPlanner", copy.getDeploymentPlanner());
+            assertEquals(10, copy.getPlan().getAvoids().getHostsToAvoid().size());
+            assertEquals("password", copy.getParams().get(VirtualMachineProfile.Param.VmPassword));
+        }
+    }
+
+    @Test
+    public void testCompactPayloadIsSmaller() {
+        final VmWorkStart work = createStartWork();
+        assertTrue(new CompactJobPayloadCodec().encode(work).length() < new JavaSerializationJobPayloadCodec().encode(work).length());
+    }
+}
@@ -27,6 +27,11 @@ import com.cloud.utils.db.GenericDao;
 public interface CapacityDao extends GenericDao<CapacityVO, Long> {
     CapacityVO findByHostIdType(Long hostId, short capacityType);
 
+    /**
+     * Same as {@link #findByHostIdType(Long, short)} for several hosts and capacity types in a single query.
+     */
+    List<CapacityVO> listByHostIdsAndTypes(List<Long> hostIds, List<Short> capacityTypes);
+
     List<Long> listClustersInZoneOrPodByHostCapacities(long id, int requiredCpu, long requiredRam, short capacityTypeForOrdering, boolean isZone);
 
     List<Long> listHostsWithEnoughCapacity(int requiredCpu, long requiredRam, Long clusterId, String hostType);
@@ -41,6 +46,12 @@ public interface CapacityDao extends GenericDao<CapacityVO, Long> {
 
     List<SummedCapacity> findCapacityBy(Integer capacityType, Long zoneId, Long podId, Long clusterId);
 
+    /**
+     * Same as {@link #findCapacityBy(Integer, Long, Long, Long)} for a cluster, for several clusters in a single query.
+     * @return one summed capacity per cluster and capacity type, without the allocated capacity
+     */
+    List<SummedCapacity> findCapacityByClusters(Integer capacityType, List<Long> clusterIds);
+
     List<Long> listPodsByHostCapacities(long zoneId, int requiredCpu, long requiredRam, short capacityType);
 
     Pair<List<Long>, Map<Long, Double>> orderPodsByAggregateCapacity(long zoneId, short capacityType);
@@ -63,6 +63,7 @@ public class CapacityDaoImpl extends GenericDaoBase<CapacityVO, Long> implements
             " AND capacity_type = ? AND cluster_details.name= ? AND ((total_capacity * cluster_details.value) - used_capacity + reserved_capacity) >= ?) ";
 
     private final SearchBuilder<CapacityVO> _hostIdTypeSearch;
+    private final SearchBuilder<CapacityVO> _hostIdsTypesSearch;
     private final SearchBuilder<CapacityVO> _hostOrPoolIdSearch;
     private final SearchBuilder<CapacityVO> _allFieldsSearch;
     @Inject
@@ -204,6 +205,11 @@ public class CapacityDaoImpl extends GenericDaoBase<CapacityVO, Long> implements
         _hostIdTypeSearch.and("type", _hostIdTypeSearch.entity().getCapacityType(), SearchCriteria.Op.EQ);
         _hostIdTypeSearch.done();
 
+        _hostIdsTypesSearch = createSearchBuilder();
+        _hostIdsTypesSearch.and("hostIds", _hostIdsTypesSearch.entity().getHostOrPoolId(), SearchCriteria.Op.IN);
+        _hostIdsTypesSearch.and("types", _hostIdsTypesSearch.entity().getCapacityType(), SearchCriteria.Op.IN);
+        _hostIdsTypesSearch.done();
+
         _hostOrPoolIdSearch = createSearchBuilder();
         _hostOrPoolIdSearch.and("hostId", _hostOrPoolIdSearch.entity().getHostOrPoolId(), SearchCriteria.Op.EQ);
         _hostOrPoolIdSearch.done();
@@ -411,6 +417,45 @@ public class CapacityDaoImpl extends GenericDaoBase<CapacityVO, Long> implements
 
     }
 
+    @Override
+    public List<SummedCapacity> findCapacityByClusters(Integer capacityType, List<Long> clusterIds) {
+        List<SummedCapacity> results = new ArrayList<SummedCapacity>();
+        if (clusterIds == null || clusterIds.isEmpty()) {
+            return results;
+        }
+
+        StringBuilder sql = new StringBuilder(LIST_CAPACITY_GROUP_BY_CAPACITY_PART1);
+        sql.append(" AND capacity.cluster_id IN (");
+        for (int i = 0; i < clusterIds.size(); i++) {
+            sql.append(i == 0 ? "?" : ",?");
+        }
+        sql.append(")");
+        if (capacityType != null) {
+            sql.append(" AND capacity.capacity_type = ?");
+        }
+        sql.append(LIST_CAPACITY_GROUP_BY_CAPACITY_DATA_CENTER_POD_CLUSTER);
+
+        TransactionLegacy txn = TransactionLegacy.currentTxn();
+        try (PreparedStatement pstmt = txn.prepareStatement(sql.toString())) {
+            int i = 1;
+            for (Long clusterId : clusterIds) {
+                pstmt.setLong(i++, clusterId);
+            }
+            if (capacityType != null) {
+                pstmt.setLong(i, capacityType.longValue());
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    results.add(new SummedCapacity(rs.getLong(1), rs.getLong(2), rs.getLong(3), rs.getFloat(4),
+                            (short)rs.getLong(5), rs.getLong(6), rs.getLong(7), rs.getLong(8)));
+                }
+            }
+            return results;
+        } catch (SQLException e) {
+            throw new CloudRuntimeException("DB Exception on: " + sql, e);
+        }
+    }
+
     @Override
     public List<SummedCapacity> findCapacityBy(Integer capacityType, Long zoneId, Long podId, Long clusterId) {
 
@@ -571,6 +616,17 @@ public class CapacityDaoImpl extends GenericDaoBase<CapacityVO, Long> implements
         return findOneBy(sc);
     }
 
+    @Override
+    public List<CapacityVO> listByHostIdsAndTypes(List<Long> hostIds, List<Short> capacityTypes) {
+        if (hostIds == null || hostIds.isEmpty() || capacityTypes == null || capacityTypes.isEmpty()) {
+            return new ArrayList<CapacityVO>();
+        }
+        SearchCriteria<CapacityVO> sc = _hostIdsTypesSearch.create();
+        sc.setParameters("hostIds", hostIds.toArray());
+        sc.setParameters("types", capacityTypes.toArray());
+        return listBy(sc);
+    }
+
     @Override
     public List<Long> listClustersInZoneOrPodByHostCapacities(long id, int requiredCpu, long requiredRam, short capacityTypeForOrdering, boolean isZone) {
         TransactionLegacy txn = TransactionLegacy.currentTxn();
@@ -16,6 +16,7 @@
 // under the License.
 package com.cloud.dc;
 
+import java.util.List;
 import java.util.Map;
 
 import com.cloud.utils.db.GenericDao;
@@ -29,6 +30,12 @@ public interface ClusterDetailsDao extends GenericDao<ClusterDetailsVO, Long> {
 
     ClusterDetailsVO findDetail(long clusterId, String name);
 
+    /**
+     * Finds the value of a detail for several clusters in a single query.
+     * @return the detail value per cluster id, clusters without the detail are left out
+     */
+    Map<Long, String> findDetailValues(List<Long> clusterIds, String name);
+
     void deleteDetails(long clusterId);
 
     String getVmwareDcName(Long clusterId);
@@ -16,6 +16,7 @@
 // under the License.
 package com.cloud.event.dao;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -77,10 +78,11 @@ public class UsageEventDetailsDaoImpl extends GenericDaoBase<UsageEventDetailsVO
         sc.setParameters("eventId", eventId);
         expunge(sc);
 
+        List<UsageEventDetailsVO> vos = new ArrayList<UsageEventDetailsVO>(details.size());
         for (Map.Entry<String, String> detail : details.entrySet()) {
-            UsageEventDetailsVO vo = new UsageEventDetailsVO(eventId, detail.getKey(), detail.getValue());
-            persist(vo);
+            vos.add(new UsageEventDetailsVO(eventId, detail.getKey(), detail.getValue()));
         }
+        persistAll(vos);
         txn.commit();
     }
 
@@ -39,6 +39,11 @@ public interface HostDao extends GenericDao<HostVO, Long>, StateDao<Status, Stat
 
     Integer countAllByType(final Host.Type type);
 
+    /**
+     * Sums the cpu sockets of the non removed hosts of the given type, without loading the hosts.
+     */
+    long sumCpuSocketsByType(final Host.Type type);
+
     Integer countAllByTypeInZone(long zoneId, final Host.Type type);
 
     /**
@@ -453,6 +453,20 @@ public class HostDaoImpl extends GenericDaoBase<HostVO, Long> implements HostDao
         return getCount(sc);
     }
 
+    @Override
+    public long sumCpuSocketsByType(final Host.Type type) {
+        final String sql = "SELECT SUM(cpu_sockets) FROM `cloud`.`host` WHERE removed IS NULL AND type = ?";
+        TransactionLegacy txn = TransactionLegacy.currentTxn();
+        try (PreparedStatement pstmt = txn.prepareStatement(sql)) {
+            pstmt.setString(1, type.toString());
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : 0L;
+            }
+        } catch (SQLException e) {
+            throw new CloudRuntimeException("DB Exception on: " + sql, e);
+        }
+    }
+
     @Override
     public Integer countAllByTypeInZone(long zoneId, Type type) {
         SearchCriteria<HostVO> sc = HostTypeCountSearch.create();
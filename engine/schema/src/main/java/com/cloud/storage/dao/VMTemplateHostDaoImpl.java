@@ -343,7 +343,7 @@ public class VMTemplateHostDaoImpl extends GenericDaoBase<VMTemplateHostVO, Long
         if (!lock)
             return findOneIncludingRemovedBy(sc);
         else
-            return lockOneRandomRow(sc, true);
+            return lockOneRow(sc, true);
     }
 
     // Based on computing node host id, and template id, find out the
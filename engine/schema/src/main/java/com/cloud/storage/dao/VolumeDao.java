@@ -18,6 +18,7 @@ package com.cloud.storage.dao;
 
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 import com.cloud.hypervisor.Hypervisor.HypervisorType;
 import com.cloud.storage.ScopeType;
@@ -56,6 +57,12 @@ public interface VolumeDao extends GenericDao<VolumeVO, Long>, StateDao<Volume.S
 
     List<VolumeVO> findByDc(long dcId);
 
+    /**
+     * Counts the non removed volumes of all zones in a single query.
+     * @return the number of volumes per state, per zone id
+     */
+    Map<Long, Map<Volume.State, Long>> countByZoneGroupedByState();
+
     List<VolumeVO> findByAccountAndPod(long accountId, long podId);
 
     List<VolumeVO> findByTemplateAndZone(long templateId, long zoneId);
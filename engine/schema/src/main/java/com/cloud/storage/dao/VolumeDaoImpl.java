@@ -21,7 +21,9 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.inject.Inject;
 
@@ -233,6 +235,26 @@ public class VolumeDaoImpl extends GenericDaoBase<VolumeVO, Long> implements Vol
         return listBy(sc);
     }
 
+    @Override
+    public Map<Long, Map<Volume.State, Long>> countByZoneGroupedByState() {
+        final String sql = "SELECT data_center_id, state, COUNT(*) FROM `cloud`.`volumes` WHERE removed IS NULL GROUP BY data_center_id, state";
+        final Map<Long, Map<Volume.State, Long>> counts = new HashMap<Long, Map<Volume.State, Long>>();
+        TransactionLegacy txn = TransactionLegacy.currentTxn();
+        try (PreparedStatement pstmt = txn.prepareStatement(sql); ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                Map<Volume.State, Long> zoneCounts = counts.get(rs.getLong(1));
+                if (zoneCounts == null) {
+                    zoneCounts = new HashMap<Volume.State, Long>();
+                    counts.put(rs.getLong(1), zoneCounts);
+                }
+                zoneCounts.put(Volume.State.valueOf(rs.getString(2)), rs.getLong(3));
+            }
+        } catch (SQLException e) {
+            throw new CloudRuntimeException("DB Exception on: " + sql, e);
+        }
+        return counts;
+    }
+
     @Override
     public List<VolumeVO> findByAccountAndPod(long accountId, long podId) {
         SearchCriteria<VolumeVO> sc = AllFieldsSearch.create();
@@ -48,7 +48,7 @@ public class ExternalPublicIpStatisticsDaoImpl extends GenericDaoBase<ExternalPu
     @Override
     public ExternalPublicIpStatisticsVO lock(long accountId, long zoneId, String publicIpAddress) {
         SearchCriteria<ExternalPublicIpStatisticsVO> sc = getSingleRowSc(accountId, zoneId, publicIpAddress);
-        return lockOneRandomRow(sc, true);
+        return lockOneRow(sc, true);
     }
 
     @Override
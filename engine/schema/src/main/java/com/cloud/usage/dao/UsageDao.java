@@ -26,6 +26,7 @@ import com.cloud.utils.db.GenericDao;
 import com.cloud.utils.db.SearchCriteria;
 
 import java.util.List;
+import java.util.Set;
 
 public interface UsageDao extends GenericDao<UsageVO, Long> {
     void deleteRecordsForAccount(Long accountId);
@@ -54,9 +55,36 @@ public interface UsageDao extends GenericDao<UsageVO, Long> {
 
     void saveUsageRecords(List<UsageVO> usageRecords);
 
+    /**
+     * Saves the usage record, or holds it back until {@link #flushUsageRecords()} while the calling thread buffers usage records.
+     */
+    void saveUsageRecord(UsageVO usageRecord);
+
+    void bufferUsageRecords();
+
+    void flushUsageRecords();
+
+    void discardUsageRecords();
+
+    /**
+     * @return start and end millis of the usage job that left parse checkpoints behind, or null if there are none
+     */
+    Pair<Long, Long> getParseCheckpointRange();
+
+    Set<Long> listParseCheckpointAccountIds(long windowEndMillis);
+
+    void saveParseCheckpoints(long startMillis, long endMillis, long windowEndMillis, List<Long> accountIds);
+
+    void removeParseCheckpoints();
+
     void removeOldUsageRecords(int days);
 
     UsageVO persistUsage(final UsageVO usage);
 
+    /**
+     * Flags the usage records as aggregated into quota with a single JDBC batch.
+     */
+    void markQuotaCalculated(List<Long> usageIds);
+
     Pair<List<? extends UsageVO>, Integer> getUsageRecordsPendingQuotaAggregation(long accountId, long domainId);
 }
@@ -41,7 +41,9 @@ import java.sql.ResultSet;
 import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.TimeZone;
 
 @Component
@@ -70,6 +72,13 @@ public class UsageDaoImpl extends GenericDaoBase<UsageVO, Long> implements Usage
     private static final String INSERT_USAGE_RECORDS = "INSERT INTO cloud_usage.cloud_usage (zone_id, account_id, domain_id, description, usage_display, "
             + "usage_type, raw_usage, vm_instance_id, vm_name, offering_id, template_id, "
             + "usage_id, type, size, network_id, start_date, end_date, virtual_size) VALUES (?,?,?,?,?,?,?,?,?, ?, ?, ?,?,?,?,?,?,?)";
+    private static final String GET_PARSE_CHECKPOINT_RANGE = "SELECT start_millis, end_millis FROM cloud_usage.usage_parse_checkpoint LIMIT 1";
+    private static final String LIST_PARSE_CHECKPOINT_ACCOUNTS = "SELECT account_id FROM cloud_usage.usage_parse_checkpoint WHERE window_end_millis = ?";
+    private static final String INSERT_PARSE_CHECKPOINT = "INSERT INTO cloud_usage.usage_parse_checkpoint (window_end_millis, account_id, start_millis, end_millis) VALUES (?,?,?,?)";
+    private static final String DELETE_PARSE_CHECKPOINTS = "DELETE FROM cloud_usage.usage_parse_checkpoint";
+    private static final String UPDATE_QUOTA_CALCULATED = "UPDATE cloud_usage.cloud_usage SET quota_calculated = 1 WHERE id = ?";
+
+    private static final ThreadLocal<List<UsageVO>> s_bufferedUsageRecords = new ThreadLocal<List<UsageVO>>();
 
     protected final static TimeZone s_gmtTimeZone = TimeZone.getTimeZone("GMT");
 
@@ -394,6 +403,44 @@ public class UsageDaoImpl extends GenericDaoBase<UsageVO, Long> implements Usage
 
     @Override
     public void saveUsageRecords(List<UsageVO> usageRecords) {
+        List<UsageVO> buffer = s_bufferedUsageRecords.get();
+        if (buffer != null) {
+            buffer.addAll(usageRecords);
+            return;
+        }
+        insertUsageRecords(usageRecords);
+    }
+
+    @Override
+    public void saveUsageRecord(UsageVO usageRecord) {
+        List<UsageVO> buffer = s_bufferedUsageRecords.get();
+        if (buffer != null) {
+            buffer.add(usageRecord);
+            return;
+        }
+        persist(usageRecord);
+    }
+
+    @Override
+    public void bufferUsageRecords() {
+        s_bufferedUsageRecords.set(new ArrayList<UsageVO>());
+    }
+
+    @Override
+    public void flushUsageRecords() {
+        List<UsageVO> buffer = s_bufferedUsageRecords.get();
+        s_bufferedUsageRecords.remove();
+        if (buffer != null && !buffer.isEmpty()) {
+            insertUsageRecords(buffer);
+        }
+    }
+
+    @Override
+    public void discardUsageRecords() {
+        s_bufferedUsageRecords.remove();
+    }
+
+    protected void insertUsageRecords(List<UsageVO> usageRecords) {
         TransactionLegacy txn = TransactionLegacy.currentTxn();
         try {
             txn.start();
@@ -458,6 +505,64 @@ public class UsageDaoImpl extends GenericDaoBase<UsageVO, Long> implements Usage
         }
     }
 
+    @Override
+    public Pair<Long, Long> getParseCheckpointRange() {
+        TransactionLegacy txn = TransactionLegacy.currentTxn();
+        try (PreparedStatement pstmt = txn.prepareStatement(GET_PARSE_CHECKPOINT_RANGE);
+             ResultSet rs = pstmt.executeQuery()) {
+            if (rs.next()) {
+                return new Pair<Long, Long>(rs.getLong(1), rs.getLong(2));
+            }
+            return null;
+        } catch (Exception ex) {
+            throw new CloudRuntimeException("DB Exception on: " + GET_PARSE_CHECKPOINT_RANGE, ex);
+        }
+    }
+
+    @Override
+    public Set<Long> listParseCheckpointAccountIds(long windowEndMillis) {
+        TransactionLegacy txn = TransactionLegacy.currentTxn();
+        Set<Long> accountIds = new HashSet<Long>();
+        try (PreparedStatement pstmt = txn.prepareStatement(LIST_PARSE_CHECKPOINT_ACCOUNTS)) {
+            pstmt.setLong(1, windowEndMillis);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    accountIds.add(rs.getLong(1));
+                }
+            }
+        } catch (Exception ex) {
+            throw new CloudRuntimeException("DB Exception on: " + LIST_PARSE_CHECKPOINT_ACCOUNTS, ex);
+        }
+        return accountIds;
+    }
+
+    @Override
+    public void saveParseCheckpoints(long startMillis, long endMillis, long windowEndMillis, List<Long> accountIds) {
+        TransactionLegacy txn = TransactionLegacy.currentTxn();
+        try (PreparedStatement pstmt = txn.prepareStatement(INSERT_PARSE_CHECKPOINT)) {
+            for (Long accountId : accountIds) {
+                pstmt.setLong(1, windowEndMillis);
+                pstmt.setLong(2, accountId);
+                pstmt.setLong(3, startMillis);
+                pstmt.setLong(4, endMillis);
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        } catch (Exception ex) {
+            throw new CloudRuntimeException("DB Exception on: " + INSERT_PARSE_CHECKPOINT, ex);
+        }
+    }
+
+    @Override
+    public void removeParseCheckpoints() {
+        TransactionLegacy txn = TransactionLegacy.currentTxn();
+        try (PreparedStatement pstmt = txn.prepareStatement(DELETE_PARSE_CHECKPOINTS)) {
+            pstmt.executeUpdate();
+        } catch (Exception ex) {
+            throw new CloudRuntimeException("DB Exception on: " + DELETE_PARSE_CHECKPOINTS, ex);
+        }
+    }
+
     @Override
     public void removeOldUsageRecords(int days) {
         String sql = DELETE_ALL_BY_INTERVAL;
@@ -486,6 +591,25 @@ public class UsageDaoImpl extends GenericDaoBase<UsageVO, Long> implements Usage
         });
     }
 
+    @Override
+    public void markQuotaCalculated(List<Long> usageIds) {
+        if (usageIds == null || usageIds.isEmpty()) {
+            return;
+        }
+        TransactionLegacy txn = TransactionLegacy.open(TransactionLegacy.USAGE_DB);
+        try (PreparedStatement pstmt = txn.prepareStatement(UPDATE_QUOTA_CALCULATED)) {
+            for (Long usageId : usageIds) {
+                pstmt.setLong(1, usageId);
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        } catch (Exception ex) {
+            throw new CloudRuntimeException("DB Exception on: " + UPDATE_QUOTA_CALCULATED, ex);
+        } finally {
+            txn.close();
+        }
+    }
+
     public Pair<List<? extends UsageVO>, Integer> getUsageRecordsPendingQuotaAggregation(final long accountId, final long domainId) {
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("Getting usage records for account: " + accountId + ", domainId: " + domainId);
@@ -16,6 +16,7 @@
 // under the License.
 package com.cloud.user;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -60,10 +61,11 @@ public class AccountDetailsDaoImpl extends GenericDaoBase<AccountDetailVO, Long>
         SearchCriteria<AccountDetailVO> sc = accountSearch.create();
         sc.setParameters("accountId", accountId);
         expunge(sc);
+        List<AccountDetailVO> vos = new ArrayList<AccountDetailVO>(details.size());
         for (Map.Entry<String, String> detail : details.entrySet()) {
-            AccountDetailVO vo = new AccountDetailVO(accountId, detail.getKey(), detail.getValue());
-            persist(vo);
+            vos.add(new AccountDetailVO(accountId, detail.getKey(), detail.getValue()));
         }
+        persistAll(vos);
         txn.commit();
     }
 
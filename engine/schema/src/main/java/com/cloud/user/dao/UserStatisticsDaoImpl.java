@@ -82,7 +82,7 @@ public class UserStatisticsDaoImpl extends GenericDaoBase<UserStatisticsVO, Long
         sc.setParameters("ip", publicIp);
         sc.setParameters("device", deviceId);
         sc.setParameters("deviceType", deviceType);
-        return lockOneRandomRow(sc, true);
+        return lockOneRow(sc, true);
     }
 
     @Override
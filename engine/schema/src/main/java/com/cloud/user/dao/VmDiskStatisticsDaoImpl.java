@@ -77,7 +77,7 @@ public class VmDiskStatisticsDaoImpl extends GenericDaoBase<VmDiskStatisticsVO,
         sc.setParameters("dc", dcId);
         sc.setParameters("volume", volumeId);
         sc.setParameters("vm", vmId);
-        return lockOneRandomRow(sc, true);
+        return lockOneRow(sc, true);
     }
 
     @Override
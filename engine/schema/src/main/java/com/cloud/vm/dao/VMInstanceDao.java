@@ -16,6 +16,7 @@
 // under the License.
 package com.cloud.vm.dao;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -88,6 +89,13 @@ public interface VMInstanceDao extends GenericDao<VMInstanceVO, Long>, StateDao<
 
     VMInstanceVO findVMByInstanceNameIncludingRemoved(String name);
 
+    /**
+     * Looks up the VMs for a set of instance names with IN queries instead of one query per name.
+     * @param instanceNames internal names of the VMs, as reported by the hypervisor.
+     * @return the VMs that are not removed, names without a match are left out.
+     */
+    List<VMInstanceVO> listByInstanceNames(Collection<String> instanceNames);
+
     VMInstanceVO findVMByHostName(String hostName);
 
     void updateProxyId(long id, Long proxyId, Date time);
@@ -132,6 +140,32 @@ public interface VMInstanceDao extends GenericDao<VMInstanceVO, Long>, StateDao<
 
     Long countByZoneAndState(long zoneId, State state);
 
+    /**
+     * Counts the non removed VMs of all zones in a single query.
+     * @return the number of VMs per state, per zone id
+     */
+    Map<Long, Map<State, Long>> countByZoneGroupedByState();
+
+    /**
+     * Counts the non removed VMs of all hosts in a single query, as {@link #listByHostId(long)} would list them.
+     * @return the number of VMs per host id
+     */
+    Map<Long, Long> countGroupedByHost();
+
+    /**
+     * Counts the non removed VMs of the given type on the given hosts in a single query.
+     * @return the number of VMs per state, per host id
+     */
+    Map<Long, Map<State, Long>> countByHostsGroupedByState(List<Long> hostIds, VirtualMachine.Type type);
+
+    Integer countByTypes(VirtualMachine.Type... types);
+
+    /**
+     * Counts the VMs occupying capacity on the given hosts in a single query, as {@link #countActiveByHostId(long)} would count them.
+     * @return the number of active VMs per host id, hosts without any are left out
+     */
+    Map<Long, Long> countActiveGroupedByHost(List<Long> hostIds);
+
     List<VMInstanceVO> listNonRemovedVmsByTypeAndNetwork(long networkId, VirtualMachine.Type... types);
 
     /**
@@ -147,6 +181,14 @@ public interface VMInstanceDao extends GenericDao<VMInstanceVO, Long>, StateDao<
 
     boolean updatePowerState(long instanceId, long powerHostId, VirtualMachine.PowerState powerState, Date wisdomEra);
 
+    /**
+     * Bulk version of {@link #updatePowerState(long, long, VirtualMachine.PowerState, Date)}. The current
+     * power state of all the VMs is read with one query and the ones that need a change are written
+     * with one batched update.
+     * @return ids of the VMs whose power state record was updated.
+     */
+    List<Long> updatePowerState(Map<Long, VirtualMachine.PowerState> instancePowerStates, long powerHostId, Date wisdomEra);
+
     void resetVmPowerStateTracking(long instanceId);
 
     void resetHostPowerStateTracking(long hostId);
@@ -19,11 +19,14 @@ package com.cloud.vm.dao;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TimeZone;
 
 import javax.annotation.PostConstruct;
 import javax.inject.Inject;
@@ -66,6 +69,8 @@ public class VMInstanceDaoImpl extends GenericDaoBase<VMInstanceVO, Long> implem
 
     public static final Logger s_logger = Logger.getLogger(VMInstanceDaoImpl.class);
     private static final int MAX_CONSECUTIVE_SAME_STATE_UPDATE_COUNT = 3;
+    /* keeps the IN lists and update batches of a host report to a sane size */
+    private static final int POWER_STATE_BATCH_SIZE = 500;
 
     protected SearchBuilder<VMInstanceVO> VMClusterSearch;
     protected SearchBuilder<VMInstanceVO> LHVMClusterSearch;
@@ -83,6 +88,8 @@ public class VMInstanceDaoImpl extends GenericDaoBase<VMInstanceVO, Long> implem
     protected SearchBuilder<VMInstanceVO> HostIdUpTypesSearch;
     protected SearchBuilder<VMInstanceVO> HostUpSearch;
     protected SearchBuilder<VMInstanceVO> InstanceNameSearch;
+    protected SearchBuilder<VMInstanceVO> InstanceNamesSearch;
+    protected SearchBuilder<VMInstanceVO> IdsSearch;
     protected SearchBuilder<VMInstanceVO> HostNameSearch;
     protected SearchBuilder<VMInstanceVO> HostNameAndZoneSearch;
     protected GenericSearchBuilder<VMInstanceVO, Long> FindIdsOfVirtualRoutersByAccount;
@@ -109,6 +116,9 @@ public class VMInstanceDaoImpl extends GenericDaoBase<VMInstanceVO, Long> implem
     private static final String ORDER_CLUSTERS_NUMBER_OF_VMS_FOR_ACCOUNT_PART2 = " AND host.type = 'Routing' AND host.removed is null GROUP BY host.cluster_id " +
         "ORDER BY 2 ASC ";
 
+    private static final String UPDATE_POWER_STATE = "UPDATE `cloud`.`vm_instance` SET power_state = ?, power_host = ?, power_state_update_count = ?, " +
+        "power_state_update_time = ? WHERE id = ? AND (power_state_update_time IS NULL OR power_state_update_time < ?)";
+
     private static final String ORDER_PODS_NUMBER_OF_VMS_FOR_ACCOUNT = "SELECT pod.id, SUM(IF(vm.state='Running' AND vm.account_id = ?, 1, 0)) FROM `cloud`.`" +
         "host_pod_ref` pod LEFT JOIN `cloud`.`vm_instance` vm ON pod.id = vm.pod_id WHERE pod.data_center_id = ? AND pod.removed is null "
         + " GROUP BY pod.id ORDER BY 2 ASC ";
@@ -225,6 +235,14 @@ public class VMInstanceDaoImpl extends GenericDaoBase<VMInstanceVO, Long> implem
         InstanceNameSearch.and("instanceName", InstanceNameSearch.entity().getInstanceName(), Op.EQ);
         InstanceNameSearch.done();
 
+        InstanceNamesSearch = createSearchBuilder();
+        InstanceNamesSearch.and("instanceNames", InstanceNamesSearch.entity().getInstanceName(), Op.IN);
+        InstanceNamesSearch.done();
+
+        IdsSearch = createSearchBuilder();
+        IdsSearch.and("ids", IdsSearch.entity().getId(), Op.IN);
+        IdsSearch.done();
+
         HostNameSearch = createSearchBuilder();
         HostNameSearch.and("hostName", HostNameSearch.entity().getHostName(), Op.EQ);
         HostNameSearch.done();
@@ -470,6 +488,18 @@ public class VMInstanceDaoImpl extends GenericDaoBase<VMInstanceVO, Long> implem
         return findOneIncludingRemovedBy(sc);
     }
 
+    @Override
+    public List<VMInstanceVO> listByInstanceNames(Collection<String> instanceNames) {
+        List<VMInstanceVO> vms = new ArrayList<VMInstanceVO>(instanceNames.size());
+        List<String> names = new ArrayList<String>(instanceNames);
+        for (int i = 0; i < names.size(); i += POWER_STATE_BATCH_SIZE) {
+            SearchCriteria<VMInstanceVO> sc = InstanceNamesSearch.create();
+            sc.setParameters("instanceNames", names.subList(i, Math.min(i + POWER_STATE_BATCH_SIZE, names.size())).toArray());
+            vms.addAll(listBy(sc));
+        }
+        return vms;
+    }
+
     @Override
     public VMInstanceVO findVMByHostName(String hostName) {
         SearchCriteria<VMInstanceVO> sc = HostNameSearch.create();
@@ -794,6 +824,109 @@ public class VMInstanceDaoImpl extends GenericDaoBase<VMInstanceVO, Long> implem
         return customSearch(sc, null).get(0);
     }
 
+    @Override
+    public Map<Long, Map<State, Long>> countByZoneGroupedByState() {
+        final String sql = "SELECT data_center_id, state, COUNT(*) FROM `cloud`.`vm_instance` WHERE removed IS NULL GROUP BY data_center_id, state";
+        final Map<Long, Map<State, Long>> counts = new HashMap<Long, Map<State, Long>>();
+        TransactionLegacy txn = TransactionLegacy.currentTxn();
+        try (PreparedStatement pstmt = txn.prepareStatement(sql); ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                Map<State, Long> zoneCounts = counts.get(rs.getLong(1));
+                if (zoneCounts == null) {
+                    zoneCounts = new HashMap<State, Long>();
+                    counts.put(rs.getLong(1), zoneCounts);
+                }
+                zoneCounts.put(State.valueOf(rs.getString(2)), rs.getLong(3));
+            }
+        } catch (SQLException e) {
+            throw new CloudRuntimeException("DB Exception on: " + sql, e);
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<Long, Long> countGroupedByHost() {
+        final String sql = "SELECT host_id, COUNT(*) FROM `cloud`.`vm_instance` WHERE removed IS NULL AND host_id IS NOT NULL GROUP BY host_id";
+        final Map<Long, Long> counts = new HashMap<Long, Long>();
+        TransactionLegacy txn = TransactionLegacy.currentTxn();
+        try (PreparedStatement pstmt = txn.prepareStatement(sql); ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                counts.put(rs.getLong(1), rs.getLong(2));
+            }
+        } catch (SQLException e) {
+            throw new CloudRuntimeException("DB Exception on: " + sql, e);
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<Long, Map<State, Long>> countByHostsGroupedByState(List<Long> hostIds, Type type) {
+        final Map<Long, Map<State, Long>> counts = new HashMap<Long, Map<State, Long>>();
+        if (hostIds == null || hostIds.isEmpty()) {
+            return counts;
+        }
+        final StringBuilder sql = new StringBuilder("SELECT host_id, state, COUNT(*) FROM `cloud`.`vm_instance` WHERE removed IS NULL AND type = ? AND host_id IN (");
+        for (int i = 0; i < hostIds.size(); i++) {
+            sql.append(i == 0 ? "?" : ",?");
+        }
+        sql.append(") GROUP BY host_id, state");
+        TransactionLegacy txn = TransactionLegacy.currentTxn();
+        try (PreparedStatement pstmt = txn.prepareStatement(sql.toString())) {
+            pstmt.setString(1, type.toString());
+            for (int i = 0; i < hostIds.size(); i++) {
+                pstmt.setLong(i + 2, hostIds.get(i));
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    Map<State, Long> hostCounts = counts.get(rs.getLong(1));
+                    if (hostCounts == null) {
+                        hostCounts = new HashMap<State, Long>();
+                        counts.put(rs.getLong(1), hostCounts);
+                    }
+                    hostCounts.put(State.valueOf(rs.getString(2)), rs.getLong(3));
+                }
+            }
+        } catch (SQLException e) {
+            throw new CloudRuntimeException("DB Exception on: " + sql, e);
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<Long, Long> countActiveGroupedByHost(List<Long> hostIds) {
+        final Map<Long, Long> counts = new HashMap<Long, Long>();
+        if (hostIds == null || hostIds.isEmpty()) {
+            return counts;
+        }
+        final StringBuilder sql = new StringBuilder("SELECT host_id, COUNT(*) FROM `cloud`.`vm_instance` WHERE removed IS NULL "
+                + "AND state IN ('Running', 'Starting', 'Stopping', 'Migrating') AND host_id IN (");
+        for (int i = 0; i < hostIds.size(); i++) {
+            sql.append(i == 0 ? "?" : ",?");
+        }
+        sql.append(") GROUP BY host_id");
+        TransactionLegacy txn = TransactionLegacy.currentTxn();
+        try (PreparedStatement pstmt = txn.prepareStatement(sql.toString())) {
+            for (int i = 0; i < hostIds.size(); i++) {
+                pstmt.setLong(i + 1, hostIds.get(i));
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    counts.put(rs.getLong(1), rs.getLong(2));
+                }
+            }
+        } catch (SQLException e) {
+            throw new CloudRuntimeException("DB Exception on: " + sql, e);
+        }
+        return counts;
+    }
+
+    @Override
+    public Integer countByTypes(Type... types) {
+        SearchCriteria<VMInstanceVO> sc = TypesSearch.create();
+        sc.setParameters("types", (Object[])types);
+        return getCount(sc);
+    }
+
     @Override
     public Long countByZoneAndState(long zoneId, State state) {
         SearchCriteria<Long> sc = CountByZoneAndState.create();
@@ -899,6 +1032,79 @@ public class VMInstanceDaoImpl extends GenericDaoBase<VMInstanceVO, Long> implem
         });
     }
 
+    @Override
+    public List<Long> updatePowerState(final Map<Long, VirtualMachine.PowerState> instancePowerStates, final long powerHostId, final Date wisdomEra) {
+        if (instancePowerStates.isEmpty()) {
+            return new ArrayList<Long>();
+        }
+        return Transaction.execute(new TransactionCallback<List<Long>>() {
+            @Override
+            public List<Long> doInTransaction(TransactionStatus status) {
+                List<Long> ids = new ArrayList<Long>(instancePowerStates.keySet());
+                List<VMInstanceVO> changed = new ArrayList<VMInstanceVO>();
+                Date now = DateUtil.currentGMTTime();
+                for (int i = 0; i < ids.size(); i += POWER_STATE_BATCH_SIZE) {
+                    SearchCriteria<VMInstanceVO> sc = IdsSearch.create();
+                    sc.setParameters("ids", ids.subList(i, Math.min(i + POWER_STATE_BATCH_SIZE, ids.size())).toArray());
+                    for (VMInstanceVO instance : listBy(sc)) {
+                        if (instance.getPowerStateUpdateTime() != null && !instance.getPowerStateUpdateTime().before(wisdomEra)) {
+                            continue;
+                        }
+                        VirtualMachine.PowerState powerState = instancePowerStates.get(instance.getId());
+                        Long savedPowerHostId = instance.getPowerHostId();
+                        if (instance.getPowerState() != powerState || savedPowerHostId == null
+                                || savedPowerHostId.longValue() != powerHostId) {
+                            instance.setPowerState(powerState);
+                            instance.setPowerHostId(powerHostId);
+                            instance.setPowerStateUpdateCount(1);
+                        } else if (instance.getPowerStateUpdateCount() < MAX_CONSECUTIVE_SAME_STATE_UPDATE_COUNT) {
+                            // to reduce DB updates, consecutive same state update for more than 3 times
+                            instance.setPowerStateUpdateCount(instance.getPowerStateUpdateCount() + 1);
+                        } else {
+                            continue;
+                        }
+                        instance.setPowerStateUpdateTime(now);
+                        changed.add(instance);
+                    }
+                }
+                return updatePowerStateInBatch(changed, wisdomEra);
+            }
+        });
+    }
+
+    private List<Long> updatePowerStateInBatch(List<VMInstanceVO> instances, Date wisdomEra) {
+        List<Long> updated = new ArrayList<Long>(instances.size());
+        if (instances.isEmpty()) {
+            return updated;
+        }
+        TimeZone gmt = TimeZone.getTimeZone("GMT");
+        String wisdomEraStr = DateUtil.getDateDisplayString(gmt, wisdomEra);
+        TransactionLegacy txn = TransactionLegacy.currentTxn();
+        try (PreparedStatement pstmt = txn.prepareStatement(UPDATE_POWER_STATE)) {
+            for (int i = 0; i < instances.size(); i += POWER_STATE_BATCH_SIZE) {
+                List<VMInstanceVO> batch = instances.subList(i, Math.min(i + POWER_STATE_BATCH_SIZE, instances.size()));
+                for (VMInstanceVO instance : batch) {
+                    pstmt.setString(1, instance.getPowerState().toString());
+                    pstmt.setLong(2, instance.getPowerHostId());
+                    pstmt.setInt(3, instance.getPowerStateUpdateCount());
+                    pstmt.setString(4, DateUtil.getDateDisplayString(gmt, instance.getPowerStateUpdateTime()));
+                    pstmt.setLong(5, instance.getId());
+                    pstmt.setString(6, wisdomEraStr);
+                    pstmt.addBatch();
+                }
+                int[] counts = pstmt.executeBatch();
+                for (int j = 0; j < counts.length; j++) {
+                    if (counts[j] > 0 || counts[j] == Statement.SUCCESS_NO_INFO) {
+                        updated.add(batch.get(j).getId());
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new CloudRuntimeException("Unable to update power state of " + instances.size() + " VMs", e);
+        }
+        return updated;
+    }
+
     @Override
     public boolean isPowerStateUpToDate(final long instanceId) {
         VMInstanceVO instance = findById(instanceId);
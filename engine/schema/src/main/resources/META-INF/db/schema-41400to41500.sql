@@ -220,3 +220,12 @@ ALTER VIEW `cloud`.`image_store_view` AS
         `cloud`.`data_center` ON image_store.data_center_id = data_center.id
             left join
         `cloud`.`image_store_details` ON image_store_details.store_id = image_store.id;
+
+-- Accounts whose usage records are committed for an aggregation window, so an interrupted usage job can resume
+CREATE TABLE IF NOT EXISTS `cloud_usage`.`usage_parse_checkpoint` (
+  `window_end_millis` bigint unsigned NOT NULL COMMENT 'end time in milliseconds of the aggregation window the account was parsed for',
+  `account_id` bigint unsigned NOT NULL COMMENT 'account whose usage records for the window have been created',
+  `start_millis` bigint unsigned NOT NULL COMMENT 'start time in milliseconds of the aggregation range of the usage job',
+  `end_millis` bigint unsigned NOT NULL COMMENT 'end time in milliseconds of the aggregation range of the usage job',
+  PRIMARY KEY (`window_end_millis`, `account_id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
@@ -375,7 +375,7 @@ public class TemplateDataStoreDaoImpl extends GenericDaoBase<TemplateDataStoreVO
         if (!lock) {
             return findOneIncludingRemovedBy(sc);
         } else {
-            return lockOneRandomRow(sc, true);
+            return lockOneRow(sc, true);
         }
     }
 
@@ -256,7 +256,7 @@ public class VolumeDataStoreDaoImpl extends GenericDaoBase<VolumeDataStoreVO, Lo
         if (!lock) {
             return findOneIncludingRemovedBy(sc);
         } else {
-            return lockOneRandomRow(sc, true);
+            return lockOneRow(sc, true);
         }
     }
 
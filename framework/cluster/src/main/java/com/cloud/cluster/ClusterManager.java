@@ -27,6 +27,8 @@ public interface ClusterManager extends Manager {
         "Interval to check for the heart beat between management server nodes", false);
     final ConfigKey<Integer> HeartbeatThreshold = new ConfigKey<Integer>(Integer.class, "cluster.heartbeat.threshold", "management-server", "150000",
         "Threshold before self-fence the management server", true);
+    final ConfigKey<Integer> PduQueueSize = new ConfigKey<Integer>(Integer.class, "cluster.pdu.queue.size", "management-server", "10000",
+        "Maximum number of cluster PDUs waiting to be sent, and waiting to be processed, before senders are held back", false);
 
     void OnReceiveClusterServicePdu(ClusterServicePdu pdu);
 
@@ -53,6 +55,18 @@ public interface ClusterManager extends Manager {
 
     void registerDispatcher(Dispatcher dispatcher);
 
+    /**
+     * Delivers a one-way message to a management server node, where it is handed to the listener
+     * registered for its subject. Nothing is returned to the sender, and the message is dropped
+     * if the node can not be reached, so receivers must not rely on getting every message.
+     * @param msid id of the management server node to deliver the message to
+     * @param subject subject the receiving listener is registered for
+     * @param message message to deliver
+     */
+    void sendMessage(long msid, String subject, String message);
+
+    void registerMessageListener(String subject, MessageListener listener);
+
     ManagementServerHost getPeer(String peerName);
 
     String getSelfPeerName();
@@ -68,4 +82,8 @@ public interface ClusterManager extends Manager {
 
         String dispatch(ClusterServicePdu pdu);
     }
+
+    public interface MessageListener {
+        void onMessage(String sourcePeer, String message);
+    }
 }
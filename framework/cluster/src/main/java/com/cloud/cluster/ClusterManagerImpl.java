@@ -32,6 +32,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -52,6 +53,7 @@ import com.cloud.cluster.dao.ManagementServerHostDao;
 import com.cloud.cluster.dao.ManagementServerHostPeerDao;
 import com.cloud.utils.DateUtil;
 import com.cloud.utils.Profiler;
+import com.cloud.utils.component.AdapterBase;
 import com.cloud.utils.component.ComponentLifecycle;
 import com.cloud.utils.component.ManagerBase;
 import com.cloud.utils.concurrency.NamedThreadFactory;
@@ -100,6 +102,7 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
     private ManagementServerHostPeerDao _mshostPeerDao;
 
     protected Dispatcher _dispatcher;
+    private final Map<String, MessageListener> _messageListeners = new ConcurrentHashMap<String, MessageListener>();
 
     //
     // pay attention to _mshostId and _msid
@@ -114,9 +117,9 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
 
     private String _clusterNodeIP = "127.0.0.1";
 
-    private final List<ClusterServicePdu> _clusterPduOutgoingQueue = new ArrayList<ClusterServicePdu>();
-    private final List<ClusterServicePdu> _clusterPduIncomingQueue = new ArrayList<ClusterServicePdu>();
-    private final Map<Long, ClusterServiceRequestPdu> _outgoingPdusWaitingForAck = new HashMap<Long, ClusterServiceRequestPdu>();
+    private ClusterServicePduQueue _clusterPduOutgoingQueue;
+    private ClusterServicePduQueue _clusterPduIncomingQueue;
+    private final Map<Long, ClusterServiceRequestPdu> _outgoingPdusWaitingForAck = new ConcurrentHashMap<Long, ClusterServiceRequestPdu>();
 
     public ClusterManagerImpl() {
         _clusterPeers = new HashMap<String, ClusterService>();
@@ -129,9 +132,7 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
     }
 
     private void registerRequestPdu(final ClusterServiceRequestPdu pdu) {
-        synchronized (_outgoingPdusWaitingForAck) {
-            _outgoingPdusWaitingForAck.put(pdu.getSequenceId(), pdu);
-        }
+        _outgoingPdusWaitingForAck.put(pdu.getSequenceId(), pdu);
     }
 
     @Override
@@ -139,29 +140,46 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
         _dispatcher = dispatcher;
     }
 
-    private ClusterServiceRequestPdu popRequestPdu(final long ackSequenceId) {
-        synchronized (_outgoingPdusWaitingForAck) {
-            if (_outgoingPdusWaitingForAck.get(ackSequenceId) != null) {
-                final ClusterServiceRequestPdu pdu = _outgoingPdusWaitingForAck.get(ackSequenceId);
-                _outgoingPdusWaitingForAck.remove(ackSequenceId);
-                return pdu;
-            }
+    @Override
+    public void registerMessageListener(final String subject, final MessageListener listener) {
+        _messageListeners.put(subject, listener);
+    }
+
+    @Override
+    public void sendMessage(final long msid, final String subject, final String message) {
+        final String peerName = Long.toString(msid);
+        if (getSelfPeerName().equals(peerName)) {
+            deliverMessage(peerName, subject, message);
+            return;
         }
 
-        return null;
+        final ClusterServicePdu pdu = new ClusterServicePdu();
+        pdu.setSourcePeer(getSelfPeerName());
+        pdu.setDestPeer(peerName);
+        pdu.setPduType(ClusterServicePdu.PDU_TYPE_NOTIFICATION);
+        pdu.setSubject(subject);
+        pdu.setJsonPackage(message);
+        addOutgoingClusterPdu(pdu);
+    }
+
+    private void deliverMessage(final String sourcePeer, final String subject, final String message) {
+        final MessageListener listener = subject != null ? _messageListeners.get(subject) : null;
+        if (listener == null) {
+            s_logger.warn("No listener for cluster message with subject " + subject + " from " + sourcePeer);
+            return;
+        }
+        listener.onMessage(sourcePeer, message);
+    }
+
+    private ClusterServiceRequestPdu popRequestPdu(final long ackSequenceId) {
+        return _outgoingPdusWaitingForAck.remove(ackSequenceId);
     }
 
     private void cancelClusterRequestToPeer(final String strPeer) {
         final List<ClusterServiceRequestPdu> candidates = new ArrayList<ClusterServiceRequestPdu>();
-        synchronized (_outgoingPdusWaitingForAck) {
-            for (final Map.Entry<Long, ClusterServiceRequestPdu> entry : _outgoingPdusWaitingForAck.entrySet()) {
-                if (entry.getValue().getDestPeer().equalsIgnoreCase(strPeer)) {
-                    candidates.add(entry.getValue());
-                }
-            }
-
-            for (final ClusterServiceRequestPdu pdu : candidates) {
-                _outgoingPdusWaitingForAck.remove(pdu.getSequenceId());
+        for (final ClusterServiceRequestPdu pdu : _outgoingPdusWaitingForAck.values()) {
+            if (pdu.getDestPeer().equalsIgnoreCase(strPeer) && _outgoingPdusWaitingForAck.remove(pdu.getSequenceId(), pdu)) {
+                candidates.add(pdu);
             }
         }
 
@@ -174,49 +192,40 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
     }
 
     private void addOutgoingClusterPdu(final ClusterServicePdu pdu) {
-        synchronized (_clusterPduOutgoingQueue) {
-            _clusterPduOutgoingQueue.add(pdu);
-            _clusterPduOutgoingQueue.notifyAll();
-        }
+        addClusterPdu(_clusterPduOutgoingQueue, pdu, "outgoing");
     }
 
     private ClusterServicePdu popOutgoingClusterPdu(final long timeoutMs) {
-        synchronized (_clusterPduOutgoingQueue) {
-            try {
-                _clusterPduOutgoingQueue.wait(timeoutMs);
-            } catch (final InterruptedException e) {
-            }
-
-            if (_clusterPduOutgoingQueue.size() > 0) {
-                final ClusterServicePdu pdu = _clusterPduOutgoingQueue.get(0);
-                _clusterPduOutgoingQueue.remove(0);
-                return pdu;
-            }
-        }
-        return null;
+        return popClusterPdu(_clusterPduOutgoingQueue, timeoutMs);
     }
 
     private void addIncomingClusterPdu(final ClusterServicePdu pdu) {
-        synchronized (_clusterPduIncomingQueue) {
-            _clusterPduIncomingQueue.add(pdu);
-            _clusterPduIncomingQueue.notifyAll();
-        }
+        addClusterPdu(_clusterPduIncomingQueue, pdu, "incoming");
     }
 
     private ClusterServicePdu popIncomingClusterPdu(final long timeoutMs) {
-        synchronized (_clusterPduIncomingQueue) {
-            try {
-                _clusterPduIncomingQueue.wait(timeoutMs);
-            } catch (final InterruptedException e) {
-            }
+        return popClusterPdu(_clusterPduIncomingQueue, timeoutMs);
+    }
 
-            if (_clusterPduIncomingQueue.size() > 0) {
-                final ClusterServicePdu pdu = _clusterPduIncomingQueue.get(0);
-                _clusterPduIncomingQueue.remove(0);
-                return pdu;
+    private void addClusterPdu(final ClusterServicePduQueue queue, final ClusterServicePdu pdu, final String queueName) {
+        // hold the producer back while the queue is full, a PDU is only dropped if it stays full for the message timeout
+        try {
+            if (!queue.offer(pdu, ClusterServiceAdapter.ClusterMessageTimeOut.value() * 1000L)) {
+                s_logger.error("Cluster PDU " + queueName + " queue is full (" + queue.getCapacity() + "), dropping PDU to " + pdu.getDestPeer() + ", pdu seq: " +
+                        pdu.getSequenceId() + ", json: " + pdu.getJsonPackage());
             }
+        } catch (final InterruptedException e) {
+            s_logger.warn("Interrupted while queuing " + queueName + " cluster PDU to " + pdu.getDestPeer() + ", pdu seq: " + pdu.getSequenceId());
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private ClusterServicePdu popClusterPdu(final ClusterServicePduQueue queue, final long timeoutMs) {
+        try {
+            return queue.poll(timeoutMs);
+        } catch (final InterruptedException e) {
+            return null;
         }
-        return null;
     }
 
     private Runnable getClusterPduSendingTask() {
@@ -302,7 +311,9 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
                 _executor.execute(new ManagedContextRunnable() {
                     @Override
                     protected void runInContext() {
-                        if (pdu.getPduType() == ClusterServicePdu.PDU_TYPE_RESPONSE) {
+                        if (pdu.getPduType() == ClusterServicePdu.PDU_TYPE_NOTIFICATION) {
+                            deliverMessage(pdu.getSourcePeer(), pdu.getSubject(), pdu.getJsonPackage());
+                        } else if (pdu.getPduType() == ClusterServicePdu.PDU_TYPE_RESPONSE) {
                             final ClusterServiceRequestPdu requestPdu = popRequestPdu(pdu.getAckSequenceId());
                             if (requestPdu != null) {
                                 requestPdu.setResponseResult(pdu.getJsonPackage());
@@ -516,9 +527,12 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
             synchronized (_clusterPeers) {
                 // re-check the peer map again to deal with the
                 // race conditions
-                if (!_clusterPeers.containsKey(strPeer)) {
-                    _clusterPeers.put(strPeer, service);
+                final ClusterService existing = _clusterPeers.get(strPeer);
+                if (existing != null) {
+                    closePeerService(service);
+                    return existing;
                 }
+                _clusterPeers.put(strPeer, service);
             }
         }
 
@@ -526,10 +540,17 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
     }
 
     public void invalidatePeerService(final String strPeer) {
+        final ClusterService service;
         synchronized (_clusterPeers) {
-            if (_clusterPeers.containsKey(strPeer)) {
-                _clusterPeers.remove(strPeer);
-            }
+            service = _clusterPeers.remove(strPeer);
+        }
+        closePeerService(service);
+    }
+
+    private static void closePeerService(final ClusterService service) {
+        // services of the nio adapter hold a client with its own threads and connection
+        if (service instanceof ClusterServiceNioImpl) {
+            ((ClusterServiceNioImpl)service).close();
         }
     }
 
@@ -1046,6 +1067,9 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
             throw new ConfigurationException("cluster node IP should be valid local address where the server is running, please check your configuration");
         }
 
+        _clusterPduOutgoingQueue = new ClusterServicePduQueue(PduQueueSize.value());
+        _clusterPduIncomingQueue = new ClusterServicePduQueue(PduQueueSize.value());
+
         for (int i = 0; i < DEFAULT_OUTGOING_WORKERS; i++) {
             _executor.execute(getClusterPduSendingTask());
         }
@@ -1056,7 +1080,19 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
         if (_serviceAdapters == null) {
             throw new ConfigurationException("Unable to get cluster service adapters");
         }
-        _currentServiceAdapter = _serviceAdapters.get(0);
+        final String adapterName = dbProps.getProperty("cluster.service.adapter");
+        if (adapterName != null) {
+            _currentServiceAdapter = AdapterBase.getAdapterByName(_serviceAdapters, adapterName.trim());
+            if (_currentServiceAdapter == null) {
+                s_logger.warn("Cluster service adapter " + adapterName + " is not available, using the default one");
+            }
+        }
+        if (_currentServiceAdapter == null) {
+            _currentServiceAdapter = AdapterBase.getAdapterByName(_serviceAdapters, ClusterServiceServletAdapter.class.getSimpleName());
+        }
+        if (_currentServiceAdapter == null && !_serviceAdapters.isEmpty()) {
+            _currentServiceAdapter = _serviceAdapters.get(0);
+        }
 
         if (_currentServiceAdapter == null) {
             throw new ConfigurationException("Unable to set current cluster service adapter");
@@ -1116,7 +1152,7 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
 
     @Override
     public ConfigKey<?>[] getConfigKeys() {
-        return new ConfigKey<?>[] {HeartbeatInterval, HeartbeatThreshold};
+        return new ConfigKey<?>[] {HeartbeatInterval, HeartbeatThreshold, PduQueueSize};
     }
 
     private boolean pingManagementNode(final ManagementServerHostVO mshost) {
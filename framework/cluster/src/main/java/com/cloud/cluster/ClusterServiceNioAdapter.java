@@ -0,0 +1,131 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.cluster;
+
+import java.rmi.RemoteException;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.inject.Inject;
+import javax.naming.ConfigurationException;
+
+import org.apache.cloudstack.ca.CAManager;
+import org.apache.log4j.Logger;
+
+import com.cloud.cluster.dao.ManagementServerHostDao;
+import com.cloud.utils.NumbersUtil;
+import com.cloud.utils.component.AdapterBase;
+import com.cloud.utils.component.ComponentLifecycle;
+import com.cloud.utils.db.DbProperties;
+import com.cloud.utils.exception.NioConnectionException;
+import com.cloud.utils.nio.NioServer;
+
+/**
+ * Cluster service over persistent TLS links, built on the same NIO framework as the agent links,
+ * instead of an HTTP POST per PDU. A management server listens on its cluster servlet port plus
+ * {@link #PORT_OFFSET}, and keeps one link to each peer it sends to.
+ *
+ * It is used when cluster.service.adapter is set to ClusterServiceNioAdapter in db.properties,
+ * which has to be done on all the management servers of the cluster.
+ */
+public class ClusterServiceNioAdapter extends AdapterBase implements ClusterServiceAdapter {
+
+    private static final Logger s_logger = Logger.getLogger(ClusterServiceNioAdapter.class);
+    private static final int DEFAULT_SERVICE_PORT = 9090;
+    public static final int PORT_OFFSET = 1;
+    private static final int DEFAULT_WORKERS = 5;
+
+    @Inject
+    private ClusterManager _manager;
+    @Inject
+    private ManagementServerHostDao _mshostDao;
+    @Inject
+    private CAManager _caManager;
+
+    private NioServer _server;
+
+    private int _clusterServicePort = DEFAULT_SERVICE_PORT;
+    private int _workers = DEFAULT_WORKERS;
+    private boolean _enabled;
+
+    public ClusterServiceNioAdapter() {
+        setRunLevel(ComponentLifecycle.RUN_LEVEL_FRAMEWORK);
+    }
+
+    @Override
+    public ClusterService getPeerService(String strPeer) throws RemoteException {
+        ManagementServerHostVO mshost = _mshostDao.findByMsid(Long.parseLong(strPeer));
+        if (mshost == null)
+            return null;
+
+        return new ClusterServiceNioImpl(mshost.getServiceIP(), mshost.getServicePort() + PORT_OFFSET, _workers);
+    }
+
+    @Override
+    public String getServiceEndpointName(String strPeer) {
+        ManagementServerHostVO mshost = _mshostDao.findByMsid(Long.parseLong(strPeer));
+        if (mshost == null)
+            return null;
+
+        return mshost.getServiceIP() + ":" + (mshost.getServicePort() + PORT_OFFSET);
+    }
+
+    /**
+     * @return the cluster servlet port, which is registered for this management server, peers
+     *         connect to it plus {@link #PORT_OFFSET}
+     */
+    @Override
+    public int getServicePort() {
+        return _clusterServicePort;
+    }
+
+    @Override
+    public boolean configure(String name, Map<String, Object> params) throws ConfigurationException {
+        super.configure(name, params);
+
+        Properties dbProps = DbProperties.getDbProperties();
+        _clusterServicePort = NumbersUtil.parseInt(dbProps.getProperty("cluster.servlet.port"), DEFAULT_SERVICE_PORT);
+        _workers = NumbersUtil.parseInt(dbProps.getProperty("cluster.nio.workers"), DEFAULT_WORKERS);
+        _enabled = getClass().getSimpleName().equalsIgnoreCase(dbProps.getProperty("cluster.service.adapter", "").trim());
+        if (_enabled && s_logger.isInfoEnabled())
+            s_logger.info("Cluster service NIO port : " + (_clusterServicePort + PORT_OFFSET));
+        return true;
+    }
+
+    @Override
+    public boolean start() {
+        if (!_enabled) {
+            return true;
+        }
+
+        _server = new NioServer("ClusterService", _clusterServicePort + PORT_OFFSET, _workers, new ClusterServiceNioHandler(_manager), _caManager);
+        try {
+            _server.start();
+        } catch (final NioConnectionException e) {
+            s_logger.error("Unable to start cluster service NIO server on port " + (_clusterServicePort + PORT_OFFSET), e);
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        if (_server != null)
+            _server.stop();
+        return true;
+    }
+}
@@ -0,0 +1,147 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.cluster;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Message exchanged over a cluster service NIO link. Every request, a PDU or a ping, carries a
+ * sequence number that is unique on its link, and is answered with a result frame carrying the
+ * same number, so that any number of requests can be outstanding on one link at a time.
+ */
+public class ClusterServiceNioFrame {
+    public static final byte TYPE_PDU = 1;
+    public static final byte TYPE_PING = 2;
+    public static final byte TYPE_RESULT = 3;
+
+    private final byte _type;
+    private final long _sequence;
+    private final ClusterServicePdu _pdu;
+    private final String _text;
+
+    private ClusterServiceNioFrame(byte type, long sequence, ClusterServicePdu pdu, String text) {
+        _type = type;
+        _sequence = sequence;
+        _pdu = pdu;
+        _text = text;
+    }
+
+    public static ClusterServiceNioFrame pdu(long sequence, ClusterServicePdu pdu) {
+        return new ClusterServiceNioFrame(TYPE_PDU, sequence, pdu, null);
+    }
+
+    public static ClusterServiceNioFrame ping(long sequence, String callingPeer) {
+        return new ClusterServiceNioFrame(TYPE_PING, sequence, null, callingPeer);
+    }
+
+    public static ClusterServiceNioFrame result(long sequence, String result) {
+        return new ClusterServiceNioFrame(TYPE_RESULT, sequence, null, result);
+    }
+
+    public byte getType() {
+        return _type;
+    }
+
+    public long getSequence() {
+        return _sequence;
+    }
+
+    public ClusterServicePdu getPdu() {
+        return _pdu;
+    }
+
+    /**
+     * @return the calling peer of a ping, or the result of a request
+     */
+    public String getText() {
+        return _text;
+    }
+
+    public byte[] encode() {
+        final ByteArrayOutputStream bs = new ByteArrayOutputStream(_pdu != null && _pdu.getJsonPackage() != null ? _pdu.getJsonPackage().length() + 128 : 64);
+        try (DataOutputStream out = new DataOutputStream(bs)) {
+            out.writeByte(_type);
+            out.writeLong(_sequence);
+            if (_type == TYPE_PDU) {
+                out.writeLong(_pdu.getSequenceId());
+                out.writeLong(_pdu.getAckSequenceId());
+                writeString(out, _pdu.getSourcePeer());
+                writeString(out, _pdu.getDestPeer());
+                out.writeLong(_pdu.getAgentId());
+                out.writeBoolean(_pdu.isStopOnError());
+                out.writeInt(_pdu.getPduType());
+                writeString(out, _pdu.getSubject());
+                writeString(out, _pdu.getJsonPackage());
+            } else {
+                writeString(out, _text);
+            }
+        } catch (final IOException e) {
+            // not thrown when writing to memory
+            throw new IllegalStateException(e);
+        }
+        return bs.toByteArray();
+    }
+
+    public static ClusterServiceNioFrame decode(byte[] data) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            final byte type = in.readByte();
+            final long sequence = in.readLong();
+            if (type == TYPE_PDU) {
+                final ClusterServicePdu pdu = new ClusterServicePdu();
+                pdu.setSequenceId(in.readLong());
+                pdu.setAckSequenceId(in.readLong());
+                pdu.setSourcePeer(readString(in));
+                pdu.setDestPeer(readString(in));
+                pdu.setAgentId(in.readLong());
+                pdu.setStopOnError(in.readBoolean());
+                pdu.setPduType(in.readInt());
+                pdu.setSubject(readString(in));
+                pdu.setJsonPackage(readString(in));
+                return pdu(sequence, pdu);
+            } else if (type == TYPE_PING || type == TYPE_RESULT) {
+                return new ClusterServiceNioFrame(type, sequence, null, readString(in));
+            }
+            throw new IOException("Unknown cluster service frame type " + type);
+        }
+    }
+
+    // unlike writeUTF, not limited to 64KB
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
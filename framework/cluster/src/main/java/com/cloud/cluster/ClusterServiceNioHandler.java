@@ -0,0 +1,89 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.cluster;
+
+import java.io.IOException;
+
+import org.apache.log4j.Logger;
+
+import com.cloud.utils.nio.HandlerFactory;
+import com.cloud.utils.nio.Link;
+import com.cloud.utils.nio.Task;
+
+/**
+ * Receiving end of the cluster service NIO links. PDUs are queued to the cluster manager, the
+ * same way the cluster service servlet does it, and acknowledged on the link they came in on.
+ */
+public class ClusterServiceNioHandler implements HandlerFactory {
+    private static final Logger s_logger = Logger.getLogger(ClusterServiceNioHandler.class);
+
+    private static final String RESULT_OK = "true";
+
+    private final ClusterManager _manager;
+
+    public ClusterServiceNioHandler(ClusterManager manager) {
+        _manager = manager;
+    }
+
+    @Override
+    public Task create(Task.Type type, Link link, byte[] data) {
+        return new ClusterServiceNioTask(type, link, data);
+    }
+
+    private class ClusterServiceNioTask extends Task {
+        ClusterServiceNioTask(Task.Type type, Link link, byte[] data) {
+            super(type, link, data);
+        }
+
+        @Override
+        protected void doTask(Task task) {
+            if (task.getType() == Task.Type.DATA) {
+                handleFrame(task.getLink(), task.getData());
+            } else if (s_logger.isDebugEnabled()) {
+                s_logger.debug("Cluster service link " + task.getType() + " from " + task.getLink().getSocketAddress());
+            }
+        }
+    }
+
+    private void handleFrame(Link link, byte[] data) {
+        final ClusterServiceNioFrame frame;
+        try {
+            frame = ClusterServiceNioFrame.decode(data);
+        } catch (final IOException e) {
+            s_logger.error("Unable to decode cluster service frame from " + link.getSocketAddress() + ", closing the link", e);
+            link.close();
+            return;
+        }
+
+        if (frame.getType() == ClusterServiceNioFrame.TYPE_PDU) {
+            _manager.OnReceiveClusterServicePdu(frame.getPdu());
+        } else if (frame.getType() == ClusterServiceNioFrame.TYPE_PING) {
+            if (s_logger.isDebugEnabled()) {
+                s_logger.debug("Handle ping request from " + frame.getText());
+            }
+        } else {
+            s_logger.warn("Unexpected cluster service frame of type " + frame.getType() + " from " + link.getSocketAddress());
+            return;
+        }
+
+        try {
+            link.send(ClusterServiceNioFrame.result(frame.getSequence(), RESULT_OK).encode());
+        } catch (final IOException e) {
+            s_logger.warn("Unable to acknowledge cluster service request " + frame.getSequence() + " from " + link.getSocketAddress() + ": " + e.getMessage());
+        }
+    }
+}
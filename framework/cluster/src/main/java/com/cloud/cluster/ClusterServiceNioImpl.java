@@ -0,0 +1,201 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.cluster;
+
+import java.io.IOException;
+import java.rmi.RemoteException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import com.cloud.utils.Profiler;
+import com.cloud.utils.exception.NioConnectionException;
+import com.cloud.utils.nio.HandlerFactory;
+import com.cloud.utils.nio.Link;
+import com.cloud.utils.nio.NioClient;
+import com.cloud.utils.nio.Task;
+
+/**
+ * Cluster service of a peer, reached over one persistent TLS link. Requests from any number of
+ * threads are pipelined on the link, each one waits for the result frame with its own sequence
+ * number, and the link writes whatever requests are queued when it gets to write in one go.
+ *
+ * Once the link fails, or a request times out, the service is closed and all its requests fail,
+ * the cluster manager then closes it if it did not close itself, and gets a new one from the adapter.
+ */
+public class ClusterServiceNioImpl implements ClusterService {
+    private static final long serialVersionUID = -2497314823585542147L;
+    private static final Logger s_logger = Logger.getLogger(ClusterServiceNioImpl.class);
+
+    private static final long CONNECT_TIMEOUT_MS = 10000;
+
+    private final String _peerAddress;
+    private final NioClient _client;
+    private final CountDownLatch _connected = new CountDownLatch(1);
+    private final AtomicLong _nextSequence = new AtomicLong(1);
+    private final Map<Long, CompletableFuture<String>> _pendingRequests = new ConcurrentHashMap<Long, CompletableFuture<String>>();
+    private volatile Link _link;
+    private final AtomicBoolean _closed = new AtomicBoolean();
+
+    public ClusterServiceNioImpl(final String host, final int port, final int workers) throws RemoteException {
+        _peerAddress = host + ":" + port;
+        s_logger.info("Setup cluster service link to " + _peerAddress + ", request timeout: " + ClusterServiceAdapter.ClusterMessageTimeOut.value() + " seconds");
+
+        _client = new NioClient("ClusterService-" + _peerAddress, host, port, workers, new ClientHandler());
+        try {
+            _client.start();
+            if (!_client.isStartup() || !_connected.await(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                close();
+                throw new RemoteException("Unable to connect to cluster service at " + _peerAddress);
+            }
+        } catch (final NioConnectionException e) {
+            close();
+            throw new RemoteException("Unable to connect to cluster service at " + _peerAddress, e);
+        } catch (final InterruptedException e) {
+            close();
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted while connecting to cluster service at " + _peerAddress);
+        }
+    }
+
+    @Override
+    public String execute(final ClusterServicePdu pdu) throws RemoteException {
+        return sendRequest(ClusterServiceNioFrame.pdu(_nextSequence.getAndIncrement(), pdu));
+    }
+
+    @Override
+    public boolean ping(final String callingPeer) throws RemoteException {
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Ping at " + _peerAddress);
+        }
+        return "true".equalsIgnoreCase(sendRequest(ClusterServiceNioFrame.ping(_nextSequence.getAndIncrement(), callingPeer)));
+    }
+
+    public boolean isClosed() {
+        return _closed.get();
+    }
+
+    /**
+     * Stops the client with its selector and worker threads and fails the pending requests. Only the
+     * first call does anything, so that it can be called from any of the paths that give up on the link.
+     */
+    public void close() {
+        if (!_closed.compareAndSet(false, true)) {
+            return;
+        }
+        final Link link = _link;
+        if (link != null) {
+            link.close();
+        }
+        _client.stop();
+        try {
+            _client.cleanUp();
+        } catch (final IOException e) {
+            s_logger.debug("[ignored] error closing cluster service link to " + _peerAddress + ": " + e.getMessage());
+        }
+        failPendingRequests();
+    }
+
+    private String sendRequest(final ClusterServiceNioFrame frame) throws RemoteException {
+        if (_closed.get()) {
+            throw new RemoteException("Cluster service link to " + _peerAddress + " is closed");
+        }
+
+        final CompletableFuture<String> result = new CompletableFuture<String>();
+        _pendingRequests.put(frame.getSequence(), result);
+        final Profiler profiler = new Profiler();
+        profiler.start();
+        try {
+            _link.send(frame.encode());
+            final String strResult = result.get(ClusterServiceAdapter.ClusterMessageTimeOut.value(), TimeUnit.SECONDS);
+            profiler.stop();
+            if (s_logger.isTraceEnabled()) {
+                s_logger.trace("Cluster service request " + frame.getSequence() + " to " + _peerAddress + " response: " + strResult + ", responding time: " +
+                        profiler.getDurationInMillis() + " ms");
+            }
+            return strResult;
+        } catch (final IOException e) {
+            close();
+            throw new RemoteException("Unable to send to cluster service at " + _peerAddress, e);
+        } catch (final TimeoutException e) {
+            // the link is in an unknown state, requests queued behind this one would time out as well
+            close();
+            throw new RemoteException("Cluster service request to " + _peerAddress + " timed out");
+        } catch (final ExecutionException e) {
+            throw new RemoteException("Cluster service request to " + _peerAddress + " failed", e.getCause());
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted while waiting for cluster service at " + _peerAddress);
+        } finally {
+            _pendingRequests.remove(frame.getSequence());
+        }
+    }
+
+    private void failPendingRequests() {
+        for (final CompletableFuture<String> result : _pendingRequests.values()) {
+            result.completeExceptionally(new IOException("Cluster service link to " + _peerAddress + " is closed"));
+        }
+    }
+
+    private class ClientHandler implements HandlerFactory {
+        @Override
+        public Task create(final Task.Type type, final Link link, final byte[] data) {
+            return new Task(type, link, data) {
+                @Override
+                protected void doTask(final Task task) {
+                    switch (task.getType()) {
+                    case CONNECT:
+                        _link = task.getLink();
+                        _connected.countDown();
+                        break;
+                    case DATA:
+                        onResult(task.getData());
+                        break;
+                    case DISCONNECT:
+                        s_logger.info("Cluster service link to " + _peerAddress + " is disconnected");
+                        close();
+                        break;
+                    default:
+                        break;
+                    }
+                }
+            };
+        }
+    }
+
+    private void onResult(final byte[] data) {
+        try {
+            final ClusterServiceNioFrame frame = ClusterServiceNioFrame.decode(data);
+            final CompletableFuture<String> result = _pendingRequests.get(frame.getSequence());
+            if (result != null) {
+                result.complete(frame.getText());
+            } else if (s_logger.isDebugEnabled()) {
+                s_logger.debug("Cluster service request " + frame.getSequence() + " to " + _peerAddress + " is no longer waited for");
+            }
+        } catch (final IOException e) {
+            s_logger.error("Unable to decode cluster service frame from " + _peerAddress, e);
+        }
+    }
+}
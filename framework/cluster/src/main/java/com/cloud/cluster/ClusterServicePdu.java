@@ -16,10 +16,13 @@
 // under the License.
 package com.cloud.cluster;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 public class ClusterServicePdu {
     public final static int PDU_TYPE_MESSAGE = 0;
     public final static int PDU_TYPE_REQUEST = 1;
     public final static int PDU_TYPE_RESPONSE = 2;
+    public final static int PDU_TYPE_NOTIFICATION = 3;
 
     private long sequenceId;
     private long ackSequenceId;
@@ -30,10 +33,12 @@ public class ClusterServicePdu {
     private long agentId;
     private boolean stopOnError;
     private String jsonPackage;
+    private String subject;
 
     private int pduType = PDU_TYPE_MESSAGE;
 
-    private static long s_nextPduSequenceId = 1;
+    // responses are matched to requests on this id, so it must stay unique when PDUs are created concurrently
+    private static final AtomicLong s_nextPduSequenceId = new AtomicLong(1);
 
     public ClusterServicePdu() {
         sequenceId = getNextPduSequenceId();
@@ -42,8 +47,8 @@ public class ClusterServicePdu {
         stopOnError = false;
     }
 
-    public synchronized long getNextPduSequenceId() {
-        return s_nextPduSequenceId++;
+    public long getNextPduSequenceId() {
+        return s_nextPduSequenceId.getAndIncrement();
     }
 
     public long getSequenceId() {
@@ -102,6 +107,14 @@ public class ClusterServicePdu {
         this.jsonPackage = jsonPackage;
     }
 
+    public String getSubject() {
+        return subject;
+    }
+
+    public void setSubject(String subject) {
+        this.subject = subject;
+    }
+
     public int getPduType() {
         return pduType;
     }
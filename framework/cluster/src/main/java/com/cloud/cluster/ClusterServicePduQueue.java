@@ -0,0 +1,70 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.cluster;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded queue of cluster PDUs, shared by several producer and consumer threads. The PDUs are
+ * kept in a lock-free queue, the bound and the wait of idle consumers are counted with semaphores,
+ * so that producers and consumers do not serialize on a common monitor.
+ */
+public class ClusterServicePduQueue {
+    private final ConcurrentLinkedQueue<ClusterServicePdu> _pdus = new ConcurrentLinkedQueue<ClusterServicePdu>();
+    private final Semaphore _queued = new Semaphore(0);
+    private final Semaphore _free;
+    private final int _capacity;
+
+    public ClusterServicePduQueue(int capacity) {
+        _capacity = capacity;
+        _free = new Semaphore(capacity);
+    }
+
+    /**
+     * @return false if the queue stayed full for timeoutMs
+     */
+    public boolean offer(ClusterServicePdu pdu, long timeoutMs) throws InterruptedException {
+        if (!_free.tryAcquire(timeoutMs, TimeUnit.MILLISECONDS)) {
+            return false;
+        }
+        _pdus.add(pdu);
+        _queued.release();
+        return true;
+    }
+
+    /**
+     * @return the oldest PDU, or null if none got queued within timeoutMs
+     */
+    public ClusterServicePdu poll(long timeoutMs) throws InterruptedException {
+        if (!_queued.tryAcquire(timeoutMs, TimeUnit.MILLISECONDS)) {
+            return null;
+        }
+        ClusterServicePdu pdu = _pdus.poll();
+        _free.release();
+        return pdu;
+    }
+
+    public int size() {
+        return _queued.availablePermits();
+    }
+
+    public int getCapacity() {
+        return _capacity;
+    }
+}
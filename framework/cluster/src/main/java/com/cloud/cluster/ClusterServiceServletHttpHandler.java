@@ -166,6 +166,7 @@ public class ClusterServiceServletHttpHandler implements HttpRequestHandler {
         final String gsonPackage = (String)req.getParams().getParameter("gsonPackage");
         final String stopOnError = (String)req.getParams().getParameter("stopOnError");
         final String pduType = (String)req.getParams().getParameter("pduType");
+        final String subject = (String)req.getParams().getParameter("subject");
 
         final ClusterServicePdu pdu = new ClusterServicePdu();
         pdu.setSourcePeer(sourcePeer);
@@ -176,6 +177,7 @@ public class ClusterServiceServletHttpHandler implements HttpRequestHandler {
         pdu.setJsonPackage(gsonPackage);
         pdu.setStopOnError("1".equals(stopOnError));
         pdu.setPduType(Integer.parseInt(pduType));
+        pdu.setSubject(subject);
 
         manager.OnReceiveClusterServicePdu(pdu);
         return "true";
@@ -0,0 +1,123 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.cluster;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.mockito.Mockito;
+
+import com.cloud.utils.nio.NioServer;
+
+/**
+ * Runs two cluster nodes in one JVM, a sending and a receiving one, and compares the PDU round trip
+ * latency and the throughput of the NIO link with those of the cluster service servlet. It is not a
+ * unit test, run it by hand with the test classpath of this module.
+ */
+public class ClusterServiceNioTransportBenchmark {
+    private static final int ROUND_TRIPS = 1000;
+    private static final int SENDERS = 8;
+    private static final int PDUS_PER_SENDER = 500;
+
+    public static void main(final String[] args) throws Exception {
+        final ClusterManager receivingNode = Mockito.mock(ClusterManager.class, Mockito.withSettings().stubOnly());
+
+        final NioServer nioServer = new NioServer("ClusterServiceNioBenchmark", 0, 4, new ClusterServiceNioHandler(receivingNode), null);
+        nioServer.start();
+        final ClusterServiceNioImpl nioService = new ClusterServiceNioImpl("127.0.0.1", nioServer.getPort(), 4);
+
+        final int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        final ClusterServiceServletContainer servletContainer = new ClusterServiceServletContainer();
+        servletContainer.start(new ClusterServiceServletHttpHandler(receivingNode), port);
+        final ClusterService servletService = new ClusterServiceServletImpl("http://127.0.0.1:" + port + "/clusterservice");
+
+        try {
+            waitForServlet(servletService);
+
+            // warm up both transports
+            roundTrips(nioService, ROUND_TRIPS);
+            roundTrips(servletService, ROUND_TRIPS);
+
+            final long nioLatency = roundTrips(nioService, ROUND_TRIPS);
+            final long servletLatency = roundTrips(servletService, ROUND_TRIPS);
+            final long nioThroughput = throughput(nioService);
+            final long servletThroughput = throughput(servletService);
+
+            System.out.println("nio: " + nioLatency / 1000 + " us per round trip, " + nioThroughput + " PDUs/s with " + SENDERS + " senders");
+            System.out.println("servlet: " + servletLatency / 1000 + " us per round trip, " + servletThroughput + " PDUs/s with " + SENDERS + " senders");
+        } finally {
+            nioService.close();
+            nioServer.stop();
+            servletContainer.stop();
+        }
+    }
+
+    private static void waitForServlet(ClusterService service) throws Exception {
+        for (int i = 0; i < 50; i++) {
+            if (service.ping("1")) {
+                return;
+            }
+            Thread.sleep(100);
+        }
+        throw new IOException("Cluster service servlet did not start");
+    }
+
+    /**
+     * @return the average round trip time in nanoseconds
+     */
+    private static long roundTrips(ClusterService service, int count) throws RemoteException {
+        final long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            service.execute(ClusterServiceNioTransportTest.createPdu(i));
+        }
+        return (System.nanoTime() - start) / count;
+    }
+
+    /**
+     * @return PDUs per second sent by concurrent senders, the way the cluster manager sending workers do
+     */
+    private static long throughput(final ClusterService service) throws Exception {
+        final ExecutorService senders = Executors.newFixedThreadPool(SENDERS);
+        try {
+            final List<Future<?>> results = new ArrayList<Future<?>>();
+            final long start = System.nanoTime();
+            for (int s = 0; s < SENDERS; s++) {
+                results.add(senders.submit(() -> {
+                    for (int i = 0; i < PDUS_PER_SENDER; i++) {
+                        service.execute(ClusterServiceNioTransportTest.createPdu(i));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+            return SENDERS * PDUS_PER_SENDER * 1000000000L / (System.nanoTime() - start);
+        } finally {
+            senders.shutdown();
+        }
+    }
+}
@@ -0,0 +1,153 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.cluster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.cloud.utils.nio.NioServer;
+
+/**
+ * Runs two cluster nodes in one JVM, a sending and a receiving one, connected by the NIO link.
+ */
+public class ClusterServiceNioTransportTest {
+    private static final int SENDERS = 8;
+    private static final int PDUS_PER_SENDER = 50;
+
+    private final AtomicInteger _received = new AtomicInteger();
+    private final List<ClusterServicePdu> _lastReceived = new ArrayList<ClusterServicePdu>();
+    private ClusterManager _receivingNode;
+
+    private NioServer _nioServer;
+    private ClusterServiceNioImpl _nioService;
+
+    @Before
+    public void setUp() throws Exception {
+        _receivingNode = Mockito.mock(ClusterManager.class, Mockito.withSettings().stubOnly());
+        Mockito.doAnswer(invocation -> {
+            _received.incrementAndGet();
+            synchronized (_lastReceived) {
+                _lastReceived.clear();
+                _lastReceived.add(invocation.getArgument(0));
+            }
+            return null;
+        }).when(_receivingNode).OnReceiveClusterServicePdu(Mockito.any(ClusterServicePdu.class));
+
+        _nioServer = new NioServer("ClusterServiceNioTest", 0, 4, new ClusterServiceNioHandler(_receivingNode), null);
+        _nioServer.start();
+        _nioService = new ClusterServiceNioImpl("127.0.0.1", _nioServer.getPort(), 4);
+    }
+
+    @After
+    public void tearDown() {
+        if (_nioService != null) {
+            _nioService.close();
+        }
+        if (_nioServer != null) {
+            _nioServer.stop();
+        }
+    }
+
+    static ClusterServicePdu createPdu(int i) {
+        ClusterServicePdu pdu = new ClusterServicePdu();
+        pdu.setSourcePeer("1");
+        pdu.setDestPeer("2");
+        pdu.setAgentId(i);
+        pdu.setPduType(ClusterServicePdu.PDU_TYPE_REQUEST);
+        pdu.setJsonPackage("[{\"com.cloud.agent.api.CheckHealthCommand\":{\"wait\":50,\"bypassHostMaintenance\":false}}]");
+        return pdu;
+    }
+
+    @Test
+    public void testPduFieldsSurviveTheLink() throws RemoteException {
+        ClusterServicePdu pdu = createPdu(42);
+        pdu.setPduType(ClusterServicePdu.PDU_TYPE_NOTIFICATION);
+        pdu.setSubject("subject");
+        pdu.setStopOnError(true);
+        pdu.setAckSequenceId(7);
+
+        assertEquals("true", _nioService.execute(pdu));
+        assertTrue(_nioService.ping("1"));
+
+        ClusterServicePdu received;
+        synchronized (_lastReceived) {
+            received = _lastReceived.get(0);
+        }
+        assertEquals(pdu.getSequenceId(), received.getSequenceId());
+        assertEquals(7, received.getAckSequenceId());
+        assertEquals(42, received.getAgentId());
+        assertEquals("1", received.getSourcePeer());
+        assertEquals("2", received.getDestPeer());
+        assertEquals(ClusterServicePdu.PDU_TYPE_NOTIFICATION, received.getPduType());
+        assertEquals("subject", received.getSubject());
+        assertTrue(received.isStopOnError());
+        assertEquals(pdu.getJsonPackage(), received.getJsonPackage());
+    }
+
+    @Test
+    public void testClosedServiceFailsRequests() {
+        _nioService.close();
+        try {
+            _nioService.execute(createPdu(1));
+            assertTrue("A closed service should not send", false);
+        } catch (RemoteException e) {
+            assertTrue(_nioService.isClosed());
+        }
+    }
+
+    @Test
+    public void testCloseIsIdempotent() {
+        _nioService.close();
+        _nioService.close();
+        assertTrue(_nioService.isClosed());
+    }
+
+    @Test
+    public void testConcurrentSendersArePipelined() throws Exception {
+        final ExecutorService senders = Executors.newFixedThreadPool(SENDERS);
+        try {
+            final List<Future<?>> results = new ArrayList<Future<?>>();
+            for (int s = 0; s < SENDERS; s++) {
+                results.add(senders.submit(() -> {
+                    for (int i = 0; i < PDUS_PER_SENDER; i++) {
+                        assertEquals("true", _nioService.execute(createPdu(i)));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            senders.shutdown();
+        }
+        assertEquals(SENDERS * PDUS_PER_SENDER, _received.get());
+    }
+}
@@ -34,6 +34,8 @@ import com.cloud.utils.exception.CloudRuntimeException;
 public class EcInfo {
     protected String insertSql;
     protected String selectSql;
+    /* selects the owner id and the value, ends with an open IN list that the caller completes */
+    protected String batchSelectSqlPrefix;
     protected String clearSql;
     protected Class<?> targetClass;
     protected Class<?> rawClass;
@@ -96,7 +98,9 @@ public class EcInfo {
             valuesBuf.append(", ");
         }
 
-        selectSql = selectBuf.append(idAttr.table).append(".").append(idAttr.columnName).append("=?").toString();
+        selectBuf.append(idAttr.table).append(".").append(idAttr.columnName);
+        batchSelectSqlPrefix = "SELECT " + idAttr.table + "." + idAttr.columnName + ", " + selectBuf.substring("SELECT ".length()) + " IN (";
+        selectSql = selectBuf.append("=?").toString();
         insertBuf.append(attr.columnName).append(") ");
         valuesBuf.append("? FROM ").append(attr.table);
         valuesBuf.append(" WHERE ").append(idAttr.table).append(".").append(idAttr.columnName).append("=?");
@@ -104,4 +108,19 @@ public class EcInfo {
         insertSql = insertBuf.append(valuesBuf).toString();
         clearSql = clearBuf.toString();
     }
+
+    public String getSelectSql() {
+        return selectSql;
+    }
+
+    /**
+     * @return the select of the owner id and the value for the given number of owner ids
+     */
+    public String getBatchSelectSql(int ids) {
+        final StringBuilder sql = new StringBuilder(batchSelectSqlPrefix);
+        for (int i = 0; i < ids; i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        return sql.append(")").toString();
+    }
 }
@@ -17,6 +17,7 @@
 package com.cloud.utils.db;
 
 import java.io.Serializable;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -135,6 +136,14 @@ public interface GenericDao<T, ID extends Serializable> {
 
     int update(T entity, SearchCriteria<T> sc);
 
+    /**
+     * Update the changes made to the entity beans, entities with the same set of changes are
+     * written with one batched statement.
+     * @param entities entity beans generated by this dao.
+     * @return number of rows updated.
+     */
+    int updateAll(Collection<T> entities);
+
     /**
      * Look for all active rows.
      * @return list of entity beans.
@@ -199,6 +208,16 @@ public interface GenericDao<T, ID extends Serializable> {
      **/
     T persist(T entity);
 
+    /**
+     * Persist a set of new entity beans in one transaction.  When the entity maps to a single table with
+     * a database generated id, the rows are inserted with multi-row inserts instead of one statement each.
+     * The id field of the entities is updated with the new ids, unlike persist the entities are not read back.
+     * Entity beans that were generated by this dao are written one at a time through persist.
+     * @param entities the beans to persist.
+     * @return the ids of the persisted entities in the iteration order of entities.
+     **/
+    List<ID> persistAll(Collection<T> entities);
+
     /**
      * remove the entity bean.  This will call delete automatically if
      * the entity bean does not have a removed field.
@@ -222,6 +241,13 @@ public interface GenericDao<T, ID extends Serializable> {
      */
     boolean expunge(ID id);
 
+    /**
+     * Expunge a set of rows with one delete per table and per batch of ids.
+     * @param ids
+     * @return number of rows deleted from the main table.
+     */
+    int expungeAll(Collection<ID> ids);
+
     /**
      * remove the entity bean specified by the search criteria
      * @param sc
@@ -40,11 +40,13 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 
 import javax.naming.ConfigurationException;
 import javax.persistence.AttributeOverride;
@@ -149,6 +151,8 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
     protected Map<String, TableGenerator> _tgs;
     protected Map<String, Attribute> _allAttributes;
     protected List<Attribute> _ecAttributes;
+    /* number of entities whose element collections are loaded with one query, 0 loads them one entity at a time */
+    protected int _ecBatchSize = EC_BATCH_SIZE;
     protected Map<Pair<String, String>, Attribute> _allColumns;
     protected Enhancer _enhancer;
     protected Factory _factory;
@@ -158,6 +162,10 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
     protected final static CallbackFilter s_callbackFilter = new UpdateFilter();
 
     protected static final String FOR_UPDATE_CLAUSE = " FOR UPDATE ";
+    /* default number of entities whose element collections are loaded with one query */
+    protected static final int EC_BATCH_SIZE = 500;
+    /* number of rows written with one multi-row insert or one delete */
+    protected static final int WRITE_BATCH_SIZE = 200;
     protected static final String SHARE_MODE_CLAUSE = " LOCK IN SHARE MODE";
     protected static final String SELECT_LAST_INSERT_ID_SQL = "SELECT LAST_INSERT_ID()";
     public static final Date DATE_TO_NULL = new Date(Long.MIN_VALUE);
@@ -336,12 +344,113 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
 
     @Override
     @DB()
-    public T lockOneRandomRow(final SearchCriteria<T> sc, final boolean exclusive) {
-        final Filter filter = new Filter(1);
+    public T lockOneRandomRow(SearchCriteria<T> sc, final boolean exclusive) {
+        final Attribute idAttr = getRandomSeekAttribute();
+        if (sc == null || idAttr == null || sc.getGroupBy() != null) {
+            final Filter filter = new Filter(1);
+            final List<T> beans = search(sc, filter, exclusive, true);
+            return beans.isEmpty() ? null : beans.get(0);
+        }
+
+        // ORDER BY RAND() sorts, and locks, every matching row.  Seek from a random id between the
+        // lowest and highest matching ids instead and wrap around below it, each lookup locks one row.
+        sc = checkAndSetRemovedIsNull(sc);
+        final Pair<Long, Long> range = getIdRange(sc, idAttr);
+        if (range == null) {
+            return null;
+        }
+        final long pivot = range.first() + (long)(ThreadLocalRandom.current().nextDouble() * (range.second() - range.first() + 1));
+        T bean = lockFirstRow(sc, idAttr, SearchCriteria.Op.GTEQ, pivot, exclusive);
+        if (bean == null && pivot > range.first()) {
+            bean = lockFirstRow(sc, idAttr, SearchCriteria.Op.LT, pivot, exclusive);
+        }
+        return bean;
+    }
+
+    /**
+     * Locks the first row that matches the search criteria.  Use this rather than lockOneRandomRow
+     * when the criteria select a single row, it runs one query.
+     * @param sc search criteria
+     * @param exclusive exclusive or share lock
+     * @return T if found and locked, null if not.
+     */
+    @DB()
+    protected T lockOneRow(final SearchCriteria<T> sc, final boolean exclusive) {
+        final Filter filter = new Filter(_entityBeanType, null, true, 0L, 1L);
         final List<T> beans = search(sc, filter, exclusive, true);
         return beans.isEmpty() ? null : beans.get(0);
     }
 
+    /**
+     * @return the numeric primary key to seek on in lockOneRandomRow, null if the entity doesn't have one.
+     */
+    protected Attribute getRandomSeekAttribute() {
+        final Attribute[] idAttrs = _idAttributes.get(_table);
+        if (idAttrs == null || idAttrs.length != 1 || idAttrs[0].field == null) {
+            return null;
+        }
+        final Class<?> type = idAttrs[0].field.getType();
+        return type == long.class || type == Long.class ? idAttrs[0] : null;
+    }
+
+    /**
+     * @return the lowest and highest id of the rows matching the search criteria, null if no row matches.
+     */
+    protected Pair<Long, Long> getIdRange(final SearchCriteria<T> sc, final Attribute idAttr) {
+        String clause = sc.getWhereClause();
+        if (clause != null && clause.length() == 0) {
+            clause = null;
+        }
+
+        final StringBuilder str = createCountSelect(null, clause != null);
+        final String column = idAttr.table + "." + idAttr.columnName;
+        str.replace(0, str.indexOf(" FROM "), "SELECT MIN(" + column + "), MAX(" + column + ")");
+        if (clause != null) {
+            str.append(clause);
+        }
+
+        final Collection<JoinBuilder<SearchCriteria<?>>> joins = sc.getJoins();
+        if (joins != null) {
+            addJoins(str, joins);
+        }
+
+        final TransactionLegacy txn = TransactionLegacy.currentTxn();
+        final String sql = str.toString();
+        try (PreparedStatement pstmt = txn.prepareStatement(sql)) {
+            int i = 1;
+            if (clause != null) {
+                for (final Pair<Attribute, Object> value : sc.getValues()) {
+                    prepareAttribute(i++, pstmt, value.first(), value.second());
+                }
+            }
+            if (joins != null) {
+                addJoinAttributes(i, pstmt, joins);
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    final long min = rs.getLong(1);
+                    if (!rs.wasNull()) {
+                        return new Pair<Long, Long>(min, rs.getLong(2));
+                    }
+                }
+            }
+            return null;
+        } catch (final SQLException e) {
+            throw new CloudRuntimeException("DB Exception on: " + sql, e);
+        }
+    }
+
+    protected T lockFirstRow(final SearchCriteria<T> sc, final Attribute idAttr, final SearchCriteria.Op op, final long pivot, final boolean exclusive) {
+        final String condition = sc.addTemporaryAnd(idAttr, op, pivot);
+        try {
+            final Filter filter = new Filter(_entityBeanType, idAttr.field.getName(), op == SearchCriteria.Op.GTEQ, 0L, 1L);
+            final List<T> beans = searchIncludingRemoved(sc, filter, exclusive, true);
+            return beans.isEmpty() ? null : beans.get(0);
+        } finally {
+            sc.removeCondition(condition);
+        }
+    }
+
     @DB()
     protected List<T> search(SearchCriteria<T> sc, final Filter filter, final Boolean lock, final boolean cache) {
         sc = checkAndSetRemovedIsNull(sc);
@@ -416,8 +525,9 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             }
             final ResultSet rs = pstmt.executeQuery();
             while (rs.next()) {
-                result.add(toEntityBean(rs, cache));
+                result.add(toEntityBean(rs, cache, false));
             }
+            loadCollections(result);
             return result;
         } catch (final SQLException e) {
             throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
@@ -483,7 +593,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             List<Field> fields = sc.getSelectFields();
             while (rs.next()) {
                 if (st == SelectType.Entity) {
-                    results.add((M)toEntityBean(rs, false));
+                    results.add((M)toEntityBean(rs, false, false));
                 } else if (st == SelectType.Fields || st == SelectType.Result) {
                     M m = sc.getResultType().newInstance();
                     for (int j = 1; j <= fields.size(); j++) {
@@ -494,6 +604,9 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
                     results.add(getObject(sc.getResultType(), rs, 1));
                 }
             }
+            if (st == SelectType.Entity) {
+                loadCollections((List<T>)results);
+            }
 
             return results;
         } catch (final SQLException e) {
@@ -1138,8 +1251,9 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
 
             final ResultSet rs = pstmt.executeQuery();
             while (rs.next()) {
-                result.add(toEntityBean(rs, true));
+                result.add(toEntityBean(rs, true, false));
             }
+            loadCollections(result);
             return result;
         } catch (final SQLException e) {
             throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
@@ -1513,6 +1627,220 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         }
     }
 
+    @Override
+    @DB()
+    @SuppressWarnings("unchecked")
+    public List<ID> persistAll(final Collection<T> entities) {
+        final List<ID> ids = new ArrayList<ID>(entities.size());
+        if (entities.isEmpty()) {
+            return ids;
+        }
+        final TransactionLegacy txn = TransactionLegacy.currentTxn();
+        if (!supportsMultiRowInsert()) {
+            txn.start();
+            for (T entity : entities) {
+                final T persisted = persist(entity);
+                try {
+                    ids.add(persisted != null ? (ID)_idField.get(persisted) : null);
+                } catch (final IllegalAccessException e) {
+                    throw new CloudRuntimeException("Yikes! ", e);
+                }
+            }
+            txn.commit();
+            return ids;
+        }
+
+        final String insertSql = _insertSqls.get(0).first();
+        final Attribute[] attrs = _insertSqls.get(0).second();
+        final String valuesRow = insertSql.substring(insertSql.lastIndexOf(" VALUES ") + " VALUES ".length());
+        final List<T> list = new ArrayList<T>(entities.size());
+        final List<Integer> positions = new ArrayList<Integer>(entities.size());
+        PreparedStatement pstmt = null;
+        try {
+            txn.start();
+            for (T entity : entities) {
+                if (entity instanceof Factory) {
+                    // generated by this dao, so already persisted; persist writes its changes as it does for a single entity
+                    persist(entity);
+                    ids.add((ID)_idField.get(entity));
+                } else {
+                    positions.add(ids.size());
+                    ids.add(null);
+                    list.add(entity);
+                }
+            }
+            for (int i = 0; i < list.size(); i += WRITE_BATCH_SIZE) {
+                final List<T> batch = list.subList(i, Math.min(i + WRITE_BATCH_SIZE, list.size()));
+                final StringBuilder sql = new StringBuilder(insertSql);
+                for (int j = 1; j < batch.size(); j++) {
+                    sql.append(", ").append(valuesRow);
+                }
+
+                pstmt = txn.prepareAutoCloseStatement(sql.toString(), Statement.RETURN_GENERATED_KEYS);
+                int index = 1;
+                for (T entity : batch) {
+                    index = prepareAttributes(pstmt, entity, attrs, index) + 1;
+                }
+                pstmt.executeUpdate();
+
+                final ResultSet rs = pstmt.getGeneratedKeys();
+                for (int j = 0; j < batch.size(); j++) {
+                    if (rs == null || !rs.next()) {
+                        throw new CloudRuntimeException("Missing generated key for a row inserted into " + _table);
+                    }
+                    Object id = rs.getObject(1);
+                    if (id instanceof BigInteger) {
+                        id = ((BigInteger)id).longValue();
+                    }
+                    _idField.set(batch.get(j), id);
+                    ids.set(positions.get(i + j), (ID)id);
+                }
+            }
+            txn.commit();
+        } catch (final SQLException e) {
+            handleEntityExistsException(e);
+            throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
+        } catch (final IllegalAccessException e) {
+            throw new CloudRuntimeException("Yikes! ", e);
+        }
+        return ids;
+    }
+
+    /**
+     * Multi-row inserts are only used when the rows go into one table without element collections
+     * and the database generates the id, so the generated keys map back to the entities in order.
+     */
+    protected boolean supportsMultiRowInsert() {
+        if (_idField == null || _insertSqls.size() != 1 || (_ecAttributes != null && !_ecAttributes.isEmpty())) {
+            return false;
+        }
+        final Attribute[] idAttrs = _idAttributes.get(_table);
+        return idAttrs != null && idAttrs.length == 1 && idAttrs[0].is(Attribute.Flag.DbGenerated);
+    }
+
+    @Override
+    @DB()
+    @SuppressWarnings("unchecked")
+    public int updateAll(final Collection<T> entities) {
+        final Map<String, List<Pair<UpdateBuilder, ID>>> statements = new LinkedHashMap<String, List<Pair<UpdateBuilder, ID>>>();
+        final Attribute idAttr = _idAttributes.get(_table)[0];
+        final TransactionLegacy txn = TransactionLegacy.currentTxn();
+        int rowsUpdated = 0;
+        txn.start();
+        for (T entity : entities) {
+            assert entity instanceof Factory : "Entity is not generated by this dao";
+            final ID id;
+            try {
+                id = (ID)_idField.get(entity);
+            } catch (final IllegalAccessException e) {
+                throw new CloudRuntimeException("How can it be illegal access...come on", e);
+            }
+            final UpdateBuilder ub = getUpdateBuilder(entity);
+            if (ub.getCollectionChanges() != null) {
+                rowsUpdated += update(id, ub, entity);
+                continue;
+            }
+            final StringBuilder sql = ub.toSql(_tables);
+            if (sql == null) {
+                continue;
+            }
+            if (_cache != null) {
+                _cache.remove(id);
+            }
+            sql.append(idAttr.table).append(".").append(idAttr.columnName).append(" = ?");
+
+            List<Pair<UpdateBuilder, ID>> sameSql = statements.get(sql.toString());
+            if (sameSql == null) {
+                sameSql = new ArrayList<Pair<UpdateBuilder, ID>>();
+                statements.put(sql.toString(), sameSql);
+            }
+            sameSql.add(new Pair<UpdateBuilder, ID>(ub, id));
+        }
+
+        PreparedStatement pstmt = null;
+        try {
+            for (Map.Entry<String, List<Pair<UpdateBuilder, ID>>> entry : statements.entrySet()) {
+                pstmt = txn.prepareAutoCloseStatement(entry.getKey());
+                for (Pair<UpdateBuilder, ID> update : entry.getValue()) {
+                    int i = 1;
+                    for (final Ternary<Attribute, Boolean, Object> value : update.first().getChanges()) {
+                        prepareAttribute(i++, pstmt, value.first(), value.third());
+                    }
+                    prepareAttribute(i, pstmt, idAttr, update.second());
+                    pstmt.addBatch();
+                }
+                for (int count : pstmt.executeBatch()) {
+                    rowsUpdated += count > 0 ? count : 0;
+                }
+                for (Pair<UpdateBuilder, ID> update : entry.getValue()) {
+                    update.first().clear();
+                }
+            }
+            txn.commit();
+        } catch (final SQLException e) {
+            throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
+        }
+        return rowsUpdated;
+    }
+
+    @Override
+    @DB()
+    public int expungeAll(final Collection<ID> ids) {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        final List<ID> list = new ArrayList<ID>(ids);
+        final TransactionLegacy txn = TransactionLegacy.currentTxn();
+        PreparedStatement pstmt = null;
+        int rowsDeleted = 0;
+        try {
+            txn.start();
+            for (final Pair<String, Attribute[]> deleteSql : _deleteSqls) {
+                final Attribute[] attrs = deleteSql.second();
+                for (int i = 0; i < list.size(); i += WRITE_BATCH_SIZE) {
+                    final List<ID> batch = list.subList(i, Math.min(i + WRITE_BATCH_SIZE, list.size()));
+                    int count = 0;
+                    if (attrs.length == 1) {
+                        final StringBuilder sql = new StringBuilder("DELETE FROM ").append(attrs[0].table).append(" WHERE ");
+                        sql.append(attrs[0].table).append(".").append(attrs[0].columnName).append(" IN (");
+                        for (int j = 0; j < batch.size(); j++) {
+                            sql.append(j == 0 ? "?" : ", ?");
+                        }
+                        sql.append(")");
+                        pstmt = txn.prepareAutoCloseStatement(sql.toString());
+                        for (int j = 0; j < batch.size(); j++) {
+                            prepareAttribute(j + 1, pstmt, attrs[0], batch.get(j));
+                        }
+                        count = pstmt.executeUpdate();
+                    } else {
+                        pstmt = txn.prepareAutoCloseStatement(deleteSql.first());
+                        for (ID id : batch) {
+                            for (int j = 0; j < attrs.length; j++) {
+                                prepareAttribute(j + 1, pstmt, attrs[j], id);
+                            }
+                            pstmt.addBatch();
+                        }
+                        for (int c : pstmt.executeBatch()) {
+                            count += c > 0 ? c : 0;
+                        }
+                    }
+                    if (attrs.length > 0 && _table.equals(attrs[0].table)) {
+                        rowsDeleted += count;
+                    }
+                }
+            }
+            txn.commit();
+        } catch (final SQLException e) {
+            throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
+        }
+        if (_cache != null) {
+            for (ID id : list) {
+                _cache.remove(id);
+            }
+        }
+        return rowsDeleted;
+    }
+
     @DB()
     protected void prepareAttribute(final int j, final PreparedStatement pstmt, final Attribute attr, Object value) throws SQLException {
         if (attr.is(Attribute.Flag.DaoGenerated) && value == null) {
@@ -1638,9 +1966,18 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
     @SuppressWarnings("unchecked")
     @DB()
     protected T toEntityBean(final ResultSet result, final boolean cache) throws SQLException {
+        return toEntityBean(result, cache, true);
+    }
+
+    /**
+     * @param loadCollections false when the caller loads the element collections of a whole result page with {@link #loadCollections(List)}.
+     */
+    @SuppressWarnings("unchecked")
+    @DB()
+    protected T toEntityBean(final ResultSet result, final boolean cache, final boolean loadCollections) throws SQLException {
         final T entity = (T)_factory.newInstance(new Callback[] {NoOp.INSTANCE, new UpdateBuilder(this)});
 
-        toEntityBean(result, entity);
+        toEntityBean(result, entity, loadCollections);
 
         if (cache && _cache != null) {
             try {
@@ -1677,12 +2014,110 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
 
     @DB()
     protected void toEntityBean(final ResultSet result, final T entity) throws SQLException {
+        toEntityBean(result, entity, true);
+    }
+
+    @DB()
+    protected void toEntityBean(final ResultSet result, final T entity, final boolean loadCollections) throws SQLException {
         ResultSetMetaData meta = result.getMetaData();
         for (int index = 1, max = meta.getColumnCount(); index <= max; index++) {
             setField(entity, result, meta, index);
         }
+        if (loadCollections) {
+            for (Attribute attr : _ecAttributes) {
+                loadCollection(entity, attr);
+            }
+        }
+    }
+
+    /**
+     * Loads the element collections of a list of entities with one IN query per collection and per
+     * _ecBatchSize entities instead of one query per entity and collection.
+     */
+    @DB()
+    protected void loadCollections(final List<T> entities) {
+        if (_ecAttributes == null || _ecAttributes.isEmpty() || entities.isEmpty()) {
+            return;
+        }
+        if (entities.size() == 1 || _ecBatchSize <= 0) {
+            for (T entity : entities) {
+                for (Attribute attr : _ecAttributes) {
+                    loadCollection(entity, attr);
+                }
+            }
+            return;
+        }
+
+        final Map<Object, List<T>> entitiesById = new LinkedHashMap<Object, List<T>>();
+        try {
+            for (T entity : entities) {
+                final Object id = _idField.get(entity);
+                List<T> sameId = entitiesById.get(id);
+                if (sameId == null) {
+                    sameId = new ArrayList<T>(1);
+                    entitiesById.put(id, sameId);
+                }
+                sameId.add(entity);
+            }
+        } catch (IllegalAccessException e) {
+            throw new CloudRuntimeException("loadCollections: Exception : " + e.getMessage(), e);
+        }
+
+        final List<Object> ids = new ArrayList<Object>(entitiesById.keySet());
         for (Attribute attr : _ecAttributes) {
-            loadCollection(entity, attr);
+            final Map<Object, List<Object>> values = new HashMap<Object, List<Object>>();
+            for (int i = 0; i < ids.size(); i += _ecBatchSize) {
+                loadCollectionValues(attr, ids.subList(i, Math.min(i + _ecBatchSize, ids.size())), values);
+            }
+            for (Map.Entry<Object, List<T>> entry : entitiesById.entrySet()) {
+                List<Object> lst = values.get(entry.getKey());
+                for (T entity : entry.getValue()) {
+                    setCollection(entity, attr, lst == null ? new ArrayList<Object>() : new ArrayList<Object>(lst));
+                }
+            }
+        }
+    }
+
+    protected void loadCollectionValues(final Attribute attr, final List<Object> ids, final Map<Object, List<Object>> values) {
+        final EcInfo ec = (EcInfo)attr.attache;
+        final TransactionLegacy txn = TransactionLegacy.currentTxn();
+        try (PreparedStatement pstmt = txn.prepareStatement(ec.getBatchSelectSql(ids.size()))) {
+            int i = 1;
+            for (Object id : ids) {
+                pstmt.setObject(i++, id);
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    final Object id = getObject(_idField.getType(), rs, 1);
+                    List<Object> lst = values.get(id);
+                    if (lst == null) {
+                        lst = new ArrayList<Object>();
+                        values.put(id, lst);
+                    }
+                    lst.add(getCollectionValue(ec, rs, 2));
+                }
+            }
+        } catch (SQLException e) {
+            throw new CloudRuntimeException("loadCollections: Exception : " + e.getMessage(), e);
+        }
+    }
+
+    protected Object getCollectionValue(final EcInfo ec, final ResultSet rs, final int index) throws SQLException {
+        if (ec.targetClass == Integer.class) {
+            return rs.getInt(index);
+        } else if (ec.targetClass == Long.class) {
+            return rs.getLong(index);
+        } else if (ec.targetClass == String.class) {
+            return rs.getString(index);
+        } else if (ec.targetClass == Short.class) {
+            return rs.getShort(index);
+        } else if (ec.targetClass == Date.class) {
+            return DateUtil.parseDateString(s_gmtTimeZone, rs.getString(index));
+        } else if (ec.targetClass == Boolean.class) {
+            return rs.getBoolean(index);
+        } else {
+            assert (false) : "You'll need to add more classeses";
+            return null;
         }
     }
 
@@ -1697,54 +2132,10 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             try(ResultSet rs = pstmt.executeQuery();)
             {
                 ArrayList lst = new ArrayList();
-                if (ec.targetClass == Integer.class) {
-                    while (rs.next()) {
-                        lst.add(rs.getInt(1));
-                    }
-                } else if (ec.targetClass == Long.class) {
-                    while (rs.next()) {
-                        lst.add(rs.getLong(1));
-                    }
-                } else if (ec.targetClass == String.class) {
-                    while (rs.next()) {
-                        lst.add(rs.getString(1));
-                    }
-                } else if (ec.targetClass == Short.class) {
-                    while (rs.next()) {
-                        lst.add(rs.getShort(1));
-                    }
-                } else if (ec.targetClass == Date.class) {
-                    while (rs.next()) {
-                        lst.add(DateUtil.parseDateString(s_gmtTimeZone, rs.getString(1)));
-                    }
-                } else if (ec.targetClass == Boolean.class) {
-                    while (rs.next()) {
-                        lst.add(rs.getBoolean(1));
-                    }
-                } else {
-                    assert (false) : "You'll need to add more classeses";
-                }
-                if (ec.rawClass == null) {
-                    Object[] array = (Object[]) Array.newInstance(ec.targetClass);
-                    lst.toArray(array);
-                    try {
-                        attr.field.set(entity, array);
-                    } catch (IllegalArgumentException e) {
-                        throw new CloudRuntimeException("Come on we screen for this stuff, don't we?", e);
-                    } catch (IllegalAccessException e) {
-                        throw new CloudRuntimeException("Come on we screen for this stuff, don't we?", e);
-                    }
-                } else {
-                    try {
-                        Collection coll = (Collection) ec.rawClass.newInstance();
-                        coll.addAll(lst);
-                        attr.field.set(entity, coll);
-                    } catch (IllegalAccessException e) {
-                        throw new CloudRuntimeException("Come on we screen for this stuff, don't we?", e);
-                    } catch (InstantiationException e) {
-                        throw new CloudRuntimeException("Never should happen", e);
-                    }
+                while (rs.next()) {
+                    lst.add(getCollectionValue(ec, rs, 1));
                 }
+                setCollection(entity, attr, lst);
             }
             catch (SQLException e) {
                 throw new CloudRuntimeException("loadCollection: Exception : " +e.getMessage(), e);
@@ -1758,6 +2149,32 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         }
     }
 
+    @SuppressWarnings("unchecked")
+    protected void setCollection(T entity, Attribute attr, List lst) {
+        EcInfo ec = (EcInfo)attr.attache;
+        if (ec.rawClass == null) {
+            Object[] array = (Object[]) Array.newInstance(ec.targetClass);
+            lst.toArray(array);
+            try {
+                attr.field.set(entity, array);
+            } catch (IllegalArgumentException e) {
+                throw new CloudRuntimeException("Come on we screen for this stuff, don't we?", e);
+            } catch (IllegalAccessException e) {
+                throw new CloudRuntimeException("Come on we screen for this stuff, don't we?", e);
+            }
+        } else {
+            try {
+                Collection coll = (Collection) ec.rawClass.newInstance();
+                coll.addAll(lst);
+                attr.field.set(entity, coll);
+            } catch (IllegalAccessException e) {
+                throw new CloudRuntimeException("Come on we screen for this stuff, don't we?", e);
+            } catch (InstantiationException e) {
+                throw new CloudRuntimeException("Never should happen", e);
+            }
+        }
+    }
+
     @Override
     public void expunge() {
         if (_removed == null) {
@@ -1888,6 +2305,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
 
         final String value = (String)params.get("lock.timeout");
         _timeoutSeconds = NumbersUtil.parseInt(value, 300);
+        _ecBatchSize = Math.max(NumbersUtil.parseInt(DbProperties.getDbProperties().getProperty("db.cloud.collections.batch.size"), EC_BATCH_SIZE), 0);
 
         createCache(params);
         final boolean load = Boolean.parseBoolean((String)params.get("cache.preload"));
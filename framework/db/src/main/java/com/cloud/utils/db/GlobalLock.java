@@ -44,6 +44,7 @@ import com.cloud.utils.Profiler;
 //
 public class GlobalLock {
     protected final static Logger s_logger = Logger.getLogger(GlobalLock.class);
+    private final static LockStatistics s_stats = LockStatistics.getInstance();
 
     private String name;
     private int lockCount = 0;
@@ -115,6 +116,7 @@ public class GlobalLock {
 
     public boolean lock(int timeoutSeconds) {
         int remainingMilliSeconds = timeoutSeconds * 1000;
+        long startTick = System.currentTimeMillis();
         Profiler profiler = new Profiler();
         boolean interrupted = false;
         try {
@@ -127,6 +129,7 @@ public class GlobalLock {
 
                         if (s_logger.isTraceEnabled())
                             s_logger.trace("lock " + name + " is acquired, lock count :" + lockCount);
+                        s_stats.recordAcquire(name, 0, true, true);
                         return true;
                     }
 
@@ -140,8 +143,10 @@ public class GlobalLock {
                         profiler.stop();
 
                         remainingMilliSeconds -= profiler.getDurationInMillis();
-                        if (remainingMilliSeconds < 0)
+                        if (remainingMilliSeconds < 0) {
+                            s_stats.recordAcquire(name, System.currentTimeMillis() - startTick, false, false);
                             return false;
+                        }
 
                         continue;
                     } else {
@@ -158,12 +163,14 @@ public class GlobalLock {
 
                         if (s_logger.isTraceEnabled())
                             s_logger.trace("lock " + name + " is acquired, lock count :" + lockCount);
+                        s_stats.recordAcquire(name, holdingStartTick - startTick, true, false);
                         return true;
                     }
                 } else {
                     synchronized (this) {
                         ownerThread = null;
                         releaseRef();
+                        s_stats.recordAcquire(name, System.currentTimeMillis() - startTick, false, false);
                         return false;
                     }
                 }
@@ -182,6 +189,7 @@ public class GlobalLock {
                 if (lockCount == 0) {
                     ownerThread = null;
                     DbUtil.releaseGlobalLock(name);
+                    s_stats.recordRelease(name, System.currentTimeMillis() - holdingStartTick);
 
                     if (s_logger.isTraceEnabled())
                         s_logger.trace("lock " + name + " is returned to free state, total holding time :" + (System.currentTimeMillis() - holdingStartTick));
@@ -0,0 +1,128 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.StandardMBean;
+
+/**
+ * Per lock name wait and hold time counters shared by GlobalLock and the op_lock table locks.
+ * Lock names that only differ by a trailing row id (e.g. vm_instance42) are folded into one
+ * entry so the number of tracked names stays small.
+ */
+public class LockStatistics extends StandardMBean implements LockStatisticsMBean {
+    protected static final int MAX_TRACKED_NAMES = 1024;
+    protected static final String OVERFLOW_NAME = "other";
+
+    private static final LockStatistics s_instance = new LockStatistics();
+
+    private final ConcurrentHashMap<String, Stats> _stats = new ConcurrentHashMap<String, Stats>();
+
+    protected LockStatistics() {
+        super(LockStatisticsMBean.class, false);
+    }
+
+    public static LockStatistics getInstance() {
+        return s_instance;
+    }
+
+    public void recordAcquire(String name, long waitMs, boolean acquired, boolean reentrant) {
+        Stats stats = getStats(name);
+        if (!acquired) {
+            stats.timedOut.increment();
+        } else if (reentrant) {
+            stats.reentrant.increment();
+        } else {
+            stats.acquired.increment();
+        }
+        stats.totalWaitMs.add(waitMs);
+        stats.maxWaitMs.accumulateAndGet(waitMs, Math::max);
+    }
+
+    public void recordRelease(String name, long holdMs) {
+        Stats stats = getStats(name);
+        stats.released.increment();
+        stats.totalHoldMs.add(holdMs);
+        stats.maxHoldMs.accumulateAndGet(holdMs, Math::max);
+    }
+
+    protected static String normalize(String name) {
+        int end = name.length();
+        while (end > 0 && Character.isDigit(name.charAt(end - 1))) {
+            end--;
+        }
+        return end == name.length() ? name : name.substring(0, end) + "#";
+    }
+
+    protected Stats getStats(String name) {
+        String key = normalize(name);
+        Stats stats = _stats.get(key);
+        if (stats != null) {
+            return stats;
+        }
+        if (_stats.size() >= MAX_TRACKED_NAMES) {
+            key = OVERFLOW_NAME;
+        }
+        return _stats.computeIfAbsent(key, k -> new Stats());
+    }
+
+    @Override
+    public List<Map<String, String>> getLockStatistics() {
+        List<Map<String, String>> results = new ArrayList<Map<String, String>>(_stats.size());
+        for (Map.Entry<String, Stats> entry : _stats.entrySet()) {
+            Stats stats = entry.getValue();
+            long acquired = stats.acquired.sum();
+            long released = stats.released.sum();
+            long waits = acquired + stats.reentrant.sum() + stats.timedOut.sum();
+
+            Map<String, String> map = new HashMap<String, String>();
+            map.put("name", entry.getKey());
+            map.put("acquired", Long.toString(acquired));
+            map.put("reentrant", Long.toString(stats.reentrant.sum()));
+            map.put("timedOut", Long.toString(stats.timedOut.sum()));
+            map.put("avgWaitMs", Long.toString(waits == 0 ? 0 : stats.totalWaitMs.sum() / waits));
+            map.put("maxWaitMs", Long.toString(stats.maxWaitMs.get()));
+            map.put("avgHoldMs", Long.toString(released == 0 ? 0 : stats.totalHoldMs.sum() / released));
+            map.put("maxHoldMs", Long.toString(stats.maxHoldMs.get()));
+            results.add(map);
+        }
+        return results;
+    }
+
+    @Override
+    public void resetLockStatistics() {
+        _stats.clear();
+    }
+
+    protected static class Stats {
+        final LongAdder acquired = new LongAdder();
+        final LongAdder reentrant = new LongAdder();
+        final LongAdder timedOut = new LongAdder();
+        final LongAdder totalWaitMs = new LongAdder();
+        final AtomicLong maxWaitMs = new AtomicLong();
+        final LongAdder released = new LongAdder();
+        final LongAdder totalHoldMs = new LongAdder();
+        final AtomicLong maxHoldMs = new AtomicLong();
+    }
+}
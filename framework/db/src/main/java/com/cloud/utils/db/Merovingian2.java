@@ -20,66 +20,120 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.Date;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.TimeZone;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.management.StandardMBean;
 
 import org.apache.log4j.Logger;
 
-import com.cloud.utils.DateUtil;
+import org.apache.cloudstack.managed.context.ManagedContextRunnable;
+
+import com.cloud.utils.NumbersUtil;
+import com.cloud.utils.concurrency.NamedThreadFactory;
 import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.utils.mgmt.JmxUtil;
-import com.cloud.utils.time.InaccurateClock;
 
+/**
+ * Cluster wide named locks kept in the op_lock table.
+ *
+ * Threads of this management server first queue on a fair in-memory lock per key, so only one
+ * thread per server competes for the op_lock row and re-entrant acquires never touch the database.
+ * Statements run on a small pool of standalone connections instead of a single shared one.
+ *
+ * When db.cloud.lock.lease.seconds is set, this server periodically renews acquired_on on the rows
+ * it holds and a row that has not been renewed within the lease can be taken over by another server.
+ * Leave it unset while servers that do not renew their leases are still part of the cluster.
+ */
 public class Merovingian2 extends StandardMBean implements MerovingianMBean {
     private static final Logger s_logger = Logger.getLogger(Merovingian2.class);
 
     private static final String ACQUIRE_SQL =
-            "INSERT INTO op_lock (op_lock.key, op_lock.mac, op_lock.ip, op_lock.thread, op_lock.acquired_on, waiters) VALUES (?, ?, ?, ?, ?, 1)";
-    private static final String INCREMENT_SQL = "UPDATE op_lock SET waiters=waiters+1 where op_lock.key=? AND op_lock.mac=? AND op_lock.ip=? AND op_lock.thread=?";
+            "INSERT INTO op_lock (op_lock.key, op_lock.mac, op_lock.ip, op_lock.thread, op_lock.acquired_on, waiters) VALUES (?, ?, ?, ?, UTC_TIMESTAMP(), 1)";
     private static final String SELECT_SQL = "SELECT op_lock.key, mac, ip, thread, acquired_on, waiters FROM op_lock";
     private static final String INQUIRE_SQL = SELECT_SQL + " WHERE op_lock.key=?";
-    private static final String DECREMENT_SQL = "UPDATE op_lock SET waiters=waiters-1 where op_lock.key=? AND op_lock.mac=? AND op_lock.ip=? AND op_lock.thread=?";
     private static final String RELEASE_LOCK_SQL = "DELETE FROM op_lock WHERE op_lock.key = ?";
-    private static final String RELEASE_SQL = RELEASE_LOCK_SQL + " AND op_lock.mac=? AND waiters=0";
+    private static final String RELEASE_SQL = RELEASE_LOCK_SQL + " AND op_lock.mac=? AND op_lock.ip=? AND op_lock.thread=?";
+    private static final String EXPIRE_LEASE_SQL = RELEASE_LOCK_SQL + " AND op_lock.mac<>? AND op_lock.acquired_on < UTC_TIMESTAMP() - INTERVAL ? SECOND";
+    private static final String RENEW_LEASES_SQL = "UPDATE op_lock SET acquired_on=UTC_TIMESTAMP() WHERE op_lock.mac=?";
     private static final String CLEANUP_MGMT_LOCKS_SQL = "DELETE FROM op_lock WHERE op_lock.mac = ?";
     private static final String SELECT_MGMT_LOCKS_SQL = SELECT_SQL + " WHERE mac=?";
     private static final String SELECT_THREAD_LOCKS_SQL = SELECT_SQL + " WHERE mac=? AND ip=?";
     private static final String CLEANUP_THREAD_LOCKS_SQL = "DELETE FROM op_lock WHERE mac=? AND ip=? AND thread=?";
 
-    TimeZone _gmtTimeZone = TimeZone.getTimeZone("GMT");
+    private static final long MIN_RETRY_INTERVAL_MS = 50;
+    private static final long MAX_RETRY_INTERVAL_MS = 1000;
 
     private final long _msId;
+    private final int _leaseSeconds;
 
     private static Merovingian2 s_instance = null;
-    private ConnectionConcierge _concierge = null;
+    private final BlockingQueue<ConnectionConcierge> _concierges;
+    private final ConcurrentHashMap<String, LocalLock> _localLocks = new ConcurrentHashMap<String, LocalLock>();
+    private final LockStatistics _stats = LockStatistics.getInstance();
+    private ScheduledExecutorService _leaseRenewer;
     private static ThreadLocal<Count> s_tls = new ThreadLocal<Count>();
 
     private Merovingian2(long msId) {
         super(MerovingianMBean.class, false);
         _msId = msId;
+
+        Properties dbProps = DbProperties.getDbProperties();
+        int connections = Math.max(NumbersUtil.parseInt(dbProps.getProperty("db.cloud.lock.connections"), 4), 1);
+        _leaseSeconds = Math.max(NumbersUtil.parseInt(dbProps.getProperty("db.cloud.lock.lease.seconds"), 0), 0);
+
+        _concierges = new ArrayBlockingQueue<ConnectionConcierge>(connections);
+        for (int i = 0; i < connections; i++) {
+            _concierges.add(createConcierge());
+        }
+
+        if (_leaseSeconds > 0) {
+            long renewInterval = Math.max(_leaseSeconds / 3, 1);
+            _leaseRenewer = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("LockLeaseRenewer"));
+            _leaseRenewer.scheduleWithFixedDelay(new ManagedContextRunnable() {
+                @Override
+                protected void runInContext() {
+                    try {
+                        renewLeases();
+                    } catch (Exception e) {
+                        s_logger.warn("Unable to renew the leases of the locks held by " + _msId, e);
+                    }
+                }
+            }, renewInterval, renewInterval, TimeUnit.SECONDS);
+        }
+    }
+
+    private ConnectionConcierge createConcierge() {
         Connection conn = null;
         try {
             conn = TransactionLegacy.getStandaloneConnectionWithException();
             conn.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
             conn.setAutoCommit(true);
-            _concierge = new ConnectionConcierge("LockMaster", conn, true);
+            return new ConnectionConcierge("LockMaster", conn, true);
         } catch (SQLException e) {
             s_logger.error("Unable to get a new db connection", e);
-            throw new CloudRuntimeException("Unable to initialize a connection to the database for locking purposes", e);
-        } finally {
-            if (_concierge == null && conn != null) {
+            for (ConnectionConcierge concierge : _concierges) {
+                concierge.release();
+            }
+            if (conn != null) {
                 try {
                     conn.close();
-                } catch (SQLException e) {
-                    s_logger.debug("closing connection failed after everything else.", e);
+                } catch (SQLException ex) {
+                    s_logger.debug("closing connection failed after everything else.", ex);
                 }
             }
+            throw new CloudRuntimeException("Unable to initialize a connection to the database for locking purposes", e);
         }
     }
 
@@ -89,6 +143,7 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
         s_instance.cleanupThisServer();
         try {
             JmxUtil.registerMBean("Locks", "Locks", s_instance);
+            JmxUtil.registerMBean("Locks", "LockStatistics", LockStatistics.getInstance());
         } catch (Exception e) {
             s_logger.error("Unable to register for JMX", e);
         }
@@ -99,6 +154,45 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
         return s_instance;
     }
 
+    /**
+     * Statements on the connection of the returned concierge have to be run while holding the monitor of
+     * that connection, as the keep alive of the concierge tests the connection while holding it too.
+     */
+    protected ConnectionConcierge checkOutConnection() {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return _concierges.take();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    protected void checkInConnection(ConnectionConcierge concierge) {
+        _concierges.offer(concierge);
+    }
+
+    protected LocalLock checkOutLocalLock(String key) {
+        return _localLocks.compute(key, (k, lock) -> {
+            if (lock == null) {
+                lock = new LocalLock();
+            }
+            lock.refs++;
+            return lock;
+        });
+    }
+
+    protected void checkInLocalLock(String key, LocalLock local) {
+        _localLocks.computeIfPresent(key, (k, lock) -> (lock == local && --lock.refs == 0) ? null : lock);
+    }
+
     protected void incrCount() {
         Count count = s_tls.get();
         if (count == null) {
@@ -126,102 +220,208 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
         if (s_logger.isTraceEnabled()) {
             s_logger.trace("Acquiring lck-" + key + " with wait time of " + timeInSeconds);
         }
-        long startTime = InaccurateClock.getTime();
-
-        while ((InaccurateClock.getTime() - startTime) < (timeInSeconds * 1000l)) {
-            int count = owns(key);
+        long startTime = System.currentTimeMillis();
+        long deadline = startTime + timeInSeconds * 1000L;
 
-            if (count >= 1) {
-                return increment(key, threadName, threadId);
-            } else if (count == 0) {
-                if (doAcquire(key, threadName, threadId)) {
-                    return true;
+        LocalLock local = checkOutLocalLock(key);
+        boolean locallyLocked = false;
+        boolean acquired = false;
+        try {
+            if (local.lock.isHeldByCurrentThread()) {
+                local.lock.lock();
+                incrCount();
+                acquired = true;
+                _stats.recordAcquire(key, 0, true, true);
+                if (s_logger.isTraceEnabled()) {
+                    s_logger.trace("lck-" + key + " acquired again");
                 }
+                return true;
             }
-            try {
-                if (s_logger.isTraceEnabled()) {
-                    s_logger.trace("Sleeping more time while waiting for lck-" + key);
+
+            locallyLocked = lockLocally(key, local, deadline);
+            if (locallyLocked && acquireInDb(key, threadName, threadId, deadline)) {
+                local.acquiredOn = System.currentTimeMillis();
+                incrCount();
+                acquired = true;
+            }
+        } finally {
+            if (!acquired) {
+                if (locallyLocked) {
+                    local.lock.unlock();
                 }
-                Thread.sleep(5000);
-            } catch (InterruptedException e) {
-                s_logger.debug("[ignored] interupted while aquiring " + key);
+                checkInLocalLock(key, local);
             }
         }
-        String msg = "Timed out on acquiring lock " + key + " .  Waited for " + ((InaccurateClock.getTime() - startTime)/1000) +  "seconds";
-        Exception e = new CloudRuntimeException(msg);
-        s_logger.warn(msg, e);
-        return false;
+
+        long waited = System.currentTimeMillis() - startTime;
+        _stats.recordAcquire(key, waited, acquired, false);
+        if (!acquired) {
+            String msg = "Timed out on acquiring lock " + key + " .  Waited for " + (waited / 1000) + "seconds";
+            Exception e = new CloudRuntimeException(msg);
+            s_logger.warn(msg, e);
+        }
+        return acquired;
     }
 
-    protected boolean increment(String key, String threadName, int threadId) {
-      try (PreparedStatement pstmt = _concierge.conn().prepareStatement(INCREMENT_SQL);){
-            pstmt.setString(1, key);
-            pstmt.setLong(2, _msId);
-            pstmt.setString(3, threadName);
-            pstmt.setInt(4, threadId);
-            int rows = pstmt.executeUpdate();
-            assert (rows <= 1) : "hmm...non unique key? " + pstmt;
-            if (s_logger.isTraceEnabled()) {
-                s_logger.trace("lck-" + key + (rows == 1 ? " acquired again" : " failed to acquire again"));
+    /**
+     * Queues behind the other threads of this server waiting for the same key, in arrival order.
+     */
+    protected boolean lockLocally(String key, LocalLock local, long deadline) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return local.lock.tryLock(Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    s_logger.debug("[ignored] interupted while aquiring " + key);
+                    interrupted = true;
+                }
             }
-            if (rows == 1) {
-                incrCount();
-                return true;
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
             }
-            return false;
-        } catch (Exception e) {
-            s_logger.error("increment:Exception:"+e.getMessage());
-            throw new CloudRuntimeException("increment:Exception:"+e.getMessage(), e);
         }
     }
 
-    protected boolean doAcquire(String key, String threadName, int threadId) {
-        long startTime = InaccurateClock.getTime();
-        try(PreparedStatement pstmt = _concierge.conn().prepareStatement(ACQUIRE_SQL);) {
-            pstmt.setString(1, key);
-            pstmt.setLong(2, _msId);
-            pstmt.setString(3, threadName);
-            pstmt.setInt(4, threadId);
-            pstmt.setString(5, DateUtil.getDateDisplayString(_gmtTimeZone, new Date()));
-            try {
-                int rows = pstmt.executeUpdate();
-                if (rows == 1) {
+    /**
+     * Only the thread holding the local lock gets here, so this competes with other management servers only.
+     */
+    protected boolean acquireInDb(String key, String threadName, int threadId, long deadline) {
+        long retryInterval = MIN_RETRY_INTERVAL_MS;
+        boolean interrupted = false;
+        try {
+            while (true) {
+                if (doAcquire(key, threadName, threadId)) {
+                    return true;
+                }
+                if (_leaseSeconds > 0 && expireLease(key) && doAcquire(key, threadName, threadId)) {
+                    return true;
+                }
+
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                try {
                     if (s_logger.isTraceEnabled()) {
-                        s_logger.trace("Acquired for lck-" + key);
+                        s_logger.trace("Sleeping more time while waiting for lck-" + key);
                     }
-                    incrCount();
-                    return true;
+                    Thread.sleep(Math.min(retryInterval, remaining));
+                } catch (InterruptedException e) {
+                    s_logger.debug("[ignored] interupted while aquiring " + key);
+                    interrupted = true;
                 }
-            } catch (SQLException e) {
-                if (!(e.getSQLState().equals("23000") && e.getErrorCode() == 1062)) {
-                    throw new CloudRuntimeException("Unable to lock " + key + ".  Waited " + (InaccurateClock.getTime() - startTime), e);
+                retryInterval = Math.min(retryInterval * 2, MAX_RETRY_INTERVAL_MS);
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    protected boolean doAcquire(String key, String threadName, int threadId) {
+        long startTime = System.currentTimeMillis();
+        ConnectionConcierge concierge = checkOutConnection();
+        try {
+            synchronized (concierge.conn()) {
+                try (PreparedStatement pstmt = concierge.conn().prepareStatement(ACQUIRE_SQL);) {
+                    pstmt.setString(1, key);
+                    pstmt.setLong(2, _msId);
+                    pstmt.setString(3, threadName);
+                    pstmt.setInt(4, threadId);
+                    try {
+                        int rows = pstmt.executeUpdate();
+                        if (rows == 1) {
+                            if (s_logger.isTraceEnabled()) {
+                                s_logger.trace("Acquired for lck-" + key);
+                            }
+                            return true;
+                        }
+                    } catch (SQLException e) {
+                        if (!(e.getSQLState().equals("23000") && e.getErrorCode() == 1062)) {
+                            throw new CloudRuntimeException("Unable to lock " + key + ".  Waited " + (System.currentTimeMillis() - startTime), e);
+                        }
+                    }
+                } catch (SQLException e) {
+                    s_logger.error("doAcquire:Exception:"+e.getMessage());
+                    throw new CloudRuntimeException("Unable to lock " + key + ".  Waited " + (System.currentTimeMillis() - startTime), e);
                 }
             }
-        } catch (SQLException e) {
-            s_logger.error("doAcquire:Exception:"+e.getMessage());
-            throw new CloudRuntimeException("Unable to lock " + key + ".  Waited " + (InaccurateClock.getTime() - startTime), e);
+        } finally {
+            checkInConnection(concierge);
         }
 
         s_logger.trace("Unable to acquire lck-" + key);
         return false;
     }
 
+    protected boolean expireLease(String key) {
+        ConnectionConcierge concierge = checkOutConnection();
+        try {
+            synchronized (concierge.conn()) {
+                try (PreparedStatement pstmt = concierge.conn().prepareStatement(EXPIRE_LEASE_SQL);) {
+                    pstmt.setString(1, key);
+                    pstmt.setLong(2, _msId);
+                    pstmt.setInt(3, _leaseSeconds);
+                    int rows = pstmt.executeUpdate();
+                    if (rows > 0) {
+                        s_logger.warn("Took over lck-" + key + " after its lease of " + _leaseSeconds + " seconds was not renewed");
+                    }
+                    return rows > 0;
+                } catch (SQLException e) {
+                    s_logger.error("expireLease:Exception:"+e.getMessage());
+                    throw new CloudRuntimeException("expireLease:Exception:"+e.getMessage(), e);
+                }
+            }
+        } finally {
+            checkInConnection(concierge);
+        }
+    }
+
+    protected void renewLeases() {
+        ConnectionConcierge concierge = checkOutConnection();
+        try {
+            synchronized (concierge.conn()) {
+                try (PreparedStatement pstmt = concierge.conn().prepareStatement(RENEW_LEASES_SQL);) {
+                    pstmt.setLong(1, _msId);
+                    int rows = pstmt.executeUpdate();
+                    if (s_logger.isTraceEnabled()) {
+                        s_logger.trace("Renewed the leases of " + rows + " locks");
+                    }
+                } catch (SQLException e) {
+                    throw new CloudRuntimeException("renewLeases:Exception:"+e.getMessage(), e);
+                }
+            }
+        } finally {
+            checkInConnection(concierge);
+        }
+    }
+
     protected Map<String, String> isLocked(String key) {
-        try (PreparedStatement pstmt = _concierge.conn().prepareStatement(INQUIRE_SQL);){
-            pstmt.setString(1, key);
-            try(ResultSet rs = pstmt.executeQuery();)
-            {
-                if (!rs.next()) {
-                    return null;
+        ConnectionConcierge concierge = checkOutConnection();
+        try {
+            synchronized (concierge.conn()) {
+                try (PreparedStatement pstmt = concierge.conn().prepareStatement(INQUIRE_SQL);){
+                    pstmt.setString(1, key);
+                    try(ResultSet rs = pstmt.executeQuery();)
+                    {
+                        if (!rs.next()) {
+                            return null;
+                        }
+                        return toLock(rs);
+                    }catch (SQLException e) {
+                        s_logger.error("isLocked:Exception:"+e.getMessage());
+                        throw new CloudRuntimeException("isLocked:Exception:"+e.getMessage(), e);
+                    }
+                } catch (SQLException e) {
+                    s_logger.error("isLocked:Exception:"+e.getMessage());
+                    throw new CloudRuntimeException("isLocked:Exception:"+e.getMessage(), e);
                 }
-                return toLock(rs);
-            }catch (SQLException e) {
-                s_logger.error("isLocked:Exception:"+e.getMessage());
-                throw new CloudRuntimeException("isLocked:Exception:"+e.getMessage(), e);
             }
-        } catch (SQLException e) {
-            s_logger.error("isLocked:Exception:"+e.getMessage());
-            throw new CloudRuntimeException("isLocked:Exception:"+e.getMessage(), e);
+        } finally {
+            checkInConnection(concierge);
         }
     }
 
@@ -232,20 +432,20 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
     @Override
     public void cleanupForServer(long msId) {
         s_logger.info("Cleaning up locks for " + msId);
+        ConnectionConcierge concierge = checkOutConnection();
         try {
-            synchronized (_concierge.conn()) {
-                try(PreparedStatement pstmt = _concierge.conn().prepareStatement(CLEANUP_MGMT_LOCKS_SQL);) {
+            synchronized (concierge.conn()) {
+                try (PreparedStatement pstmt = concierge.conn().prepareStatement(CLEANUP_MGMT_LOCKS_SQL);) {
                     pstmt.setLong(1, msId);
                     int rows = pstmt.executeUpdate();
                     s_logger.info("Released " + rows + " locks for " + msId);
-                }catch (Exception e) {
+                } catch (Exception e) {
                     s_logger.error("cleanupForServer:Exception:"+e.getMessage());
                     throw new CloudRuntimeException("cleanupForServer:Exception:"+e.getMessage(), e);
                 }
             }
-        } catch (Exception e) {
-            s_logger.error("cleanupForServer:Exception:"+e.getMessage());
-            throw new CloudRuntimeException("cleanupForServer:Exception:"+e.getMessage(), e);
+        } finally {
+            checkInConnection(concierge);
         }
     }
 
@@ -253,40 +453,60 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
         Thread th = Thread.currentThread();
         String threadName = th.getName();
         int threadId = System.identityHashCode(th);
-        try (PreparedStatement pstmt = _concierge.conn().prepareStatement(DECREMENT_SQL);)
-        {
-            pstmt.setString(1, key);
-            pstmt.setLong(2, _msId);
-            pstmt.setString(3, threadName);
-            pstmt.setLong(4, threadId);
-            int rows = pstmt.executeUpdate();
-            assert (rows <= 1) : "hmmm....keys not unique? " + pstmt;
 
+        LocalLock local = _localLocks.get(key);
+        if (local == null || !local.lock.isHeldByCurrentThread()) {
+            String msg = ("Was unable to find lock for the key " + key + " and thread id " + threadId);
+            Exception e = new CloudRuntimeException(msg);
+            s_logger.warn(msg, e);
+            return false;
+        }
+
+        boolean released = true;
+        try {
+            if (local.lock.getHoldCount() == 1) {
+                released = doRelease(key, threadName, threadId);
+                _stats.recordRelease(key, System.currentTimeMillis() - local.acquiredOn);
+            }
             if (s_logger.isTraceEnabled()) {
                 s_logger.trace("lck-" + key + " released");
             }
-            if (rows == 1) {
-                try (PreparedStatement rel_sql_pstmt = _concierge.conn().prepareStatement(RELEASE_SQL);) {
-                    rel_sql_pstmt.setString(1, key);
-                    rel_sql_pstmt.setLong(2, _msId);
-                    int result = rel_sql_pstmt.executeUpdate();
-                    if (result == 1 && s_logger.isTraceEnabled()) {
-                        s_logger.trace("lck-" + key + " removed");
+        } finally {
+            local.lock.unlock();
+            decrCount();
+            checkInLocalLock(key, local);
+        }
+        return released;
+    }
+
+    protected boolean doRelease(String key, String threadName, int threadId) {
+        ConnectionConcierge concierge = checkOutConnection();
+        try {
+            synchronized (concierge.conn()) {
+                try (PreparedStatement pstmt = concierge.conn().prepareStatement(RELEASE_SQL);) {
+                    pstmt.setString(1, key);
+                    pstmt.setLong(2, _msId);
+                    pstmt.setString(3, threadName);
+                    pstmt.setInt(4, threadId);
+                    int rows = pstmt.executeUpdate();
+                    assert (rows <= 1) : "hmmm....keys not unique? " + pstmt;
+                    if (rows == 1) {
+                        if (s_logger.isTraceEnabled()) {
+                            s_logger.trace("lck-" + key + " removed");
+                        }
+                    } else {
+                        String msg = ("Was unable to find lock for the key " + key + " and thread id " + threadId);
+                        Exception e = new CloudRuntimeException(msg);
+                        s_logger.warn(msg, e);
                     }
-                    decrCount();
-                }catch (Exception e) {
+                    return rows == 1;
+                } catch (Exception e) {
                     s_logger.error("release:Exception:"+ e.getMessage());
                     throw new CloudRuntimeException("release:Exception:"+ e.getMessage(), e);
                 }
-            } else if (rows < 1) {
-                String msg = ("Was unable to find lock for the key " + key + " and thread id " + threadId);
-                Exception e = new CloudRuntimeException(msg);
-                s_logger.warn(msg, e);
             }
-            return rows == 1;
-        } catch (Exception e) {
-            s_logger.error("release:Exception:"+ e.getMessage());
-            throw new CloudRuntimeException("release:Exception:"+ e.getMessage(), e);
+        } finally {
+            checkInConnection(concierge);
         }
     }
 
@@ -311,21 +531,28 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
     }
 
     protected List<Map<String, String>> getLocks(String sql, Long msId) {
-        try (PreparedStatement pstmt = _concierge.conn().prepareStatement(sql);)
-        {
-            if (msId != null) {
-                pstmt.setLong(1, msId);
-            }
-            try(ResultSet rs = pstmt.executeQuery();)
-            {
-                return toLocks(rs);
-            }catch (Exception e) {
-                s_logger.error("getLocks:Exception:"+e.getMessage());
-                throw new CloudRuntimeException("getLocks:Exception:"+e.getMessage(), e);
+        ConnectionConcierge concierge = checkOutConnection();
+        try {
+            synchronized (concierge.conn()) {
+                try (PreparedStatement pstmt = concierge.conn().prepareStatement(sql);)
+                {
+                    if (msId != null) {
+                        pstmt.setLong(1, msId);
+                    }
+                    try(ResultSet rs = pstmt.executeQuery();)
+                    {
+                        return toLocks(rs);
+                    }catch (Exception e) {
+                        s_logger.error("getLocks:Exception:"+e.getMessage());
+                        throw new CloudRuntimeException("getLocks:Exception:"+e.getMessage(), e);
+                    }
+                } catch (Exception e) {
+                    s_logger.error("getLocks:Exception:"+e.getMessage());
+                    throw new CloudRuntimeException("getLocks:Exception:"+e.getMessage(), e);
+                }
             }
-       } catch (Exception e) {
-            s_logger.error("getLocks:Exception:"+e.getMessage());
-            throw new CloudRuntimeException("getLocks:Exception:"+e.getMessage(), e);
+        } finally {
+            checkInConnection(concierge);
         }
     }
 
@@ -339,7 +566,27 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
         return getLocks(SELECT_MGMT_LOCKS_SQL, _msId);
     }
 
+    @Override
+    public List<Map<String, String>> getLocalWaiters() {
+        List<Map<String, String>> results = new ArrayList<Map<String, String>>();
+        for (Map.Entry<String, LocalLock> entry : _localLocks.entrySet()) {
+            int waiters = entry.getValue().lock.getQueueLength();
+            if (waiters > 0) {
+                Map<String, String> map = new HashMap<String, String>();
+                map.put("key", entry.getKey());
+                map.put("waiters", Integer.toString(waiters));
+                results.add(map);
+            }
+        }
+        return results;
+    }
+
     public int owns(String key) {
+        LocalLock local = _localLocks.get(key);
+        if (local != null && local.lock.isHeldByCurrentThread()) {
+            return local.lock.getHoldCount();
+        }
+
         Thread th = Thread.currentThread();
         int threadId = System.identityHashCode(th);
         Map<String, String> owner = isLocked(key);
@@ -353,19 +600,26 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
     }
 
     public List<Map<String, String>> getLocksAcquiredBy(long msId, String threadName) {
-        try (PreparedStatement pstmt = _concierge.conn().prepareStatement(SELECT_THREAD_LOCKS_SQL);){
-            pstmt.setLong(1, msId);
-            pstmt.setString(2, threadName);
-            try (ResultSet rs =pstmt.executeQuery();) {
-                return toLocks(rs);
-            }
-            catch (Exception e) {
-                s_logger.error("getLocksAcquiredBy:Exception:"+e.getMessage());
-                throw new CloudRuntimeException("Can't get locks " + pstmt, e);
+        ConnectionConcierge concierge = checkOutConnection();
+        try {
+            synchronized (concierge.conn()) {
+                try (PreparedStatement pstmt = concierge.conn().prepareStatement(SELECT_THREAD_LOCKS_SQL);){
+                    pstmt.setLong(1, msId);
+                    pstmt.setString(2, threadName);
+                    try (ResultSet rs =pstmt.executeQuery();) {
+                        return toLocks(rs);
+                    }
+                    catch (Exception e) {
+                        s_logger.error("getLocksAcquiredBy:Exception:"+e.getMessage());
+                        throw new CloudRuntimeException("Can't get locks " + pstmt, e);
+                    }
+                } catch (Exception e) {
+                    s_logger.error("getLocksAcquiredBy:Exception:"+e.getMessage());
+                    throw new CloudRuntimeException("getLocksAcquiredBy:Exception:"+e.getMessage(), e);
+                }
             }
-        } catch (Exception e) {
-            s_logger.error("getLocksAcquiredBy:Exception:"+e.getMessage());
-            throw new CloudRuntimeException("getLocksAcquiredBy:Exception:"+e.getMessage(), e);
+        } finally {
+            checkInConnection(concierge);
         }
     }
 
@@ -378,38 +632,75 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
         int c = count.count;
         count.count = 0;
 
+        for (Map.Entry<String, LocalLock> entry : _localLocks.entrySet()) {
+            LocalLock local = entry.getValue();
+            while (local.lock.isHeldByCurrentThread()) {
+                local.lock.unlock();
+                checkInLocalLock(entry.getKey(), local);
+            }
+        }
+
         Thread th = Thread.currentThread();
         String threadName = th.getName();
         int threadId = System.identityHashCode(th);
-        try (PreparedStatement pstmt = _concierge.conn().prepareStatement(CLEANUP_THREAD_LOCKS_SQL);)
-        {
-            pstmt.setLong(1, _msId);
-            pstmt.setString(2, threadName);
-            pstmt.setInt(3, threadId);
-            int rows = pstmt.executeUpdate();
-            assert (false) : "Abandon hope, all ye who enter here....There were still " + rows + ":" + c +
-            " locks not released when the transaction ended, check for lock not released or @DB is not added to the code that using the locks!";
-        } catch (Exception e) {
-            s_logger.error("cleanupThread:Exception:" +  e.getMessage());
-            throw new CloudRuntimeException("cleanupThread:Exception:" +  e.getMessage(), e);
+        ConnectionConcierge concierge = checkOutConnection();
+        try {
+            synchronized (concierge.conn()) {
+                try (PreparedStatement pstmt = concierge.conn().prepareStatement(CLEANUP_THREAD_LOCKS_SQL);)
+                {
+                    pstmt.setLong(1, _msId);
+                    pstmt.setString(2, threadName);
+                    pstmt.setInt(3, threadId);
+                    int rows = pstmt.executeUpdate();
+                    assert (false) : "Abandon hope, all ye who enter here....There were still " + rows + ":" + c +
+                    " locks not released when the transaction ended, check for lock not released or @DB is not added to the code that using the locks!";
+                } catch (Exception e) {
+                    s_logger.error("cleanupThread:Exception:" +  e.getMessage());
+                    throw new CloudRuntimeException("cleanupThread:Exception:" +  e.getMessage(), e);
+                }
+            }
+        } finally {
+            checkInConnection(concierge);
         }
     }
 
     @Override
     public boolean releaseLockAsLastResortAndIReallyKnowWhatIAmDoing(String key) {
         s_logger.info("Releasing a lock from JMX lck-" + key);
-        try (PreparedStatement pstmt = _concierge.conn().prepareStatement(RELEASE_LOCK_SQL);)
-        {
-            pstmt.setString(1, key);
-            int rows = pstmt.executeUpdate();
-            return rows > 0;
-        } catch (Exception e) {
-            s_logger.error("releaseLockAsLastResortAndIReallyKnowWhatIAmDoing : Exception: " +  e.getMessage());
-            return  false;
+        // only the holding thread can unlock the local lock, so let the next acquires queue on a new one
+        LocalLock local = _localLocks.get(key);
+        if (local != null && local.lock.isLocked() && _localLocks.remove(key, local)) {
+            s_logger.warn("Dropped the local lock of lck-" + key + ", its holder will be unable to release it");
+        }
+        ConnectionConcierge concierge = checkOutConnection();
+        try {
+            synchronized (concierge.conn()) {
+                try (PreparedStatement pstmt = concierge.conn().prepareStatement(RELEASE_LOCK_SQL);)
+                {
+                    pstmt.setString(1, key);
+                    int rows = pstmt.executeUpdate();
+                    return rows > 0;
+                } catch (Exception e) {
+                    s_logger.error("releaseLockAsLastResortAndIReallyKnowWhatIAmDoing : Exception: " +  e.getMessage());
+                    return  false;
+                }
+            }
+        } finally {
+            checkInConnection(concierge);
         }
     }
 
     protected static class Count {
         public int count = 0;
     }
+
+    /**
+     * Per key lock shared by the threads of this server. refs counts holds and waiters and is only
+     * changed inside the map's compute functions, so the entry is dropped once nobody uses it.
+     */
+    protected static class LocalLock {
+        final ReentrantLock lock = new ReentrantLock(true);
+        int refs;
+        long acquiredOn;
+    }
 }
@@ -25,6 +25,8 @@ public interface MerovingianMBean {
 
     List<Map<String, String>> getLocksAcquiredByThisServer();
 
+    List<Map<String, String>> getLocalWaiters();
+
     boolean releaseLockAsLastResortAndIReallyKnowWhatIAmDoing(String key);
 
     void cleanupForServer(long msId);
@@ -20,6 +20,7 @@ import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -231,6 +232,28 @@ public class SearchCriteria<K> {
         setParameters(name, values);
     }
 
+    /**
+     * Adds a condition that the caller removes again with {@link #removeCondition(String)}, so a dao
+     * can narrow a query without changing the criteria its caller passed in.
+     * @return name of the condition.
+     */
+    protected String addTemporaryAnd(Attribute attr, Op op, Object... values) {
+        String name = Integer.toString(_counter++);
+        addCondition(name, " AND ", attr, op);
+        setParameters(name, values);
+        return name;
+    }
+
+    protected void removeCondition(String conditionName) {
+        Iterator<Condition> it = _additionals.iterator();
+        while (it.hasNext()) {
+            if (it.next().name.equals(conditionName)) {
+                it.remove();
+            }
+        }
+        _params.remove(conditionName);
+    }
+
     protected void addCondition(String conditionName, String cond, String fieldName, Op op) {
         Attribute attr = _attrs.get(fieldName);
         assert attr != null : "Unable to find field: " + fieldName;
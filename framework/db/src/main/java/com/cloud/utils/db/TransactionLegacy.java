@@ -25,6 +25,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Savepoint;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -96,6 +97,7 @@ public class TransactionLegacy implements Closeable {
     private long _id;
 
     private final LinkedList<Pair<String, Long>> _lockTimes = new LinkedList<Pair<String, Long>>();
+    private final List<Runnable> _afterCommitTasks = new ArrayList<Runnable>();
 
     private String _name;
     private Connection _conn;
@@ -270,6 +272,37 @@ public class TransactionLegacy implements Closeable {
         return null;
     }
 
+    /**
+     * Runs the task once the outermost transaction of this thread is committed, so that other
+     * threads and servers that act on it see the committed data.  Without a transaction the task
+     * runs right away, and it is dropped when the transaction is rolled back.
+     *
+     * @param task task to run, exceptions it throws are logged and otherwise ignored.
+     */
+    public static void runAfterCommit(Runnable task) {
+        TransactionLegacy txn = tls.get();
+        if (txn == null || !txn._txn) {
+            task.run();
+            return;
+        }
+        txn._afterCommitTasks.add(task);
+    }
+
+    protected void runAfterCommitTasks() {
+        if (_afterCommitTasks.isEmpty()) {
+            return;
+        }
+        List<Runnable> tasks = new ArrayList<Runnable>(_afterCommitTasks);
+        _afterCommitTasks.clear();
+        for (Runnable task : tasks) {
+            try {
+                task.run();
+            } catch (Exception e) {
+                s_logger.warn("Unable to run task after commit of " + _name, e);
+            }
+        }
+    }
+
     public static void attachToTxn(TransactionAttachment value) {
         TransactionLegacy txn = tls.get();
         assert txn != null && txn.peekInStack(CURRENT_TXN) != null : "Come on....how can we attach something to the transaction if you haven't started it?";
@@ -640,6 +673,7 @@ public class TransactionLegacy implements Closeable {
         }
         _txn = false;
         _name = null;
+        _afterCommitTasks.clear();
 
         closeConnection();
 
@@ -733,11 +767,13 @@ public class TransactionLegacy implements Closeable {
                 clearLockTimes();
                 closeConnection();
             }
-            return true;
         } catch (final SQLException e) {
+            _afterCommitTasks.clear();
             rollbackTransaction();
             throw new CloudRuntimeException("Unable to commit or close the connection. ", e);
         }
+        runAfterCommitTasks();
+        return true;
     }
 
     protected void closeConnection() {
@@ -842,6 +878,7 @@ public class TransactionLegacy implements Closeable {
         }
         assert (!hasTxnInStack()) : "Who's rolling back transaction when there's still txn in stack?";
         _txn = false;
+        _afterCommitTasks.clear();
         try {
             if (_conn != null) {
                 if (s_logger.isDebugEnabled()) {
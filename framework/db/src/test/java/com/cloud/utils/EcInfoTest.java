@@ -0,0 +1,63 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils;
+
+import java.util.List;
+
+import javax.persistence.CollectionTable;
+import javax.persistence.Column;
+import javax.persistence.ElementCollection;
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.Table;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.cloud.utils.db.Attribute;
+import com.cloud.utils.db.EcInfo;
+import com.cloud.utils.db.SqlGenerator;
+
+public class EcInfoTest {
+
+    @Entity
+    @Table(name = "network")
+    static class TaggedVO {
+        @Id
+        @Column(name = "id")
+        long id;
+
+        @ElementCollection(targetClass = String.class, fetch = FetchType.EAGER)
+        @Column(name = "tag")
+        @CollectionTable(name = "network_tags", joinColumns = @JoinColumn(name = "network_id"))
+        List<String> tags;
+    }
+
+    @Test
+    public void testSelectSql() {
+        SqlGenerator generator = new SqlGenerator(TaggedVO.class);
+        List<Attribute> attrs = generator.getElementCollectionAttributes();
+        Assert.assertEquals(1, attrs.size());
+        EcInfo ec = new EcInfo(attrs.get(0), generator.getIdAttributes().get("network")[0]);
+
+        Assert.assertEquals("SELECT tag FROM network_tags, network WHERE network_tags.network_id=network.id AND network.id=?", ec.getSelectSql());
+        Assert.assertEquals("SELECT network.id, tag FROM network_tags, network WHERE network_tags.network_id=network.id AND network.id IN (?, ?, ?)",
+                ec.getBatchSelectSql(3));
+    }
+}
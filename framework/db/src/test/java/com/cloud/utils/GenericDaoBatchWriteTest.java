@@ -0,0 +1,282 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils;
+
+import java.lang.reflect.Field;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.sql.DataSource;
+
+import net.sf.cglib.proxy.Callback;
+import net.sf.cglib.proxy.Factory;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import com.cloud.utils.db.Attribute;
+import com.cloud.utils.db.GenericDaoBase;
+import com.cloud.utils.db.SqlGenerator;
+import com.cloud.utils.db.TransactionLegacy;
+import com.cloud.utils.db.UpdateBuilder;
+
+@RunWith(MockitoJUnitRunner.class)
+public class GenericDaoBatchWriteTest {
+
+    @Entity
+    @Table(name = "batch_test")
+    static class BatchVO {
+        @Id
+        @GeneratedValue(strategy = GenerationType.IDENTITY)
+        @Column(name = "id")
+        Long id;
+
+        @Column(name = "name")
+        String name;
+
+        @Column(name = "size")
+        long size;
+
+        BatchVO() {
+        }
+
+        BatchVO(String name, long size) {
+            this.name = name;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Stands in for an entity bean read by the dao. Those are generated by cglib, which can not
+     * define classes on every JDK the tests run on.
+     */
+    static class PersistedBatchVO extends BatchVO implements Factory {
+        UpdateBuilder updateBuilder;
+
+        PersistedBatchVO(long id, UpdateBuilder updateBuilder) {
+            this.id = id;
+            this.updateBuilder = updateBuilder;
+        }
+
+        @Override
+        public Callback getCallback(int index) {
+            return index == 1 ? updateBuilder : null;
+        }
+
+        @Override
+        public Object newInstance(Callback callback) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Object newInstance(Callback[] callbacks) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        @SuppressWarnings("rawtypes")
+        public Object newInstance(Class[] types, Object[] args, Callback[] callbacks) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void setCallback(int index, Callback callback) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void setCallbacks(Callback[] callbacks) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Callback[] getCallbacks() {
+            return new Callback[] {null, updateBuilder};
+        }
+    }
+
+    static class BatchSqlGenerator extends SqlGenerator {
+        BatchSqlGenerator() {
+            super(BatchVO.class);
+        }
+
+        List<Pair<String, Attribute[]>> deleteSqls() {
+            return buildDeleteSqls();
+        }
+    }
+
+    /**
+     * Sets up what the constructor of GenericDaoBase would, without enhancing the entity class.
+     */
+    static class BatchDao extends GenericDaoBase<BatchVO, Long> {
+        void init() throws Exception {
+            final BatchSqlGenerator generator = new BatchSqlGenerator();
+            _table = "batch_test";
+            _tables = generator.buildTableReferences();
+            _insertSqls = generator.buildInsertSqls();
+            _deleteSqls = generator.deleteSqls();
+            _idAttributes = generator.getIdAttributes();
+            _idField = BatchVO.class.getDeclaredField("id");
+            _idField.setAccessible(true);
+            _allAttributes = generator.getAllAttributes();
+            _ecAttributes = generator.getElementCollectionAttributes();
+        }
+
+        PersistedBatchVO read(long id) {
+            return new PersistedBatchVO(id, new UpdateBuilder(this) {
+            });
+        }
+    }
+
+    @Mock
+    DataSource dataSource;
+    @Mock
+    Connection connection;
+    @Mock
+    PreparedStatement pstmt;
+    @Mock
+    ResultSet generatedKeys;
+
+    DataSource backup;
+    TransactionLegacy txn;
+    BatchDao dao;
+
+    @Before
+    public void setup() throws Exception {
+        Field dsField = TransactionLegacy.class.getDeclaredField("s_ds");
+        dsField.setAccessible(true);
+        backup = (DataSource)dsField.get(null);
+        dsField.set(null, dataSource);
+        Mockito.when(dataSource.getConnection()).thenReturn(connection);
+        txn = TransactionLegacy.open("GenericDaoBatchWriteTest");
+
+        dao = Mockito.mock(BatchDao.class, Mockito.CALLS_REAL_METHODS);
+        dao.init();
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        txn.close();
+        Field dsField = TransactionLegacy.class.getDeclaredField("s_ds");
+        dsField.setAccessible(true);
+        dsField.set(null, backup);
+    }
+
+    private void returnGeneratedKeys(Long... keys) throws Exception {
+        Mockito.when(connection.prepareStatement(Mockito.anyString(), Mockito.eq(Statement.RETURN_GENERATED_KEYS))).thenReturn(pstmt);
+        Mockito.when(pstmt.getGeneratedKeys()).thenReturn(generatedKeys);
+        Mockito.when(generatedKeys.next()).thenReturn(true);
+        Mockito.when(generatedKeys.getObject(1)).thenReturn(keys[0], Arrays.copyOfRange(keys, 1, keys.length));
+    }
+
+    @Test
+    public void testPersistAllInsertsNewEntitiesWithOneStatement() throws Exception {
+        returnGeneratedKeys(11L, 12L, 13L);
+        List<BatchVO> entities = Arrays.asList(new BatchVO("a", 1), new BatchVO("b", 2), new BatchVO("c", 3));
+
+        List<Long> ids = dao.persistAll(entities);
+
+        ArrayList<Long> expected = new ArrayList<Long>(Arrays.asList(11L, 12L, 13L));
+        Assert.assertEquals(expected, ids);
+        Assert.assertEquals(Long.valueOf(12L), entities.get(1).id);
+        ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(connection).prepareStatement(sql.capture(), Mockito.eq(Statement.RETURN_GENERATED_KEYS));
+        Assert.assertTrue(sql.getValue(), sql.getValue().endsWith(" VALUES (?, ?), (?, ?), (?, ?)"));
+        Mockito.verify(pstmt).executeUpdate();
+        Mockito.verify(pstmt).setObject(6, 3L);
+    }
+
+    @Test
+    public void testPersistAllWritesPersistedEntitiesThroughPersist() throws Exception {
+        returnGeneratedKeys(21L, 22L);
+        PersistedBatchVO persisted = dao.read(5);
+        Mockito.doReturn(persisted).when(dao).persist(persisted);
+        List<BatchVO> entities = Arrays.asList(new BatchVO("a", 1), persisted, new BatchVO("b", 2));
+
+        List<Long> ids = dao.persistAll(entities);
+
+        Assert.assertEquals(Arrays.asList(21L, 5L, 22L), ids);
+        Mockito.verify(dao).persist(persisted);
+        ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(connection).prepareStatement(sql.capture(), Mockito.eq(Statement.RETURN_GENERATED_KEYS));
+        Assert.assertTrue(sql.getValue(), sql.getValue().endsWith(" VALUES (?, ?), (?, ?)"));
+    }
+
+    @Test
+    public void testUpdateAllBatchesEntitiesWithTheSameChanges() throws Exception {
+        Mockito.when(connection.prepareStatement(Mockito.anyString())).thenReturn(pstmt);
+        Mockito.when(pstmt.executeBatch()).thenReturn(new int[] {1, 1}, new int[] {1});
+        PersistedBatchVO first = dao.read(1);
+        PersistedBatchVO second = dao.read(2);
+        PersistedBatchVO third = dao.read(3);
+        first.updateBuilder.set(first, "name", "x");
+        second.updateBuilder.set(second, "name", "y");
+        third.updateBuilder.set(third, "size", 10L);
+        PersistedBatchVO unchanged = dao.read(4);
+
+        int rows = dao.updateAll(Arrays.<BatchVO>asList(first, second, third, unchanged));
+
+        Assert.assertEquals(3, rows);
+        ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(connection, Mockito.times(2)).prepareStatement(sql.capture());
+        Assert.assertEquals("UPDATE batch_test SET batch_test.name=? WHERE batch_test.id = ?", sql.getAllValues().get(0));
+        Assert.assertEquals("UPDATE batch_test SET batch_test.size=? WHERE batch_test.id = ?", sql.getAllValues().get(1));
+        Mockito.verify(pstmt, Mockito.times(3)).addBatch();
+        Mockito.verify(pstmt).setObject(2, 2L);
+        Mockito.verify(pstmt).setObject(1, 10L);
+        Mockito.verify(pstmt).setObject(2, 3L);
+        Assert.assertFalse(first.updateBuilder.hasChanges());
+    }
+
+    @Test
+    public void testExpungeAllDeletesWithInLists() throws Exception {
+        Mockito.when(connection.prepareStatement(Mockito.anyString())).thenReturn(pstmt);
+        Mockito.when(pstmt.executeUpdate()).thenReturn(200, 200, 50);
+        List<Long> ids = new ArrayList<Long>();
+        for (long id = 1; id <= 450; id++) {
+            ids.add(id);
+        }
+
+        int rows = dao.expungeAll(ids);
+
+        Assert.assertEquals(450, rows);
+        ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(connection, Mockito.times(3)).prepareStatement(sql.capture());
+        Assert.assertTrue(sql.getAllValues().get(0), sql.getAllValues().get(0).startsWith("DELETE FROM batch_test WHERE batch_test.id IN (?, ?"));
+        Assert.assertTrue(sql.getAllValues().get(2), sql.getAllValues().get(2).endsWith("IN (" + "?, ".repeat(49) + "?)"));
+        // the last batch binds its ids from 1 again
+        Mockito.verify(pstmt).setObject(50, 450L);
+    }
+}
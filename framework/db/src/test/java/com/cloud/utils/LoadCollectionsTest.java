@@ -0,0 +1,169 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.CollectionTable;
+import javax.persistence.Column;
+import javax.persistence.ElementCollection;
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.Table;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.cloud.utils.db.Attribute;
+import com.cloud.utils.db.GenericDaoBase;
+import com.cloud.utils.db.SqlGenerator;
+
+public class LoadCollectionsTest {
+
+    @Entity
+    @Table(name = "network")
+    static class TaggedVO {
+        @Id
+        @Column(name = "id")
+        long id;
+
+        @ElementCollection(targetClass = String.class, fetch = FetchType.EAGER)
+        @Column(name = "tag")
+        @CollectionTable(name = "network_tags", joinColumns = @JoinColumn(name = "network_id"))
+        List<String> tags;
+
+        TaggedVO(long id) {
+            this.id = id;
+        }
+    }
+
+    /**
+     * Serves the collection table from a map and records the queries it would have run.
+     */
+    static class TaggedDao extends GenericDaoBase<TaggedVO, Long> {
+        Map<Long, List<Object>> tagTable;
+        List<List<Object>> batches;
+        int singleLoads;
+
+        void init(int batchSize, Map<Long, List<Object>> tagTable) throws Exception {
+            _ecAttributes = new SqlGenerator(TaggedVO.class).getElementCollectionAttributes();
+            _idField = TaggedVO.class.getDeclaredField("id");
+            _idField.setAccessible(true);
+            _ecBatchSize = batchSize;
+            this.tagTable = tagTable;
+            batches = new ArrayList<List<Object>>();
+        }
+
+        void load(List<TaggedVO> entities) {
+            loadCollections(entities);
+        }
+
+        @Override
+        protected void loadCollectionValues(Attribute attr, List<Object> ids, Map<Object, List<Object>> values) {
+            batches.add(new ArrayList<Object>(ids));
+            for (Object id : ids) {
+                if (tagTable.containsKey(id)) {
+                    values.put(id, new ArrayList<Object>(tagTable.get(id)));
+                }
+            }
+        }
+
+        @Override
+        protected void loadCollection(TaggedVO entity, Attribute attr) {
+            singleLoads++;
+            setCollection(entity, attr, tagTable.containsKey(entity.id) ? new ArrayList<Object>(tagTable.get(entity.id)) : new ArrayList<Object>());
+        }
+    }
+
+    private Map<Long, List<Object>> tagTable;
+
+    @Before
+    public void setUp() {
+        tagTable = new HashMap<Long, List<Object>>();
+        tagTable.put(1L, Arrays.<Object>asList("a", "b"));
+        tagTable.put(2L, Arrays.<Object>asList("c"));
+        tagTable.put(4L, Arrays.<Object>asList("d", "e", "f"));
+        tagTable.put(5L, Arrays.<Object>asList("g"));
+    }
+
+    private TaggedDao createDao(int batchSize) throws Exception {
+        TaggedDao dao = Mockito.mock(TaggedDao.class, Mockito.CALLS_REAL_METHODS);
+        dao.init(batchSize, tagTable);
+        return dao;
+    }
+
+    private static List<TaggedVO> entities(long... ids) {
+        List<TaggedVO> entities = new ArrayList<TaggedVO>();
+        for (long id : ids) {
+            entities.add(new TaggedVO(id));
+        }
+        return entities;
+    }
+
+    @Test
+    public void testCollectionsAreStitchedToTheirOwners() throws Exception {
+        TaggedDao dao = createDao(2);
+        List<TaggedVO> entities = entities(4, 1, 3, 2, 1, 5);
+
+        dao.load(entities);
+
+        Assert.assertEquals(Arrays.asList(Arrays.<Object>asList(4L, 1L), Arrays.<Object>asList(3L, 2L), Arrays.<Object>asList(5L)), dao.batches);
+        Assert.assertEquals(0, dao.singleLoads);
+        Assert.assertEquals(Arrays.asList("d", "e", "f"), entities.get(0).tags);
+        Assert.assertEquals(Arrays.asList("a", "b"), entities.get(1).tags);
+        Assert.assertTrue(entities.get(2).tags.isEmpty());
+        Assert.assertEquals(Arrays.asList("c"), entities.get(3).tags);
+        Assert.assertEquals(Arrays.asList("a", "b"), entities.get(4).tags);
+        Assert.assertEquals(Arrays.asList("g"), entities.get(5).tags);
+        // rows with the same id must not share a mutable collection
+        Assert.assertNotSame(entities.get(1).tags, entities.get(4).tags);
+    }
+
+    @Test
+    public void testSingleEntityIsLoadedOnItsOwn() throws Exception {
+        TaggedDao dao = createDao(2);
+        List<TaggedVO> entities = entities(2);
+
+        dao.load(entities);
+
+        Assert.assertTrue(dao.batches.isEmpty());
+        Assert.assertEquals(1, dao.singleLoads);
+        Assert.assertEquals(Arrays.asList("c"), entities.get(0).tags);
+    }
+
+    @Test
+    public void testBatchingCanBeDisabled() throws Exception {
+        TaggedDao dao = createDao(0);
+        List<TaggedVO> entities = entities(1, 2, 3);
+
+        dao.load(entities);
+
+        Assert.assertTrue(dao.batches.isEmpty());
+        Assert.assertEquals(3, dao.singleLoads);
+        Assert.assertEquals(Arrays.asList("a", "b"), entities.get(0).tags);
+        Assert.assertEquals(Arrays.asList("c"), entities.get(1).tags);
+        Assert.assertTrue(entities.get(2).tags.isEmpty());
+    }
+}
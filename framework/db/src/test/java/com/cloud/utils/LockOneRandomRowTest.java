@@ -0,0 +1,212 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils;
+
+import java.lang.reflect.Field;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.sql.DataSource;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import com.cloud.utils.db.Attribute;
+import com.cloud.utils.db.Filter;
+import com.cloud.utils.db.GenericDaoBase;
+import com.cloud.utils.db.SearchCriteria;
+import com.cloud.utils.db.SqlGenerator;
+import com.cloud.utils.db.TransactionLegacy;
+
+@RunWith(MockitoJUnitRunner.class)
+public class LockOneRandomRowTest {
+
+    @Entity
+    @Table(name = "lock_test")
+    static class LockVO {
+        @Id
+        @Column(name = "id")
+        long id;
+
+        @Column(name = "pool")
+        long pool;
+
+        LockVO(long id) {
+            this.id = id;
+        }
+    }
+
+    /**
+     * Sets up what the constructor of GenericDaoBase would, and records the locking searches.
+     */
+    static class LockDao extends GenericDaoBase<LockVO, Long> {
+        List<Filter> filters;
+        List<List<LockVO>> results;
+
+        void init() {
+            final SqlGenerator generator = new SqlGenerator(LockVO.class);
+            _table = "lock_test";
+            _entityBeanType = LockVO.class;
+            _idAttributes = generator.getIdAttributes();
+            _count = generator.buildCountSql();
+            filters = new ArrayList<Filter>();
+            results = new ArrayList<List<LockVO>>();
+        }
+
+        LockVO lockOne(SearchCriteria<LockVO> sc) {
+            return lockOneRow(sc, true);
+        }
+
+        @Override
+        public List<LockVO> searchIncludingRemoved(SearchCriteria<LockVO> sc, Filter filter, Boolean lock, boolean cache) {
+            filters.add(filter);
+            return results.isEmpty() ? Collections.<LockVO>emptyList() : results.remove(0);
+        }
+
+        @Override
+        public List<LockVO> search(SearchCriteria<LockVO> sc, Filter filter, Boolean lock, boolean cache) {
+            return searchIncludingRemoved(sc, filter, lock, cache);
+        }
+    }
+
+    @Mock
+    DataSource dataSource;
+    @Mock
+    Connection connection;
+    @Mock
+    PreparedStatement pstmt;
+    @Mock
+    ResultSet rs;
+    @Mock
+    SearchCriteria<LockVO> sc;
+
+    DataSource backup;
+    TransactionLegacy txn;
+    LockDao dao;
+
+    @Before
+    public void setup() throws Exception {
+        Field dsField = TransactionLegacy.class.getDeclaredField("s_ds");
+        dsField.setAccessible(true);
+        backup = (DataSource)dsField.get(null);
+        dsField.set(null, dataSource);
+        Mockito.when(dataSource.getConnection()).thenReturn(connection);
+        txn = TransactionLegacy.open("LockOneRandomRowTest");
+
+        dao = Mockito.mock(LockDao.class, Mockito.CALLS_REAL_METHODS);
+        dao.init();
+
+        final Attribute pool = new SqlGenerator(LockVO.class).findAttribute("pool");
+        Mockito.when(sc.getWhereClause()).thenReturn("lock_test.pool = ? ");
+        Mockito.when(sc.getValues()).thenReturn(Collections.singletonList(new Pair<Attribute, Object>(pool, 7L)));
+        Mockito.when(connection.prepareStatement(Mockito.anyString())).thenReturn(pstmt);
+        Mockito.when(pstmt.executeQuery()).thenReturn(rs);
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        txn.close();
+        Field dsField = TransactionLegacy.class.getDeclaredField("s_ds");
+        dsField.setAccessible(true);
+        dsField.set(null, backup);
+    }
+
+    private void returnRange(long min, long max) throws Exception {
+        Mockito.when(rs.next()).thenReturn(true);
+        Mockito.when(rs.getLong(1)).thenReturn(min);
+        Mockito.when(rs.getLong(2)).thenReturn(max);
+        Mockito.when(rs.wasNull()).thenReturn(false);
+    }
+
+    @Test
+    public void testRangeIsReadWithTheSearchCriteria() throws Exception {
+        returnRange(10, 20);
+        dao.results.add(Collections.singletonList(new LockVO(15)));
+
+        LockVO vo = dao.lockOneRandomRow(sc, true);
+
+        Assert.assertEquals(15, vo.id);
+        ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(connection).prepareStatement(sql.capture());
+        Assert.assertEquals("SELECT MIN(lock_test.id), MAX(lock_test.id) FROM lock_test WHERE lock_test.pool = ?", sql.getValue().replaceAll("\\s+", " ").trim());
+        Mockito.verify(pstmt).setObject(1, 7L);
+        Assert.assertEquals(1, dao.filters.size());
+        Assert.assertTrue(dao.filters.get(0).getOrderBy().contains("ASC"));
+    }
+
+    @Test
+    public void testWrapsAroundBelowThePivot() throws Exception {
+        returnRange(10, 20);
+        dao.results.add(Collections.<LockVO>emptyList());
+        dao.results.add(Collections.singletonList(new LockVO(12)));
+
+        LockVO vo = dao.lockOneRandomRow(sc, true);
+
+        // nothing matched from the pivot up, unless the pivot was the lowest id itself
+        if (dao.filters.size() == 1) {
+            Assert.assertNull(vo);
+        } else {
+            Assert.assertEquals(12, vo.id);
+            Assert.assertTrue(dao.filters.get(1).getOrderBy().contains("DESC"));
+        }
+    }
+
+    @Test
+    public void testNoMatchingRowsRunsOnlyTheRangeQuery() throws Exception {
+        Mockito.when(rs.next()).thenReturn(true);
+        Mockito.when(rs.getLong(1)).thenReturn(0L);
+        Mockito.when(rs.wasNull()).thenReturn(true);
+
+        Assert.assertNull(dao.lockOneRandomRow(sc, true));
+        Assert.assertTrue(dao.filters.isEmpty());
+    }
+
+    @Test
+    public void testWithoutCriteriaFallsBackToOrderByRand() throws Exception {
+        dao.results.add(Collections.singletonList(new LockVO(3)));
+
+        Assert.assertEquals(3, dao.lockOneRandomRow(null, true).id);
+        Assert.assertEquals(" ORDER BY RAND() LIMIT 1", dao.filters.get(0).getOrderBy());
+        Mockito.verify(connection, Mockito.never()).prepareStatement(Mockito.anyString());
+    }
+
+    @Test
+    public void testLockOneRowRunsOneQuery() throws Exception {
+        dao.results.add(Collections.singletonList(new LockVO(4)));
+
+        Assert.assertEquals(4, dao.lockOne(sc).id);
+        Assert.assertEquals(1, dao.filters.size());
+        Assert.assertEquals(Long.valueOf(1), dao.filters.get(0).getLimit());
+        Assert.assertNull(dao.filters.get(0).getOrderBy());
+        Mockito.verify(connection, Mockito.never()).prepareStatement(Mockito.anyString());
+    }
+}
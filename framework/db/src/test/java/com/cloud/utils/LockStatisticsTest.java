@@ -0,0 +1,74 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.cloud.utils.db.LockStatistics;
+
+public class LockStatisticsTest {
+
+    static class TestLockStatistics extends LockStatistics {
+        static final int MAX_NAMES = MAX_TRACKED_NAMES;
+        static final String OVERFLOW = OVERFLOW_NAME;
+    }
+
+    @Test
+    public void testWaitAndHoldTimesPerName() {
+        LockStatistics stats = new TestLockStatistics();
+        stats.recordAcquire("vm_instance1", 10, true, false);
+        stats.recordAcquire("vm_instance2", 30, true, false);
+        stats.recordAcquire("vm_instance2", 0, true, true);
+        stats.recordAcquire("vm_instance3", 40, false, false);
+        stats.recordRelease("vm_instance1", 100);
+        stats.recordRelease("vm_instance2", 300);
+
+        List<Map<String, String>> results = stats.getLockStatistics();
+        assertEquals(1, results.size());
+        Map<String, String> vm = results.get(0);
+        assertEquals("vm_instance#", vm.get("name"));
+        assertEquals("2", vm.get("acquired"));
+        assertEquals("1", vm.get("reentrant"));
+        assertEquals("1", vm.get("timedOut"));
+        assertEquals("20", vm.get("avgWaitMs"));
+        assertEquals("40", vm.get("maxWaitMs"));
+        assertEquals("200", vm.get("avgHoldMs"));
+        assertEquals("300", vm.get("maxHoldMs"));
+    }
+
+    @Test
+    public void testTrackedNamesAreBounded() {
+        LockStatistics stats = new TestLockStatistics();
+        for (int i = 0; i < TestLockStatistics.MAX_NAMES + 10; i++) {
+            stats.recordAcquire("lock-" + i + "-name", 1, true, false);
+        }
+
+        List<Map<String, String>> results = stats.getLockStatistics();
+        assertEquals(TestLockStatistics.MAX_NAMES + 1, results.size());
+        long overflow = results.stream().filter(m -> TestLockStatistics.OVERFLOW.equals(m.get("name")))
+                .mapToLong(m -> Long.parseLong(m.get("acquired"))).sum();
+        assertEquals(10, overflow);
+
+        stats.resetLockStatistics();
+        assertEquals(0, stats.getLockStatistics().size());
+    }
+}
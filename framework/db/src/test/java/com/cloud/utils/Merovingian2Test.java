@@ -0,0 +1,164 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils;
+
+import java.lang.reflect.Field;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import com.cloud.utils.db.ConnectionConcierge;
+import com.cloud.utils.db.LockStatistics;
+import com.cloud.utils.db.Merovingian2;
+
+@RunWith(MockitoJUnitRunner.class)
+public class Merovingian2Test {
+
+    private static final String KEY = "vm_instance1";
+
+    @Mock
+    Connection connection;
+    @Mock
+    PreparedStatement acquire;
+    @Mock
+    PreparedStatement release;
+    @Mock
+    PreparedStatement expireLease;
+    @Mock
+    PreparedStatement releaseAny;
+
+    ConnectionConcierge concierge;
+    Merovingian2 lockMaster;
+
+    private static void set(Object target, String name, Object value) throws Exception {
+        Field field = Merovingian2.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+
+    /**
+     * Sets up what the private constructor would, with one connection to a mocked op_lock table.
+     */
+    @Before
+    public void setup() throws Exception {
+        Mockito.when(connection.prepareStatement(Mockito.startsWith("INSERT INTO op_lock"))).thenReturn(acquire);
+        Mockito.when(connection.prepareStatement(Mockito.endsWith("op_lock.thread=?"))).thenReturn(release);
+        Mockito.when(connection.prepareStatement(Mockito.endsWith("SECOND"))).thenReturn(expireLease);
+        Mockito.when(connection.prepareStatement("DELETE FROM op_lock WHERE op_lock.key = ?")).thenReturn(releaseAny);
+        concierge = new ConnectionConcierge("Merovingian2Test", connection, false);
+
+        BlockingQueue<ConnectionConcierge> concierges = new ArrayBlockingQueue<ConnectionConcierge>(1);
+        concierges.add(concierge);
+        lockMaster = Mockito.mock(Merovingian2.class, Mockito.CALLS_REAL_METHODS);
+        set(lockMaster, "_msId", 1L);
+        set(lockMaster, "_leaseSeconds", 30);
+        set(lockMaster, "_concierges", concierges);
+        set(lockMaster, "_localLocks", new ConcurrentHashMap<String, Object>());
+        set(lockMaster, "_stats", LockStatistics.getInstance());
+    }
+
+    @After
+    public void cleanup() {
+        concierge.release();
+    }
+
+    private static SQLException duplicateKey() {
+        return new SQLException("Duplicate entry", "23000", 1062);
+    }
+
+    @Test
+    public void testReentrantAcquireIsReleasedOnce() throws Exception {
+        Mockito.when(acquire.executeUpdate()).thenReturn(1);
+        Mockito.when(release.executeUpdate()).thenReturn(1);
+
+        Assert.assertTrue(lockMaster.acquire(KEY, 1));
+        Assert.assertTrue(lockMaster.acquire(KEY, 1));
+        Assert.assertEquals(2, lockMaster.owns(KEY));
+        Mockito.verify(acquire).executeUpdate();
+
+        Assert.assertTrue(lockMaster.release(KEY));
+        Mockito.verify(release, Mockito.never()).executeUpdate();
+        Assert.assertTrue(lockMaster.release(KEY));
+        Mockito.verify(release).executeUpdate();
+        Assert.assertFalse(lockMaster.release(KEY));
+    }
+
+    @Test
+    public void testExpiredLeaseIsTakenOver() throws Exception {
+        Mockito.when(acquire.executeUpdate()).thenThrow(duplicateKey()).thenReturn(1);
+        Mockito.when(expireLease.executeUpdate()).thenReturn(1);
+
+        Assert.assertTrue(lockMaster.acquire(KEY, 1));
+        Mockito.verify(expireLease).setLong(2, 1L);
+        Mockito.verify(expireLease).setInt(3, 30);
+        Mockito.verify(acquire, Mockito.times(2)).executeUpdate();
+    }
+
+    @Test
+    public void testTimesOutWhileHeldByAnotherServer() throws Exception {
+        Mockito.when(acquire.executeUpdate()).thenThrow(duplicateKey());
+        Mockito.when(expireLease.executeUpdate()).thenReturn(0);
+
+        Assert.assertFalse(lockMaster.acquire(KEY, 0));
+        Assert.assertTrue(lockMaster.getLocalWaiters().isEmpty());
+        Assert.assertFalse(lockMaster.release(KEY));
+    }
+
+    @Test
+    public void testLastResortReleaseDropsTheLocalLock() throws Exception {
+        Mockito.when(acquire.executeUpdate()).thenReturn(1);
+        Mockito.when(releaseAny.executeUpdate()).thenReturn(1);
+
+        // a thread that never releases the lock
+        final CountDownLatch acquired = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread holder = new Thread(() -> {
+            lockMaster.acquire(KEY, 1);
+            acquired.countDown();
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        holder.start();
+        try {
+            Assert.assertTrue(acquired.await(10, TimeUnit.SECONDS));
+            Assert.assertFalse(lockMaster.acquire(KEY, 0));
+
+            Assert.assertTrue(lockMaster.releaseLockAsLastResortAndIReallyKnowWhatIAmDoing(KEY));
+            Assert.assertTrue(lockMaster.acquire(KEY, 0));
+        } finally {
+            done.countDown();
+            holder.join();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.cloud.utils.db.Transaction;
+import com.cloud.utils.db.TransactionCallbackNoReturn;
+import com.cloud.utils.db.TransactionLegacy;
+import com.cloud.utils.db.TransactionStatus;
+import com.cloud.utils.exception.CloudRuntimeException;
+
+public class TransactionAfterCommitTest {
+
+    private final AtomicInteger runs = new AtomicInteger();
+
+    private final Runnable task = new Runnable() {
+        @Override
+        public void run() {
+            runs.incrementAndGet();
+        }
+    };
+
+    @Test
+    public void testRunsRightAwayWithoutTransaction() {
+        TransactionLegacy.runAfterCommit(task);
+        Assert.assertEquals(1, runs.get());
+    }
+
+    @Test
+    public void testRunsAfterTheOutermostCommit() {
+        Transaction.execute(new TransactionCallbackNoReturn() {
+            @Override
+            public void doInTransactionWithoutResult(TransactionStatus status) {
+                Transaction.execute(new TransactionCallbackNoReturn() {
+                    @Override
+                    public void doInTransactionWithoutResult(TransactionStatus status) {
+                        TransactionLegacy.runAfterCommit(task);
+                    }
+                });
+                Assert.assertEquals(0, runs.get());
+            }
+        });
+        Assert.assertEquals(1, runs.get());
+    }
+
+    @Test
+    public void testDroppedOnRollback() {
+        try {
+            Transaction.execute(new TransactionCallbackNoReturn() {
+                @Override
+                public void doInTransactionWithoutResult(TransactionStatus status) {
+                    TransactionLegacy.runAfterCommit(task);
+                    throw new CloudRuntimeException("rollback");
+                }
+            });
+            Assert.fail();
+        } catch (CloudRuntimeException e) {
+            Assert.assertEquals("rollback", e.getMessage());
+        }
+
+        Transaction.execute(new TransactionCallbackNoReturn() {
+            @Override
+            public void doInTransactionWithoutResult(TransactionStatus status) {
+            }
+        });
+        Assert.assertEquals(0, runs.get());
+    }
+}
@@ -0,0 +1,148 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Concurrent allocation benchmark of lockOneRandomRow against the ORDER BY RAND() query it replaced,
+ * for growing table sizes. It needs the cloud.test table of a test database like the other DB tests
+ * of this package. It is not a unit test, run it by hand with the test classpath of this module and
+ * optionally the table sizes as arguments.
+ */
+public class LockOneRandomRowBenchmark {
+    private static final int[] DEFAULT_ROWS = {1000, 5000, 20000};
+    private static final int THREADS = 16;
+
+    private final DbTestDao _dao = new DbTestDao();
+    private final SearchBuilder<DbTestVO> _freeSearch;
+
+    private interface Allocator {
+        DbTestVO take(SearchCriteria<DbTestVO> sc);
+    }
+
+    private LockOneRandomRowBenchmark() {
+        _freeSearch = _dao.createSearchBuilder();
+        _freeSearch.and("fieldInt", _freeSearch.entity().getFieldInt(), SearchCriteria.Op.EQ);
+        _freeSearch.done();
+    }
+
+    public static void main(final String[] args) throws Exception {
+        int[] sizes = DEFAULT_ROWS;
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+
+        final LockOneRandomRowBenchmark benchmark = new LockOneRandomRowBenchmark();
+        System.out.println("Allocating every row of the test table with " + THREADS + " threads");
+        for (final int rows : sizes) {
+            benchmark.fill(rows);
+            final long seek = benchmark.allocateAll(rows, new Allocator() {
+                @Override
+                public DbTestVO take(SearchCriteria<DbTestVO> sc) {
+                    return benchmark._dao.lockOneRandomRow(sc, true);
+                }
+            });
+
+            executeUpdate("UPDATE test SET fld_int = 0");
+            final long rand = benchmark.allocateAll(rows, new Allocator() {
+                @Override
+                public DbTestVO take(SearchCriteria<DbTestVO> sc) {
+                    List<DbTestVO> taken = benchmark._dao.lockRows(sc, new Filter(1), true);
+                    return taken.isEmpty() ? null : taken.get(0);
+                }
+            });
+
+            System.out.println(rows + " rows: random seek " + rows * 1000L / Math.max(seek, 1) + " rows/s, ORDER BY RAND() "
+                    + rows * 1000L / Math.max(rand, 1) + " rows/s");
+        }
+        executeUpdate("DELETE FROM test");
+    }
+
+    private void fill(int rows) throws SQLException {
+        executeUpdate("DELETE FROM test");
+        for (int i = 0; i < rows; i++) {
+            _dao.create(0, i, "row-" + i);
+        }
+    }
+
+    private static void executeUpdate(String sql) throws SQLException {
+        TransactionLegacy txn = TransactionLegacy.open("setup");
+        try {
+            txn.prepareAutoCloseStatement(sql).executeUpdate();
+        } finally {
+            txn.close();
+        }
+    }
+
+    /**
+     * @return milliseconds it took THREADS threads to take every row.
+     */
+    private long allocateAll(final int rows, final Allocator allocator) throws InterruptedException {
+        final Set<String> taken = ConcurrentHashMap.newKeySet();
+        final AtomicInteger duplicates = new AtomicInteger();
+        final Thread[] pool = new Thread[THREADS];
+        for (int i = 0; i < pool.length; i++) {
+            pool[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (true) {
+                        TransactionLegacy txn = TransactionLegacy.open("allocate");
+                        try {
+                            txn.start();
+                            SearchCriteria<DbTestVO> sc = _freeSearch.create();
+                            sc.setParameters("fieldInt", 0);
+                            DbTestVO vo = allocator.take(sc);
+                            if (vo == null) {
+                                txn.commit();
+                                return;
+                            }
+                            _dao.update(1, vo.getFieldLong(), vo.getFieldString());
+                            txn.commit();
+                            if (!taken.add(vo.getFieldString())) {
+                                duplicates.incrementAndGet();
+                            }
+                        } finally {
+                            txn.close();
+                        }
+                    }
+                }
+            });
+        }
+
+        final long start = System.currentTimeMillis();
+        for (Thread thread : pool) {
+            thread.start();
+        }
+        for (Thread thread : pool) {
+            thread.join();
+        }
+        final long duration = System.currentTimeMillis() - start;
+
+        if (duplicates.get() > 0 || taken.size() != rows) {
+            System.out.println("  " + duplicates.get() + " rows were handed out twice, " + taken.size() + " of " + rows + " rows were taken");
+        }
+        return duration;
+    }
+}
@@ -20,11 +20,18 @@ import java.util.Date;
 import java.util.List;
 
 import org.apache.cloudstack.framework.jobs.impl.AsyncJobVO;
+import org.apache.cloudstack.jobs.JobInfo;
 
 import com.cloud.utils.db.GenericDao;
 
 public interface AsyncJobDao extends GenericDao<AsyncJobVO, Long> {
 
+    /**
+     * Reads only the status of a job, including removed ones, without loading its command and result.
+     * @return status of the job, or null if it does not exist
+     */
+    JobInfo.Status findStatusById(long jobId);
+
     AsyncJobVO findInstancePendingAsyncJob(String instanceType, long instanceId);
 
     List<AsyncJobVO> findInstancePendingAsyncJobs(String instanceType, Long accountId);
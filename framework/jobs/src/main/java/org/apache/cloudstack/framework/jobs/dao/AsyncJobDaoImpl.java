@@ -17,6 +17,7 @@
 package org.apache.cloudstack.framework.jobs.dao;
 
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Date;
 import java.util.List;
@@ -35,6 +36,7 @@ import com.cloud.utils.db.SearchBuilder;
 import com.cloud.utils.db.SearchCriteria;
 import com.cloud.utils.db.SearchCriteria.Op;
 import com.cloud.utils.db.TransactionLegacy;
+import com.cloud.utils.exception.CloudRuntimeException;
 
 public class AsyncJobDaoImpl extends GenericDaoBase<AsyncJobVO, Long> implements AsyncJobDao {
     private static final Logger s_logger = Logger.getLogger(AsyncJobDaoImpl.class.getName());
@@ -186,6 +188,23 @@ public class AsyncJobDaoImpl extends GenericDaoBase<AsyncJobVO, Long> implements
         return listIncludingRemovedBy(sc, filter);
     }
 
+    @Override
+    public JobInfo.Status findStatusById(long jobId) {
+        String sql = "SELECT job_status FROM async_job WHERE id = ?";
+        TransactionLegacy txn = TransactionLegacy.currentTxn();
+        try (PreparedStatement pstmt = txn.prepareStatement(sql)) {
+            pstmt.setLong(1, jobId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    return JobInfo.Status.values()[rs.getInt(1)];
+                }
+            }
+        } catch (SQLException e) {
+            throw new CloudRuntimeException("DB Exception on: " + sql, e);
+        }
+        return null;
+    }
+
     @Override
     @DB
     public void resetJobProcess(long msid, int jobResultCode, String jobResultMessage) {
@@ -0,0 +1,115 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.framework.jobs.impl;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.cloudstack.framework.messagebus.MessageSubscriber;
+
+/**
+ * Keeps track of the threads waiting for jobs to complete, so that a completion wakes up only the
+ * threads waiting for that job instead of every thread waiting for any job.
+ */
+public class AsyncJobCompletionRegistry {
+    private final ConcurrentHashMap<Long, Set<Waiter>> _waiters = new ConcurrentHashMap<Long, Set<Waiter>>();
+
+    /**
+     * A thread waiting for a job. It is woken up by the completion of the job, and by the message
+     * bus subjects it is subscribed to.
+     */
+    public static class Waiter implements MessageSubscriber {
+        private final long _jobId;
+        private boolean _completed;
+        private boolean _signalled;
+
+        public Waiter(long jobId) {
+            _jobId = jobId;
+        }
+
+        public long getJobId() {
+            return _jobId;
+        }
+
+        /**
+         * Waits until the job completes or a message arrives, or until the time-out elapses.
+         * @return whether the waiter was woken up, the signal is cleared on return
+         */
+        public synchronized boolean await(long timeoutInMiliseconds) throws InterruptedException {
+            if (!_signalled && timeoutInMiliseconds > 0) {
+                wait(timeoutInMiliseconds);
+            }
+            boolean signalled = _signalled;
+            _signalled = false;
+            return signalled;
+        }
+
+        public synchronized boolean isCompleted() {
+            return _completed;
+        }
+
+        synchronized void complete() {
+            _completed = true;
+            _signalled = true;
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void onPublishMessage(String senderAddress, String subject, Object args) {
+            _signalled = true;
+            notifyAll();
+        }
+    }
+
+    public Waiter register(long jobId) {
+        Waiter waiter = new Waiter(jobId);
+        _waiters.compute(jobId, (id, waiters) -> {
+            Set<Waiter> jobWaiters = waiters != null ? waiters : ConcurrentHashMap.<Waiter>newKeySet();
+            jobWaiters.add(waiter);
+            return jobWaiters;
+        });
+        return waiter;
+    }
+
+    public void unregister(Waiter waiter) {
+        _waiters.computeIfPresent(waiter.getJobId(), (id, waiters) -> {
+            waiters.remove(waiter);
+            return waiters.isEmpty() ? null : waiters;
+        });
+    }
+
+    /**
+     * Wakes up the threads waiting for the job.
+     * @return number of threads woken up
+     */
+    public int complete(long jobId) {
+        Set<Waiter> waiters = _waiters.get(jobId);
+        if (waiters == null) {
+            return 0;
+        }
+        int count = 0;
+        for (Waiter waiter : waiters) {
+            waiter.complete();
+            count++;
+        }
+        return count;
+    }
+
+    public int getWaitingJobCount() {
+        return _waiters.size();
+    }
+}
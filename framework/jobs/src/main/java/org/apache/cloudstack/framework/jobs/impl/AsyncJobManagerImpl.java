@@ -18,7 +18,7 @@
 package org.apache.cloudstack.framework.jobs.impl;
 
 import java.io.Serializable;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
@@ -54,7 +54,6 @@ import org.apache.cloudstack.framework.jobs.dao.AsyncJobJoinMapDao;
 import org.apache.cloudstack.framework.jobs.dao.AsyncJobJournalDao;
 import org.apache.cloudstack.framework.jobs.dao.SyncQueueItemDao;
 import org.apache.cloudstack.framework.messagebus.MessageBus;
-import org.apache.cloudstack.framework.messagebus.MessageDetector;
 import org.apache.cloudstack.framework.messagebus.PublishScope;
 import org.apache.cloudstack.jobs.JobInfo;
 import org.apache.cloudstack.jobs.JobInfo.Status;
@@ -62,6 +61,7 @@ import org.apache.cloudstack.managed.context.ManagedContextRunnable;
 import org.apache.cloudstack.utils.identity.ManagementServerNode;
 import org.apache.log4j.MDC;
 
+import com.cloud.cluster.ClusterManager;
 import com.cloud.cluster.ClusterManagerListener;
 import org.apache.cloudstack.management.ManagementServerHost;
 import com.cloud.storage.DataStoreRole;
@@ -106,6 +106,13 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
     private static final ConfigKey<Integer> VmJobLockTimeout = new ConfigKey<Integer>("Advanced",
             Integer.class, "vm.job.lock.timeout", "1800",
             "Time in seconds to wait in acquiring lock to submit a vm worker job", false);
+    private static final ConfigKey<Integer> JobCompletionPollInterval = new ConfigKey<Integer>("Advanced", Integer.class, "job.completion.poll.interval", "60",
+            "Time (in seconds) after which a thread waiting for a job re-checks the job in the database, in case the notification of its completion got lost", true,
+            ConfigKey.Scope.Global);
+    private static final ConfigKey<String> JobPayloadCodecName = new ConfigKey<String>("Advanced", String.class, "job.payload.codec", JavaSerializationJobPayloadCodec.NAME,
+            "Codec used to serialize the work and result of vm work jobs, 'java' or 'compact'. Jobs serialized with either codec can be read regardless of this setting. "
+            + "'compact' payloads can only be read by management servers running the same version", false,
+            ConfigKey.Scope.Global);
     private static final ConfigKey<Boolean> HidePassword = new ConfigKey<Boolean>("Advanced", Boolean.class, "log.hide.password", "true", "If set to true, the password is hidden", true, ConfigKey.Scope.Global);
 
     private static final Logger s_logger = Logger.getLogger(AsyncJobManagerImpl.class);
@@ -116,6 +123,8 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
     private static final int HEARTBEAT_INTERVAL = 2000;
     private static final int GC_INTERVAL = 10000;                // 10 seconds
 
+    private static final String JOB_COMPLETION_MESSAGE_SUBJECT = "AsyncJob.completed";
+
     @Inject
     private SyncQueueItemDao _queueItemDao;
     @Inject
@@ -131,6 +140,8 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
     @Inject
     private MessageBus _messageBus;
     @Inject
+    private ClusterManager _clusterMgr;
+    @Inject
     private AsyncJobMonitor _jobMonitor;
     @Inject
     private VMInstanceDao _vmInstanceDao;
@@ -151,6 +162,8 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
 
     private volatile long _executionRunNumber = 1;
 
+    private final AsyncJobCompletionRegistry _completionRegistry = new AsyncJobCompletionRegistry();
+
     private final ScheduledExecutorService _heartbeatScheduler = Executors.newScheduledThreadPool(1, new NamedThreadFactory("AsyncJobMgr-Heartbeat"));
     private ExecutorService _apiJobExecutor;
     private ExecutorService _workerJobExecutor;
@@ -162,7 +175,7 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
 
     @Override
     public ConfigKey<?>[] getConfigKeys() {
-        return new ConfigKey<?>[] {JobExpireMinutes, JobCancelThresholdMinutes, VmJobLockTimeout, HidePassword};
+        return new ConfigKey<?>[] {JobExpireMinutes, JobCancelThresholdMinutes, VmJobLockTimeout, JobCompletionPollInterval, JobPayloadCodecName, HidePassword};
     }
 
     @Override
@@ -232,21 +245,25 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
                 throw new CloudRuntimeException("Failed to acquire lock in submitting async job: " + job.getCmd() + " with timeout value = " + VmJobLockTimeout.value());
             }
 
+            final SyncQueueVO queue;
             try {
                 // lock is acquired
-                return Transaction.execute(new TransactionCallback<Long>() {
+                queue = Transaction.execute(new TransactionCallback<SyncQueueVO>() {
                     @Override
-                    public Long doInTransaction(TransactionStatus status) {
+                    public SyncQueueVO doInTransaction(TransactionStatus status) {
                         job.setInitMsid(getMsid());
                         dao.persist(job);
 
-                        syncAsyncJobExecution(job, syncObjType, syncObjId, 1);
-                        return job.getId();
+                        return enqueueJob(job, syncObjType, syncObjId, 1);
                     }
                 });
             } finally {
                 _vmInstanceDao.unlockFromLockTable(String.valueOf(syncObjId));
             }
+
+            // the job is committed now, dispatch it if its queue has room instead of leaving it to the heartbeat
+            checkQueue(queue.getId());
+            return job.getId();
         } catch (Exception e) {
             String errMsg = "Unable to schedule async job for command " + job.getCmd() + ", unexpected exception.";
             s_logger.warn(errMsg, e);
@@ -344,6 +361,41 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
                 }
         */
         _messageBus.publish(null, AsyncJob.Topics.JOB_STATE, PublishScope.GLOBAL, jobId);
+        notifyJobCompletion(job);
+    }
+
+    /**
+     * Wakes up the threads waiting for the job. Jobs are waited for by the thread that submitted
+     * them, so if the job was submitted by another management server the completion is forwarded
+     * to it over the cluster bus.
+     */
+    private void notifyJobCompletion(final AsyncJob job) {
+        _completionRegistry.complete(job.getId());
+
+        final Long initMsid = job.getInitMsid();
+        if (initMsid != null && initMsid.longValue() != getMsid() && _clusterMgr != null) {
+            try {
+                _clusterMgr.sendMessage(initMsid, JOB_COMPLETION_MESSAGE_SUBJECT, Long.toString(job.getId()));
+            } catch (final Exception e) {
+                s_logger.warn("Unable to notify management server " + initMsid + " of the completion of job-" + job.getId() + ", it will find out by polling", e);
+            }
+        }
+    }
+
+    private void onRemoteJobCompletion(final String sourcePeer, final String message) {
+        final long jobId;
+        try {
+            jobId = Long.parseLong(message);
+        } catch (final NumberFormatException e) {
+            s_logger.warn("Ignoring invalid job completion message from management server " + sourcePeer + ": " + message);
+            return;
+        }
+
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Management server " + sourcePeer + " completed job-" + jobId);
+        }
+        _completionRegistry.complete(jobId);
+        _messageBus.publish(null, AsyncJob.Topics.JOB_STATE, PublishScope.LOCAL, jobId);
     }
 
     private String convertHumanReadableJson(String resultObj) {
@@ -458,10 +510,15 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
             s_logger.debug("Sync job-" + job.getId() + " execution on object " + syncObjType + "." + syncObjId);
         }
 
-        SyncQueueVO queue = null;
-        queue = _queueMgr.queue(syncObjType, syncObjId, SyncQueueItem.AsyncJobContentType, job.getId(), queueSizeLimit);
+        SyncQueueVO queue = enqueueJob(job, syncObjType, syncObjId, queueSizeLimit);
+        checkQueue(queue.getId());
+    }
+
+    private SyncQueueVO enqueueJob(AsyncJob job, String syncObjType, long syncObjId, long queueSizeLimit) {
+        SyncQueueVO queue = _queueMgr.queue(syncObjType, syncObjId, SyncQueueItem.AsyncJobContentType, job.getId(), queueSizeLimit);
         if (queue == null)
             throw new CloudRuntimeException("Unable to insert queue item into database, DB is full?");
+        return queue;
     }
 
     @Override
@@ -743,21 +800,48 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
         }
     }
 
+    /**
+     * Waits for the job to complete. The completion of the job wakes up the waiting thread through
+     * the completion registry, either directly when the job completes on this management server, or
+     * through the cluster bus when it completes on another one. Messages on the other topics make
+     * the thread check the predicate. The job is only read from the database when the waiting thread
+     * is woken up, and every {@link #JobCompletionPollInterval} in case a notification got lost.
+     */
     @Override
     public boolean waitAndCheck(AsyncJob job, String[] wakeupTopicsOnMessageBus, long checkIntervalInMilliSeconds, long timeoutInMiliseconds, Predicate predicate) {
+        final AsyncJobCompletionRegistry.Waiter waiter = _completionRegistry.register(job.getId());
+        final String[] topics = getWakeupTopics(wakeupTopicsOnMessageBus);
+        for (final String topic : topics) {
+            _messageBus.subscribe(topic, waiter);
+        }
 
-        MessageDetector msgDetector = new MessageDetector();
-        String[] topics = Arrays.copyOf(wakeupTopicsOnMessageBus, wakeupTopicsOnMessageBus.length + 1);
-        topics[topics.length - 1] = AsyncJob.Topics.JOB_STATE;
-
-        msgDetector.open(_messageBus, topics);
         try {
-            long startTick = System.currentTimeMillis();
+            // the job may have completed before the waiter got registered
+            if (isJobDone(job.getId())) {
+                return true;
+            }
+
+            final long pollInterval = Math.max(JobCompletionPollInterval.value() * 1000L, checkIntervalInMilliSeconds);
+            boolean completionPending = false;
+            final long startTick = System.currentTimeMillis();
             while (timeoutInMiliseconds < 0 || System.currentTimeMillis() - startTick < timeoutInMiliseconds) {
-                msgDetector.waitAny(checkIntervalInMilliSeconds);
-                job = _jobDao.findById(job.getId());
-                if (job != null && job.getStatus().done()) {
-                    return true;
+                // after a completion notification that is not visible in the database yet, fall back to the regular check interval
+                long waitInterval = completionPending ? checkIntervalInMilliSeconds : pollInterval;
+                if (timeoutInMiliseconds >= 0) {
+                    waitInterval = Math.min(waitInterval, timeoutInMiliseconds - (System.currentTimeMillis() - startTick));
+                }
+
+                try {
+                    waiter.await(waitInterval);
+                } catch (final InterruptedException e) {
+                    s_logger.debug("[ignored] interrupted while waiting for job-" + job.getId());
+                }
+
+                if (waiter.isCompleted() || completionPending) {
+                    if (isJobDone(job.getId())) {
+                        return true;
+                    }
+                    completionPending = true;
                 }
 
                 if (predicate.checkCondition()) {
@@ -765,12 +849,32 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
                 }
             }
         } finally {
-            msgDetector.close();
+            for (final String topic : topics) {
+                _messageBus.unsubscribe(topic, waiter);
+            }
+            _completionRegistry.unregister(waiter);
         }
 
         return false;
     }
 
+    private static String[] getWakeupTopics(String[] wakeupTopicsOnMessageBus) {
+        // completion of the job itself is signalled through the completion registry
+        final List<String> topics = new ArrayList<String>();
+        for (final String topic : wakeupTopicsOnMessageBus) {
+            if (!AsyncJob.Topics.JOB_STATE.equals(topic) && !topics.contains(topic)) {
+                topics.add(topic);
+            }
+        }
+        return topics.toArray(new String[topics.size()]);
+    }
+
+    private boolean isJobDone(long jobId) {
+        // only the status is read, the job result can be large
+        final Status status = _jobDao.findStatusById(jobId);
+        return status == null || status.done();
+    }
+
     @Override
     public String marshallResultObject(Serializable obj) {
         if (obj != null)
@@ -811,6 +915,22 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
 
             @Override
             protected void runInContext() {
+                // queue items are claimed under the lock of their queue row, so they can be dispatched without the global lock.
+                // Items are mostly dispatched as soon as they are enqueued or their queue frees up, this picks up the rest.
+                try {
+                    List<SyncQueueItemVO> l = _queueMgr.dequeueFromAny(getMsid(), MAX_ONETIME_SCHEDULE_SIZE);
+                    if (l != null && l.size() > 0) {
+                        for (SyncQueueItemVO item : l) {
+                            if (s_logger.isDebugEnabled()) {
+                                s_logger.debug("Execute sync-queue item: " + item.toString());
+                            }
+                            executeQueueItem(item, false);
+                        }
+                    }
+                } catch (Throwable e) {
+                    s_logger.error("Unexpected exception when trying to execute queue item, ", e);
+                }
+
                 GlobalLock scanLock = GlobalLock.getInternLock("AsyncJobManagerHeartbeat");
                 try {
                     if (scanLock.lock(ACQUIRE_GLOBAL_LOCK_TIMEOUT_FOR_COOPERATION)) {
@@ -827,16 +947,6 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
 
             protected void reallyRun() {
                 try {
-                    List<SyncQueueItemVO> l = _queueMgr.dequeueFromAny(getMsid(), MAX_ONETIME_SCHEDULE_SIZE);
-                    if (l != null && l.size() > 0) {
-                        for (SyncQueueItemVO item : l) {
-                            if (s_logger.isDebugEnabled()) {
-                                s_logger.debug("Execute sync-queue item: " + item.toString());
-                            }
-                            executeQueueItem(item, false);
-                        }
-                    }
-
                     List<Long> standaloneWakeupJobs = wakeupScan();
                     for (Long jobId : standaloneWakeupJobs) {
                         // TODO, we assume that all jobs in this category is API job only
@@ -845,7 +955,7 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
                             scheduleExecution(job, false);
                     }
                 } catch (Throwable e) {
-                    s_logger.error("Unexpected exception when trying to execute queue item, ", e);
+                    s_logger.error("Unexpected exception when trying to wake up jobs, ", e);
                 }
             }
         };
@@ -1053,17 +1163,32 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
         ContentIdsSearch = _queueItemDao.createSearchBuilder(Long.class);
         ContentIdsSearch.selectFields(ContentIdsSearch.entity().getContentId()).done();
 
+        try {
+            JobSerializerHelper.setCodec(JobPayloadCodecName.value());
+        } catch (final CloudRuntimeException e) {
+            s_logger.warn(e.getMessage() + ", using " + JobSerializerHelper.getCodec().getName());
+        }
+
         AsyncJobExecutionContext.init(this, _joinMapDao);
         OutcomeImpl.init(this);
 
+        if (_clusterMgr != null) {
+            _clusterMgr.registerMessageListener(JOB_COMPLETION_MESSAGE_SUBJECT, new ClusterManager.MessageListener() {
+                @Override
+                public void onMessage(String sourcePeer, String message) {
+                    onRemoteJobCompletion(sourcePeer, message);
+                }
+            });
+        }
+
         return true;
     }
 
     private void cleanupLeftOverJobs(final long msid) {
         try {
-            Transaction.execute(new TransactionCallbackNoReturn() {
+            final List<AsyncJobVO> cancelledJobs = Transaction.execute(new TransactionCallback<List<AsyncJobVO>>() {
                 @Override
-                public void doInTransactionWithoutResult(TransactionStatus status) {
+                public List<AsyncJobVO> doInTransaction(TransactionStatus status) {
                     // purge sync queue item running on this ms node
                     _queueMgr.cleanupActiveQueueItems(msid, true);
                     // reset job status for all jobs running on this ms node
@@ -1100,8 +1225,16 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
                         snapshotSrv.processEventOnSnapshotObject(snapshot, Snapshot.Event.OperationFailed);
                         _snapshotDetailsDao.removeDetail(snapshotDetailsVO.getResourceId(), AsyncJob.Constants.MS_ID);
                     }
+                    return jobs;
                 }
             });
+            for (final AsyncJobVO job : cancelledJobs) {
+                if (job.getInitMsid() != null && job.getInitMsid().longValue() == msid) {
+                    // nobody is waiting on the node that left
+                    continue;
+                }
+                notifyJobCompletion(job);
+            }
         } catch (Throwable e) {
             s_logger.warn("Unexpected exception in cleaning up left over jobs for mamagement server node " + msid, e);
         }
@@ -0,0 +1,142 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.framework.jobs.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamField;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.commons.codec.binary.Base64;
+
+import com.cloud.utils.exception.CloudRuntimeException;
+
+/**
+ * Java serialization that writes the name, serialVersionUID and a fingerprint of the serializable
+ * fields of each class instead of its full descriptor, and deflates the result. Class descriptors
+ * make up most of a serialized VmWork, and its field names and values repeat a lot, so this
+ * typically brings a payload down to a fraction of its legacy size.
+ *
+ * Without the full descriptor a payload can not be mapped onto a different version of its
+ * classes, so it is rejected when the serialVersionUID or the serializable fields of a class
+ * differ on the reading side, where plain Java serialization would tolerate added or removed
+ * fields. Jobs are picked up, and their results read, by any management server, so select this
+ * codec only when all management servers run the same version.
+ */
+public class CompactJobPayloadCodec implements JobPayloadCodec {
+    public static final String NAME = "compact";
+    private static final String PREFIX = "c2" + JobSerializerHelper.CODEC_PREFIX_SEPARATOR;
+
+    // setting up the zlib state is a good part of the cost of a small payload, so keep one per thread
+    private static final ThreadLocal<Deflater> s_deflater = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public String getPrefix() {
+        return PREFIX;
+    }
+
+    @Override
+    public String encode(Serializable object) {
+        ByteArrayOutputStream bs = new ByteArrayOutputStream(512);
+        Deflater deflater = s_deflater.get();
+        deflater.reset();
+        try (ObjectOutputStream os = new CompactObjectOutputStream(new DeflaterOutputStream(bs, deflater, 512))) {
+            os.writeObject(object);
+        } catch (IOException e) {
+            throw new CloudRuntimeException("Unable to serialize: " + object, e);
+        }
+        return PREFIX + Base64.encodeBase64URLSafeString(bs.toByteArray());
+    }
+
+    @Override
+    public Object decode(String encoded) {
+        byte[] content = Base64.decodeBase64(encoded.substring(PREFIX.length()));
+        try (ObjectInputStream is = new CompactObjectInputStream(new InflaterInputStream(new ByteArrayInputStream(content)))) {
+            return is.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            throw new CloudRuntimeException("Unable to deserialize: " + encoded, e);
+        }
+    }
+
+    private static class CompactObjectOutputStream extends ObjectOutputStream {
+        CompactObjectOutputStream(OutputStream out) throws IOException {
+            super(out);
+        }
+
+        @Override
+        protected void writeClassDescriptor(ObjectStreamClass desc) throws IOException {
+            writeUTF(desc.getName());
+            writeLong(desc.getSerialVersionUID());
+            writeInt(fingerprint(desc));
+        }
+    }
+
+    private static class CompactObjectInputStream extends ObjectInputStream {
+        CompactObjectInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+            String name = readUTF();
+            Class<?> clazz;
+            try {
+                clazz = Class.forName(name, false, CompactJobPayloadCodec.class.getClassLoader());
+            } catch (ClassNotFoundException e) {
+                clazz = Class.forName(name, false, Thread.currentThread().getContextClassLoader());
+            }
+            long serialVersionUID = readLong();
+            int fingerprint = readInt();
+            ObjectStreamClass desc = ObjectStreamClass.lookupAny(clazz);
+            if (desc.getSerialVersionUID() != serialVersionUID) {
+                throw new InvalidClassException(name, "local class incompatible: stream classdesc serialVersionUID = " + serialVersionUID
+                        + ", local class serialVersionUID = " + desc.getSerialVersionUID());
+            }
+            if (fingerprint(desc) != fingerprint) {
+                throw new InvalidClassException(name, "local class incompatible: serializable fields differ from the stream");
+            }
+            return desc;
+        }
+    }
+
+    /**
+     * @return hash of the names and types of the serializable fields, which Java serialization lists in a fixed order.
+     */
+    static int fingerprint(ObjectStreamClass desc) {
+        int hash = 1;
+        for (ObjectStreamField field : desc.getFields()) {
+            hash = 31 * hash + field.getName().hashCode();
+            hash = 31 * hash + (field.getTypeString() != null ? field.getTypeString().hashCode() : field.getTypeCode());
+        }
+        return hash;
+    }
+}
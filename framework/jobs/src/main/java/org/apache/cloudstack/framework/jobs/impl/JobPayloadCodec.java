@@ -0,0 +1,46 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.framework.jobs.impl;
+
+import java.io.Serializable;
+
+/**
+ * Turns the payload of a job, like the VmWork a vm work job executes or the object it returns as
+ * its result, into text that can be stored in the job tables, and back.
+ *
+ * Codecs are told apart by the prefix they put in front of what they encode, so that rows written
+ * with any registered codec can be read no matter which codec is used to write new ones.
+ */
+public interface JobPayloadCodec {
+    /**
+     * @return name the codec is selected by, in the job.payload.codec setting
+     */
+    String getName();
+
+    /**
+     * @return prefix of the encoded payloads, made of letters and digits and ending in
+     * {@link JobSerializerHelper#CODEC_PREFIX_SEPARATOR}, or an empty string for the legacy format
+     */
+    String getPrefix();
+
+    String encode(Serializable object);
+
+    /**
+     * @param encoded payload as returned by {@link #encode(Serializable)}, including the prefix
+     */
+    Object decode(String encoded);
+}
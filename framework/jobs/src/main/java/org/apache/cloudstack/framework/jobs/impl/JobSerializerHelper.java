@@ -16,17 +16,13 @@
 // under the License.
 package org.apache.cloudstack.framework.jobs.impl;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Type;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
-import org.apache.commons.codec.binary.Base64;
 import org.apache.log4j.Logger;
 
 import com.cloud.utils.exception.CloudRuntimeException;
@@ -48,6 +44,18 @@ public class JobSerializerHelper {
     private static final Logger s_logger = Logger.getLogger(JobSerializerHelper.class);
     public static final String token = "/";
 
+    public static final char CODEC_PREFIX_SEPARATOR = ':';
+    private static final int MAX_CODEC_PREFIX_LENGTH = 8;
+
+    private static final JobPayloadCodec s_legacyCodec = new JavaSerializationJobPayloadCodec();
+    private static final Map<String, JobPayloadCodec> s_codecsByName = new ConcurrentHashMap<String, JobPayloadCodec>();
+    private static final Map<String, JobPayloadCodec> s_codecsByPrefix = new ConcurrentHashMap<String, JobPayloadCodec>();
+    private static volatile JobPayloadCodec s_codec = s_legacyCodec;
+    static {
+        registerCodec(s_legacyCodec);
+        registerCodec(new CompactJobPayloadCodec());
+    }
+
     private static Gson s_gson;
     static {
         GsonBuilder gsonBuilder = new GsonBuilder();
@@ -104,37 +112,52 @@ public class JobSerializerHelper {
 
     public static String toObjectSerializedString(Serializable object) {
         assert (object != null);
-
-        ByteArrayOutputStream bs = new ByteArrayOutputStream();
-        try {
-            ObjectOutputStream os = new ObjectOutputStream(bs);
-            os.writeObject(object);
-            os.close();
-            bs.close();
-
-            return Base64.encodeBase64URLSafeString(bs.toByteArray());
-        } catch (IOException e) {
-            throw new CloudRuntimeException("Unable to serialize: " + object, e);
-        }
+        return s_codec.encode(object);
     }
 
     public static Object fromObjectSerializedString(String base64EncodedString) {
         if (base64EncodedString == null)
             return null;
 
-        byte[] content = Base64.decodeBase64(base64EncodedString);
-        ByteArrayInputStream bs = new ByteArrayInputStream(content);
-        try {
-            ObjectInputStream is = new ObjectInputStream(bs);
-            Object obj = is.readObject();
-            is.close();
-            bs.close();
-            return obj;
-        } catch (IOException e) {
-            throw new CloudRuntimeException("Unable to serialize: " + base64EncodedString, e);
-        } catch (ClassNotFoundException e) {
-            throw new CloudRuntimeException("Unable to serialize: " + base64EncodedString, e);
+        return getCodec(base64EncodedString).decode(base64EncodedString);
+    }
+
+    /**
+     * Makes a codec available for reading job payloads, and for writing them once selected by
+     * {@link #setCodec(String)}.
+     */
+    public static void registerCodec(JobPayloadCodec codec) {
+        s_codecsByName.put(codec.getName(), codec);
+        s_codecsByPrefix.put(codec.getPrefix(), codec);
+    }
+
+    /**
+     * Selects the codec new job payloads are written with. Payloads written with any registered
+     * codec can be read regardless of the one selected.
+     */
+    public static void setCodec(String name) {
+        JobPayloadCodec codec = s_codecsByName.get(name);
+        if (codec == null) {
+            throw new CloudRuntimeException("Unknown job payload codec " + name + ", available codecs are " + s_codecsByName.keySet());
+        }
+        s_codec = codec;
+    }
+
+    public static JobPayloadCodec getCodec() {
+        return s_codec;
+    }
+
+    private static JobPayloadCodec getCodec(String encoded) {
+        // the legacy format is base64, which never contains the separator
+        int index = encoded.indexOf(CODEC_PREFIX_SEPARATOR);
+        if (index < 0 || index > MAX_CODEC_PREFIX_LENGTH) {
+            return s_legacyCodec;
+        }
+        JobPayloadCodec codec = s_codecsByPrefix.get(encoded.substring(0, index + 1));
+        if (codec == null) {
+            throw new CloudRuntimeException("Unable to find a codec to deserialize: " + encoded);
         }
+        return codec;
     }
 
     public static class ClassTypeAdapter implements JsonSerializer<Class<?>>, JsonDeserializer<Class<?>> {
@@ -63,7 +63,8 @@ public class OutcomeImpl<T> implements Outcome<T> {
 
     @Override
     public T get() throws InterruptedException, ExecutionException {
-        s_jobMgr.waitAndCheck(getJob(), _topics, _checkIntervalInMs, -1, _predicate);
+        // waiting only needs the id, the job with its result is loaded when the outcome is retrieved
+        s_jobMgr.waitAndCheck(_job, _topics, _checkIntervalInMs, -1, _predicate);
         try {
             AsyncJobExecutionContext.getCurrentExecutionContext().disjoinJob(_job.getId());
         } catch (Throwable e) {
@@ -75,7 +76,7 @@ public class OutcomeImpl<T> implements Outcome<T> {
 
     @Override
     public T get(long timeToWait, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
-        s_jobMgr.waitAndCheck(getJob(), _topics, _checkIntervalInMs, unit.toMillis(timeToWait), _predicate);
+        s_jobMgr.waitAndCheck(_job, _topics, _checkIntervalInMs, unit.toMillis(timeToWait), _predicate);
         try {
             AsyncJobExecutionContext.getCurrentExecutionContext().disjoinJob(_job.getId());
         } catch (Throwable e) {
@@ -0,0 +1,151 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.framework.jobs.impl;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-memory front of the sync queues of a management server. The database stays the authority on
+ * the queues, items are claimed for execution in the same transaction that enqueues them or that
+ * completes the active item of their queue, and are then handed over here to be dispatched right
+ * away by the management server that claimed them, instead of being picked up by the next scan of
+ * the sync_queue_item table.
+ *
+ * All the state lives in concurrent maps keyed on the queue or on the item, so enqueueing and
+ * dispatching items of different queues do not contend with each other. The front also keeps
+ * track of the items enqueued on this management server that are still waiting, for the queue
+ * depth and wait time statistics.
+ */
+public class SyncQueueFront {
+    // items enqueued here that got dispatched by another management server are forgotten after this
+    private static final long STALE_ENTRY_MS = 60 * 60 * 1000L;
+
+    private final Map<Long, ConcurrentLinkedQueue<SyncQueueItemVO>> _readyItems = new ConcurrentHashMap<Long, ConcurrentLinkedQueue<SyncQueueItemVO>>();
+    private final Map<Long, WaitingItem> _waitingItems = new ConcurrentHashMap<Long, WaitingItem>();
+    private final ConcurrentHashMap<Long, Integer> _queueDepths = new ConcurrentHashMap<Long, Integer>();
+    private final AtomicInteger _readyItemCount = new AtomicInteger();
+    private final SyncQueueMBeanImpl _stats = new SyncQueueMBeanImpl(this);
+
+    public SyncQueueMBeanImpl getStats() {
+        return _stats;
+    }
+
+    public void enqueued(SyncQueueItemVO item) {
+        _waitingItems.put(item.getId(), new WaitingItem(item.getQueueId(), System.currentTimeMillis()));
+        _stats.recordEnqueue(_queueDepths.merge(item.getQueueId(), 1, Integer::sum));
+    }
+
+    /**
+     * Hands over an item that has been claimed for execution by this management server.
+     */
+    public void ready(final SyncQueueItemVO item) {
+        _readyItems.compute(item.getQueueId(), (queueId, items) -> {
+            if (items == null) {
+                items = new ConcurrentLinkedQueue<SyncQueueItemVO>();
+            }
+            items.add(item);
+            return items;
+        });
+        _readyItemCount.incrementAndGet();
+        _stats.recordImmediateDispatch();
+    }
+
+    public SyncQueueItemVO pollReady(long queueId) {
+        ConcurrentLinkedQueue<SyncQueueItemVO> items = _readyItems.get(queueId);
+        if (items == null) {
+            return null;
+        }
+
+        SyncQueueItemVO item = items.poll();
+        _readyItems.computeIfPresent(queueId, (id, queued) -> queued.isEmpty() ? null : queued);
+        if (item != null) {
+            _readyItemCount.decrementAndGet();
+        }
+        return item;
+    }
+
+    public SyncQueueItemVO pollReady() {
+        for (Long queueId : _readyItems.keySet()) {
+            SyncQueueItemVO item = pollReady(queueId);
+            if (item != null) {
+                return item;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Records the dispatch of an item, whichever way it was claimed.
+     */
+    public void dispatched(SyncQueueItemVO item) {
+        WaitingItem waiting = forget(item.getId());
+        long enqueueTime;
+        if (waiting != null) {
+            enqueueTime = waiting.enqueueTime;
+        } else if (item.getCreated() != null) {
+            enqueueTime = item.getCreated().getTime();
+        } else {
+            return;
+        }
+        _stats.recordDispatch(Math.max(0, System.currentTimeMillis() - enqueueTime));
+    }
+
+    /**
+     * Forgets an item that is removed from its queue without having been dispatched here.
+     */
+    public void removed(long itemId) {
+        forget(itemId);
+    }
+
+    public void pruneStaleItems() {
+        long cutTime = System.currentTimeMillis() - STALE_ENTRY_MS;
+        for (Map.Entry<Long, WaitingItem> entry : _waitingItems.entrySet()) {
+            if (entry.getValue().enqueueTime < cutTime) {
+                forget(entry.getKey());
+            }
+        }
+    }
+
+    public int getWaitingItemCount() {
+        return _waitingItems.size();
+    }
+
+    public int getReadyItemCount() {
+        return _readyItemCount.get();
+    }
+
+    private WaitingItem forget(long itemId) {
+        WaitingItem waiting = _waitingItems.remove(itemId);
+        if (waiting != null) {
+            _queueDepths.computeIfPresent(waiting.queueId, (queueId, depth) -> depth > 1 ? depth - 1 : null);
+        }
+        return waiting;
+    }
+
+    private static class WaitingItem {
+        private final long queueId;
+        private final long enqueueTime;
+
+        WaitingItem(long queueId, long enqueueTime) {
+            this.queueId = queueId;
+            this.enqueueTime = enqueueTime;
+        }
+    }
+}
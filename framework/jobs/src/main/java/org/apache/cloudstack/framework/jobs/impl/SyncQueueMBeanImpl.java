@@ -0,0 +1,136 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.framework.jobs.impl;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.StandardMBean;
+
+import org.apache.cloudstack.framework.jobs.SyncQueueMBean;
+
+public class SyncQueueMBeanImpl extends StandardMBean implements SyncQueueMBean {
+    private static final long[] DEPTH_BUCKETS = {1, 2, 5, 10, 20, 50, 100, 200, 500};
+    private static final long[] WAIT_TIME_BUCKETS_MS = {10, 50, 100, 500, 1000, 2000, 5000, 10000, 30000, 60000, 300000};
+
+    private final SyncQueueFront _front;
+
+    private final AtomicLong _enqueuedCount = new AtomicLong();
+    private final AtomicLong _dispatchedCount = new AtomicLong();
+    private final AtomicLong _immediateDispatchCount = new AtomicLong();
+    private final Histogram _depthHistogram = new Histogram(DEPTH_BUCKETS);
+    private final Histogram _waitTimeHistogram = new Histogram(WAIT_TIME_BUCKETS_MS);
+
+    protected SyncQueueMBeanImpl(SyncQueueFront front) {
+        super(SyncQueueMBean.class, false);
+        _front = front;
+    }
+
+    void recordEnqueue(int depth) {
+        _enqueuedCount.incrementAndGet();
+        _depthHistogram.record(depth);
+    }
+
+    void recordImmediateDispatch() {
+        _immediateDispatchCount.incrementAndGet();
+    }
+
+    void recordDispatch(long waitTimeMs) {
+        _dispatchedCount.incrementAndGet();
+        _waitTimeHistogram.record(waitTimeMs);
+    }
+
+    @Override
+    public long getEnqueuedCount() {
+        return _enqueuedCount.get();
+    }
+
+    @Override
+    public long getDispatchedCount() {
+        return _dispatchedCount.get();
+    }
+
+    @Override
+    public long getImmediateDispatchCount() {
+        return _immediateDispatchCount.get();
+    }
+
+    @Override
+    public int getWaitingItemCount() {
+        return _front.getWaitingItemCount();
+    }
+
+    @Override
+    public int getReadyItemCount() {
+        return _front.getReadyItemCount();
+    }
+
+    @Override
+    public long[] getDepthHistogramBuckets() {
+        return _depthHistogram.getUpperBounds();
+    }
+
+    @Override
+    public long[] getDepthHistogram() {
+        return _depthHistogram.getCounts();
+    }
+
+    @Override
+    public long[] getWaitTimeHistogramBucketsMs() {
+        return _waitTimeHistogram.getUpperBounds();
+    }
+
+    @Override
+    public long[] getWaitTimeHistogram() {
+        return _waitTimeHistogram.getCounts();
+    }
+
+    /**
+     * Counts values per bucket, a bucket holds the values up to and including its upper bound and
+     * above the bound of the previous bucket. The last count is for the values above the last bound.
+     */
+    static class Histogram {
+        private final long[] _upperBounds;
+        private final AtomicLongArray _counts;
+
+        Histogram(long[] upperBounds) {
+            _upperBounds = upperBounds;
+            _counts = new AtomicLongArray(upperBounds.length + 1);
+        }
+
+        void record(long value) {
+            int bucket = Arrays.binarySearch(_upperBounds, value);
+            if (bucket < 0) {
+                bucket = -bucket - 1;
+            }
+            _counts.incrementAndGet(bucket);
+        }
+
+        long[] getUpperBounds() {
+            return _upperBounds.clone();
+        }
+
+        long[] getCounts() {
+            long[] counts = new long[_counts.length()];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = _counts.get(i);
+            }
+            return counts;
+        }
+    }
+}
@@ -19,41 +19,73 @@ package org.apache.cloudstack.framework.jobs.impl;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 import javax.inject.Inject;
+import javax.naming.ConfigurationException;
 
 import org.apache.log4j.Logger;
 
 import org.apache.cloudstack.framework.jobs.dao.SyncQueueDao;
 import org.apache.cloudstack.framework.jobs.dao.SyncQueueItemDao;
+import org.apache.cloudstack.utils.identity.ManagementServerNode;
+
 import com.cloud.utils.DateUtil;
 import com.cloud.utils.component.ManagerBase;
 import com.cloud.utils.db.DB;
 import com.cloud.utils.db.Transaction;
 import com.cloud.utils.db.TransactionCallback;
 import com.cloud.utils.db.TransactionCallbackNoReturn;
+import com.cloud.utils.db.TransactionLegacy;
 import com.cloud.utils.db.TransactionStatus;
 import com.cloud.utils.exception.CloudRuntimeException;
-
+import com.cloud.utils.mgmt.JmxUtil;
+
+/**
+ * Queues are kept in the database, so that they are shared by the management servers. An item is
+ * claimed for execution in the transaction that enqueues it, or in the one that removes the active
+ * item of its queue, whenever the queue has room for it. The claimed item is then dispatched from
+ * the in-memory {@link SyncQueueFront} by the management server that claimed it, without another
+ * transaction, once the claiming transaction has committed. Claims are made with the queue row
+ * locked, so that management servers cannot claim items of the same queue at the same time.
+ */
 public class SyncQueueManagerImpl extends ManagerBase implements SyncQueueManager {
     public static final Logger s_logger = Logger.getLogger(SyncQueueManagerImpl.class.getName());
 
+    private static final long STALE_ITEM_PRUNE_INTERVAL_MS = 60000;
+
     @Inject
     private SyncQueueDao _syncQueueDao;
     @Inject
     private SyncQueueItemDao _syncQueueItemDao;
 
+    private final SyncQueueFront _front = new SyncQueueFront();
+    private volatile long _lastStaleItemPrune = System.currentTimeMillis();
+
+    @Override
+    public boolean configure(String name, Map<String, Object> params) throws ConfigurationException {
+        super.configure(name, params);
+        try {
+            JmxUtil.registerMBean("SyncQueueManager", "SyncQueueFront", _front.getStats());
+        } catch (Exception e) {
+            s_logger.warn("Failed to register sync queue MBean", e);
+        }
+        return true;
+    }
+
     @Override
     @DB
     public SyncQueueVO queue(final String syncObjType, final long syncObjId, final String itemType, final long itemId, final long queueSizeLimit) {
         try {
-            return Transaction.execute(new TransactionCallback<SyncQueueVO>() {
+            final SyncQueueItemVO[] claimedItem = new SyncQueueItemVO[1];
+            SyncQueueVO queue = Transaction.execute(new TransactionCallback<SyncQueueVO>() {
                 @Override
                 public SyncQueueVO doInTransaction(TransactionStatus status) {
                     _syncQueueDao.ensureQueue(syncObjType, syncObjId);
                     SyncQueueVO queueVO = _syncQueueDao.find(syncObjType, syncObjId);
                     if (queueVO == null)
                         throw new CloudRuntimeException("Unable to queue item into DB, DB is full?");
+                    queueVO = _syncQueueDao.lockRow(queueVO.getId(), true);
 
                     queueVO.setQueueSizeLimit(queueSizeLimit);
                     _syncQueueDao.update(queueVO.getId(), queueVO);
@@ -66,9 +98,17 @@ public class SyncQueueManagerImpl extends ManagerBase implements SyncQueueManage
                     item.setCreated(dt);
 
                     _syncQueueItemDao.persist(item);
+                    enqueuedAfterCommit(item);
+
+                    claimedItem[0] = claimNextItem(queueVO, getMsid());
                     return queueVO;
                 }
             });
+
+            if (claimedItem[0] != null) {
+                readyAfterCommit(claimedItem[0]);
+            }
+            return queue;
         } catch (Exception e) {
             s_logger.error("Unexpected exception: ", e);
         }
@@ -78,48 +118,33 @@ public class SyncQueueManagerImpl extends ManagerBase implements SyncQueueManage
     @Override
     @DB
     public SyncQueueItemVO dequeueFromOne(final long queueId, final Long msid) {
+        SyncQueueItemVO readyItem = pollReadyItem(queueId);
+        if (readyItem != null) {
+            return readyItem;
+        }
+        // items are mostly claimed when enqueued or when their queue frees up, only lock the queue if one is left to claim
+        if (!hasItemToClaim(queueId)) {
+            return null;
+        }
+
         try {
-            return Transaction.execute(new TransactionCallback<SyncQueueItemVO>() {
+            SyncQueueItemVO itemVO = Transaction.execute(new TransactionCallback<SyncQueueItemVO>() {
                 @Override
                 public SyncQueueItemVO doInTransaction(TransactionStatus status) {
-                    SyncQueueVO queueVO = _syncQueueDao.findById(queueId);
+                    SyncQueueVO queueVO = _syncQueueDao.lockRow(queueId, true);
                     if(queueVO == null) {
                         s_logger.error("Sync queue(id: " + queueId + ") does not exist");
                         return null;
                     }
 
-                    if (queueReadyToProcess(queueVO)) {
-                        SyncQueueItemVO itemVO = _syncQueueItemDao.getNextQueueItem(queueVO.getId());
-                        if (itemVO != null) {
-                            Long processNumber = queueVO.getLastProcessNumber();
-                            if (processNumber == null)
-                                processNumber = new Long(1);
-                            else
-                                processNumber = processNumber + 1;
-                            Date dt = DateUtil.currentGMTTime();
-                            queueVO.setLastProcessNumber(processNumber);
-                            queueVO.setLastUpdated(dt);
-                            queueVO.setQueueSize(queueVO.getQueueSize() + 1);
-                            _syncQueueDao.update(queueVO.getId(), queueVO);
-
-                            itemVO.setLastProcessMsid(msid);
-                            itemVO.setLastProcessNumber(processNumber);
-                            itemVO.setLastProcessTime(dt);
-                            _syncQueueItemDao.update(itemVO.getId(), itemVO);
-
-                            return itemVO;
-                        } else {
-                            if (s_logger.isDebugEnabled())
-                                s_logger.debug("Sync queue (" + queueId + ") is currently empty");
-                        }
-                    } else {
-                        if (s_logger.isDebugEnabled())
-                            s_logger.debug("There is a pending process in sync queue(id: " + queueId + ")");
-                    }
-
-                    return null;
+                    return claimNextItem(queueVO, msid);
                 }
             });
+
+            if (itemVO != null) {
+                _front.dispatched(itemVO);
+            }
+            return itemVO;
         } catch (Exception e) {
             s_logger.error("Unexpected exception: ", e);
         }
@@ -130,63 +155,62 @@ public class SyncQueueManagerImpl extends ManagerBase implements SyncQueueManage
     @Override
     @DB
     public List<SyncQueueItemVO> dequeueFromAny(final Long msid, final int maxItems) {
+        pruneStaleItems();
 
         final List<SyncQueueItemVO> resultList = new ArrayList<SyncQueueItemVO>();
+        for (SyncQueueItemVO readyItem = null; resultList.size() < maxItems && (readyItem = pollReadyItem()) != null;) {
+            resultList.add(readyItem);
+        }
+        if (resultList.size() >= maxItems) {
+            return resultList;
+        }
 
         try {
-            Transaction.execute(new TransactionCallbackNoReturn() {
-                @Override
-                public void doInTransactionWithoutResult(TransactionStatus status) {
-                    List<SyncQueueItemVO> l = _syncQueueItemDao.getNextQueueItems(maxItems);
-                    if(l != null && l.size() > 0) {
-                        for(SyncQueueItemVO item : l) {
-                            SyncQueueVO queueVO = _syncQueueDao.findById(item.getQueueId());
+            List<SyncQueueItemVO> l = _syncQueueItemDao.getNextQueueItems(maxItems - resultList.size());
+            if(l != null && l.size() > 0) {
+                for(final SyncQueueItemVO item : l) {
+                    // claim each item in its own transaction, so that queue rows are not locked in varying order
+                    SyncQueueItemVO itemVO = Transaction.execute(new TransactionCallback<SyncQueueItemVO>() {
+                        @Override
+                        public SyncQueueItemVO doInTransaction(TransactionStatus status) {
+                            SyncQueueVO queueVO = _syncQueueDao.lockRow(item.getQueueId(), true);
                             SyncQueueItemVO itemVO = _syncQueueItemDao.findById(item.getId());
-                            if(queueReadyToProcess(queueVO) && itemVO != null && itemVO.getLastProcessNumber() == null) {
-                                Long processNumber = queueVO.getLastProcessNumber();
-                                if (processNumber == null)
-                                    processNumber = new Long(1);
-                                else
-                                    processNumber = processNumber + 1;
-
-                                Date dt = DateUtil.currentGMTTime();
-                                queueVO.setLastProcessNumber(processNumber);
-                                queueVO.setLastUpdated(dt);
-                                queueVO.setQueueSize(queueVO.getQueueSize() + 1);
-                                _syncQueueDao.update(queueVO.getId(), queueVO);
-
-                                itemVO.setLastProcessMsid(msid);
-                                itemVO.setLastProcessNumber(processNumber);
-                                itemVO.setLastProcessTime(dt);
-                                _syncQueueItemDao.update(item.getId(), itemVO);
-
-                                resultList.add(itemVO);
+                            if(queueVO != null && itemVO != null && itemVO.getLastProcessNumber() == null && queueReadyToProcess(queueVO)) {
+                                claimItem(queueVO, itemVO, msid);
+                                return itemVO;
                             }
+                            return null;
                         }
+                    });
+
+                    if (itemVO != null) {
+                        _front.dispatched(itemVO);
+                        resultList.add(itemVO);
                     }
                 }
-            });
+            }
 
             return resultList;
         } catch (Exception e) {
             s_logger.error("Unexpected exception: ", e);
         }
 
-        return null;
+        return resultList.isEmpty() ? null : resultList;
     }
 
     @Override
     @DB
     public void purgeItem(final long queueItemId) {
         try {
-            Transaction.execute(new TransactionCallbackNoReturn() {
+            SyncQueueItemVO nextItem = Transaction.execute(new TransactionCallback<SyncQueueItemVO>() {
                 @Override
-                public void doInTransactionWithoutResult(TransactionStatus status) {
+                public SyncQueueItemVO doInTransaction(TransactionStatus status) {
                     SyncQueueItemVO itemVO = _syncQueueItemDao.findById(queueItemId);
                     if(itemVO != null) {
-                        SyncQueueVO queueVO = _syncQueueDao.findById(itemVO.getQueueId());
+                        SyncQueueVO queueVO = _syncQueueDao.lockRow(itemVO.getQueueId(), true);
 
                         _syncQueueItemDao.expunge(itemVO.getId());
+                        _front.removed(itemVO.getId());
 
                         // if item is active, reset queue information
                         if (itemVO.getLastProcessMsid() != null) {
@@ -195,10 +219,18 @@ public class SyncQueueManagerImpl extends ManagerBase implements SyncQueueManage
                             assert (queueVO.getQueueSize() > 0) : "Count reduce happens when it's already <= 0!";
                             queueVO.setQueueSize(queueVO.getQueueSize() - 1);
                             _syncQueueDao.update(queueVO.getId(), queueVO);
+
+                            // hand the freed slot over to the next item right away
+                            return claimNextItem(queueVO, getMsid());
                         }
                     }
+                    return null;
                 }
             });
+
+            if (nextItem != null) {
+                readyAfterCommit(nextItem);
+            }
         } catch (Exception e) {
             s_logger.error("Unexpected exception: ", e);
         }
@@ -242,6 +274,120 @@ public class SyncQueueManagerImpl extends ManagerBase implements SyncQueueManage
         return _syncQueueItemDao.getBlockedQueueItems(thresholdMs, exclusive);
     }
 
+    /**
+     * Claims the oldest unclaimed item of the queue for execution by the given management server,
+     * if the queue has room for it. The caller is expected to hold the lock on the queue row.
+     */
+    private SyncQueueItemVO claimNextItem(SyncQueueVO queueVO, Long msid) {
+        if (!queueReadyToProcess(queueVO)) {
+            return null;
+        }
+
+        SyncQueueItemVO itemVO = _syncQueueItemDao.getNextQueueItem(queueVO.getId());
+        if (itemVO == null) {
+            if (s_logger.isDebugEnabled())
+                s_logger.debug("Sync queue (" + queueVO.getId() + ") is currently empty");
+            return null;
+        }
+
+        claimItem(queueVO, itemVO, msid);
+        return itemVO;
+    }
+
+    private boolean hasItemToClaim(long queueId) {
+        SyncQueueVO queueVO = _syncQueueDao.findById(queueId);
+        if (queueVO == null) {
+            s_logger.error("Sync queue(id: " + queueId + ") does not exist");
+            return false;
+        }
+        return queueReadyToProcess(queueVO) && _syncQueueItemDao.getNextQueueItem(queueId) != null;
+    }
+
+    private void claimItem(SyncQueueVO queueVO, SyncQueueItemVO itemVO, Long msid) {
+        Long processNumber = queueVO.getLastProcessNumber();
+        if (processNumber == null)
+            processNumber = new Long(1);
+        else
+            processNumber = processNumber + 1;
+
+        Date dt = DateUtil.currentGMTTime();
+        queueVO.setLastProcessNumber(processNumber);
+        queueVO.setLastUpdated(dt);
+        queueVO.setQueueSize(queueVO.getQueueSize() + 1);
+        _syncQueueDao.update(queueVO.getId(), queueVO);
+
+        itemVO.setLastProcessMsid(msid);
+        itemVO.setLastProcessNumber(processNumber);
+        itemVO.setLastProcessTime(dt);
+        _syncQueueItemDao.update(itemVO.getId(), itemVO);
+    }
+
+    /**
+     * The item is only counted as waiting once it is committed, so that a rolled back enqueue does not
+     * leave it in the depths of the front.
+     */
+    private void enqueuedAfterCommit(final SyncQueueItemVO item) {
+        TransactionLegacy.runAfterCommit(new Runnable() {
+            @Override
+            public void run() {
+                _front.enqueued(item);
+            }
+        });
+    }
+
+    /**
+     * The claim may be part of a transaction of the caller, the item is only handed to the front once
+     * that commits, so that it is never polled while other connections cannot see the claim yet.
+     */
+    private void readyAfterCommit(final SyncQueueItemVO item) {
+        TransactionLegacy.runAfterCommit(new Runnable() {
+            @Override
+            public void run() {
+                _front.ready(item);
+            }
+        });
+    }
+
+    private SyncQueueItemVO pollReadyItem(long queueId) {
+        SyncQueueItemVO item;
+        while ((item = _front.pollReady(queueId)) != null) {
+            if (isStillClaimed(item)) {
+                _front.dispatched(item);
+                return item;
+            }
+        }
+        return null;
+    }
+
+    private SyncQueueItemVO pollReadyItem() {
+        SyncQueueItemVO item;
+        while ((item = _front.pollReady()) != null) {
+            if (isStillClaimed(item)) {
+                _front.dispatched(item);
+                return item;
+            }
+        }
+        return null;
+    }
+
+    private boolean isStillClaimed(SyncQueueItemVO item) {
+        // the item was claimed in the caller's transaction, which may have been rolled back since
+        SyncQueueItemVO itemVO = _syncQueueItemDao.findById(item.getId());
+        return itemVO != null && item.getLastProcessNumber().equals(itemVO.getLastProcessNumber()) && item.getLastProcessMsid().equals(itemVO.getLastProcessMsid());
+    }
+
+    private void pruneStaleItems() {
+        long now = System.currentTimeMillis();
+        if (now - _lastStaleItemPrune > STALE_ITEM_PRUNE_INTERVAL_MS) {
+            _lastStaleItemPrune = now;
+            _front.pruneStaleItems();
+        }
+    }
+
+    private long getMsid() {
+        return ManagementServerNode.getManagementServerId();
+    }
+
     private boolean queueReadyToProcess(SyncQueueVO queueVO) {
         int nActiveItems = _syncQueueItemDao.getActiveQueueItemCount(queueVO.getId());
         if (nActiveItems < queueVO.getQueueSizeLimit())
@@ -0,0 +1,78 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.framework.jobs.impl;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AsyncJobCompletionRegistryTest {
+
+    private final AsyncJobCompletionRegistry registry = new AsyncJobCompletionRegistry();
+
+    @Test
+    public void completeWakesOnlyWaitersOfTheJobTest() throws InterruptedException {
+        AsyncJobCompletionRegistry.Waiter waiter = registry.register(1L);
+        AsyncJobCompletionRegistry.Waiter other = registry.register(2L);
+
+        Assert.assertEquals(1, registry.complete(1L));
+
+        Assert.assertTrue(waiter.await(1000));
+        Assert.assertTrue(waiter.isCompleted());
+        Assert.assertFalse(other.await(1));
+        Assert.assertFalse(other.isCompleted());
+    }
+
+    @Test
+    public void completionBeforeAwaitIsNotLostTest() throws InterruptedException {
+        final AsyncJobCompletionRegistry.Waiter waiter = registry.register(1L);
+        Thread completer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                registry.complete(1L);
+            }
+        });
+        completer.start();
+        completer.join();
+
+        long start = System.currentTimeMillis();
+        Assert.assertTrue(waiter.await(60000));
+        Assert.assertTrue(System.currentTimeMillis() - start < 60000);
+    }
+
+    @Test
+    public void messageSignalsWithoutCompletingTest() throws InterruptedException {
+        AsyncJobCompletionRegistry.Waiter waiter = registry.register(1L);
+        waiter.onPublishMessage(null, "vm.power.state", null);
+
+        Assert.assertTrue(waiter.await(1000));
+        Assert.assertFalse(waiter.isCompleted());
+        Assert.assertFalse(waiter.await(1));
+    }
+
+    @Test
+    public void unregisterRemovesJobTest() {
+        AsyncJobCompletionRegistry.Waiter waiter = registry.register(1L);
+        AsyncJobCompletionRegistry.Waiter second = registry.register(1L);
+        Assert.assertEquals(1, registry.getWaitingJobCount());
+
+        registry.unregister(waiter);
+        Assert.assertEquals(1, registry.getWaitingJobCount());
+        registry.unregister(second);
+        Assert.assertEquals(0, registry.getWaitingJobCount());
+        Assert.assertEquals(0, registry.complete(1L));
+    }
+}
@@ -0,0 +1,167 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.framework.jobs.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.commons.codec.binary.Base64;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.cloud.utils.exception.CloudRuntimeException;
+
+public class JobSerializerHelperTest {
+
+    static class Payload implements Serializable {
+        private static final long serialVersionUID = 1L;
+        long vmId = 42L;
+        String handler = "VirtualMachineManagerImpl";
+        Map<String, String> params = new HashMap<String, String>();
+        int[] ids = new int[] {1, 2, 3};
+    }
+
+    @After
+    public void tearDown() {
+        JobSerializerHelper.setCodec(JavaSerializationJobPayloadCodec.NAME);
+    }
+
+    @Test
+    public void compactCodecRoundTripTest() {
+        JobSerializerHelper.setCodec(CompactJobPayloadCodec.NAME);
+        Payload payload = new Payload();
+        payload.params.put("password", "secret");
+
+        String encoded = JobSerializerHelper.toObjectSerializedString(payload);
+        Assert.assertTrue(encoded.startsWith(new CompactJobPayloadCodec().getPrefix()));
+
+        Payload decoded = (Payload)JobSerializerHelper.fromObjectSerializedString(encoded);
+        Assert.assertEquals(42L, decoded.vmId);
+        Assert.assertEquals("VirtualMachineManagerImpl", decoded.handler);
+        Assert.assertEquals("secret", decoded.params.get("password"));
+        Assert.assertArrayEquals(new int[] {1, 2, 3}, decoded.ids);
+    }
+
+    @Test
+    public void legacyPayloadIsReadWithCompactCodecSelectedTest() {
+        String legacy = new JavaSerializationJobPayloadCodec().encode(new Payload());
+
+        JobSerializerHelper.setCodec(CompactJobPayloadCodec.NAME);
+        Payload decoded = (Payload)JobSerializerHelper.fromObjectSerializedString(legacy);
+        Assert.assertEquals(42L, decoded.vmId);
+    }
+
+    @Test
+    public void compactPayloadIsReadWithLegacyCodecSelectedTest() {
+        String compact = new CompactJobPayloadCodec().encode(new Payload());
+
+        JobSerializerHelper.setCodec(JavaSerializationJobPayloadCodec.NAME);
+        Payload decoded = (Payload)JobSerializerHelper.fromObjectSerializedString(compact);
+        Assert.assertEquals("VirtualMachineManagerImpl", decoded.handler);
+    }
+
+    @Test
+    public void exceptionRoundTripTest() {
+        JobSerializerHelper.setCodec(CompactJobPayloadCodec.NAME);
+        String encoded = JobSerializerHelper.toObjectSerializedString(new CloudRuntimeException("failed", new IllegalStateException("cause")));
+
+        CloudRuntimeException decoded = (CloudRuntimeException)JobSerializerHelper.fromObjectSerializedString(encoded);
+        Assert.assertEquals("failed", decoded.getMessage());
+        Assert.assertEquals("cause", decoded.getCause().getMessage());
+    }
+
+    @Test(expected = CloudRuntimeException.class)
+    public void unknownCodecTest() {
+        JobSerializerHelper.setCodec("unknown");
+    }
+
+    @Test(expected = CloudRuntimeException.class)
+    public void unknownCodecPrefixTest() {
+        JobSerializerHelper.fromObjectSerializedString("x9:AAAA");
+    }
+
+    @Test
+    public void compactPayloadOfOtherSerialVersionIsRejectedTest() throws IOException {
+        // the serialVersionUID follows the class name
+        assertIncompatible(changeAfterClassName(new CompactJobPayloadCodec().encode(new Payload()), 0));
+    }
+
+    @Test
+    public void compactPayloadWithOtherFieldsIsRejectedTest() throws IOException {
+        // the fingerprint of the fields follows the serialVersionUID
+        assertIncompatible(changeAfterClassName(new CompactJobPayloadCodec().encode(new Payload()), 8));
+    }
+
+    private static void assertIncompatible(String encoded) {
+        try {
+            JobSerializerHelper.fromObjectSerializedString(encoded);
+            Assert.fail("Payload of an incompatible class version was read");
+        } catch (CloudRuntimeException e) {
+            Assert.assertTrue(e.getCause() instanceof InvalidClassException);
+        }
+    }
+
+    /**
+     * Changes a byte of the compact stream at the given offset after the name of the payload class, as if
+     * it had been written by another version of that class.
+     */
+    private static String changeAfterClassName(String encoded, int offset) throws IOException {
+        String prefix = new CompactJobPayloadCodec().getPrefix();
+        ByteArrayOutputStream inflated = new ByteArrayOutputStream();
+        try (InputStream is = new InflaterInputStream(new ByteArrayInputStream(Base64.decodeBase64(encoded.substring(prefix.length()))))) {
+            byte[] buffer = new byte[512];
+            int read;
+            while ((read = is.read(buffer)) > 0) {
+                inflated.write(buffer, 0, read);
+            }
+        }
+        byte[] stream = inflated.toByteArray();
+        byte[] name = Payload.class.getName().getBytes(StandardCharsets.UTF_8);
+        int index = indexOf(stream, name);
+        Assert.assertTrue(index >= 0);
+        stream[index + name.length + offset]++;
+
+        ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+        try (DeflaterOutputStream os = new DeflaterOutputStream(deflated)) {
+            os.write(stream);
+        }
+        return prefix + Base64.encodeBase64URLSafeString(deflated.toByteArray());
+    }
+
+    private static int indexOf(byte[] array, byte[] target) {
+        outer:
+        for (int i = 0; i <= array.length - target.length; i++) {
+            for (int j = 0; j < target.length; j++) {
+                if (array[i + j] != target[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+}
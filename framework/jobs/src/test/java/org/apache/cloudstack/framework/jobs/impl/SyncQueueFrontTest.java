@@ -0,0 +1,93 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.framework.jobs.impl;
+
+import java.util.Date;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SyncQueueFrontTest {
+
+    private final SyncQueueFront front = new SyncQueueFront();
+
+    private static SyncQueueItemVO createItem(long id, long queueId) {
+        SyncQueueItemVO item = new SyncQueueItemVO();
+        item.setId(id);
+        item.setQueueId(queueId);
+        item.setCreated(new Date());
+        return item;
+    }
+
+    @Test
+    public void readyItemsArePolledPerQueueInOrderTest() {
+        front.ready(createItem(1L, 10L));
+        front.ready(createItem(2L, 20L));
+        front.ready(createItem(3L, 10L));
+        Assert.assertEquals(3, front.getReadyItemCount());
+
+        Assert.assertEquals(1L, front.pollReady(10L).getId());
+        Assert.assertEquals(3L, front.pollReady(10L).getId());
+        Assert.assertNull(front.pollReady(10L));
+
+        Assert.assertEquals(2L, front.pollReady().getId());
+        Assert.assertNull(front.pollReady());
+        Assert.assertEquals(0, front.getReadyItemCount());
+        Assert.assertEquals(3, front.getStats().getImmediateDispatchCount());
+    }
+
+    @Test
+    public void depthHistogramCountsWaitingItemsOfTheQueueTest() {
+        SyncQueueItemVO first = createItem(1L, 10L);
+        front.enqueued(first);
+        front.enqueued(createItem(2L, 10L));
+        front.dispatched(first);
+        front.enqueued(createItem(3L, 10L));
+        front.enqueued(createItem(4L, 20L));
+
+        // depths recorded were 1, 2, 2 and 1, the first buckets hold depths 1 and 2
+        long[] depths = front.getStats().getDepthHistogram();
+        Assert.assertEquals(2, depths[0]);
+        Assert.assertEquals(2, depths[1]);
+        Assert.assertEquals(4, front.getStats().getEnqueuedCount());
+        Assert.assertEquals(3, front.getWaitingItemCount());
+
+        front.removed(2L);
+        front.removed(3L);
+        front.removed(4L);
+        Assert.assertEquals(0, front.getWaitingItemCount());
+    }
+
+    @Test
+    public void dispatchRecordsWaitTimeTest() {
+        SyncQueueItemVO item = createItem(1L, 10L);
+        front.enqueued(item);
+        front.dispatched(item);
+
+        // an item enqueued on another management server is timed from its creation
+        SyncQueueItemVO remote = createItem(2L, 10L);
+        remote.setCreated(new Date(System.currentTimeMillis() - 20000));
+        front.dispatched(remote);
+
+        long[] bounds = front.getStats().getWaitTimeHistogramBucketsMs();
+        long[] waits = front.getStats().getWaitTimeHistogram();
+        Assert.assertEquals(bounds.length + 1, waits.length);
+        Assert.assertEquals(1, waits[0]);
+        Assert.assertEquals(1, waits[8]);
+        Assert.assertEquals(2, front.getStats().getDispatchedCount());
+    }
+}
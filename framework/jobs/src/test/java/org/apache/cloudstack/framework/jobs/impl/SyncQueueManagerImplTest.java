@@ -0,0 +1,135 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.framework.jobs.impl;
+
+import java.lang.reflect.Field;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.cloudstack.framework.jobs.dao.SyncQueueDao;
+import org.apache.cloudstack.framework.jobs.dao.SyncQueueItemDao;
+import org.apache.cloudstack.utils.identity.ManagementServerNode;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import com.cloud.utils.db.Transaction;
+import com.cloud.utils.db.TransactionCallbackNoReturn;
+import com.cloud.utils.db.TransactionStatus;
+import com.cloud.utils.exception.CloudRuntimeException;
+
+@RunWith(MockitoJUnitRunner.class)
+public class SyncQueueManagerImplTest {
+
+    private static final long QUEUE_ID = 10L;
+    private static final long ITEM_ID = 1L;
+
+    @Mock
+    private SyncQueueDao syncQueueDao;
+    @Mock
+    private SyncQueueItemDao syncQueueItemDao;
+    @Mock
+    private SyncQueueVO queueVO;
+
+    @InjectMocks
+    private SyncQueueManagerImpl manager = new SyncQueueManagerImpl();
+
+    private final SyncQueueItemVO item = createItem();
+
+    private static SyncQueueItemVO createItem() {
+        SyncQueueItemVO item = new SyncQueueItemVO();
+        item.setId(ITEM_ID);
+        item.setQueueId(QUEUE_ID);
+        item.setCreated(new Date());
+        return item;
+    }
+
+    @Before
+    public void setup() {
+        Mockito.when(queueVO.getId()).thenReturn(QUEUE_ID);
+        Mockito.when(queueVO.getQueueSizeLimit()).thenReturn(1L);
+        Mockito.when(syncQueueDao.find("VmWorkJobQueue", 5L)).thenReturn(queueVO);
+        Mockito.when(syncQueueDao.lockRow(QUEUE_ID, true)).thenReturn(queueVO);
+        Mockito.when(syncQueueItemDao.persist(Mockito.any(SyncQueueItemVO.class))).thenAnswer(invocation -> {
+            SyncQueueItemVO persisted = invocation.getArgument(0);
+            persisted.setId(ITEM_ID);
+            return persisted;
+        });
+        Mockito.when(syncQueueItemDao.getNextQueueItem(QUEUE_ID)).thenReturn(item);
+        // until the claim commits, other connections read the item as unclaimed
+        Mockito.when(syncQueueItemDao.findById(ITEM_ID)).thenReturn(createItem());
+    }
+
+    private SyncQueueFront front() throws Exception {
+        Field field = SyncQueueManagerImpl.class.getDeclaredField("_front");
+        field.setAccessible(true);
+        return (SyncQueueFront)field.get(manager);
+    }
+
+    private void commitClaim() {
+        SyncQueueItemVO committed = createItem();
+        committed.setLastProcessMsid(ManagementServerNode.getManagementServerId());
+        committed.setLastProcessNumber(item.getLastProcessNumber());
+        Mockito.when(syncQueueItemDao.findById(ITEM_ID)).thenReturn(committed);
+    }
+
+    @Test
+    public void itemClaimedInCallerTransactionIsReadyAfterCommitTest() throws Exception {
+        final SyncQueueFront front = front();
+        Transaction.execute(new TransactionCallbackNoReturn() {
+            @Override
+            public void doInTransactionWithoutResult(TransactionStatus status) {
+                manager.queue("VmWorkJobQueue", 5L, "AsyncJob", 100L, 1L);
+                Assert.assertEquals(Long.valueOf(1L), item.getLastProcessNumber());
+                Assert.assertEquals(0, front.getWaitingItemCount());
+
+                // what the heartbeat sees before the claim is committed
+                List<SyncQueueItemVO> items = manager.dequeueFromAny(ManagementServerNode.getManagementServerId(), 10);
+                Assert.assertTrue(items.isEmpty());
+                commitClaim();
+            }
+        });
+
+        Assert.assertEquals(1, front.getStats().getEnqueuedCount());
+        Assert.assertSame(item, manager.dequeueFromOne(QUEUE_ID, ManagementServerNode.getManagementServerId()));
+    }
+
+    @Test
+    public void itemClaimedInRolledBackTransactionIsNotReadyTest() throws Exception {
+        try {
+            Transaction.execute(new TransactionCallbackNoReturn() {
+                @Override
+                public void doInTransactionWithoutResult(TransactionStatus status) {
+                    manager.queue("VmWorkJobQueue", 5L, "AsyncJob", 100L, 1L);
+                    throw new CloudRuntimeException("rollback");
+                }
+            });
+            Assert.fail();
+        } catch (CloudRuntimeException e) {
+            Assert.assertEquals("rollback", e.getMessage());
+        }
+
+        Assert.assertNull(manager.dequeueFromOne(QUEUE_ID, ManagementServerNode.getManagementServerId()));
+        Assert.assertEquals(0, front().getWaitingItemCount());
+        Assert.assertEquals(0, front().getStats().getEnqueuedCount());
+    }
+}
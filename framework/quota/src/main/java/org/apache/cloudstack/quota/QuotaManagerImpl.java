@@ -23,11 +23,17 @@ import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.inject.Inject;
 import javax.naming.ConfigurationException;
 
 import org.apache.cloudstack.framework.config.dao.ConfigurationDao;
+import org.apache.cloudstack.quota.constant.QuotaConfig;
 import org.apache.cloudstack.quota.constant.QuotaTypes;
 import org.apache.cloudstack.quota.dao.QuotaAccountDao;
 import org.apache.cloudstack.quota.dao.QuotaBalanceDao;
@@ -47,8 +53,14 @@ import com.cloud.usage.UsageVO;
 import com.cloud.usage.dao.UsageDao;
 import com.cloud.user.AccountVO;
 import com.cloud.user.dao.AccountDao;
+import com.cloud.utils.NumbersUtil;
 import com.cloud.utils.Pair;
 import com.cloud.utils.component.ManagerBase;
+import com.cloud.utils.concurrency.NamedThreadFactory;
+import com.cloud.utils.db.Transaction;
+import com.cloud.utils.db.TransactionCallbackNoReturn;
+import com.cloud.utils.db.TransactionLegacy;
+import com.cloud.utils.db.TransactionStatus;
 
 @Component
 public class QuotaManagerImpl extends ManagerBase implements QuotaManager {
@@ -73,6 +85,11 @@ public class QuotaManagerImpl extends ManagerBase implements QuotaManager {
 
     private TimeZone _usageTimezone;
     private int _aggregationDuration = 0;
+    private int _calculationWorkers = 1;
+    private ExecutorService _calculationExecutor;
+
+    // set while an account is being calculated, so that its writes are held back and flushed in one transaction
+    private final ThreadLocal<AccountQuotaBatch> _accountBatch = new ThreadLocal<>();
 
     final static BigDecimal s_hoursInMonth = new BigDecimal(30 * 24);
     final static BigDecimal s_minutesInMonth = new BigDecimal(30 * 24 * 60);
@@ -113,6 +130,9 @@ public class QuotaManagerImpl extends ManagerBase implements QuotaManager {
         }
         s_logger.info("Usage timezone = " + _usageTimezone + " AggregationDuration=" + _aggregationDuration);
 
+        _calculationWorkers = Math.max(NumbersUtil.parseInt(configs.get(QuotaConfig.QuotaCalculationWorkers.key()),
+                Integer.parseInt(QuotaConfig.QuotaCalculationWorkers.defaultValue())), 1);
+
         return true;
     }
 
@@ -121,6 +141,9 @@ public class QuotaManagerImpl extends ManagerBase implements QuotaManager {
         if (s_logger.isInfoEnabled()) {
             s_logger.info("Starting Quota Manager");
         }
+        if (_calculationWorkers > 1) {
+            _calculationExecutor = Executors.newFixedThreadPool(_calculationWorkers, new NamedThreadFactory("Quota-Calculation"));
+        }
         return true;
     }
 
@@ -129,6 +152,9 @@ public class QuotaManagerImpl extends ManagerBase implements QuotaManager {
         if (s_logger.isInfoEnabled()) {
             s_logger.info("Stopping Quota Manager");
         }
+        if (_calculationExecutor != null) {
+            _calculationExecutor.shutdownNow();
+        }
         return true;
     }
 
@@ -217,9 +243,9 @@ public class QuotaManagerImpl extends ManagerBase implements QuotaManager {
             aggrUsage = aggrUsage.add(aggregateCreditBetweenDates(account, new Date(0), startDate));
             // create a balance entry for these accumulated credits
             QuotaBalanceVO firstBalance = new QuotaBalanceVO(account.getAccountId(), account.getDomainId(), aggrUsage, startDate);
-            _quotaBalanceDao.saveQuotaBalance(firstBalance);
+            persistQuotaBalance(firstBalance);
         } else {
-            QuotaBalanceVO lastRealBalanceEntry = _quotaBalanceDao.findLastBalanceEntry(account.getAccountId(), account.getDomainId(), endDate);
+            QuotaBalanceVO lastRealBalanceEntry = findLastBalanceEntry(account, endDate);
             if (lastRealBalanceEntry != null){
                 aggrUsage = aggrUsage.add(lastRealBalanceEntry.getCreditBalance());
             }
@@ -247,7 +273,7 @@ public class QuotaManagerImpl extends ManagerBase implements QuotaManager {
                 startDate = entry.getStartDate();
                 endDate = entry.getEndDate();
 
-                QuotaBalanceVO lastRealBalanceEntry = _quotaBalanceDao.findLastBalanceEntry(account.getAccountId(), account.getDomainId(), endDate);
+                QuotaBalanceVO lastRealBalanceEntry = findLastBalanceEntry(account, endDate);
                 Date lastBalanceDate = new Date(0);
                 if (lastRealBalanceEntry != null) {
                     lastBalanceDate = lastRealBalanceEntry.getUpdatedOn();
@@ -271,7 +297,34 @@ public class QuotaManagerImpl extends ManagerBase implements QuotaManager {
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("Saving Balance" + newBalance);
         }
-        return _quotaBalanceDao.saveQuotaBalance(newBalance);
+        return persistQuotaBalance(newBalance);
+    }
+
+    private QuotaBalanceVO persistQuotaBalance(final QuotaBalanceVO balance) {
+        AccountQuotaBatch batch = _accountBatch.get();
+        if (batch != null) {
+            batch.balances.add(balance);
+            return balance;
+        }
+        return _quotaBalanceDao.saveQuotaBalance(balance);
+    }
+
+    /**
+     * Same as {@link QuotaBalanceDao#findLastBalanceEntry(Long, Long, Date)}, but also sees the balances of the account
+     * that are still held back in its batch.
+     */
+    private QuotaBalanceVO findLastBalanceEntry(final AccountVO account, final Date beforeThis) {
+        QuotaBalanceVO lastEntry = _quotaBalanceDao.findLastBalanceEntry(account.getAccountId(), account.getDomainId(), beforeThis);
+        AccountQuotaBatch batch = _accountBatch.get();
+        if (batch == null) {
+            return lastEntry;
+        }
+        for (QuotaBalanceVO pending : batch.balances) {
+            if (pending.getUpdatedOn().before(beforeThis) && (lastEntry == null || !pending.getUpdatedOn().before(lastEntry.getUpdatedOn()))) {
+                lastEntry = pending;
+            }
+        }
+        return lastEntry;
     }
 
     private boolean saveQuotaAccount(final AccountVO account, final BigDecimal aggrUsage, final Date endDate) {
@@ -285,6 +338,11 @@ public class QuotaManagerImpl extends ManagerBase implements QuotaManager {
             if (s_logger.isDebugEnabled()) {
                 s_logger.debug(quota_account);
             }
+            AccountQuotaBatch batch = _accountBatch.get();
+            if (batch != null) {
+                batch.setQuotaAccount(quota_account, true);
+                return true;
+            }
             _quotaAcc.persistQuotaAccount(quota_account);
             return true;
         } else {
@@ -293,6 +351,11 @@ public class QuotaManagerImpl extends ManagerBase implements QuotaManager {
             if (s_logger.isDebugEnabled()) {
                 s_logger.debug(quota_account);
             }
+            AccountQuotaBatch batch = _accountBatch.get();
+            if (batch != null) {
+                batch.setQuotaAccount(quota_account, false);
+                return true;
+            }
             return _quotaAcc.updateQuotaAccount(account.getAccountId(), quota_account);
         }
     }
@@ -318,24 +381,126 @@ public class QuotaManagerImpl extends ManagerBase implements QuotaManager {
 
     @Override
     public boolean calculateQuotaUsage() {
+        QuotaTariffLookup tariffs = loadTariffs();
         List<AccountVO> accounts = _accountDao.listAll();
-        for (AccountVO account : accounts) {
-            Pair<List<? extends UsageVO>, Integer> usageRecords = _usageDao.getUsageRecordsPendingQuotaAggregation(account.getAccountId(), account.getDomainId());
-            if (s_logger.isDebugEnabled()) {
-                s_logger.debug("Usage entries size = " + usageRecords.second().intValue() + ", accId" + account.getAccountId() + ", domId" + account.getDomainId());
+        if (_calculationExecutor == null || accounts.size() < 2) {
+            for (AccountVO account : accounts) {
+                calculateQuotaUsageForAccount(account, tariffs);
             }
+            return true;
+        }
+
+        List<Callable<Void>> tasks = new ArrayList<>(accounts.size());
+        for (final AccountVO account : accounts) {
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    calculateQuotaUsageForAccount(account, tariffs);
+                    return null;
+                }
+            });
+        }
+        boolean success = true;
+        try {
+            List<Future<Void>> results = _calculationExecutor.invokeAll(tasks);
+            for (int i = 0; i < results.size(); i++) {
+                try {
+                    results.get(i).get();
+                } catch (ExecutionException e) {
+                    // the failed account keeps its usage records pending, they are picked up by the next run
+                    s_logger.error("Failed to calculate quota usage for account " + accounts.get(i).getAccountName(), e.getCause());
+                    success = false;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            s_logger.warn("Interrupted while calculating quota usage", e);
+            return false;
+        }
+        return success;
+    }
+
+    /**
+     * Loads all the tariffs once per run, or returns null to let each usage record query its tariff.
+     */
+    private QuotaTariffLookup loadTariffs() {
+        Pair<List<QuotaTariffVO>, Integer> tariffs = _quotaTariffDao.listAllTariffPlans();
+        if (tariffs == null || tariffs.first() == null) {
+            return null;
+        }
+        return new QuotaTariffLookup(tariffs.first());
+    }
+
+    private void calculateQuotaUsageForAccount(final AccountVO account, final QuotaTariffLookup tariffs) {
+        Pair<List<? extends UsageVO>, Integer> usageRecords = _usageDao.getUsageRecordsPendingQuotaAggregation(account.getAccountId(), account.getDomainId());
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Usage entries size = " + usageRecords.second().intValue() + ", accId" + account.getAccountId() + ", domId" + account.getDomainId());
+        }
+        final AccountQuotaBatch batch = new AccountQuotaBatch(tariffs);
+        _accountBatch.set(batch);
+        try {
             List<QuotaUsageVO> quotaListForAccount = aggregatePendingQuotaRecordsForAccount(account, usageRecords);
             if (s_logger.isDebugEnabled()) {
                 s_logger.debug("Quota entries size = " + quotaListForAccount.size() + ", accId" + account.getAccountId() + ", domId" + account.getDomainId());
             }
             processQuotaBalanceForAccount(account, quotaListForAccount);
+        } finally {
+            _accountBatch.remove();
+        }
+        flushAccountBatch(account, batch);
+    }
+
+    private void flushAccountBatch(final AccountVO account, final AccountQuotaBatch batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        Transaction.execute(TransactionLegacy.USAGE_DB, new TransactionCallbackNoReturn() {
+            @Override
+            public void doInTransactionWithoutResult(final TransactionStatus status) {
+                _quotaUsageDao.persistQuotaUsages(batch.quotaUsages);
+                _usageDao.markQuotaCalculated(batch.calculatedUsageIds);
+                _quotaBalanceDao.saveQuotaBalances(batch.balances);
+                if (batch.quotaAccount != null) {
+                    if (batch.newQuotaAccount) {
+                        _quotaAcc.persistQuotaAccount(batch.quotaAccount);
+                    } else {
+                        _quotaAcc.updateQuotaAccount(account.getAccountId(), batch.quotaAccount);
+                    }
+                }
+            }
+        });
+    }
+
+    private QuotaTariffVO findTariffPlanByUsageType(final int quotaType, final Date effectiveDate) {
+        AccountQuotaBatch batch = _accountBatch.get();
+        if (batch != null && batch.tariffs != null) {
+            return batch.tariffs.findTariffPlanByUsageType(quotaType, effectiveDate);
+        }
+        return _quotaTariffDao.findTariffPlanByUsageType(quotaType, effectiveDate);
+    }
+
+    private void persistQuotaUsage(final QuotaUsageVO quotaUsage) {
+        AccountQuotaBatch batch = _accountBatch.get();
+        if (batch != null) {
+            batch.quotaUsages.add(quotaUsage);
+        } else {
+            _quotaUsageDao.persistQuotaUsage(quotaUsage);
+        }
+    }
+
+    private void markQuotaCalculated(final UsageVO usageRecord) {
+        usageRecord.setQuotaCalculated(1);
+        AccountQuotaBatch batch = _accountBatch.get();
+        if (batch != null) {
+            batch.calculatedUsageIds.add(usageRecord.getId());
+        } else {
+            _usageDao.persistUsage(usageRecord);
         }
-        return true;
     }
 
     public QuotaUsageVO updateQuotaDiskUsage(UsageVO usageRecord, final BigDecimal aggregationRatio, final int quotaType) {
         QuotaUsageVO quota_usage = null;
-        QuotaTariffVO tariff = _quotaTariffDao.findTariffPlanByUsageType(quotaType, usageRecord.getEndDate());
+        QuotaTariffVO tariff = findTariffPlanByUsageType(quotaType, usageRecord.getEndDate());
         if (tariff != null && tariff.getCurrencyValue().compareTo(BigDecimal.ZERO) != 0) {
             BigDecimal quotaUsgage;
             BigDecimal onehourcostpergb;
@@ -345,10 +510,9 @@ public class QuotaManagerImpl extends ManagerBase implements QuotaManager {
             quotaUsgage = new BigDecimal(usageRecord.getRawUsage()).multiply(onehourcostpergb).multiply(noofgbinuse);
             quota_usage = new QuotaUsageVO(usageRecord.getId(), usageRecord.getZoneId(), usageRecord.getAccountId(), usageRecord.getDomainId(), usageRecord.getUsageType(),
                     quotaUsgage, usageRecord.getStartDate(), usageRecord.getEndDate());
-            _quotaUsageDao.persistQuotaUsage(quota_usage);
+            persistQuotaUsage(quota_usage);
         }
-        usageRecord.setQuotaCalculated(1);
-        _usageDao.persistUsage(usageRecord);
+        markQuotaCalculated(usageRecord);
         return quota_usage;
     }
 
@@ -365,54 +529,53 @@ public class QuotaManagerImpl extends ManagerBase implements QuotaManager {
         }
         rawusage = new BigDecimal(usageRecord.getRawUsage());
 
-        QuotaTariffVO tariff = _quotaTariffDao.findTariffPlanByUsageType(QuotaTypes.CPU_NUMBER, usageRecord.getEndDate());
+        QuotaTariffVO tariff = findTariffPlanByUsageType(QuotaTypes.CPU_NUMBER, usageRecord.getEndDate());
         if (tariff != null && tariff.getCurrencyValue().compareTo(BigDecimal.ZERO) != 0 && serviceoffering.getCpu() != null) {
             BigDecimal cpu = new BigDecimal(serviceoffering.getCpu());
             onehourcostpercpu = tariff.getCurrencyValue().multiply(aggregationRatio);
             cpuquotausgage = rawusage.multiply(onehourcostpercpu).multiply(cpu);
             quota_usage = new QuotaUsageVO(usageRecord.getId(), usageRecord.getZoneId(), usageRecord.getAccountId(), usageRecord.getDomainId(), QuotaTypes.CPU_NUMBER,
                     cpuquotausgage, usageRecord.getStartDate(), usageRecord.getEndDate());
-            _quotaUsageDao.persistQuotaUsage(quota_usage);
+            persistQuotaUsage(quota_usage);
             quotalist.add(quota_usage);
         }
-        tariff = _quotaTariffDao.findTariffPlanByUsageType(QuotaTypes.CPU_CLOCK_RATE, usageRecord.getEndDate());
+        tariff = findTariffPlanByUsageType(QuotaTypes.CPU_CLOCK_RATE, usageRecord.getEndDate());
         if (tariff != null && tariff.getCurrencyValue().compareTo(BigDecimal.ZERO) != 0 && serviceoffering.getSpeed() != null) {
             BigDecimal speed = new BigDecimal(serviceoffering.getSpeed() / 100.00);
             onehourcostper100mhz = tariff.getCurrencyValue().multiply(aggregationRatio);
             speedquotausage = rawusage.multiply(onehourcostper100mhz).multiply(speed);
             quota_usage = new QuotaUsageVO(usageRecord.getId(), usageRecord.getZoneId(), usageRecord.getAccountId(), usageRecord.getDomainId(), QuotaTypes.CPU_CLOCK_RATE,
                     speedquotausage, usageRecord.getStartDate(), usageRecord.getEndDate());
-            _quotaUsageDao.persistQuotaUsage(quota_usage);
+            persistQuotaUsage(quota_usage);
             quotalist.add(quota_usage);
         }
-        tariff = _quotaTariffDao.findTariffPlanByUsageType(QuotaTypes.MEMORY, usageRecord.getEndDate());
+        tariff = findTariffPlanByUsageType(QuotaTypes.MEMORY, usageRecord.getEndDate());
         if (tariff != null && tariff.getCurrencyValue().compareTo(BigDecimal.ZERO) != 0 && serviceoffering.getRamSize() != null) {
             BigDecimal memory = new BigDecimal(serviceoffering.getRamSize());
             onehourcostper1mb = tariff.getCurrencyValue().multiply(aggregationRatio);
             memoryquotausage = rawusage.multiply(onehourcostper1mb).multiply(memory);
             quota_usage = new QuotaUsageVO(usageRecord.getId(), usageRecord.getZoneId(), usageRecord.getAccountId(), usageRecord.getDomainId(), QuotaTypes.MEMORY, memoryquotausage,
                     usageRecord.getStartDate(), usageRecord.getEndDate());
-            _quotaUsageDao.persistQuotaUsage(quota_usage);
+            persistQuotaUsage(quota_usage);
             quotalist.add(quota_usage);
         }
-        tariff = _quotaTariffDao.findTariffPlanByUsageType(QuotaTypes.RUNNING_VM, usageRecord.getEndDate());
+        tariff = findTariffPlanByUsageType(QuotaTypes.RUNNING_VM, usageRecord.getEndDate());
         if (tariff != null && tariff.getCurrencyValue().compareTo(BigDecimal.ZERO) != 0) {
             onehourcostforvmusage = tariff.getCurrencyValue().multiply(aggregationRatio);
             vmusage = rawusage.multiply(onehourcostforvmusage);
             quota_usage = new QuotaUsageVO(usageRecord.getId(), usageRecord.getZoneId(), usageRecord.getAccountId(), usageRecord.getDomainId(), QuotaTypes.RUNNING_VM, vmusage,
                     usageRecord.getStartDate(), usageRecord.getEndDate());
-            _quotaUsageDao.persistQuotaUsage(quota_usage);
+            persistQuotaUsage(quota_usage);
             quotalist.add(quota_usage);
         }
 
-        usageRecord.setQuotaCalculated(1);
-        _usageDao.persistUsage(usageRecord);
+        markQuotaCalculated(usageRecord);
         return quotalist;
     }
 
     public QuotaUsageVO updateQuotaAllocatedVMUsage(UsageVO usageRecord, final BigDecimal aggregationRatio) {
         QuotaUsageVO quota_usage = null;
-        QuotaTariffVO tariff = _quotaTariffDao.findTariffPlanByUsageType(QuotaTypes.ALLOCATED_VM, usageRecord.getEndDate());
+        QuotaTariffVO tariff = findTariffPlanByUsageType(QuotaTypes.ALLOCATED_VM, usageRecord.getEndDate());
         if (tariff != null && tariff.getCurrencyValue().compareTo(BigDecimal.ZERO) != 0) {
             BigDecimal vmusage;
             BigDecimal onehourcostforvmusage;
@@ -420,17 +583,16 @@ public class QuotaManagerImpl extends ManagerBase implements QuotaManager {
             vmusage = new BigDecimal(usageRecord.getRawUsage()).multiply(onehourcostforvmusage);
             quota_usage = new QuotaUsageVO(usageRecord.getId(), usageRecord.getZoneId(), usageRecord.getAccountId(), usageRecord.getDomainId(), QuotaTypes.ALLOCATED_VM, vmusage,
                     usageRecord.getStartDate(), usageRecord.getEndDate());
-            _quotaUsageDao.persistQuotaUsage(quota_usage);
+            persistQuotaUsage(quota_usage);
         }
 
-        usageRecord.setQuotaCalculated(1);
-        _usageDao.persistUsage(usageRecord);
+        markQuotaCalculated(usageRecord);
         return quota_usage;
     }
 
     public QuotaUsageVO updateQuotaRaw(UsageVO usageRecord, final BigDecimal aggregationRatio, final int ruleType) {
         QuotaUsageVO quota_usage = null;
-        QuotaTariffVO tariff = _quotaTariffDao.findTariffPlanByUsageType(ruleType, usageRecord.getEndDate());
+        QuotaTariffVO tariff = findTariffPlanByUsageType(ruleType, usageRecord.getEndDate());
         if (tariff != null && tariff.getCurrencyValue().compareTo(BigDecimal.ZERO) != 0) {
             BigDecimal ruleusage;
             BigDecimal onehourcost;
@@ -438,17 +600,16 @@ public class QuotaManagerImpl extends ManagerBase implements QuotaManager {
             ruleusage = new BigDecimal(usageRecord.getRawUsage()).multiply(onehourcost);
             quota_usage = new QuotaUsageVO(usageRecord.getId(), usageRecord.getZoneId(), usageRecord.getAccountId(), usageRecord.getDomainId(), ruleType, ruleusage,
                     usageRecord.getStartDate(), usageRecord.getEndDate());
-            _quotaUsageDao.persistQuotaUsage(quota_usage);
+            persistQuotaUsage(quota_usage);
         }
 
-        usageRecord.setQuotaCalculated(1);
-        _usageDao.persistUsage(usageRecord);
+        markQuotaCalculated(usageRecord);
         return quota_usage;
     }
 
     public QuotaUsageVO updateQuotaNetwork(UsageVO usageRecord, final int transferType) {
         QuotaUsageVO quota_usage = null;
-        QuotaTariffVO tariff = _quotaTariffDao.findTariffPlanByUsageType(transferType, usageRecord.getEndDate());
+        QuotaTariffVO tariff = findTariffPlanByUsageType(transferType, usageRecord.getEndDate());
         if (tariff != null && tariff.getCurrencyValue().compareTo(BigDecimal.ZERO) != 0) {
             BigDecimal onegbcost;
             BigDecimal rawusageingb;
@@ -458,11 +619,10 @@ public class QuotaManagerImpl extends ManagerBase implements QuotaManager {
             networkusage = rawusageingb.multiply(onegbcost);
             quota_usage = new QuotaUsageVO(usageRecord.getId(), usageRecord.getZoneId(), usageRecord.getAccountId(), usageRecord.getDomainId(), transferType, networkusage,
                     usageRecord.getStartDate(), usageRecord.getEndDate());
-            _quotaUsageDao.persistQuotaUsage(quota_usage);
+            persistQuotaUsage(quota_usage);
         }
 
-        usageRecord.setQuotaCalculated(1);
-        _usageDao.persistUsage(usageRecord);
+        markQuotaCalculated(usageRecord);
         return quota_usage;
     }
 
@@ -471,4 +631,29 @@ public class QuotaManagerImpl extends ManagerBase implements QuotaManager {
         return (account.getType() == AccountVO.ACCOUNT_TYPE_NORMAL || account.getType() == AccountVO.ACCOUNT_TYPE_DOMAIN_ADMIN);
     }
 
+    /**
+     * Writes of one account, held back until its quota has been calculated.
+     */
+    private static final class AccountQuotaBatch {
+        private final QuotaTariffLookup tariffs;
+        private final List<QuotaUsageVO> quotaUsages = new ArrayList<>();
+        private final List<Long> calculatedUsageIds = new ArrayList<>();
+        private final List<QuotaBalanceVO> balances = new ArrayList<>();
+        private QuotaAccountVO quotaAccount;
+        private boolean newQuotaAccount;
+
+        private AccountQuotaBatch(final QuotaTariffLookup tariffs) {
+            this.tariffs = tariffs;
+        }
+
+        private void setQuotaAccount(final QuotaAccountVO quotaAccount, final boolean newQuotaAccount) {
+            this.quotaAccount = quotaAccount;
+            this.newQuotaAccount = newQuotaAccount;
+        }
+
+        private boolean isEmpty() {
+            return quotaUsages.isEmpty() && calculatedUsageIds.isEmpty() && balances.isEmpty() && quotaAccount == null;
+        }
+    }
+
 }
@@ -0,0 +1,100 @@
+//Licensed to the Apache Software Foundation (ASF) under one
+//or more contributor license agreements.  See the NOTICE file
+//distributed with this work for additional information
+//regarding copyright ownership.  The ASF licenses this file
+//to you under the Apache License, Version 2.0 (the
+//"License"); you may not use this file except in compliance
+//with the License.  You may obtain a copy of the License at
+//
+//http://www.apache.org/licenses/LICENSE-2.0
+//
+//Unless required by applicable law or agreed to in writing,
+//software distributed under the License is distributed on an
+//"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+//KIND, either express or implied.  See the License for the
+//specific language governing permissions and limitations
+//under the License.
+package org.apache.cloudstack.quota;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.cloudstack.quota.vo.QuotaTariffVO;
+
+/**
+ * In-memory equivalent of {@link org.apache.cloudstack.quota.dao.QuotaTariffDao#findTariffPlanByUsageType(int, Date)}:
+ * among the tariffs of a usage type effective on or before a date, the most recently updated one wins.
+ * Built once per quota run so that pricing a usage record costs a binary search instead of a query.
+ */
+class QuotaTariffLookup {
+
+    private static final class TariffPlans {
+        // effective dates in ascending order, and for each position the most recently updated tariff effective on or before it
+        private final long[] effectiveOn;
+        private final QuotaTariffVO[] latest;
+
+        private TariffPlans(final List<QuotaTariffVO> tariffs) {
+            tariffs.sort(Comparator.comparing(QuotaTariffVO::getEffectiveOn));
+            effectiveOn = new long[tariffs.size()];
+            latest = new QuotaTariffVO[tariffs.size()];
+            QuotaTariffVO best = null;
+            for (int i = 0; i < tariffs.size(); i++) {
+                QuotaTariffVO tariff = tariffs.get(i);
+                if (best == null || isUpdatedAfter(tariff, best)) {
+                    best = tariff;
+                }
+                effectiveOn[i] = tariff.getEffectiveOn().getTime();
+                latest[i] = best;
+            }
+        }
+
+        private QuotaTariffVO find(final long date) {
+            int low = 0;
+            int high = effectiveOn.length - 1;
+            int found = -1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (effectiveOn[mid] <= date) {
+                    found = mid;
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return found < 0 ? null : latest[found];
+        }
+    }
+
+    private final Map<Integer, TariffPlans> plansByUsageType = new HashMap<>();
+
+    QuotaTariffLookup(final List<QuotaTariffVO> tariffs) {
+        Map<Integer, List<QuotaTariffVO>> tariffsByUsageType = new HashMap<>();
+        for (QuotaTariffVO tariff : tariffs) {
+            if (tariff.getEffectiveOn() != null) {
+                tariffsByUsageType.computeIfAbsent(tariff.getUsageType(), type -> new ArrayList<>()).add(tariff);
+            }
+        }
+        for (Map.Entry<Integer, List<QuotaTariffVO>> entry : tariffsByUsageType.entrySet()) {
+            plansByUsageType.put(entry.getKey(), new TariffPlans(entry.getValue()));
+        }
+    }
+
+    QuotaTariffVO findTariffPlanByUsageType(final int usageType, final Date effectiveDate) {
+        TariffPlans plans = plansByUsageType.get(usageType);
+        if (plans == null || effectiveDate == null) {
+            return null;
+        }
+        return plans.find(effectiveDate.getTime());
+    }
+
+    private static boolean isUpdatedAfter(final QuotaTariffVO tariff, final QuotaTariffVO other) {
+        if (tariff.getUpdatedOn() == null) {
+            return false;
+        }
+        return other.getUpdatedOn() == null || tariff.getUpdatedOn().after(other.getUpdatedOn());
+    }
+}
@@ -51,6 +51,9 @@ public interface QuotaConfig {
     public static final ConfigKey<String> QuotaSmtpSender = new ConfigKey<String>("Advanced", String.class, "quota.usage.smtp.sender", "",
             "Sender of quota alert email (will be in the From header of the email)", true);
 
+    public static final ConfigKey<Integer> QuotaCalculationWorkers = new ConfigKey<Integer>("Advanced", Integer.class, "quota.calculation.workers", "4",
+            "Number of accounts whose quota usage and balances are calculated in parallel by the usage server.", false);
+
     enum QuotaEmailTemplateTypes {
         QUOTA_LOW, QUOTA_EMPTY, QUOTA_UNLOCK_ACCOUNT, QUOTA_STATEMENT
     }
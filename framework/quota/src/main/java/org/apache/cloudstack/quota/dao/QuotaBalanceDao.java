@@ -28,6 +28,11 @@ public interface QuotaBalanceDao extends GenericDao<QuotaBalanceVO, Long> {
 
     QuotaBalanceVO saveQuotaBalance(QuotaBalanceVO qb);
 
+    /**
+     * Inserts the balance entries with a single JDBC batch.
+     */
+    void saveQuotaBalances(List<QuotaBalanceVO> balances);
+
     List<QuotaBalanceVO> findCreditBalance(Long accountId, Long domainId, Date startDate, Date endDate);
 
     QuotaBalanceVO findLastBalanceEntry(Long accountId, Long domainId, Date beforeThis);
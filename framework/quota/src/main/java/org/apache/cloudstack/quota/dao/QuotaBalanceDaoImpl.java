@@ -17,15 +17,19 @@
 package org.apache.cloudstack.quota.dao;
 
 import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.TimeZone;
 
 import org.apache.cloudstack.quota.vo.QuotaBalanceVO;
 import org.apache.log4j.Logger;
 import org.springframework.stereotype.Component;
 
+import com.cloud.utils.DateUtil;
 import com.cloud.utils.db.Filter;
 import com.cloud.utils.db.GenericDaoBase;
 import com.cloud.utils.db.QueryBuilder;
@@ -34,11 +38,15 @@ import com.cloud.utils.db.Transaction;
 import com.cloud.utils.db.TransactionCallback;
 import com.cloud.utils.db.TransactionLegacy;
 import com.cloud.utils.db.TransactionStatus;
+import com.cloud.utils.exception.CloudRuntimeException;
 
 @Component
 public class QuotaBalanceDaoImpl extends GenericDaoBase<QuotaBalanceVO, Long> implements QuotaBalanceDao {
     private static final Logger s_logger = Logger.getLogger(QuotaBalanceDaoImpl.class.getName());
 
+    private static final String INSERT_QUOTA_BALANCE = "INSERT INTO cloud_usage.quota_balance (account_id, domain_id, credit_balance, credits_id, updated_on) VALUES (?,?,?,?,?)";
+    private static final TimeZone s_gmtTimeZone = TimeZone.getTimeZone("GMT");
+
     @Override
     public QuotaBalanceVO findLastBalanceEntry(final Long accountId, final Long domainId, final Date beforeThis) {
         return Transaction.execute(TransactionLegacy.USAGE_DB, new TransactionCallback<QuotaBalanceVO>() {
@@ -85,6 +93,29 @@ public class QuotaBalanceDaoImpl extends GenericDaoBase<QuotaBalanceVO, Long> im
         });
     }
 
+    @Override
+    public void saveQuotaBalances(final List<QuotaBalanceVO> balances) {
+        if (balances == null || balances.isEmpty()) {
+            return;
+        }
+        TransactionLegacy txn = TransactionLegacy.open(TransactionLegacy.USAGE_DB);
+        try (PreparedStatement pstmt = txn.prepareStatement(INSERT_QUOTA_BALANCE)) {
+            for (QuotaBalanceVO balance : balances) {
+                pstmt.setLong(1, balance.getAccountId());
+                pstmt.setLong(2, balance.getDomainId());
+                pstmt.setBigDecimal(3, balance.getCreditBalance());
+                pstmt.setLong(4, balance.getCreditsId());
+                pstmt.setString(5, DateUtil.getDateDisplayString(s_gmtTimeZone, balance.getUpdatedOn()));
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        } catch (SQLException e) {
+            throw new CloudRuntimeException("DB Exception on: " + INSERT_QUOTA_BALANCE, e);
+        } finally {
+            txn.close();
+        }
+    }
+
     @Override
     public List<QuotaBalanceVO> findCreditBalance(final Long accountId, final Long domainId, final Date lastbalancedate, final Date beforeThis) {
         return Transaction.execute(TransactionLegacy.USAGE_DB, new TransactionCallback<List<QuotaBalanceVO>>() {
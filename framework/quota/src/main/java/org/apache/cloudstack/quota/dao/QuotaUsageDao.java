@@ -27,6 +27,11 @@ public interface QuotaUsageDao extends GenericDao<QuotaUsageVO, Long> {
 
     QuotaUsageVO persistQuotaUsage(QuotaUsageVO quotaUsage);
 
+    /**
+     * Inserts the quota usage entries with a single JDBC batch.
+     */
+    void persistQuotaUsages(List<QuotaUsageVO> quotaUsages);
+
     List<QuotaUsageVO> findQuotaUsage(Long accountId, Long domainId, Integer usageType, Date startDate, Date endDate);
 
     BigDecimal findTotalQuotaUsage(Long accountId, Long domainId, Integer usageType, Date startDate, Date endDate);
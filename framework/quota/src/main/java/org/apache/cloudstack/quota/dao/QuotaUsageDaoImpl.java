@@ -17,14 +17,18 @@
 package org.apache.cloudstack.quota.dao;
 
 import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.TimeZone;
 
 import org.apache.cloudstack.quota.vo.QuotaUsageVO;
 import org.apache.log4j.Logger;
 import org.springframework.stereotype.Component;
 
+import com.cloud.utils.DateUtil;
 import com.cloud.utils.db.Filter;
 import com.cloud.utils.db.GenericDaoBase;
 import com.cloud.utils.db.QueryBuilder;
@@ -33,11 +37,16 @@ import com.cloud.utils.db.Transaction;
 import com.cloud.utils.db.TransactionCallback;
 import com.cloud.utils.db.TransactionLegacy;
 import com.cloud.utils.db.TransactionStatus;
+import com.cloud.utils.exception.CloudRuntimeException;
 
 @Component
 public class QuotaUsageDaoImpl extends GenericDaoBase<QuotaUsageVO, Long> implements QuotaUsageDao {
     private static final Logger s_logger = Logger.getLogger(QuotaUsageDaoImpl.class);
 
+    private static final String INSERT_QUOTA_USAGE = "INSERT INTO cloud_usage.quota_usage (usage_item_id, zone_id, account_id, domain_id, usage_type, quota_used, start_date, end_date) "
+            + "VALUES (?,?,?,?,?,?,?,?)";
+    private static final TimeZone s_gmtTimeZone = TimeZone.getTimeZone("GMT");
+
     @Override
     public BigDecimal findTotalQuotaUsage(final Long accountId, final Long domainId, final Integer usageType, final Date startDate, final Date endDate) {
         List<QuotaUsageVO> quotaUsage = findQuotaUsage(accountId, domainId, null, startDate, endDate);
@@ -114,4 +123,30 @@ public class QuotaUsageDaoImpl extends GenericDaoBase<QuotaUsageVO, Long> implem
         });
     }
 
+    @Override
+    public void persistQuotaUsages(final List<QuotaUsageVO> quotaUsages) {
+        if (quotaUsages == null || quotaUsages.isEmpty()) {
+            return;
+        }
+        TransactionLegacy txn = TransactionLegacy.open(TransactionLegacy.USAGE_DB);
+        try (PreparedStatement pstmt = txn.prepareStatement(INSERT_QUOTA_USAGE)) {
+            for (QuotaUsageVO quotaUsage : quotaUsages) {
+                pstmt.setLong(1, quotaUsage.getUsageItemId());
+                pstmt.setLong(2, quotaUsage.getZoneId());
+                pstmt.setLong(3, quotaUsage.getAccountId());
+                pstmt.setLong(4, quotaUsage.getDomainId());
+                pstmt.setInt(5, quotaUsage.getUsageType());
+                pstmt.setBigDecimal(6, quotaUsage.getQuotaUsed());
+                pstmt.setString(7, DateUtil.getDateDisplayString(s_gmtTimeZone, quotaUsage.getStartDate()));
+                pstmt.setString(8, DateUtil.getDateDisplayString(s_gmtTimeZone, quotaUsage.getEndDate()));
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        } catch (SQLException e) {
+            throw new CloudRuntimeException("DB Exception on: " + INSERT_QUOTA_USAGE, e);
+        } finally {
+            txn.close();
+        }
+    }
+
 }
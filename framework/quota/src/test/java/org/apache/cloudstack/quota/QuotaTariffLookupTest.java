@@ -0,0 +1,67 @@
+//Licensed to the Apache Software Foundation (ASF) under one
+//or more contributor license agreements.  See the NOTICE file
+//distributed with this work for additional information
+//regarding copyright ownership.  The ASF licenses this file
+//to you under the Apache License, Version 2.0 (the
+//"License"); you may not use this file except in compliance
+//with the License.  You may obtain a copy of the License at
+//
+//http://www.apache.org/licenses/LICENSE-2.0
+//
+//Unless required by applicable law or agreed to in writing,
+//software distributed under the License is distributed on an
+//"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+//KIND, either express or implied.  See the License for the
+//specific language governing permissions and limitations
+//under the License.
+package org.apache.cloudstack.quota;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.cloudstack.quota.constant.QuotaTypes;
+import org.apache.cloudstack.quota.vo.QuotaTariffVO;
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+public class QuotaTariffLookupTest extends TestCase {
+
+    private static QuotaTariffVO tariff(final int usageType, final long effectiveOn, final long updatedOn, final int value) {
+        QuotaTariffVO tariff = new QuotaTariffVO(usageType);
+        tariff.setEffectiveOn(new Date(effectiveOn));
+        tariff.setUpdatedOn(new Date(updatedOn));
+        tariff.setCurrencyValue(new BigDecimal(value));
+        return tariff;
+    }
+
+    @Test
+    public void testFindTariffPlanByUsageType() {
+        List<QuotaTariffVO> tariffs = new ArrayList<>();
+        tariffs.add(tariff(QuotaTypes.MEMORY, 3000L, 3000L, 3));
+        tariffs.add(tariff(QuotaTypes.MEMORY, 1000L, 1000L, 1));
+        tariffs.add(tariff(QuotaTypes.MEMORY, 2000L, 2000L, 2));
+        tariffs.add(tariff(QuotaTypes.VOLUME, 1000L, 1000L, 10));
+        QuotaTariffLookup lookup = new QuotaTariffLookup(tariffs);
+
+        assertNull(lookup.findTariffPlanByUsageType(QuotaTypes.MEMORY, new Date(999L)));
+        assertEquals(1, lookup.findTariffPlanByUsageType(QuotaTypes.MEMORY, new Date(1000L)).getCurrencyValue().intValue());
+        assertEquals(2, lookup.findTariffPlanByUsageType(QuotaTypes.MEMORY, new Date(2999L)).getCurrencyValue().intValue());
+        assertEquals(3, lookup.findTariffPlanByUsageType(QuotaTypes.MEMORY, new Date(5000L)).getCurrencyValue().intValue());
+        assertEquals(10, lookup.findTariffPlanByUsageType(QuotaTypes.VOLUME, new Date(5000L)).getCurrencyValue().intValue());
+        assertNull(lookup.findTariffPlanByUsageType(QuotaTypes.CPU_NUMBER, new Date(5000L)));
+    }
+
+    @Test
+    public void testMostRecentlyUpdatedTariffWins() {
+        List<QuotaTariffVO> tariffs = new ArrayList<>();
+        tariffs.add(tariff(QuotaTypes.MEMORY, 1000L, 5000L, 1));
+        tariffs.add(tariff(QuotaTypes.MEMORY, 2000L, 2000L, 2));
+        QuotaTariffLookup lookup = new QuotaTariffLookup(tariffs);
+
+        // matches the DAO, which orders the tariffs effective on or before the date by their update time
+        assertEquals(1, lookup.findTariffPlanByUsageType(QuotaTypes.MEMORY, new Date(3000L)).getCurrencyValue().intValue());
+    }
+}
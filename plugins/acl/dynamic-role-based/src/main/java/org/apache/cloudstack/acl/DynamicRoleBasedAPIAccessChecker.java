@@ -16,16 +16,22 @@
 // under the License.
 package org.apache.cloudstack.acl;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 
 import javax.inject.Inject;
 import javax.naming.ConfigurationException;
 
 import org.apache.cloudstack.api.APICommand;
+import org.apache.cloudstack.framework.messagebus.MessageBus;
+import org.apache.cloudstack.framework.messagebus.MessageSubscriber;
 import org.apache.log4j.Logger;
 import org.apache.cloudstack.acl.RolePermissionEntity.Permission;
 
@@ -44,9 +50,12 @@ public class DynamicRoleBasedAPIAccessChecker extends AdapterBase implements API
     private AccountService accountService;
     @Inject
     private RoleService roleService;
+    @Inject
+    private MessageBus messageBus;
 
     private List<PluggableService> services;
     private Map<RoleType, Set<String>> annotationRoleBasedApisMap = new HashMap<RoleType, Set<String>>();
+    private final Map<Long, CompiledRolePermissions> rolePermissionsCache = new ConcurrentHashMap<>();
 
     private static final Logger logger = Logger.getLogger(DynamicRoleBasedAPIAccessChecker.class.getName());
 
@@ -86,14 +95,12 @@ public class DynamicRoleBasedAPIAccessChecker extends AdapterBase implements API
         }
 
         // Check against current list of permissions
-        for (final RolePermission permission : roleService.findAllPermissionsBy(accountRole.getId())) {
-            if (permission.getRule().matches(commandName)) {
-                if (Permission.ALLOW.equals(permission.getPermission())) {
-                    return true;
-                } else {
-                    denyApiAccess(commandName);
-                }
-            }
+        final Permission permission = getRolePermissions(accountRole.getId()).permissionFor(commandName);
+        if (Permission.ALLOW.equals(permission)) {
+            return true;
+        }
+        if (Permission.DENY.equals(permission)) {
+            denyApiAccess(commandName);
         }
 
         // Check annotations
@@ -106,6 +113,26 @@ public class DynamicRoleBasedAPIAccessChecker extends AdapterBase implements API
         throw new UnavailableCommandException("The API " + commandName + " does not exist or is not available for this account.");
     }
 
+    /**
+     * Returns the compiled permissions of the role, loading them when absent or older than
+     * {@link RoleService#DynamicApiCheckerCachePeriod}. Changes made through this management server
+     * evict the role right away, the period bounds how stale changes made on other servers can be.
+     */
+    private CompiledRolePermissions getRolePermissions(final long roleId) {
+        final long cachePeriod = TimeUnit.SECONDS.toMillis(RoleService.DynamicApiCheckerCachePeriod.value());
+        final long now = System.currentTimeMillis();
+        CompiledRolePermissions permissions = rolePermissionsCache.get(roleId);
+        if (permissions == null || now - permissions.loadedAt > cachePeriod) {
+            permissions = new CompiledRolePermissions(roleService.findAllPermissionsBy(roleId), now);
+            if (cachePeriod > 0) {
+                rolePermissionsCache.put(roleId, permissions);
+            } else {
+                rolePermissionsCache.remove(roleId);
+            }
+        }
+        return permissions;
+    }
+
     public void addApiToRoleBasedAnnotationsMap(final RoleType roleType, final String commandName) {
         if (roleType == null || Strings.isNullOrEmpty(commandName)) {
             return;
@@ -132,6 +159,18 @@ public class DynamicRoleBasedAPIAccessChecker extends AdapterBase implements API
                 }
             }
         }
+        if (messageBus != null) {
+            messageBus.subscribe(RoleService.MESSAGE_ROLE_CHANGED_EVENT, new MessageSubscriber() {
+                @Override
+                public void onPublishMessage(String senderAddress, String subject, Object args) {
+                    if (args instanceof Long) {
+                        rolePermissionsCache.remove(args);
+                    } else {
+                        rolePermissionsCache.clear();
+                    }
+                }
+            });
+        }
         return super.start();
     }
 
@@ -144,4 +183,51 @@ public class DynamicRoleBasedAPIAccessChecker extends AdapterBase implements API
         this.services = services;
     }
 
+    /**
+     * Rules of a role compiled once, in their evaluation order, along with the outcome of the
+     * commands already evaluated against them.
+     */
+    private static final class CompiledRolePermissions {
+        private static final int MAX_MEMOIZED_COMMANDS = 4096;
+        private static final Object NO_MATCH = new Object();
+
+        private final List<Pattern> patterns = new ArrayList<>();
+        private final List<Permission> permissions = new ArrayList<>();
+        private final Map<String, Object> decisions = new ConcurrentHashMap<>();
+        private final long loadedAt;
+
+        CompiledRolePermissions(final List<RolePermission> rolePermissions, final long loadedAt) {
+            this.loadedAt = loadedAt;
+            if (rolePermissions == null) {
+                return;
+            }
+            for (final RolePermission rolePermission : rolePermissions) {
+                // same semantics as Rule#matches, without compiling the expression on every call
+                patterns.add(Pattern.compile(rolePermission.getRule().getRuleString().toLowerCase().replace("*", "\\w*")));
+                permissions.add(rolePermission.getPermission());
+            }
+        }
+
+        Permission permissionFor(final String commandName) {
+            if (Strings.isNullOrEmpty(commandName)) {
+                return null;
+            }
+            final Object decision = decisions.get(commandName);
+            if (decision != null) {
+                return decision == NO_MATCH ? null : (Permission)decision;
+            }
+            Permission permission = null;
+            final String command = commandName.toLowerCase();
+            for (int i = 0; i < patterns.size(); i++) {
+                if (patterns.get(i).matcher(command).matches()) {
+                    permission = permissions.get(i);
+                    break;
+                }
+            }
+            if (decisions.size() < MAX_MEMOIZED_COMMANDS) {
+                decisions.put(commandName, permission == null ? NO_MATCH : permission);
+            }
+            return permission;
+        }
+    }
 }
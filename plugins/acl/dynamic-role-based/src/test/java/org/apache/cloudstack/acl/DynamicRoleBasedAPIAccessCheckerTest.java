@@ -158,6 +158,16 @@ public class DynamicRoleBasedAPIAccessCheckerTest extends TestCase {
         }
     }
 
+    @Test
+    public void testRolePermissionsAreCachedAcrossChecks() {
+        final RolePermission permission = new RolePermissionVO(1L, "some*", Permission.ALLOW, null);
+        Mockito.when(roleService.findAllPermissionsBy(Mockito.anyLong())).thenReturn(Collections.singletonList(permission));
+        assertTrue(apiAccessChecker.checkAccess(getTestUser(), "someAllowedApi"));
+        assertTrue(apiAccessChecker.checkAccess(getTestUser(), "someOtherApi"));
+        assertTrue(apiAccessChecker.checkAccess(getTestUser(), "someAllowedApi"));
+        Mockito.verify(roleService, Mockito.times(1)).findAllPermissionsBy(Mockito.anyLong());
+    }
+
     @Test
     public void testAnnotationFallbackCheckAccess() {
         final String allowedApiName = "someApiWithAnnotations";
@@ -116,6 +116,7 @@ import com.cloud.exception.InternalErrorException;
 import com.cloud.host.Host.Type;
 import com.cloud.hypervisor.Hypervisor.HypervisorType;
 import com.cloud.hypervisor.kvm.dpdk.DpdkHelper;
+import com.cloud.hypervisor.kvm.resource.LibvirtDomainDeviceCache.DomainDevices;
 import com.cloud.hypervisor.kvm.resource.LibvirtVMDef.ChannelDef;
 import com.cloud.hypervisor.kvm.resource.LibvirtVMDef.ClockDef;
 import com.cloud.hypervisor.kvm.resource.LibvirtVMDef.ConsoleDef;
@@ -308,6 +309,7 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
 
     private final Map <String, String> _pifs = new HashMap<String, String>();
     private final Map<String, VmStats> _vmStats = new ConcurrentHashMap<String, VmStats>();
+    protected final LibvirtDomainDeviceCache _domainDeviceCache = new LibvirtDomainDeviceCache();
 
     protected static final HashMap<DomainState, PowerState> s_powerStatesTable;
     static {
@@ -971,6 +973,8 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
             _watchDogAction = WatchDogAction.valueOf(value.toUpperCase());
         }
 
+        // lifecycle events only reach connections opened after the event loop is running
+        LibvirtDomainDeviceCache.startEventLoop();
         LibvirtConnection.initialize(_hypervisorURI);
         Connect conn = null;
         try {
@@ -1832,6 +1836,7 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
 
         final Domain vm = getDomain(conn, vmName);
         vm.attachDevice(getVifDriver(nicTO.getType()).plug(nicTO, "Other PV", "", null).toString());
+        _domainDeviceCache.invalidate(vmName);
     }
 
 
@@ -1843,6 +1848,7 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
         for (final InterfaceDef pluggedNic : pluggedNics) {
             if (pluggedNic.getMacAddress().equalsIgnoreCase(macAddr)) {
                 vm.detachDevice(pluggedNic.toString());
+                _domainDeviceCache.invalidate(vmName);
                 // We don't know which "traffic type" is associated with
                 // each interface at this point, so inform all vif drivers
                 for (final VifDriver vifDriver : getAllVifDrivers()) {
@@ -2898,6 +2904,7 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
                 s_logger.debug("Detaching device: " + xml);
                 dm.detachDevice(xml);
             }
+            _domainDeviceCache.invalidate(vmName);
         } catch (final LibvirtException e) {
             if (attach) {
                 s_logger.warn("Failed to attach device to " + vmName + ": " + e.getMessage());
@@ -3535,7 +3542,7 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
 
             List<VmNetworkStatsEntry> stats = new ArrayList<VmNetworkStatsEntry>();
 
-            List<InterfaceDef> nics = getInterfaces(conn, vmName);
+            List<InterfaceDef> nics = getDomainDevices(conn, dm, vmName).getInterfaces();
 
             for (InterfaceDef nic : nics) {
                 DomainInterfaceStats nicStats = dm.interfaceStats(nic.getDevName());
@@ -3545,6 +3552,9 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
             }
 
             return stats;
+        } catch (final LibvirtException e) {
+            _domainDeviceCache.invalidate(vmName);
+            throw e;
         } finally {
             if (dm != null) {
                 dm.free();
@@ -3559,7 +3569,7 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
 
             final List<VmDiskStatsEntry> stats = new ArrayList<VmDiskStatsEntry>();
 
-            final List<DiskDef> disks = getDisks(conn, vmName);
+            final List<DiskDef> disks = getDomainDevices(conn, dm, vmName).getDisks();
 
             for (final DiskDef disk : disks) {
                 if (disk.getDeviceType() != DeviceType.DISK) {
@@ -3579,6 +3589,9 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
             }
 
             return stats;
+        } catch (final LibvirtException e) {
+            _domainDeviceCache.invalidate(vmName);
+            throw e;
         } finally {
             if (dm != null) {
                 dm.free();
@@ -3597,6 +3610,66 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
         Calendar _timestamp;
     }
 
+    /**
+     * Drops the cached devices of the VM, to be called after hot plugging or unplugging one of its devices.
+     */
+    public void invalidateDomainDevices(final String vmName) {
+        _domainDeviceCache.invalidate(vmName);
+    }
+
+    /**
+     * Returns the interfaces and disks of a running domain, reading its XML only when they are not cached.
+     */
+    protected DomainDevices getDomainDevices(final Connect conn, final Domain dm, final String vmName) throws LibvirtException {
+        _domainDeviceCache.listen(conn);
+        final int domainId = dm.getID();
+        DomainDevices devices = _domainDeviceCache.get(vmName, domainId);
+        if (devices == null) {
+            final List<InterfaceDef> interfaces = getInterfaces(conn, vmName);
+            final List<DiskDef> disks = getDisks(conn, vmName);
+            if (interfaces.isEmpty() && disks.isEmpty()) {
+                // most likely the XML could not be read, try again next time
+                return new DomainDevices(domainId, interfaces, disks);
+            }
+            devices = _domainDeviceCache.put(vmName, domainId, interfaces, disks);
+        }
+        return devices;
+    }
+
+    /**
+     * Collects the stats of several VMs over one connection, looking each domain up once. VMs that cannot be found on
+     * the connection are left out.
+     */
+    public HashMap<String, VmStatsEntry> getVmStats(final Connect conn, final List<String> vmNames) {
+        final HashMap<String, VmStatsEntry> vmStats = new HashMap<String, VmStatsEntry>();
+        for (final String vmName : vmNames) {
+            Domain dm = null;
+            try {
+                dm = getDomain(conn, vmName);
+                if (dm == null) {
+                    continue;
+                }
+                final VmStatsEntry stats = getVmStat(conn, dm, vmName);
+                if (stats != null) {
+                    vmStats.put(vmName, stats);
+                }
+            } catch (final LibvirtException e) {
+                if (s_logger.isDebugEnabled()) {
+                    s_logger.debug("Can't get vm stats of " + vmName + ": " + e.toString());
+                }
+            } finally {
+                try {
+                    if (dm != null) {
+                        dm.free();
+                    }
+                } catch (final LibvirtException e) {
+                    s_logger.trace("Ignoring libvirt error.", e);
+                }
+            }
+        }
+        return vmStats;
+    }
+
     public VmStatsEntry getVmStat(final Connect conn, final String vmName) throws LibvirtException {
         Domain dm = null;
         try {
@@ -3604,6 +3677,17 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
             if (dm == null) {
                 return null;
             }
+            return getVmStat(conn, dm, vmName);
+        } finally {
+            if (dm != null) {
+                dm.free();
+            }
+        }
+    }
+
+    protected VmStatsEntry getVmStat(final Connect conn, final Domain dm, final String vmName) throws LibvirtException {
+        final DomainDevices devices = getDomainDevices(conn, dm, vmName);
+        try {
             DomainInfo info = dm.getInfo();
             final VmStatsEntry stats = new VmStatsEntry();
 
@@ -3634,7 +3718,7 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
 
             /* get network stats */
 
-            final List<InterfaceDef> vifs = getInterfaces(conn, vmName);
+            final List<InterfaceDef> vifs = devices.getInterfaces();
             long rx = 0;
             long tx = 0;
             for (final InterfaceDef vif : vifs) {
@@ -3655,7 +3739,7 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
             }
 
             /* get disk stats */
-            final List<DiskDef> disks = getDisks(conn, vmName);
+            final List<DiskDef> disks = devices.getDisks();
             long io_rd = 0;
             long io_wr = 0;
             long bytes_rd = 0;
@@ -3702,10 +3786,10 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
             newStat._timestamp = now;
             _vmStats.put(vmName, newStat);
             return stats;
-        } finally {
-            if (dm != null) {
-                dm.free();
-            }
+        } catch (final LibvirtException e) {
+            // a cached device may be gone, read the domain XML again next time
+            _domainDeviceCache.invalidate(vmName);
+            throw e;
         }
     }
 
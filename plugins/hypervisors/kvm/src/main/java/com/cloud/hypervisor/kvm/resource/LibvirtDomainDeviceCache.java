@@ -0,0 +1,155 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.hypervisor.kvm.resource;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+import org.libvirt.Connect;
+import org.libvirt.Domain;
+import org.libvirt.Library;
+import org.libvirt.event.DomainEvent;
+import org.libvirt.event.LifecycleListener;
+
+import com.cloud.hypervisor.kvm.resource.LibvirtVMDef.DiskDef;
+import com.cloud.hypervisor.kvm.resource.LibvirtVMDef.InterfaceDef;
+
+/**
+ * Keeps the interfaces and disks of running domains, so that collecting stats does not fetch and parse the domain XML
+ * of every VM on every call.
+ *
+ * An entry is dropped when libvirt reports a lifecycle event for its domain, when the agent hot plugs or unplugs a
+ * device of the domain, and when the domain id no longer matches (the domain was restarted while events were not
+ * delivered).
+ */
+public class LibvirtDomainDeviceCache implements LifecycleListener {
+    private static final Logger s_logger = Logger.getLogger(LibvirtDomainDeviceCache.class);
+
+    private static volatile boolean s_eventLoopStarted = false;
+
+    public static class DomainDevices {
+        private final int domainId;
+        private final List<InterfaceDef> interfaces;
+        private final List<DiskDef> disks;
+
+        DomainDevices(final int domainId, final List<InterfaceDef> interfaces, final List<DiskDef> disks) {
+            this.domainId = domainId;
+            this.interfaces = Collections.unmodifiableList(interfaces);
+            this.disks = Collections.unmodifiableList(disks);
+        }
+
+        public List<InterfaceDef> getInterfaces() {
+            return interfaces;
+        }
+
+        public List<DiskDef> getDisks() {
+            return disks;
+        }
+    }
+
+    private final Map<String, DomainDevices> devicesByVmName = new ConcurrentHashMap<String, DomainDevices>();
+    private final Set<Connect> listenedConnections = Collections.newSetFromMap(new ConcurrentHashMap<Connect, Boolean>());
+
+    /**
+     * Starts the libvirt event loop that delivers lifecycle events. It must run before the agent opens its first
+     * connection, or libvirt does not deliver events on that connection.
+     */
+    public static synchronized void startEventLoop() {
+        if (s_eventLoopStarted) {
+            return;
+        }
+        try {
+            Library.initEventLoop();
+        } catch (final Exception e) {
+            s_logger.warn("Unable to initialize the libvirt event loop, domain devices are cached without lifecycle events: " + e.getMessage());
+            return;
+        }
+        final Thread eventLoop = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Library.runEventLoop();
+                } catch (final Exception e) {
+                    s_logger.warn("The libvirt event loop stopped: " + e.getMessage());
+                }
+            }
+        }, "LibvirtEventLoop");
+        eventLoop.setDaemon(true);
+        eventLoop.start();
+        s_eventLoopStarted = true;
+    }
+
+    /**
+     * Subscribes to the lifecycle events of the connection, once per connection.
+     */
+    public void listen(final Connect conn) {
+        if (!s_eventLoopStarted || !listenedConnections.add(conn)) {
+            return;
+        }
+        try {
+            conn.addLifecycleListener(this);
+        } catch (final Exception e) {
+            listenedConnections.remove(conn);
+            s_logger.debug("Unable to subscribe to libvirt lifecycle events: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return the cached devices of the domain, or null if they have to be read from its XML
+     */
+    public DomainDevices get(final String vmName, final int domainId) {
+        final DomainDevices devices = devicesByVmName.get(vmName);
+        if (devices != null && devices.domainId != domainId) {
+            devicesByVmName.remove(vmName, devices);
+            return null;
+        }
+        return devices;
+    }
+
+    public DomainDevices put(final String vmName, final int domainId, final List<InterfaceDef> interfaces, final List<DiskDef> disks) {
+        final DomainDevices devices = new DomainDevices(domainId, interfaces, disks);
+        devicesByVmName.put(vmName, devices);
+        return devices;
+    }
+
+    public void invalidate(final String vmName) {
+        devicesByVmName.remove(vmName);
+    }
+
+    public int size() {
+        return devicesByVmName.size();
+    }
+
+    @Override
+    public int onLifecycleChange(final Domain domain, final DomainEvent info) {
+        try {
+            final String vmName = domain.getName();
+            if (s_logger.isTraceEnabled()) {
+                s_logger.trace("Dropping cached devices of " + vmName + " after lifecycle event " + info);
+            }
+            invalidate(vmName);
+        } catch (final Exception e) {
+            // without the name we cannot tell which entry is stale
+            devicesByVmName.clear();
+        }
+        return 0;
+    }
+}
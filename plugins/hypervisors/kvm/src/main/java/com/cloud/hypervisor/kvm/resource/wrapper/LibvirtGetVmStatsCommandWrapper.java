@@ -43,14 +43,22 @@ public final class LibvirtGetVmStatsCommandWrapper extends CommandWrapper<GetVmS
     public Answer execute(final GetVmStatsCommand command, final LibvirtComputingResource libvirtComputingResource) {
         final List<String> vmNames = command.getVmNames();
         try {
-            final HashMap<String, VmStatsEntry> vmStatsNameMap = new HashMap<String, VmStatsEntry>();
-            for (final String vmName : vmNames) {
+            final LibvirtUtilitiesHelper libvirtUtilitiesHelper = libvirtComputingResource.getLibvirtUtilitiesHelper();
 
-                final LibvirtUtilitiesHelper libvirtUtilitiesHelper = libvirtComputingResource.getLibvirtUtilitiesHelper();
+            final Connect conn = libvirtUtilitiesHelper.getConnection();
+            final HashMap<String, VmStatsEntry> vmStatsNameMap = libvirtComputingResource.getVmStats(conn, vmNames);
+            for (final String vmName : vmNames) {
+                if (vmStatsNameMap.containsKey(vmName)) {
+                    continue;
+                }
 
-                final Connect conn = libvirtUtilitiesHelper.getConnectionByVmName(vmName);
+                // not found on the default connection, e.g. an LXC guest
+                final Connect vmConn = libvirtUtilitiesHelper.getConnectionByVmName(vmName);
+                if (vmConn == conn) {
+                    continue;
+                }
                 try {
-                    final VmStatsEntry statEntry = libvirtComputingResource.getVmStat(conn, vmName);
+                    final VmStatsEntry statEntry = libvirtComputingResource.getVmStat(vmConn, vmName);
                     if (statEntry == null) {
                         continue;
                     }
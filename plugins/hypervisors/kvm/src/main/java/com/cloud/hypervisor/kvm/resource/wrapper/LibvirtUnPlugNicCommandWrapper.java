@@ -59,6 +59,7 @@ public final class LibvirtUnPlugNicCommandWrapper extends CommandWrapper<UnPlugN
                         libvirtComputingResource.destroyNetworkRulesForNic(conn, vmName, nic);
                     }
                     vm.detachDevice(pluggedNic.toString());
+                    libvirtComputingResource.invalidateDomainDevices(vmName);
                     // We don't know which "traffic type" is associated with
                     // each interface at this point, so inform all vif drivers
                     for (final VifDriver vifDriver : libvirtComputingResource.getAllVifDrivers()) {
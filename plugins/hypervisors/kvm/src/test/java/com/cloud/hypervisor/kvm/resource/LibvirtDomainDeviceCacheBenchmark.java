@@ -0,0 +1,75 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.hypervisor.kvm.resource;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.libvirt.Connect;
+import org.libvirt.Domain;
+
+/**
+ * Compares the stats collection of LibvirtDomainDeviceCacheTest.VMS VMs on a mocked Connect with and
+ * without the domain device cache. It is not a unit test, run it by hand with the test classpath of
+ * this module.
+ */
+public class LibvirtDomainDeviceCacheBenchmark {
+    private static final int ROUNDS = 20;
+
+    public static void main(final String[] args) throws Exception {
+        System.out.println("Benchmarking stats collection of " + LibvirtDomainDeviceCacheTest.VMS + " VMs with and without the domain device cache");
+        final Connect conn = mock(Connect.class);
+        final List<String> vmNames = new ArrayList<String>();
+        for (int i = 0; i < LibvirtDomainDeviceCacheTest.VMS; i++) {
+            final String vmName = "i-2-" + (i + 100) + "-VM";
+            vmNames.add(vmName);
+            final Domain dm = LibvirtDomainDeviceCacheTest.mockDomain(vmName, i + 1);
+            when(conn.domainLookupByName(vmName)).thenReturn(dm);
+        }
+        final LibvirtComputingResource resource = new LibvirtComputingResource();
+
+        final long uncached = benchmark(resource, conn, vmNames, true);
+        final long cached = benchmark(resource, conn, vmNames, false);
+
+        System.out.println("uncached: " + uncached / ROUNDS / 1000 + " us per collection");
+        System.out.println("cached: " + cached / ROUNDS / 1000 + " us per collection");
+    }
+
+    /**
+     * @return the time it took to collect the stats of all VMs ROUNDS times.
+     */
+    private static long benchmark(final LibvirtComputingResource resource, final Connect conn, final List<String> vmNames, final boolean invalidate) {
+        long start = 0;
+        // the first half warms up the JIT
+        for (int i = 0; i < ROUNDS * 2; i++) {
+            if (i == ROUNDS) {
+                start = System.nanoTime();
+            }
+            if (invalidate) {
+                // what every collection did before the cache
+                for (final String vmName : vmNames) {
+                    resource.invalidateDomainDevices(vmName);
+                }
+            }
+            resource.getVmStats(conn, vmNames);
+        }
+        return System.nanoTime() - start;
+    }
+}
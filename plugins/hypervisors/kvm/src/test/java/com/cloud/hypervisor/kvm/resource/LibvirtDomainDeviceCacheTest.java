@@ -0,0 +1,171 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.hypervisor.kvm.resource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.libvirt.Connect;
+import org.libvirt.Domain;
+import org.libvirt.DomainBlockStats;
+import org.libvirt.DomainInfo;
+import org.libvirt.DomainInterfaceStats;
+import org.libvirt.LibvirtException;
+import org.libvirt.MemoryStatistic;
+
+import com.cloud.agent.api.VmStatsEntry;
+
+public class LibvirtDomainDeviceCacheTest {
+    static final int VMS = 200;
+
+    private Connect conn;
+    private List<String> vmNames;
+    private Domain[] domains;
+    private LibvirtComputingResource resource;
+
+    @Before
+    public void setUp() throws LibvirtException {
+        conn = mock(Connect.class);
+        vmNames = new ArrayList<String>();
+        domains = new Domain[VMS];
+        for (int i = 0; i < VMS; i++) {
+            final String vmName = "i-2-" + (i + 100) + "-VM";
+            vmNames.add(vmName);
+            domains[i] = mockDomain(vmName, i + 1);
+            when(conn.domainLookupByName(vmName)).thenReturn(domains[i]);
+        }
+        resource = new LibvirtComputingResource();
+    }
+
+    static Domain mockDomain(final String vmName, final int id) throws LibvirtException {
+        final Domain dm = mock(Domain.class);
+        final DomainInfo info = new DomainInfo();
+        info.nrVirtCpu = 2;
+        info.maxMem = 2097152;
+        info.memory = 2097152;
+        when(dm.getID()).thenReturn(id);
+        when(dm.getName()).thenReturn(vmName);
+        when(dm.getInfo()).thenReturn(info);
+        when(dm.memoryStats(anyInt())).thenReturn(new MemoryStatistic[0]);
+        when(dm.interfaceStats(anyString())).thenReturn(new DomainInterfaceStats());
+        when(dm.blockStats(anyString())).thenReturn(new DomainBlockStats());
+        when(dm.getXMLDesc(0)).thenReturn(domainXml(vmName, id));
+        return dm;
+    }
+
+    private static String domainXml(final String vmName, final int id) {
+        return "<domain type='kvm' id='" + id + "'>" +
+                "<name>" + vmName + "</name>" +
+                "<memory unit='KiB'>2097152</memory>" +
+                "<vcpu placement='static'>2</vcpu>" +
+                "<os><type arch='x86_64' machine='pc'>hvm</type><boot dev='hd'/></os>" +
+                "<devices>" +
+                "<emulator>/usr/bin/qemu-system-x86_64</emulator>" +
+                "<disk type='file' device='disk'>" +
+                "<driver name='qemu' type='qcow2' cache='none'/>" +
+                "<source file='/mnt/5b2a4aab-d8f1-3a09-a8c3-cf4ea2b3b1a5/" + vmName + "-root'/>" +
+                "<target dev='vda' bus='virtio'/>" +
+                "</disk>" +
+                "<disk type='file' device='disk'>" +
+                "<driver name='qemu' type='qcow2' cache='none'/>" +
+                "<source file='/mnt/5b2a4aab-d8f1-3a09-a8c3-cf4ea2b3b1a5/" + vmName + "-data'/>" +
+                "<target dev='vdb' bus='virtio'/>" +
+                "</disk>" +
+                "<disk type='file' device='cdrom'>" +
+                "<driver name='qemu' type='raw' cache='none'/>" +
+                "<target dev='hdc' bus='ide'/>" +
+                "<readonly/>" +
+                "</disk>" +
+                "<interface type='bridge'>" +
+                "<mac address='06:2a:40:00:00:" + String.format("%02x", id % 256) + "'/>" +
+                "<source bridge='breth1-50'/>" +
+                "<target dev='vnet" + id + "'/>" +
+                "<model type='virtio'/>" +
+                "</interface>" +
+                "<console type='pty'><target type='serial' port='0'/></console>" +
+                "<graphics type='vnc' port='-1' autoport='yes' listen='0.0.0.0'/>" +
+                "</devices>" +
+                "</domain>";
+    }
+
+    @Test
+    public void testDomainXmlIsReadOncePerDomain() throws LibvirtException {
+        for (int i = 0; i < 3; i++) {
+            final HashMap<String, VmStatsEntry> stats = resource.getVmStats(conn, vmNames);
+            assertEquals(VMS, stats.size());
+        }
+
+        // once for the interfaces and once for the disks of the first collection
+        verify(domains[0], times(2)).getXMLDesc(0);
+        verify(domains[VMS - 1], times(2)).getXMLDesc(0);
+        assertEquals(VMS, resource._domainDeviceCache.size());
+    }
+
+    @Test
+    public void testInvalidatedDomainIsReadAgain() throws LibvirtException {
+        resource.getVmStats(conn, vmNames);
+        resource.invalidateDomainDevices(vmNames.get(0));
+        resource.getVmStats(conn, vmNames);
+
+        verify(domains[0], times(4)).getXMLDesc(0);
+        verify(domains[1], times(2)).getXMLDesc(0);
+    }
+
+    @Test
+    public void testRestartedDomainIsReadAgain() throws LibvirtException {
+        resource.getVmStats(conn, vmNames);
+        // the domain got a new id, e.g. it was stopped and started while events were not delivered
+        when(domains[0].getID()).thenReturn(VMS + 1);
+        resource.getVmStats(conn, vmNames);
+
+        verify(domains[0], times(4)).getXMLDesc(0);
+    }
+
+    @Test
+    public void testLifecycleEventInvalidates() {
+        final LibvirtDomainDeviceCache cache = new LibvirtDomainDeviceCache();
+        cache.put(vmNames.get(0), 1, new ArrayList<LibvirtVMDef.InterfaceDef>(), new ArrayList<LibvirtVMDef.DiskDef>());
+        cache.put(vmNames.get(1), 2, new ArrayList<LibvirtVMDef.InterfaceDef>(), new ArrayList<LibvirtVMDef.DiskDef>());
+
+        cache.onLifecycleChange(domains[0], null);
+
+        assertNull(cache.get(vmNames.get(0), 1));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testFailingDomainIsSkipped() throws LibvirtException {
+        when(domains[0].getInfo()).thenThrow(LibvirtException.class);
+
+        final HashMap<String, VmStatsEntry> stats = resource.getVmStats(conn, vmNames);
+
+        assertEquals(VMS - 1, stats.size());
+        assertEquals(VMS - 1, resource._domainDeviceCache.size());
+    }
+}
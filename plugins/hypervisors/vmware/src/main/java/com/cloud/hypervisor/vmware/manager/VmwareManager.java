@@ -46,6 +46,12 @@ public interface VmwareManager {
     static final ConfigKey<Integer> s_vmwareOVAPackageTimeout = new ConfigKey<Integer>(Integer.class, "vmware.package.ova.timeout", "Advanced", "3600",
             "Vmware script timeout for ova packaging process", true, ConfigKey.Scope.Global, 1000);
 
+    static final ConfigKey<Integer> s_vmwarePerfQueryBatchSize = new ConfigKey<Integer>("Advanced", Integer.class, "vmware.perf.query.batch.size", "64",
+            "Number of VMs whose performance counters are queried from vCenter in one request when collecting VM and disk stats", false, ConfigKey.Scope.Global);
+
+    static final ConfigKey<Boolean> s_vmwareVmInventorySync = new ConfigKey<Boolean>("Advanced", Boolean.class, "vmware.vm.inventory.sync", "true",
+            "Keep the power states of the VMs of each cluster up to date from vCenter property updates, instead of reading the properties of all VMs on every host ping", false, ConfigKey.Scope.Global);
+
     String composeWorkerName();
 
     String getSystemVMIsoFileNameOnDatastore();
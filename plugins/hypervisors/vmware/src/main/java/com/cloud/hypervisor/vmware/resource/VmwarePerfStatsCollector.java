@@ -0,0 +1,276 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.hypervisor.vmware.resource;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.datatype.XMLGregorianCalendar;
+
+import org.apache.log4j.Logger;
+
+import com.cloud.hypervisor.vmware.mo.PerfCounterInfoMapper;
+import com.cloud.hypervisor.vmware.mo.PerfManagerMO;
+import com.cloud.hypervisor.vmware.util.VmwareContext;
+import com.cloud.hypervisor.vmware.util.VmwareHelper;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.PerfCounterInfo;
+import com.vmware.vim25.PerfEntityMetric;
+import com.vmware.vim25.PerfEntityMetricBase;
+import com.vmware.vim25.PerfMetricId;
+import com.vmware.vim25.PerfMetricIntSeries;
+import com.vmware.vim25.PerfMetricSeries;
+import com.vmware.vim25.PerfQuerySpec;
+import com.vmware.vim25.PerfSummaryType;
+
+/**
+ * Queries the performance counters of VMs for the stats commands. The counter catalog is fetched once per vCenter
+ * session, the VMs are queried in batches with one PerfQuerySpec per VM in a single queryPerf call, and the samples of a
+ * VM are reused by the stats commands that ask for it shortly after.
+ */
+public class VmwarePerfStatsCollector {
+    private static final Logger s_logger = Logger.getLogger(VmwarePerfStatsCollector.class);
+
+    public static final int INTERVAL_SECONDS = 300;
+    public static final int DEFAULT_BATCH_SIZE = 64;
+
+    // the counters are rolled up every INTERVAL_SECONDS, samples this recent are as good as a new query
+    private static final long SAMPLE_REUSE_MILLIS = 60 * 1000L;
+    // how often the query totals are logged
+    private static final long SUMMARY_INTERVAL_MILLIS = 10 * 60 * 1000L;
+
+    private final int _batchSize;
+    private final Map<String, VmSamples> _samplesByVm = new ConcurrentHashMap<String, VmSamples>();
+
+    private final AtomicLong _queriedBatches = new AtomicLong();
+    private final AtomicLong _queriedVms = new AtomicLong();
+    private final AtomicLong _queryMillis = new AtomicLong();
+    private final AtomicLong _reusedVms = new AtomicLong();
+    private final AtomicLong _lastSummary = new AtomicLong(System.currentTimeMillis());
+
+    public VmwarePerfStatsCollector(int batchSize) {
+        _batchSize = batchSize > 0 ? batchSize : DEFAULT_BATCH_SIZE;
+    }
+
+    /**
+     * The counters reported by the stats commands, the ones missing in the catalog of the server are null.
+     */
+    public static class Counters {
+        private final PerfCounterInfo _networkRx;
+        private final PerfCounterInfo _networkTx;
+        private final PerfCounterInfo _diskReadIOs;
+        private final PerfCounterInfo _diskWriteIOs;
+        private final PerfCounterInfo _diskReadKbs;
+        private final PerfCounterInfo _diskWriteKbs;
+
+        // https://pubs.vmware.com/vsphere-5-5/topic/com.vmware.wssdk.apiref.doc/virtual_disk_counters.html
+        public Counters(PerfCounterInfoMapper mapper) {
+            _networkRx = mapper.lookupOne("net", "received", PerfSummaryType.AVERAGE);
+            _networkTx = mapper.lookupOne("net", "transmitted", PerfSummaryType.AVERAGE);
+            _diskReadIOs = mapper.lookupOne("virtualDisk", "numberReadAveraged", PerfSummaryType.AVERAGE);
+            _diskWriteIOs = mapper.lookupOne("virtualDisk", "numberWriteAveraged", PerfSummaryType.AVERAGE);
+            _diskReadKbs = mapper.lookupOne("virtualDisk", "read", PerfSummaryType.AVERAGE);
+            _diskWriteKbs = mapper.lookupOne("virtualDisk", "write", PerfSummaryType.AVERAGE);
+        }
+
+        public boolean isNetworkRx(int counterId) {
+            return matches(_networkRx, counterId);
+        }
+
+        public boolean isNetworkTx(int counterId) {
+            return matches(_networkTx, counterId);
+        }
+
+        public boolean isDiskReadIOs(int counterId) {
+            return matches(_diskReadIOs, counterId);
+        }
+
+        public boolean isDiskWriteIOs(int counterId) {
+            return matches(_diskWriteIOs, counterId);
+        }
+
+        public boolean isDiskReadKbs(int counterId) {
+            return matches(_diskReadKbs, counterId);
+        }
+
+        public boolean isDiskWriteKbs(int counterId) {
+            return matches(_diskWriteKbs, counterId);
+        }
+
+        /**
+         * @return the metrics of all instances (the VM as a whole, each NIC and each disk) of the known counters
+         */
+        List<PerfMetricId> getMetricIds() {
+            List<PerfMetricId> metricIds = new ArrayList<PerfMetricId>();
+            for (PerfCounterInfo info : new PerfCounterInfo[] {_networkRx, _networkTx, _diskReadIOs, _diskWriteIOs, _diskReadKbs, _diskWriteKbs}) {
+                if (info != null) {
+                    metricIds.add(VmwareHelper.createPerfMetricId(info, "*"));
+                }
+            }
+            return metricIds;
+        }
+
+        private static boolean matches(PerfCounterInfo info, int counterId) {
+            return info != null && info.getKey() == counterId;
+        }
+    }
+
+    private static class VmSamples {
+        final long timestamp;
+        final List<PerfMetricIntSeries> series;
+
+        VmSamples(long timestamp, List<PerfMetricIntSeries> series) {
+            this.timestamp = timestamp;
+            this.series = series;
+        }
+    }
+
+    public Counters getCounters(VmwareContext context) throws Exception {
+        return new Counters(getPerfManager(context).getCounterInfoMapper());
+    }
+
+    /**
+     * @return the sampled series of the given VMs, keyed by the value of their managed object reference. A VM without
+     * samples maps to an empty list.
+     */
+    public Map<String, List<PerfMetricIntSeries>> getSamples(VmwareContext context, Counters counters, List<ManagedObjectReference> vmMors) throws Exception {
+        final long now = System.currentTimeMillis();
+        Map<String, List<PerfMetricIntSeries>> samples = new HashMap<String, List<PerfMetricIntSeries>>();
+
+        List<ManagedObjectReference> vmsToQuery = new ArrayList<ManagedObjectReference>();
+        for (ManagedObjectReference vmMor : vmMors) {
+            VmSamples cached = _samplesByVm.get(vmMor.getValue());
+            if (cached != null && now - cached.timestamp < SAMPLE_REUSE_MILLIS) {
+                samples.put(vmMor.getValue(), cached.series);
+                _reusedVms.incrementAndGet();
+            } else if (!samples.containsKey(vmMor.getValue())) {
+                samples.put(vmMor.getValue(), new ArrayList<PerfMetricIntSeries>());
+                vmsToQuery.add(vmMor);
+            }
+        }
+
+        List<PerfMetricId> metricIds = counters.getMetricIds();
+        if (!vmsToQuery.isEmpty() && !metricIds.isEmpty()) {
+            PerfManagerMO perfMgr = getPerfManager(context);
+            XMLGregorianCalendar startTime = VmwareHelper.getXMLGregorianCalendar(new Date(), INTERVAL_SECONDS);
+            XMLGregorianCalendar endTime = VmwareHelper.getXMLGregorianCalendar(new Date(), 0);
+
+            for (int from = 0; from < vmsToQuery.size(); from += _batchSize) {
+                List<ManagedObjectReference> batch = vmsToQuery.subList(from, Math.min(from + _batchSize, vmsToQuery.size()));
+                queryBatch(perfMgr, batch, metricIds, startTime, endTime, samples);
+                for (ManagedObjectReference vmMor : batch) {
+                    _samplesByVm.put(vmMor.getValue(), new VmSamples(now, samples.get(vmMor.getValue())));
+                }
+            }
+        }
+
+        purgeExpired(now);
+        logSummary(now);
+        return samples;
+    }
+
+    private void logSummary(long now) {
+        long last = _lastSummary.get();
+        if (now - last < SUMMARY_INTERVAL_MILLIS || !_lastSummary.compareAndSet(last, now)) {
+            return;
+        }
+        long batches = getQueriedBatches();
+        s_logger.info("Performance counters queried in " + batches + " batches of up to " + _batchSize + " VMs so far, for " + getQueriedVms() + " VMs in "
+                + getQueryMillis() + " ms" + (batches == 0 ? "" : " (" + getQueryMillis() / batches + " ms per batch)") + ", samples of " + getReusedVms()
+                + " VMs were reused");
+    }
+
+    private void queryBatch(PerfManagerMO perfMgr, List<ManagedObjectReference> batch, List<PerfMetricId> metricIds, XMLGregorianCalendar startTime,
+            XMLGregorianCalendar endTime, Map<String, List<PerfMetricIntSeries>> samples) throws Exception {
+        PerfQuerySpec[] specs = new PerfQuerySpec[batch.size()];
+        for (int i = 0; i < specs.length; i++) {
+            PerfQuerySpec qSpec = new PerfQuerySpec();
+            qSpec.setEntity(batch.get(i));
+            qSpec.setFormat("normal");
+            qSpec.setIntervalId(INTERVAL_SECONDS);
+            qSpec.setStartTime(startTime);
+            qSpec.setEndTime(endTime);
+            qSpec.getMetricId().addAll(metricIds);
+            specs[i] = qSpec;
+        }
+
+        long startTick = System.currentTimeMillis();
+        List<PerfEntityMetricBase> perfValues = perfMgr.queryPerf(specs);
+        long elapsed = System.currentTimeMillis() - startTick;
+
+        _queriedBatches.incrementAndGet();
+        _queriedVms.addAndGet(batch.size());
+        _queryMillis.addAndGet(elapsed);
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Queried performance counters of " + batch.size() + " VMs in " + elapsed + " ms");
+        }
+
+        if (perfValues == null) {
+            return;
+        }
+        for (PerfEntityMetricBase perfValue : perfValues) {
+            if (!(perfValue instanceof PerfEntityMetric) || perfValue.getEntity() == null) {
+                continue;
+            }
+            List<PerfMetricIntSeries> vmSeries = samples.get(perfValue.getEntity().getValue());
+            List<PerfMetricSeries> seriesList = ((PerfEntityMetric)perfValue).getValue();
+            if (vmSeries == null || seriesList == null) {
+                continue;
+            }
+            for (PerfMetricSeries series : seriesList) {
+                if (series instanceof PerfMetricIntSeries) {
+                    vmSeries.add((PerfMetricIntSeries)series);
+                }
+            }
+        }
+    }
+
+    private void purgeExpired(long now) {
+        Iterator<VmSamples> it = _samplesByVm.values().iterator();
+        while (it.hasNext()) {
+            if (now - it.next().timestamp >= SAMPLE_REUSE_MILLIS) {
+                it.remove();
+            }
+        }
+    }
+
+    private static PerfManagerMO getPerfManager(VmwareContext context) {
+        return new PerfManagerMO(context, context.getServiceContent().getPerfManager());
+    }
+
+    public long getQueriedBatches() {
+        return _queriedBatches.get();
+    }
+
+    public long getQueriedVms() {
+        return _queriedVms.get();
+    }
+
+    public long getQueryMillis() {
+        return _queryMillis.get();
+    }
+
+    public long getReusedVms() {
+        return _reusedVms.get();
+    }
+}
@@ -42,7 +42,6 @@ import java.util.TimeZone;
 import java.util.UUID;
 
 import javax.naming.ConfigurationException;
-import javax.xml.datatype.XMLGregorianCalendar;
 
 import org.apache.cloudstack.api.ApiConstants;
 import org.apache.cloudstack.storage.command.CopyCommand;
@@ -289,13 +288,7 @@ import com.vmware.vim25.ManagedObjectReference;
 import com.vmware.vim25.NasDatastoreInfo;
 import com.vmware.vim25.ObjectContent;
 import com.vmware.vim25.OptionValue;
-import com.vmware.vim25.PerfCounterInfo;
-import com.vmware.vim25.PerfEntityMetric;
-import com.vmware.vim25.PerfEntityMetricBase;
-import com.vmware.vim25.PerfMetricId;
 import com.vmware.vim25.PerfMetricIntSeries;
-import com.vmware.vim25.PerfMetricSeries;
-import com.vmware.vim25.PerfQuerySpec;
 import com.vmware.vim25.RuntimeFaultFaultMsg;
 import com.vmware.vim25.ToolsUnavailableFaultMsg;
 import com.vmware.vim25.VAppOvfSectionInfo;
@@ -305,7 +298,6 @@ import com.vmware.vim25.VAppProductSpec;
 import com.vmware.vim25.VAppPropertyInfo;
 import com.vmware.vim25.VAppPropertySpec;
 import com.vmware.vim25.VMwareDVSPortSetting;
-import com.vmware.vim25.VimPortType;
 import com.vmware.vim25.VirtualDevice;
 import com.vmware.vim25.VirtualDeviceBackingInfo;
 import com.vmware.vim25.VirtualDeviceConfigSpec;
@@ -377,6 +369,9 @@ public class VmwareResource implements StoragePoolResource, ServerResource, Vmwa
     protected VmwareTrafficLabel _publicTrafficInfo = new VmwareTrafficLabel(TrafficType.Public);
     protected Map<String, String> _vsmCredentials = null;
     protected int _portsPerDvPortGroup;
+    protected VmwarePerfStatsCollector _perfStatsCollector = new VmwarePerfStatsCollector(VmwarePerfStatsCollector.DEFAULT_BATCH_SIZE);
+    protected boolean _vmInventorySync = true;
+    private VmwareVmInventory _vmInventory;
     protected boolean _fullCloneFlag = false;
     protected boolean _instanceNameFlag = false;
 
@@ -3654,104 +3649,59 @@ public class VmwareResource implements StoragePoolResource, ServerResource, Vmwa
 
     protected Answer execute(GetVmDiskStatsCommand cmd) {
         try {
-            final VmwareHypervisorHost hyperHost = getHyperHost(getServiceContext());
-            final ManagedObjectReference perfMgr = getServiceContext().getServiceContent().getPerfManager();
-            VimPortType service = getServiceContext().getService();
-
-            final int intervalSeconds = 300;
-            final XMLGregorianCalendar startTime = VmwareHelper.getXMLGregorianCalendar(new Date(), intervalSeconds);
-            final XMLGregorianCalendar endTime = VmwareHelper.getXMLGregorianCalendar(new Date(), 0);
-
-            PerfCounterInfo diskReadIOPerfCounterInfo = null;
-            PerfCounterInfo diskWriteIOPerfCounterInfo = null;
-            PerfCounterInfo diskReadKbsPerfCounterInfo = null;
-            PerfCounterInfo diskWriteKbsPerfCounterInfo = null;
-
-            // https://pubs.vmware.com/vsphere-5-5/topic/com.vmware.wssdk.apiref.doc/virtual_disk_counters.html
-            List<PerfCounterInfo> cInfo = getServiceContext().getVimClient().getDynamicProperty(perfMgr, "perfCounter");
-            for (PerfCounterInfo info : cInfo) {
-                if ("virtualdisk".equalsIgnoreCase(info.getGroupInfo().getKey()) && "average".equalsIgnoreCase(info.getRollupType().value())) {
-                    if ("numberReadAveraged".equalsIgnoreCase(info.getNameInfo().getKey())) {
-                        diskReadIOPerfCounterInfo = info;
-                    }
-                    if ("numberWriteAveraged".equalsIgnoreCase(info.getNameInfo().getKey())) {
-                        diskWriteIOPerfCounterInfo = info;
-                    }
-                    if ("read".equalsIgnoreCase(info.getNameInfo().getKey())) {
-                        diskReadKbsPerfCounterInfo = info;
-                    }
-                    if ("write".equalsIgnoreCase(info.getNameInfo().getKey())) {
-                        diskWriteKbsPerfCounterInfo = info;
-                    }
+            final VmwareContext context = getServiceContext();
+            final VmwareHypervisorHost hyperHost = getHyperHost(context);
+            final ManagedObjectReference dcMor = hyperHost.getHyperHostDatacenter();
+            final DatacenterMO dcMo = new DatacenterMO(context, dcMor);
+
+            final Map<String, VirtualMachineMO> vmMos = new HashMap<>();
+            final List<ManagedObjectReference> vmMors = new ArrayList<>();
+            for (final String vmName : cmd.getVmNames()) {
+                final VirtualMachineMO vmMo = dcMo.findVm(vmName);
+                if (vmMo != null) {
+                    vmMos.put(vmName, vmMo);
+                    vmMors.add(vmMo.getMor());
                 }
             }
 
-            final ManagedObjectReference dcMor = hyperHost.getHyperHostDatacenter();
-            final DatacenterMO dcMo = new DatacenterMO(getServiceContext(), dcMor);
+            // the samples are shared with GetVmStatsCommand, a VM asked for by both is queried once
+            final VmwarePerfStatsCollector.Counters counters = _perfStatsCollector.getCounters(context);
+            final Map<String, List<PerfMetricIntSeries>> samples = _perfStatsCollector.getSamples(context, counters, vmMors);
 
             final HashMap<String, List<VmDiskStatsEntry>> vmStatsMap = new HashMap<>();
-            for (final String vmName : cmd.getVmNames()) {
-                final VirtualMachineMO vmMo = dcMo.findVm(vmName);
+            for (final Map.Entry<String, VirtualMachineMO> vmEntry : vmMos.entrySet()) {
+                final String vmName = vmEntry.getKey();
+                final VirtualMachineMO vmMo = vmEntry.getValue();
+                final List<PerfMetricIntSeries> vmSamples = samples.get(vmMo.getMor().getValue());
+                final List<VirtualDevice> devices = vmMo.getAllDeviceList();
                 final List<VmDiskStatsEntry> diskStats = new ArrayList<>();
                 for (final VirtualDisk disk : vmMo.getAllDiskDevice()) {
-                    final String diskBusName = vmMo.getDeviceBusName(vmMo.getAllDeviceList(), disk);
+                    final String diskBusName = vmMo.getDeviceBusName(devices, disk);
                     long readReq = 0;
                     long readBytes = 0;
                     long writeReq = 0;
                     long writeBytes = 0;
 
-                    final ArrayList<PerfMetricId> perfMetricsIds = new ArrayList<PerfMetricId>();
-                    if (diskReadIOPerfCounterInfo != null) {
-                        perfMetricsIds.add(VmwareHelper.createPerfMetricId(diskReadIOPerfCounterInfo, diskBusName));
-                    }
-                    if (diskWriteIOPerfCounterInfo != null) {
-                        perfMetricsIds.add(VmwareHelper.createPerfMetricId(diskWriteIOPerfCounterInfo, diskBusName));
-                    }
-                    if (diskReadKbsPerfCounterInfo != null) {
-                        perfMetricsIds.add(VmwareHelper.createPerfMetricId(diskReadKbsPerfCounterInfo, diskBusName));
-                    }
-                    if (diskWriteKbsPerfCounterInfo != null) {
-                        perfMetricsIds.add(VmwareHelper.createPerfMetricId(diskWriteKbsPerfCounterInfo, diskBusName));
-                    }
-
-                    if (perfMetricsIds.size() > 0) {
-                        final PerfQuerySpec qSpec = new PerfQuerySpec();
-                        qSpec.setEntity(vmMo.getMor());
-                        qSpec.setFormat("normal");
-                        qSpec.setIntervalId(intervalSeconds);
-                        qSpec.setStartTime(startTime);
-                        qSpec.setEndTime(endTime);
-                        qSpec.getMetricId().addAll(perfMetricsIds);
-
-                        for (final PerfEntityMetricBase perfValue : service.queryPerf(perfMgr, Collections.singletonList(qSpec))) {
-                            if (!(perfValue instanceof PerfEntityMetric)) {
-                                continue;
-                            }
-                            final List<PerfMetricSeries> values = ((PerfEntityMetric) perfValue).getValue();
-                            if (values == null || values.isEmpty()) {
-                                continue;
+                    for (final PerfMetricIntSeries value : vmSamples) {
+                        if (!diskBusName.equals(value.getId().getInstance())) {
+                            continue;
+                        }
+                        final List<Long> perfStats = value.getValue();
+                        if (perfStats != null && perfStats.size() > 0) {
+                            long sum = 0;
+                            for (long val : perfStats) {
+                                sum += val;
                             }
-                            for (final PerfMetricSeries value : values) {
-                                if (!(value instanceof PerfMetricIntSeries) || !value.getId().getInstance().equals(diskBusName)) {
-                                    continue;
-                                }
-                                final List<Long> perfStats = ((PerfMetricIntSeries) value).getValue();
-                                if (perfStats.size() > 0) {
-                                    long sum = 0;
-                                    for (long val : perfStats) {
-                                        sum += val;
-                                    }
-                                    long avg = sum / perfStats.size();
-                                    if (value.getId().getCounterId() == diskReadIOPerfCounterInfo.getKey()) {
-                                        readReq = avg;
-                                    } else if (value.getId().getCounterId() == diskWriteIOPerfCounterInfo.getKey()) {
-                                        writeReq = avg;
-                                    } else if (value.getId().getCounterId() == diskReadKbsPerfCounterInfo.getKey()) {
-                                        readBytes = avg * 1024;
-                                    } else if (value.getId().getCounterId() == diskWriteKbsPerfCounterInfo.getKey()) {
-                                        writeBytes = avg * 1024;
-                                    }
-                                }
+                            long avg = sum / perfStats.size();
+                            final int counterId = value.getId().getCounterId();
+                            if (counters.isDiskReadIOs(counterId)) {
+                                readReq = avg;
+                            } else if (counters.isDiskWriteIOs(counterId)) {
+                                writeReq = avg;
+                            } else if (counters.isDiskReadKbs(counterId)) {
+                                readBytes = avg * 1024;
+                            } else if (counters.isDiskWriteKbs(counterId)) {
+                                writeBytes = avg * 1024;
                             }
                         }
                     }
@@ -4028,6 +3978,12 @@ public class VmwareResource implements StoragePoolResource, ServerResource, Vmwa
         VmwareHypervisorHost hyperHost = getHyperHost(context);
 
         try {
+            Map<String, VirtualMachinePowerState> inventoryPowerStates = getInventoryVmPowerStates(hyperHost);
+            if (inventoryPowerStates != null && inventoryPowerStates.containsKey(vmName)) {
+                powerState = convertPowerState(inventoryPowerStates.get(vmName));
+                return new CheckVirtualMachineAnswer(cmd, powerState, vncPort);
+            }
+
             VirtualMachineMO vmMo = hyperHost.findVmOnHyperHost(vmName);
             if (vmMo != null) {
                 powerState = getVmPowerState(vmMo);
@@ -6092,9 +6048,34 @@ public class VmwareResource implements StoragePoolResource, ServerResource, Vmwa
         return VirtualMachineGuestOsIdentifier.OTHER_GUEST;
     }
 
+    /**
+     * @return the power states of the VMs on the host kept by the inventory of its cluster, or null if the inventory is
+     * disabled or not in sync with vCenter
+     */
+    private synchronized Map<String, VirtualMachinePowerState> getInventoryVmPowerStates(VmwareHypervisorHost hyperHost) throws Exception {
+        if (!_vmInventorySync || !(hyperHost instanceof HostMO)) {
+            return null;
+        }
+        if (_vmInventory == null) {
+            int key = ((HostMO) hyperHost).getCustomFieldKey("VirtualMachine", CustomFieldConstants.CLOUD_VM_INTERNAL_NAME);
+            _vmInventory = VmwareVmInventory.acquire(_vCenterAddress, _username, _password, ((HostMO) hyperHost).getParentMor(), "value[" + key + "]");
+        }
+        return _vmInventory.getVmPowerStates(hyperHost.getMor());
+    }
+
     private HashMap<String, HostVmStateReportEntry> getHostVmStateReport() throws Exception {
         VmwareHypervisorHost hyperHost = getHyperHost(getServiceContext());
 
+        Map<String, VirtualMachinePowerState> inventoryPowerStates = getInventoryVmPowerStates(hyperHost);
+        if (inventoryPowerStates != null) {
+            String hostName = hyperHost.getHyperHostName();
+            HashMap<String, HostVmStateReportEntry> newStates = new HashMap<String, HostVmStateReportEntry>();
+            for (Map.Entry<String, VirtualMachinePowerState> entry : inventoryPowerStates.entrySet()) {
+                newStates.put(entry.getKey(), new HostVmStateReportEntry(convertPowerState(entry.getValue()), hostName));
+            }
+            return newStates;
+        }
+
         int key = ((HostMO) hyperHost).getCustomFieldKey("VirtualMachine", CustomFieldConstants.CLOUD_VM_INTERNAL_NAME);
         if (key == 0) {
             s_logger.warn("Custom field " + CustomFieldConstants.CLOUD_VM_INTERNAL_NAME + " is not registered ?!");
@@ -6147,6 +6128,15 @@ public class VmwareResource implements StoragePoolResource, ServerResource, Vmwa
     private HashMap<String, PowerState> getVmStates() throws Exception {
         VmwareHypervisorHost hyperHost = getHyperHost(getServiceContext());
 
+        Map<String, VirtualMachinePowerState> inventoryPowerStates = getInventoryVmPowerStates(hyperHost);
+        if (inventoryPowerStates != null) {
+            HashMap<String, PowerState> newStates = new HashMap<String, PowerState>();
+            for (Map.Entry<String, VirtualMachinePowerState> entry : inventoryPowerStates.entrySet()) {
+                newStates.put(entry.getKey(), convertPowerState(entry.getValue()));
+            }
+            return newStates;
+        }
+
         int key = ((HostMO) hyperHost).getCustomFieldKey("VirtualMachine", CustomFieldConstants.CLOUD_VM_INTERNAL_NAME);
         if (key == 0) {
             s_logger.warn("Custom field " + CustomFieldConstants.CLOUD_VM_INTERNAL_NAME + " is not registered ?!");
@@ -6197,47 +6187,9 @@ public class VmwareResource implements StoragePoolResource, ServerResource, Vmwa
     }
 
     private HashMap<String, VmStatsEntry> getVmStats(List<String> vmNames) throws Exception {
-        VmwareHypervisorHost hyperHost = getHyperHost(getServiceContext());
+        VmwareContext context = getServiceContext();
+        VmwareHypervisorHost hyperHost = getHyperHost(context);
         HashMap<String, VmStatsEntry> vmResponseMap = new HashMap<String, VmStatsEntry>();
-        ManagedObjectReference perfMgr = getServiceContext().getServiceContent().getPerfManager();
-        VimPortType service = getServiceContext().getService();
-
-        PerfCounterInfo rxPerfCounterInfo = null;
-        PerfCounterInfo txPerfCounterInfo = null;
-        PerfCounterInfo diskReadIOPerfCounterInfo = null;
-        PerfCounterInfo diskWriteIOPerfCounterInfo = null;
-        PerfCounterInfo diskReadKbsPerfCounterInfo = null;
-        PerfCounterInfo diskWriteKbsPerfCounterInfo = null;
-
-        final int intervalSeconds = 300;
-        final XMLGregorianCalendar startTime = VmwareHelper.getXMLGregorianCalendar(new Date(), intervalSeconds);
-        final XMLGregorianCalendar endTime = VmwareHelper.getXMLGregorianCalendar(new Date(), 0);
-
-        List<PerfCounterInfo> cInfo = getServiceContext().getVimClient().getDynamicProperty(perfMgr, "perfCounter");
-        for (PerfCounterInfo info : cInfo) {
-            if ("net".equalsIgnoreCase(info.getGroupInfo().getKey()) && "average".equalsIgnoreCase(info.getRollupType().value())) {
-                if ("transmitted".equalsIgnoreCase(info.getNameInfo().getKey())) {
-                    txPerfCounterInfo = info;
-                }
-                if ("received".equalsIgnoreCase(info.getNameInfo().getKey())) {
-                    rxPerfCounterInfo = info;
-                }
-            }
-            if ("virtualdisk".equalsIgnoreCase(info.getGroupInfo().getKey())) {
-                if ("numberReadAveraged".equalsIgnoreCase(info.getNameInfo().getKey())) {
-                    diskReadIOPerfCounterInfo = info;
-                }
-                if ("numberWriteAveraged".equalsIgnoreCase(info.getNameInfo().getKey())) {
-                    diskWriteIOPerfCounterInfo = info;
-                }
-                if ("read".equalsIgnoreCase(info.getNameInfo().getKey())) {
-                    diskReadKbsPerfCounterInfo = info;
-                }
-                if ("write".equalsIgnoreCase(info.getNameInfo().getKey())) {
-                    diskWriteKbsPerfCounterInfo = info;
-                }
-            }
-        }
 
         int key = ((HostMO) hyperHost).getCustomFieldKey("VirtualMachine", CustomFieldConstants.CLOUD_VM_INTERNAL_NAME);
         if (key == 0) {
@@ -6256,6 +6208,7 @@ public class VmwareResource implements StoragePoolResource, ServerResource, Vmwa
                 "name", numCpuStr, cpuUseStr, guestMemUseStr, memLimitStr, memMbStr, allocatedCpuStr, instanceNameCustomField
         });
 
+        Map<String, ManagedObjectReference> vmMorByName = new HashMap<String, ManagedObjectReference>();
         if (ocs != null && ocs.length > 0) {
             for (ObjectContent oc : ocs) {
                 List<DynamicProperty> objProps = oc.getPropSet();
@@ -6301,92 +6254,66 @@ public class VmwareResource implements StoragePoolResource, ServerResource, Vmwa
                         continue;
                     }
 
-                    ManagedObjectReference vmMor = hyperHost.findVmOnHyperHost(name).getMor();
-                    assert (vmMor != null);
-
-                    double networkReadKBs = 0;
-                    double networkWriteKBs = 0;
-                    double diskReadIops = 0;
-                    double diskWriteIops = 0;
-                    double diskReadKbs = 0;
-                    double diskWriteKbs = 0;
-
-                    final ArrayList<PerfMetricId> perfMetricsIds = new ArrayList<PerfMetricId>();
-                    if (rxPerfCounterInfo != null) {
-                        perfMetricsIds.add(VmwareHelper.createPerfMetricId(rxPerfCounterInfo, ""));
-                    }
-                    if (txPerfCounterInfo != null) {
-                        perfMetricsIds.add(VmwareHelper.createPerfMetricId(txPerfCounterInfo, ""));
-                    }
-                    if (diskReadIOPerfCounterInfo != null) {
-                        perfMetricsIds.add(VmwareHelper.createPerfMetricId(diskReadIOPerfCounterInfo, "*"));
-                    }
-                    if (diskWriteIOPerfCounterInfo != null) {
-                        perfMetricsIds.add(VmwareHelper.createPerfMetricId(diskWriteIOPerfCounterInfo, "*"));
-                    }
-                    if (diskReadKbsPerfCounterInfo != null) {
-                        perfMetricsIds.add(VmwareHelper.createPerfMetricId(diskReadKbsPerfCounterInfo, ""));
-                    }
-                    if (diskWriteKbsPerfCounterInfo != null) {
-                        perfMetricsIds.add(VmwareHelper.createPerfMetricId(diskWriteKbsPerfCounterInfo, ""));
-                    }
-
-                    if (perfMetricsIds.size() > 0) {
-                        final PerfQuerySpec qSpec = new PerfQuerySpec();
-                        qSpec.setEntity(vmMor);
-                        qSpec.setFormat("normal");
-                        qSpec.setIntervalId(intervalSeconds);
-                        qSpec.setStartTime(startTime);
-                        qSpec.setEndTime(endTime);
-                        qSpec.getMetricId().addAll(perfMetricsIds);
-                        final List<PerfEntityMetricBase> perfValues = service.queryPerf(perfMgr, Collections.singletonList(qSpec));
-                        for (final PerfEntityMetricBase perfValue : perfValues) {
-                            if (!(perfValue instanceof PerfEntityMetric)) {
-                                continue;
-                            }
-                            final List<PerfMetricSeries> seriesList = ((PerfEntityMetric) perfValue).getValue();
-                            for (final PerfMetricSeries series : seriesList) {
-                                if (!(series instanceof PerfMetricIntSeries)) {
-                                    continue;
-                                }
-                                final List<Long> values = ((PerfMetricIntSeries) series).getValue();
-                                double sum = 0;
-                                for (final Long value : values) {
-                                    sum += value;
-                                }
-                                double avg = sum / values.size();
-                                if (series.getId().getCounterId() == rxPerfCounterInfo.getKey()) {
-                                    networkReadKBs = avg;
-                                }
-                                if (series.getId().getCounterId() == txPerfCounterInfo.getKey()) {
-                                    networkWriteKBs = avg;
-                                }
-                                if (series.getId().getCounterId() == diskReadIOPerfCounterInfo.getKey()) {
-                                    diskReadIops += avg;
-                                }
-                                if (series.getId().getCounterId() == diskWriteIOPerfCounterInfo.getKey()) {
-                                    diskWriteIops += avg;
-                                }
-                                if (series.getId().getCounterId() == diskReadKbsPerfCounterInfo.getKey()) {
-                                    diskReadKbs = avg;
-                                }
-                                if (series.getId().getCounterId() == diskWriteKbsPerfCounterInfo.getKey()) {
-                                    diskWriteKbs = avg;
-                                }
-                            }
-                        }
-                    }
-
+                    // the network and disk stats are filled in below, from one set of queries for all VMs
                     final VmStatsEntry vmStats = new VmStatsEntry(NumberUtils.toDouble(memkb) * 1024, NumberUtils.toDouble(guestMemusage) * 1024, NumberUtils.toDouble(memlimit) * 1024,
-                            maxCpuUsage, networkReadKBs, networkWriteKBs, NumberUtils.toInt(numberCPUs), "vm");
-                    vmStats.setDiskReadIOs(diskReadIops);
-                    vmStats.setDiskWriteIOs(diskWriteIops);
-                    vmStats.setDiskReadKBs(diskReadKbs);
-                    vmStats.setDiskWriteKBs(diskWriteKbs);
+                            maxCpuUsage, 0, 0, NumberUtils.toInt(numberCPUs), "vm");
                     vmResponseMap.put(name, vmStats);
+                    vmMorByName.put(name, oc.getObj());
+                }
+            }
+        }
 
+        if (vmMorByName.isEmpty()) {
+            return vmResponseMap;
+        }
+
+        VmwarePerfStatsCollector.Counters counters = _perfStatsCollector.getCounters(context);
+        Map<String, List<PerfMetricIntSeries>> samples = _perfStatsCollector.getSamples(context, counters, new ArrayList<ManagedObjectReference>(vmMorByName.values()));
+        for (Map.Entry<String, ManagedObjectReference> entry : vmMorByName.entrySet()) {
+            double networkReadKBs = 0;
+            double networkWriteKBs = 0;
+            double diskReadIops = 0;
+            double diskWriteIops = 0;
+            double diskReadKbs = 0;
+            double diskWriteKbs = 0;
+
+            for (final PerfMetricIntSeries series : samples.get(entry.getValue().getValue())) {
+                final List<Long> values = series.getValue();
+                if (values == null || values.isEmpty()) {
+                    continue;
+                }
+                double sum = 0;
+                for (final Long value : values) {
+                    sum += value;
+                }
+                double avg = sum / values.size();
+                final int counterId = series.getId().getCounterId();
+                // the IO counters add up all disks, the others report the aggregate instance of the VM
+                final boolean aggregate = StringUtils.isEmpty(series.getId().getInstance());
+                if (counters.isDiskReadIOs(counterId)) {
+                    diskReadIops += avg;
+                } else if (counters.isDiskWriteIOs(counterId)) {
+                    diskWriteIops += avg;
+                } else if (!aggregate) {
+                    continue;
+                } else if (counters.isNetworkRx(counterId)) {
+                    networkReadKBs = avg;
+                } else if (counters.isNetworkTx(counterId)) {
+                    networkWriteKBs = avg;
+                } else if (counters.isDiskReadKbs(counterId)) {
+                    diskReadKbs = avg;
+                } else if (counters.isDiskWriteKbs(counterId)) {
+                    diskWriteKbs = avg;
                 }
             }
+
+            final VmStatsEntry vmStats = vmResponseMap.get(entry.getKey());
+            vmStats.setNetworkReadKBs(networkReadKBs);
+            vmStats.setNetworkWriteKBs(networkWriteKBs);
+            vmStats.setDiskReadIOs(diskReadIops);
+            vmStats.setDiskWriteIOs(diskWriteIops);
+            vmStats.setDiskReadKBs(diskReadKbs);
+            vmStats.setDiskWriteKBs(diskWriteKbs);
         }
         return vmResponseMap;
     }
@@ -6592,6 +6519,14 @@ public class VmwareResource implements StoragePoolResource, ServerResource, Vmwa
             if (intObj != null)
                 _portsPerDvPortGroup = intObj.intValue();
 
+            intObj = (Integer) params.get("vmware.perf.query.batch.size");
+            if (intObj != null)
+                _perfStatsCollector = new VmwarePerfStatsCollector(intObj.intValue());
+
+            Boolean vmInventorySync = (Boolean) params.get("vmware.vm.inventory.sync");
+            if (vmInventorySync != null)
+                _vmInventorySync = vmInventorySync.booleanValue();
+
             s_logger.info("VmwareResource network configuration info." + " private traffic over vSwitch: " + _privateNetworkVSwitchName + ", public traffic over "
                     + _publicTrafficInfo.getVirtualSwitchType() + " : " + _publicTrafficInfo.getVirtualSwitchName() + ", guest traffic over "
                     + _guestTrafficInfo.getVirtualSwitchType() + " : " + _guestTrafficInfo.getVirtualSwitchName());
@@ -6646,7 +6581,11 @@ public class VmwareResource implements StoragePoolResource, ServerResource, Vmwa
     }
 
     @Override
-    public boolean stop() {
+    public synchronized boolean stop() {
+        if (_vmInventory != null) {
+            VmwareVmInventory.release(_vmInventory);
+            _vmInventory = null;
+        }
         return true;
     }
 
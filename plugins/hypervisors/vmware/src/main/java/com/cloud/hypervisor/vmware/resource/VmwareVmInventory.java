@@ -0,0 +1,340 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.hypervisor.vmware.resource;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+import org.w3c.dom.Element;
+
+import com.cloud.hypervisor.vmware.util.VmwareContext;
+import com.vmware.vim25.CustomFieldStringValue;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectSpec;
+import com.vmware.vim25.ObjectUpdate;
+import com.vmware.vim25.ObjectUpdateKind;
+import com.vmware.vim25.PropertyChange;
+import com.vmware.vim25.PropertyChangeOp;
+import com.vmware.vim25.PropertyFilterSpec;
+import com.vmware.vim25.PropertyFilterUpdate;
+import com.vmware.vim25.PropertySpec;
+import com.vmware.vim25.TraversalSpec;
+import com.vmware.vim25.UpdateSet;
+import com.vmware.vim25.VimPortType;
+import com.vmware.vim25.VirtualMachinePowerState;
+import com.vmware.vim25.WaitOptions;
+
+/**
+ * Keeps the name, power state and host of the VMs of a cluster (or of a standalone host) in memory. A dedicated vCenter
+ * session holds a PropertyCollector filter on the VMs of the compute resource and applies the changes it reports, so
+ * the host resources of the cluster can report their VM states without enumerating all VMs on every ping.
+ *
+ * The inventory is shared by the host resources of the same compute resource and stopped when the last one releases it.
+ * While it is not in sync with vCenter (starting up or reconnecting) it answers null and callers query vCenter directly.
+ */
+public class VmwareVmInventory {
+    private static final Logger s_logger = Logger.getLogger(VmwareVmInventory.class);
+
+    private static final int WAIT_SECONDS = 60;
+    private static final long RETRY_INTERVAL_MS = 30 * 1000L;
+
+    private static final String NAME = "name";
+    private static final String POWER_STATE = "runtime.powerState";
+    private static final String HOST = "runtime.host";
+    private static final String TEMPLATE = "config.template";
+
+    private static final Map<String, VmwareVmInventory> s_inventories = new HashMap<String, VmwareVmInventory>();
+
+    private final String _key;
+    private final String _vCenterAddress;
+    private final String _username;
+    private final String _password;
+    private final ManagedObjectReference _computeResourceMor;
+    private final String _instanceNameCustomField;
+
+    private final Map<String, VmEntry> _vms = new ConcurrentHashMap<String, VmEntry>();
+    private volatile boolean _inSync = false;
+    private volatile boolean _stopped = false;
+    private int _references = 0;
+    private Thread _watcher;
+
+    /**
+     * Changes are applied to a copy that replaces the entry, so that readers never see a VM half updated.
+     */
+    private static class VmEntry {
+        String name;
+        String internalName;
+        VirtualMachinePowerState powerState = VirtualMachinePowerState.POWERED_OFF;
+        String hostMorValue;
+        boolean template;
+
+        VmEntry() {
+        }
+
+        VmEntry(VmEntry other) {
+            name = other.name;
+            internalName = other.internalName;
+            powerState = other.powerState;
+            hostMorValue = other.hostMorValue;
+            template = other.template;
+        }
+    }
+
+    VmwareVmInventory(String key, String vCenterAddress, String username, String password, ManagedObjectReference computeResourceMor, String instanceNameCustomField) {
+        _key = key;
+        _vCenterAddress = vCenterAddress;
+        _username = username;
+        _password = password;
+        _computeResourceMor = computeResourceMor;
+        _instanceNameCustomField = instanceNameCustomField;
+    }
+
+    /**
+     * Returns the inventory of the compute resource, starting it if no other host resource uses it yet.
+     *
+     * @param instanceNameCustomField the property path of the custom field holding the internal name of the VM, e.g. value[101]
+     */
+    public static synchronized VmwareVmInventory acquire(String vCenterAddress, String username, String password, ManagedObjectReference computeResourceMor,
+            String instanceNameCustomField) {
+        String key = vCenterAddress + "-" + computeResourceMor.getValue() + "-" + instanceNameCustomField;
+        VmwareVmInventory inventory = s_inventories.get(key);
+        if (inventory == null) {
+            inventory = new VmwareVmInventory(key, vCenterAddress, username, password, computeResourceMor, instanceNameCustomField);
+            inventory.start();
+            s_inventories.put(key, inventory);
+        }
+        inventory._references++;
+        return inventory;
+    }
+
+    public static synchronized void release(VmwareVmInventory inventory) {
+        if (--inventory._references <= 0) {
+            s_inventories.remove(inventory._key);
+            inventory._stopped = true;
+            inventory._watcher.interrupt();
+        }
+    }
+
+    /**
+     * @return the power states of the VMs running on the host by their internal name, leaving out templates, or null if
+     * the inventory is not in sync with vCenter
+     */
+    public Map<String, VirtualMachinePowerState> getVmPowerStates(ManagedObjectReference hostMor) {
+        if (!_inSync) {
+            return null;
+        }
+        Map<String, VirtualMachinePowerState> powerStates = new HashMap<String, VirtualMachinePowerState>();
+        for (VmEntry vm : _vms.values()) {
+            if (vm.template || !hostMor.getValue().equals(vm.hostMorValue)) {
+                continue;
+            }
+            String name = vm.internalName != null ? vm.internalName : vm.name;
+            if (name != null) {
+                powerStates.put(name, vm.powerState);
+            }
+        }
+        return powerStates;
+    }
+
+    public boolean isInSync() {
+        return _inSync;
+    }
+
+    private void start() {
+        _watcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                watch();
+            }
+        }, "VmwareVmInventory-" + _vCenterAddress + "-" + _computeResourceMor.getValue());
+        _watcher.setDaemon(true);
+        _watcher.start();
+    }
+
+    private void watch() {
+        while (!_stopped) {
+            VmwareContext context = null;
+            ManagedObjectReference collector = null;
+            try {
+                // a session of its own, waitForUpdatesEx blocks it for up to WAIT_SECONDS
+                context = VmwareContextFactory.create(_vCenterAddress, _username, _password);
+                VimPortType service = context.getService();
+                collector = service.createPropertyCollector(context.getPropertyCollector());
+                service.createFilter(collector, createFilterSpec(), true);
+
+                WaitOptions options = new WaitOptions();
+                options.setMaxWaitSeconds(WAIT_SECONDS);
+                String version = "";
+                _vms.clear();
+                while (!_stopped) {
+                    UpdateSet updateSet = service.waitForUpdatesEx(collector, version, options);
+                    if (updateSet == null) {
+                        // nothing changed within WAIT_SECONDS
+                        continue;
+                    }
+                    version = updateSet.getVersion();
+                    apply(updateSet);
+                }
+            } catch (Throwable e) {
+                _inSync = false;
+                if (!_stopped) {
+                    s_logger.warn("VM inventory of " + _computeResourceMor.getValue() + " on " + _vCenterAddress + " lost sync, retrying in " + RETRY_INTERVAL_MS / 1000
+                            + " seconds: " + e.getMessage());
+                }
+            } finally {
+                _inSync = false;
+                if (context != null) {
+                    if (collector != null) {
+                        try {
+                            context.getService().destroyPropertyCollector(collector);
+                        } catch (Throwable e) {
+                            s_logger.debug("Unable to destroy the property collector of the VM inventory: " + e.getMessage());
+                        }
+                    }
+                    context.close();
+                }
+            }
+
+            if (!_stopped) {
+                try {
+                    Thread.sleep(RETRY_INTERVAL_MS);
+                } catch (InterruptedException e) {
+                    s_logger.debug("VM inventory watcher interrupted");
+                }
+            }
+        }
+        _vms.clear();
+    }
+
+    private PropertyFilterSpec createFilterSpec() {
+        PropertySpec pSpec = new PropertySpec();
+        pSpec.setType("VirtualMachine");
+        pSpec.getPathSet().add(NAME);
+        pSpec.getPathSet().add(POWER_STATE);
+        pSpec.getPathSet().add(HOST);
+        pSpec.getPathSet().add(TEMPLATE);
+        pSpec.getPathSet().add(_instanceNameCustomField);
+
+        TraversalSpec host2VmTraversal = new TraversalSpec();
+        host2VmTraversal.setType("HostSystem");
+        host2VmTraversal.setPath("vm");
+        host2VmTraversal.setName("host2VmTraversal");
+
+        // ClusterComputeResource is a ComputeResource, so this covers clusters and standalone hosts
+        TraversalSpec computeResource2HostTraversal = new TraversalSpec();
+        computeResource2HostTraversal.setType("ComputeResource");
+        computeResource2HostTraversal.setPath("host");
+        computeResource2HostTraversal.setName("computeResource2HostTraversal");
+        computeResource2HostTraversal.getSelectSet().add(host2VmTraversal);
+
+        ObjectSpec oSpec = new ObjectSpec();
+        oSpec.setObj(_computeResourceMor);
+        oSpec.setSkip(Boolean.TRUE);
+        oSpec.getSelectSet().add(computeResource2HostTraversal);
+
+        PropertyFilterSpec pfSpec = new PropertyFilterSpec();
+        pfSpec.getPropSet().add(pSpec);
+        pfSpec.getObjectSet().add(oSpec);
+        return pfSpec;
+    }
+
+    /**
+     * Applies the changes reported by vCenter. The inventory is in sync once the initial contents of the filter have
+     * been received, which may take several truncated update sets.
+     */
+    void apply(UpdateSet updateSet) {
+        int changed = 0;
+        List<PropertyFilterUpdate> filterUpdates = updateSet.getFilterSet();
+        if (filterUpdates != null) {
+            changed = apply(filterUpdates);
+        }
+        if (!_inSync && !Boolean.TRUE.equals(updateSet.isTruncated())) {
+            _inSync = true;
+            s_logger.info("VM inventory of " + _computeResourceMor.getValue() + " on " + _vCenterAddress + " is in sync, " + _vms.size() + " VMs");
+        } else if (s_logger.isTraceEnabled()) {
+            s_logger.trace("Applied " + changed + " VM changes to the inventory of " + _computeResourceMor.getValue());
+        }
+    }
+
+    /**
+     * @return the number of VMs that changed
+     */
+    private int apply(List<PropertyFilterUpdate> filterUpdates) {
+        int changed = 0;
+        for (PropertyFilterUpdate filterUpdate : filterUpdates) {
+            for (ObjectUpdate objectUpdate : filterUpdate.getObjectSet()) {
+                if (!"VirtualMachine".equals(objectUpdate.getObj().getType())) {
+                    continue;
+                }
+                String morValue = objectUpdate.getObj().getValue();
+                changed++;
+                if (objectUpdate.getKind() == ObjectUpdateKind.LEAVE) {
+                    _vms.remove(morValue);
+                    continue;
+                }
+                VmEntry previous = _vms.get(morValue);
+                VmEntry vm = previous != null ? new VmEntry(previous) : new VmEntry();
+                for (PropertyChange change : objectUpdate.getChangeSet()) {
+                    apply(morValue, vm, change);
+                }
+                _vms.put(morValue, vm);
+            }
+        }
+        return changed;
+    }
+
+    private void apply(String morValue, VmEntry vm, PropertyChange change) {
+        boolean removed = change.getOp() == PropertyChangeOp.REMOVE || change.getOp() == PropertyChangeOp.INDIRECT_REMOVE;
+        Object val = removed ? null : change.getVal();
+        String name = change.getName();
+        if (NAME.equals(name)) {
+            vm.name = (String)val;
+        } else if (POWER_STATE.equals(name)) {
+            vm.powerState = toPowerState(morValue, vm.powerState, val);
+        } else if (HOST.equals(name)) {
+            vm.hostMorValue = val != null ? ((ManagedObjectReference)val).getValue() : null;
+        } else if (TEMPLATE.equals(name)) {
+            vm.template = val != null && val.toString().equalsIgnoreCase("true");
+        } else if (name.contains(_instanceNameCustomField)) {
+            vm.internalName = val instanceof CustomFieldStringValue ? ((CustomFieldStringValue)val).getValue() : null;
+        }
+    }
+
+    /**
+     * @return the power state reported by vCenter, or the previous one if it is not a known power state
+     */
+    private static VirtualMachinePowerState toPowerState(String morValue, VirtualMachinePowerState previous, Object val) {
+        if (val instanceof VirtualMachinePowerState) {
+            return (VirtualMachinePowerState)val;
+        }
+        // JAX-WS may leave enum values of property changes as DOM nodes
+        if (val instanceof Element && ((Element)val).getFirstChild() != null) {
+            String value = ((Element)val).getFirstChild().getTextContent();
+            try {
+                return VirtualMachinePowerState.fromValue(value);
+            } catch (IllegalArgumentException e) {
+                s_logger.warn("Keeping power state " + previous + " of VM " + morValue + ", vCenter reported unknown power state " + value);
+                return previous;
+            }
+        }
+        s_logger.warn("Keeping power state " + previous + " of VM " + morValue + ", vCenter reported power state " + val);
+        return previous;
+    }
+}
@@ -0,0 +1,193 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.hypervisor.vmware.resource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.cloud.hypervisor.vmware.util.VmwareClient;
+import com.cloud.hypervisor.vmware.util.VmwareContext;
+import com.vmware.vim25.ElementDescription;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.PerfCounterInfo;
+import com.vmware.vim25.PerfEntityMetric;
+import com.vmware.vim25.PerfEntityMetricBase;
+import com.vmware.vim25.PerfMetricId;
+import com.vmware.vim25.PerfMetricIntSeries;
+import com.vmware.vim25.PerfQuerySpec;
+import com.vmware.vim25.PerfSummaryType;
+import com.vmware.vim25.ServiceContent;
+import com.vmware.vim25.VimPortType;
+
+public class VmwarePerfStatsCollectorTest {
+    private static final int NETWORK_RX_KEY = 1;
+    private static final int DISK_READ_IOS_KEY = 2;
+
+    private VmwareContext context;
+    private VmwareClient vimClient;
+    private VimPortType service;
+    private final ManagedObjectReference perfMgrMor = createMor("PerformanceManager", "PerfMgr");
+
+    @Before
+    public void setUp() throws Exception {
+        context = mock(VmwareContext.class);
+        vimClient = mock(VmwareClient.class);
+        service = mock(VimPortType.class);
+        ServiceContent serviceContent = mock(ServiceContent.class);
+        when(context.getVimClient()).thenReturn(vimClient);
+        when(context.getService()).thenReturn(service);
+        when(context.getServiceContent()).thenReturn(serviceContent);
+        when(serviceContent.getPerfManager()).thenReturn(perfMgrMor);
+
+        // the stock objects of a real context, so that the counter catalog is kept like in a session
+        final Map<String, Object> stockObjects = new HashMap<String, Object>();
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                stockObjects.put((String)invocation.getArgument(0), invocation.getArgument(1));
+                return null;
+            }
+        }).when(context).registerStockObject(anyString(), any());
+        when(context.getStockObject(anyString())).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                return stockObjects.get((String)invocation.getArgument(0));
+            }
+        });
+
+        List<PerfCounterInfo> catalog = Arrays.asList(createCounter(NETWORK_RX_KEY, "net", "received"), createCounter(DISK_READ_IOS_KEY, "virtualDisk", "numberReadAveraged"),
+                createCounter(3, "cpu", "usage"));
+        when(vimClient.getDynamicProperty(perfMgrMor, "perfCounter")).thenReturn(catalog);
+
+        // every VM reports 10 KBps received
+        when(service.queryPerf(eq(perfMgrMor), anyList())).thenAnswer(new Answer<List<PerfEntityMetricBase>>() {
+            @Override
+            public List<PerfEntityMetricBase> answer(InvocationOnMock invocation) {
+                List<PerfQuerySpec> specs = invocation.getArgument(1);
+                List<PerfEntityMetricBase> values = new ArrayList<PerfEntityMetricBase>();
+                for (PerfQuerySpec spec : specs) {
+                    PerfEntityMetric metric = new PerfEntityMetric();
+                    metric.setEntity(spec.getEntity());
+                    PerfMetricIntSeries series = new PerfMetricIntSeries();
+                    PerfMetricId id = new PerfMetricId();
+                    id.setCounterId(NETWORK_RX_KEY);
+                    id.setInstance("");
+                    series.setId(id);
+                    series.getValue().add(10L);
+                    metric.getValue().add(series);
+                    values.add(metric);
+                }
+                return values;
+            }
+        });
+    }
+
+    private static ManagedObjectReference createMor(String type, String value) {
+        ManagedObjectReference mor = new ManagedObjectReference();
+        mor.setType(type);
+        mor.setValue(value);
+        return mor;
+    }
+
+    private static PerfCounterInfo createCounter(int key, String group, String name) {
+        PerfCounterInfo info = new PerfCounterInfo();
+        info.setKey(key);
+        ElementDescription groupInfo = new ElementDescription();
+        groupInfo.setKey(group);
+        info.setGroupInfo(groupInfo);
+        ElementDescription nameInfo = new ElementDescription();
+        nameInfo.setKey(name);
+        info.setNameInfo(nameInfo);
+        info.setRollupType(PerfSummaryType.AVERAGE);
+        return info;
+    }
+
+    private static List<ManagedObjectReference> createVms(int count) {
+        List<ManagedObjectReference> vms = new ArrayList<ManagedObjectReference>();
+        for (int i = 0; i < count; i++) {
+            vms.add(createMor("VirtualMachine", "vm-" + i));
+        }
+        return vms;
+    }
+
+    @Test
+    public void testCounterCatalogIsFetchedOncePerSession() throws Exception {
+        VmwarePerfStatsCollector collector = new VmwarePerfStatsCollector(10);
+        collector.getCounters(context);
+        VmwarePerfStatsCollector.Counters counters = collector.getCounters(context);
+
+        verify(vimClient, times(1)).getDynamicProperty(perfMgrMor, "perfCounter");
+        assertTrue(counters.isNetworkRx(NETWORK_RX_KEY));
+        assertTrue(counters.isDiskReadIOs(DISK_READ_IOS_KEY));
+        assertEquals(2, counters.getMetricIds().size());
+    }
+
+    @Test
+    public void testVmsAreQueriedInBatches() throws Exception {
+        VmwarePerfStatsCollector collector = new VmwarePerfStatsCollector(10);
+        List<ManagedObjectReference> vms = createVms(25);
+
+        Map<String, List<PerfMetricIntSeries>> samples = collector.getSamples(context, collector.getCounters(context), vms);
+
+        verify(service, times(3)).queryPerf(eq(perfMgrMor), anyList());
+        assertEquals(3, collector.getQueriedBatches());
+        assertEquals(25, collector.getQueriedVms());
+        assertEquals(25, samples.size());
+        for (ManagedObjectReference vm : vms) {
+            assertEquals(1, samples.get(vm.getValue()).size());
+            assertEquals(Long.valueOf(10), samples.get(vm.getValue()).get(0).getValue().get(0));
+        }
+    }
+
+    @Test
+    public void testSamplesAreReusedByTheNextCommand() throws Exception {
+        VmwarePerfStatsCollector collector = new VmwarePerfStatsCollector(10);
+        List<ManagedObjectReference> vms = createVms(5);
+
+        // e.g. GetVmStatsCommand followed by GetVmDiskStatsCommand for some of the same VMs
+        collector.getSamples(context, collector.getCounters(context), vms);
+        List<ManagedObjectReference> moreVms = new ArrayList<ManagedObjectReference>(vms.subList(0, 2));
+        moreVms.add(createMor("VirtualMachine", "vm-new"));
+        Map<String, List<PerfMetricIntSeries>> samples = collector.getSamples(context, collector.getCounters(context), moreVms);
+
+        verify(service, times(2)).queryPerf(eq(perfMgrMor), anyList());
+        assertEquals(6, collector.getQueriedVms());
+        assertEquals(2, collector.getReusedVms());
+        assertEquals(3, samples.size());
+        assertEquals(1, samples.get("vm-new").size());
+    }
+}
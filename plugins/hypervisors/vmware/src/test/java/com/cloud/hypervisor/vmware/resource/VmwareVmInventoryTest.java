@@ -0,0 +1,155 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.hypervisor.vmware.resource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.vmware.vim25.CustomFieldStringValue;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectUpdate;
+import com.vmware.vim25.ObjectUpdateKind;
+import com.vmware.vim25.PropertyChange;
+import com.vmware.vim25.PropertyChangeOp;
+import com.vmware.vim25.PropertyFilterUpdate;
+import com.vmware.vim25.UpdateSet;
+import com.vmware.vim25.VirtualMachinePowerState;
+
+public class VmwareVmInventoryTest {
+    private static final String INSTANCE_NAME_FIELD = "value[101]";
+
+    private final ManagedObjectReference host1 = createMor("HostSystem", "host-1");
+    private final ManagedObjectReference host2 = createMor("HostSystem", "host-2");
+    private final VmwareVmInventory inventory = new VmwareVmInventory("key", "vcenter", "user", "password", createMor("ClusterComputeResource", "domain-c7"),
+            INSTANCE_NAME_FIELD);
+
+    private static ManagedObjectReference createMor(String type, String value) {
+        ManagedObjectReference mor = new ManagedObjectReference();
+        mor.setType(type);
+        mor.setValue(value);
+        return mor;
+    }
+
+    private static PropertyChange createChange(String name, Object val) {
+        PropertyChange change = new PropertyChange();
+        change.setName(name);
+        change.setOp(PropertyChangeOp.ASSIGN);
+        change.setVal(val);
+        return change;
+    }
+
+    private static ObjectUpdate createVmUpdate(ObjectUpdateKind kind, String vm, PropertyChange... changes) {
+        ObjectUpdate update = new ObjectUpdate();
+        update.setKind(kind);
+        update.setObj(createMor("VirtualMachine", vm));
+        for (PropertyChange change : changes) {
+            update.getChangeSet().add(change);
+        }
+        return update;
+    }
+
+    private static UpdateSet createUpdateSet(boolean truncated, ObjectUpdate... updates) {
+        PropertyFilterUpdate filterUpdate = new PropertyFilterUpdate();
+        for (ObjectUpdate update : updates) {
+            filterUpdate.getObjectSet().add(update);
+        }
+        UpdateSet updateSet = new UpdateSet();
+        updateSet.setTruncated(truncated);
+        updateSet.getFilterSet().add(filterUpdate);
+        return updateSet;
+    }
+
+    private ObjectUpdate enter(String vm, String name, VirtualMachinePowerState powerState, ManagedObjectReference host, boolean template) {
+        return createVmUpdate(ObjectUpdateKind.ENTER, vm, createChange("name", name), createChange("runtime.powerState", powerState),
+                createChange("runtime.host", host), createChange("config.template", template));
+    }
+
+    @Test
+    public void testNotInSyncUntilInitialContentsAreComplete() {
+        assertNull(inventory.getVmPowerStates(host1));
+
+        inventory.apply(createUpdateSet(true, enter("vm-1", "i-2-3-VM", VirtualMachinePowerState.POWERED_ON, host1, false)));
+        assertFalse(inventory.isInSync());
+        assertNull(inventory.getVmPowerStates(host1));
+
+        inventory.apply(createUpdateSet(false, enter("vm-2", "i-2-4-VM", VirtualMachinePowerState.POWERED_OFF, host1, false)));
+        assertTrue(inventory.isInSync());
+        assertEquals(2, inventory.getVmPowerStates(host1).size());
+    }
+
+    @Test
+    public void testPowerStatesOfHost() {
+        CustomFieldStringValue internalName = new CustomFieldStringValue();
+        internalName.setValue("i-2-5-VM");
+        ObjectUpdate renamed = enter("vm-3", "myvm", VirtualMachinePowerState.POWERED_ON, host1, false);
+        renamed.getChangeSet().add(createChange(INSTANCE_NAME_FIELD, internalName));
+
+        inventory.apply(createUpdateSet(false, enter("vm-1", "i-2-3-VM", VirtualMachinePowerState.POWERED_ON, host1, false),
+                enter("vm-2", "i-2-4-VM", VirtualMachinePowerState.POWERED_ON, host2, false),
+                enter("vm-template", "t-1", VirtualMachinePowerState.POWERED_OFF, host1, true), renamed));
+
+        Map<String, VirtualMachinePowerState> states = inventory.getVmPowerStates(host1);
+        assertEquals(2, states.size());
+        assertEquals(VirtualMachinePowerState.POWERED_ON, states.get("i-2-3-VM"));
+        assertEquals(VirtualMachinePowerState.POWERED_ON, states.get("i-2-5-VM"));
+    }
+
+    @Test
+    public void testIncrementalChanges() {
+        inventory.apply(createUpdateSet(false, enter("vm-1", "i-2-3-VM", VirtualMachinePowerState.POWERED_ON, host1, false),
+                enter("vm-2", "i-2-4-VM", VirtualMachinePowerState.POWERED_ON, host1, false)));
+
+        // vm-1 is stopped and migrated, vm-2 is destroyed
+        inventory.apply(createUpdateSet(false,
+                createVmUpdate(ObjectUpdateKind.MODIFY, "vm-1", createChange("runtime.powerState", VirtualMachinePowerState.POWERED_OFF), createChange("runtime.host", host2)),
+                createVmUpdate(ObjectUpdateKind.LEAVE, "vm-2")));
+
+        assertTrue(inventory.getVmPowerStates(host1).isEmpty());
+        assertEquals(VirtualMachinePowerState.POWERED_OFF, inventory.getVmPowerStates(host2).get("i-2-3-VM"));
+    }
+
+    private static Element createPowerStateElement(String value) throws ParserConfigurationException {
+        Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+        Element element = document.createElement("val");
+        element.appendChild(document.createTextNode(value));
+        return element;
+    }
+
+    @Test
+    public void testUnknownPowerStateKeepsThePreviousOne() throws ParserConfigurationException {
+        inventory.apply(createUpdateSet(false, enter("vm-1", "i-2-3-VM", VirtualMachinePowerState.POWERED_ON, host1, false)));
+
+        inventory.apply(createUpdateSet(false,
+                createVmUpdate(ObjectUpdateKind.MODIFY, "vm-1", createChange("runtime.powerState", createPowerStateElement("hibernated")))));
+        assertEquals(VirtualMachinePowerState.POWERED_ON, inventory.getVmPowerStates(host1).get("i-2-3-VM"));
+
+        inventory.apply(createUpdateSet(false,
+                createVmUpdate(ObjectUpdateKind.MODIFY, "vm-1", createChange("runtime.powerState", createPowerStateElement("suspended")))));
+        assertEquals(VirtualMachinePowerState.SUSPENDED, inventory.getVmPowerStates(host1).get("i-2-3-VM"));
+    }
+}
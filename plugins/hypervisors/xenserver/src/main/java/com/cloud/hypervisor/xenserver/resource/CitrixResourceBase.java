@@ -16,11 +16,13 @@
 // under the License.
 package com.cloud.hypervisor.xenserver.resource;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.net.MalformedURLException;
@@ -30,7 +32,6 @@ import java.net.URL;
 import java.net.URLConnection;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -46,8 +47,7 @@ import java.util.UUID;
 import java.util.concurrent.TimeoutException;
 
 import javax.naming.ConfigurationException;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
 
 import org.apache.cloudstack.diagnostics.CopyToSecondaryStorageAnswer;
 import org.apache.cloudstack.diagnostics.CopyToSecondaryStorageCommand;
@@ -62,11 +62,6 @@ import org.apache.commons.lang3.BooleanUtils;
 import org.apache.log4j.Logger;
 import org.apache.xmlrpc.XmlRpcException;
 import org.joda.time.Duration;
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
 
 import com.cloud.agent.IAgentControl;
 import com.cloud.agent.api.Answer;
@@ -272,6 +267,8 @@ public abstract class CitrixResourceBase implements ServerResource, HypervisorRe
 
     protected String _pod;
     protected int _pollingIntervalInSeconds = 60;
+    protected final XsRrdUpdatesParser _hostRrdParser = new XsRrdUpdatesParser("host");
+    protected final XsRrdUpdatesParser _vmRrdParser = new XsRrdUpdatesParser("vm");
 
     protected String _privateNetworkName;
     protected String _publicNetworkName;
@@ -2066,37 +2063,6 @@ public abstract class CitrixResourceBase implements ServerResource, HypervisorRe
         }
     }
 
-    protected double getDataAverage(final Node dataNode, final int col, final int numRows) {
-        double value = 0;
-        final double dummy = 0;
-        int numRowsUsed = 0;
-        for (int row = 0; row < numRows; row++) {
-            final Node data = dataNode.getChildNodes().item(numRows - 1 - row).getChildNodes().item(col + 1);
-            final Double currentDataAsDouble = Double.valueOf(getXMLNodeValue(data));
-            if (!currentDataAsDouble.equals(Double.NaN)) {
-                numRowsUsed += 1;
-                value += currentDataAsDouble;
-            }
-        }
-
-        if (numRowsUsed == 0) {
-            if (!Double.isInfinite(value) && !Double.isNaN(value)) {
-                return value;
-            } else {
-                s_logger.warn("Found an invalid value (infinity/NaN) in getDataAverage(), numRows=0");
-                return dummy;
-            }
-        } else {
-            if (!Double.isInfinite(value / numRowsUsed) && !Double.isNaN(value / numRowsUsed)) {
-                return value / numRowsUsed;
-            } else {
-                s_logger.warn("Found an invalid value (infinity/NaN) in getDataAverage(), numRows>0");
-                return dummy;
-            }
-        }
-
-    }
-
     public HashMap<String, HashMap<String, VgpuTypesInfo>> getGPUGroupDetails(final Connection conn) throws XenAPIException, XmlRpcException {
         return null;
     }
@@ -2223,61 +2189,33 @@ public abstract class CitrixResourceBase implements ServerResource, HypervisorRe
     public HostStatsEntry getHostStats(final Connection conn, final GetHostStatsCommand cmd, final String hostGuid, final long hostId) {
 
         final HostStatsEntry hostStats = new HostStatsEntry(hostId, 0, 0, 0, "host", 0, 0, 0, 0);
-        final Object[] rrdData = getRRDData(conn, 1); // call rrd method with 1
-        // for host
+        final XsRrdUpdatesParser.RrdStats rrdStats = getRrdStats(conn, _hostRrdParser, true);
 
-        if (rrdData == null) {
+        if (rrdStats == null) {
             return null;
         }
 
-        final Integer numRows = (Integer)rrdData[0];
-        final Integer numColumns = (Integer)rrdData[1];
-        final Node legend = (Node)rrdData[2];
-        final Node dataNode = (Node)rrdData[3];
-
-        final NodeList legendChildren = legend.getChildNodes();
-        for (int col = 0; col < numColumns; col++) {
-
-            if (legendChildren == null || legendChildren.item(col) == null) {
-                continue;
-            }
-
-            final String columnMetadata = getXMLNodeValue(legendChildren.item(col));
-
-            if (columnMetadata == null) {
-                continue;
-            }
-
-            final String[] columnMetadataList = columnMetadata.split(":");
+        for (int col = 0; col < rrdStats.size(); col++) {
+            final String param = rrdStats.getParam(col);
 
-            if (columnMetadataList.length != 4) {
-                continue;
+            if (param.matches("pif_eth0_rx")) {
+                hostStats.setNetworkReadKBs(rrdStats.getAverage(col) / 1000);
+            } else if (param.matches("pif_eth0_tx")) {
+                hostStats.setNetworkWriteKBs(rrdStats.getAverage(col) / 1000);
+            } else if (param.contains("memory_total_kib")) {
+                hostStats.setTotalMemoryKBs(rrdStats.getAverage(col));
+            } else if (param.contains("memory_free_kib")) {
+                hostStats.setFreeMemoryKBs(rrdStats.getAverage(col));
+            } else if (param.matches("cpu_avg")) {
+                // hostStats.setNumCpus(hostStats.getNumCpus() + 1);
+                hostStats.setCpuUtilization(hostStats.getCpuUtilization() + rrdStats.getAverage(col));
             }
 
-            final String type = columnMetadataList[1];
-            final String param = columnMetadataList[3];
-
-            if (type.equalsIgnoreCase("host")) {
-
-                if (param.matches("pif_eth0_rx")) {
-                    hostStats.setNetworkReadKBs(getDataAverage(dataNode, col, numRows) / 1000);
-                } else if (param.matches("pif_eth0_tx")) {
-                    hostStats.setNetworkWriteKBs(getDataAverage(dataNode, col, numRows) / 1000);
-                } else if (param.contains("memory_total_kib")) {
-                    hostStats.setTotalMemoryKBs(getDataAverage(dataNode, col, numRows));
-                } else if (param.contains("memory_free_kib")) {
-                    hostStats.setFreeMemoryKBs(getDataAverage(dataNode, col, numRows));
-                } else if (param.matches("cpu_avg")) {
-                    // hostStats.setNumCpus(hostStats.getNumCpus() + 1);
-                    hostStats.setCpuUtilization(hostStats.getCpuUtilization() + getDataAverage(dataNode, col, numRows));
-                }
-
-                /*
-                 * if (param.contains("loadavg")) {
-                 * hostStats.setAverageLoad((hostStats.getAverageLoad() +
-                 * getDataAverage(dataNode, col, numRows))); }
-                 */
-            }
+            /*
+             * if (param.contains("loadavg")) {
+             * hostStats.setAverageLoad((hostStats.getAverageLoad() +
+             * rrdStats.getAverage(col))); }
+             */
         }
 
         // add the host cpu utilization
@@ -3015,47 +2953,44 @@ public abstract class CitrixResourceBase implements ServerResource, HypervisorRe
         return null;
     }
 
-    protected Object[] getRRDData(final Connection conn, final int flag) {
-
-        /*
-         * Note: 1 => called from host, hence host stats 2 => called from vm,
-         * hence vm stats
-         */
-        Document doc = null;
-
-        try {
-            doc = getStatsRawXML(conn, flag == 1 ? true : false);
-        } catch (final Exception e1) {
-            s_logger.warn("Error whilst collecting raw stats from plugin: ", e1);
-            return null;
-        }
-
-        if (doc == null) { // stats are null when the host plugin call fails
-            // (host down state)
-            return null;
-        }
-
-        final NodeList firstLevelChildren = doc.getChildNodes();
-        final NodeList secondLevelChildren = firstLevelChildren.item(0).getChildNodes();
-        final Node metaNode = secondLevelChildren.item(0);
-        final Node dataNode = secondLevelChildren.item(1);
-
-        Integer numRows = 0;
-        Integer numColumns = 0;
-        Node legend = null;
-        final NodeList metaNodeChildren = metaNode.getChildNodes();
-        for (int i = 0; i < metaNodeChildren.getLength(); i++) {
-            final Node n = metaNodeChildren.item(i);
-            if (n.getNodeName().equals("rows")) {
-                numRows = Integer.valueOf(getXMLNodeValue(n));
-            } else if (n.getNodeName().equals("columns")) {
-                numColumns = Integer.valueOf(getXMLNodeValue(n));
-            } else if (n.getNodeName().equals("legend")) {
-                legend = n;
+    /**
+     * Fetches the rrd updates of the host or of its vms since the previous poll, and averages them with the given parser.
+     * Returns null when the updates can not be fetched (host down state).
+     */
+    protected XsRrdUpdatesParser.RrdStats getRrdStats(final Connection conn, final XsRrdUpdatesParser parser, final boolean host) {
+        synchronized (parser) {
+            String urlStr = "http://" + _host.getIp() + "/rrd_updates?";
+            urlStr += "session_id=" + conn.getSessionReference();
+            urlStr += "&host=" + (host ? "true" : "false");
+            urlStr += "&cf=" + _consolidationFunction;
+            urlStr += "&interval=" + _pollingIntervalInSeconds;
+            final long now = System.currentTimeMillis() / 1000;
+            urlStr += "&start=" + parser.getStart(now);
+
+            InputStream in = null;
+            try {
+                final URLConnection uc = new URL(urlStr).openConnection();
+                in = new BufferedInputStream(uc.getInputStream());
+                return parser.parse(in, now);
+            } catch (final MalformedURLException e) {
+                s_logger.warn("Malformed URL?  come on...." + urlStr);
+                return null;
+            } catch (final IOException e) {
+                s_logger.warn("Problems getting stats using " + urlStr, e);
+                return null;
+            } catch (final XMLStreamException e) {
+                s_logger.warn("Problems getting stats using " + urlStr, e);
+                return null;
+            } finally {
+                if (in != null) {
+                    try {
+                        in.close();
+                    } catch (final IOException e) {
+                        s_logger.warn("Unable to close the stats stream ", e);
+                    }
+                }
             }
         }
-
-        return new Object[] {numRows, numColumns, legend, dataNode};
     }
 
     @Override
@@ -3113,47 +3048,6 @@ public abstract class CitrixResourceBase implements ServerResource, HypervisorRe
         return dynamicMinRam;
     }
 
-    protected Document getStatsRawXML(final Connection conn, final boolean host) {
-        final Date currentDate = new Date();
-        String urlStr = "http://" + _host.getIp() + "/rrd_updates?";
-        urlStr += "session_id=" + conn.getSessionReference();
-        urlStr += "&host=" + (host ? "true" : "false");
-        urlStr += "&cf=" + _consolidationFunction;
-        urlStr += "&interval=" + _pollingIntervalInSeconds;
-        urlStr += "&start=" + (currentDate.getTime() / 1000 - 1000 - 100);
-
-        URL url;
-        BufferedReader in = null;
-        try {
-            url = new URL(urlStr);
-            url.openConnection();
-            final URLConnection uc = url.openConnection();
-            in = new BufferedReader(new InputStreamReader(uc.getInputStream()));
-            final InputSource statsSource = new InputSource(in);
-            return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(statsSource);
-        } catch (final MalformedURLException e) {
-            s_logger.warn("Malformed URL?  come on...." + urlStr);
-            return null;
-        } catch (final IOException e) {
-            s_logger.warn("Problems getting stats using " + urlStr, e);
-            return null;
-        } catch (final SAXException e) {
-            s_logger.warn("Problems getting stats using " + urlStr, e);
-            return null;
-        } catch (final ParserConfigurationException e) {
-            s_logger.warn("Problems getting stats using " + urlStr, e);
-            return null;
-        } finally {
-            if (in != null) {
-                try {
-                    in.close();
-                } catch (final IOException e) {
-                    s_logger.warn("Unable to close the buffer ", e);
-                }
-            }
-        }
-    }
-
     public SR getStorageRepository(final Connection conn, final String srNameLabel) {
         Set<SR> srs;
         try {
@@ -3405,63 +3299,37 @@ public abstract class CitrixResourceBase implements ServerResource, HypervisorRe
             vmResponseMap.put(vmUUID, new VmStatsEntry(0, 0, 0, 0, 0, 0, 0, "vm"));
         }
 
-        final Object[] rrdData = getRRDData(conn, 2); // call rrddata with 2 for
-        // vm
+        final XsRrdUpdatesParser.RrdStats rrdStats = getRrdStats(conn, _vmRrdParser, false);
 
-        if (rrdData == null) {
+        if (rrdStats == null) {
             return null;
         }
 
-        final Integer numRows = (Integer)rrdData[0];
-        final Integer numColumns = (Integer)rrdData[1];
-        final Node legend = (Node)rrdData[2];
-        final Node dataNode = (Node)rrdData[3];
-
-        final NodeList legendChildren = legend.getChildNodes();
-        for (int col = 0; col < numColumns; col++) {
-
-            if (legendChildren == null || legendChildren.item(col) == null) {
-                continue;
-            }
-
-            final String columnMetadata = getXMLNodeValue(legendChildren.item(col));
-
-            if (columnMetadata == null) {
-                continue;
-            }
-
-            final String[] columnMetadataList = columnMetadata.split(":");
-
-            if (columnMetadataList.length != 4) {
-                continue;
-            }
-
-            final String type = columnMetadataList[1];
-            final String uuid = columnMetadataList[2];
-            final String param = columnMetadataList[3];
-
-            if (type.equals("vm") && vmResponseMap.keySet().contains(uuid)) {
-                final VmStatsEntry vmStatsAnswer = vmResponseMap.get(uuid);
+        for (int col = 0; col < rrdStats.size(); col++) {
+            final String uuid = rrdStats.getUuid(col);
+            final String param = rrdStats.getParam(col);
+            final VmStatsEntry vmStatsAnswer = vmResponseMap.get(uuid);
 
+            if (vmStatsAnswer != null) {
                 vmStatsAnswer.setEntityType("vm");
 
                 if (param.contains("cpu")) {
                     vmStatsAnswer.setNumCPUs(vmStatsAnswer.getNumCPUs() + 1);
-                    vmStatsAnswer.setCPUUtilization(vmStatsAnswer.getCPUUtilization() + getDataAverage(dataNode, col, numRows));
+                    vmStatsAnswer.setCPUUtilization(vmStatsAnswer.getCPUUtilization() + rrdStats.getAverage(col));
                 } else if (param.matches("vif_\\d*_rx")) {
-                    vmStatsAnswer.setNetworkReadKBs(vmStatsAnswer.getNetworkReadKBs() + getDataAverage(dataNode, col, numRows) / BASE_TO_CONVERT_BYTES_INTO_KILOBYTES);
+                    vmStatsAnswer.setNetworkReadKBs(vmStatsAnswer.getNetworkReadKBs() + rrdStats.getAverage(col) / BASE_TO_CONVERT_BYTES_INTO_KILOBYTES);
                 } else if (param.matches("vif_\\d*_tx")) {
-                    vmStatsAnswer.setNetworkWriteKBs(vmStatsAnswer.getNetworkWriteKBs() + getDataAverage(dataNode, col, numRows) / BASE_TO_CONVERT_BYTES_INTO_KILOBYTES);
+                    vmStatsAnswer.setNetworkWriteKBs(vmStatsAnswer.getNetworkWriteKBs() + rrdStats.getAverage(col) / BASE_TO_CONVERT_BYTES_INTO_KILOBYTES);
                 } else if (param.matches("vbd_.*_read")) {
-                    vmStatsAnswer.setDiskReadKBs(vmStatsAnswer.getDiskReadKBs() + getDataAverage(dataNode, col, numRows) / BASE_TO_CONVERT_BYTES_INTO_KILOBYTES);
+                    vmStatsAnswer.setDiskReadKBs(vmStatsAnswer.getDiskReadKBs() + rrdStats.getAverage(col) / BASE_TO_CONVERT_BYTES_INTO_KILOBYTES);
                 } else if (param.matches("vbd_.*_write")) {
-                    vmStatsAnswer.setDiskWriteKBs(vmStatsAnswer.getDiskWriteKBs() + getDataAverage(dataNode, col, numRows) / BASE_TO_CONVERT_BYTES_INTO_KILOBYTES);
+                    vmStatsAnswer.setDiskWriteKBs(vmStatsAnswer.getDiskWriteKBs() + rrdStats.getAverage(col) / BASE_TO_CONVERT_BYTES_INTO_KILOBYTES);
                 } else if (param.contains("memory_internal_free")) {
-                    vmStatsAnswer.setIntFreeMemoryKBs(vmStatsAnswer.getIntFreeMemoryKBs() + getDataAverage(dataNode, col, numRows) / BASE_TO_CONVERT_BYTES_INTO_KILOBYTES);
+                    vmStatsAnswer.setIntFreeMemoryKBs(vmStatsAnswer.getIntFreeMemoryKBs() + rrdStats.getAverage(col) / BASE_TO_CONVERT_BYTES_INTO_KILOBYTES);
                 } else if (param.contains("memory_target")) {
-                    vmStatsAnswer.setTargetMemoryKBs(vmStatsAnswer.getTargetMemoryKBs() + getDataAverage(dataNode, col, numRows) / BASE_TO_CONVERT_BYTES_INTO_KILOBYTES);
+                    vmStatsAnswer.setTargetMemoryKBs(vmStatsAnswer.getTargetMemoryKBs() + rrdStats.getAverage(col) / BASE_TO_CONVERT_BYTES_INTO_KILOBYTES);
                 } else if (param.contains("memory")) {
-                    vmStatsAnswer.setMemoryKBs(vmStatsAnswer.getMemoryKBs() + getDataAverage(dataNode, col, numRows) / BASE_TO_CONVERT_BYTES_INTO_KILOBYTES);
+                    vmStatsAnswer.setMemoryKBs(vmStatsAnswer.getMemoryKBs() + rrdStats.getAverage(col) / BASE_TO_CONVERT_BYTES_INTO_KILOBYTES);
                 }
 
             }
@@ -3513,10 +3381,6 @@ public abstract class CitrixResourceBase implements ServerResource, HypervisorRe
         return null;
     }
 
-    protected String getXMLNodeValue(final Node n) {
-        return n.getChildNodes().item(0).getNodeValue();
-    }
-
     public void handleSrAndVdiDetach(final String iqn, final Connection conn) throws Exception {
         final SR sr = getStorageRepository(conn, iqn);
 
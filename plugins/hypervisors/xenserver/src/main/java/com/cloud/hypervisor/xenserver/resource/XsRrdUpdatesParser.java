@@ -0,0 +1,208 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.hypervisor.xenserver.resource;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Streams the XML returned by the rrd_updates handler of XenServer and averages the columns of one entity type (host or
+ * vm) over the returned rows, without building a DOM of the whole document.
+ *
+ * The parser remembers the end of the last update, so that the next poll can ask for the rows added since then only,
+ * and the legend of the last update, so that the columns do not have to be matched again while it does not change.
+ */
+public class XsRrdUpdatesParser {
+    private static final Logger s_logger = Logger.getLogger(XsRrdUpdatesParser.class);
+
+    // how far back the first poll, and a poll after a long pause, look
+    public static final long WINDOW_SECONDS = 1100;
+    // how long after its last row the stats of an update are reused for updates without new rows
+    public static final long MAX_STALE_SECONDS = 300;
+
+    private static final XMLInputFactory s_inputFactory = XMLInputFactory.newInstance();
+    static {
+        s_inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        s_inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    private final String _type;
+
+    private long _lastEnd = 0;
+    private RrdStats _lastStats;
+
+    private String[] _cachedLegend;
+    private int[] _cachedColumnIndexes;
+    private String[][] _cachedColumnMetadata;
+
+    /**
+     * Averages of the selected columns, each described by its legend entry split into
+     * consolidation function, type, uuid and parameter.
+     */
+    public static class RrdStats {
+        private final String[][] _columnMetadata;
+        private final double[] _averages;
+
+        RrdStats(String[][] columnMetadata, double[] averages) {
+            _columnMetadata = columnMetadata;
+            _averages = averages;
+        }
+
+        public int size() {
+            return _averages.length;
+        }
+
+        public String getUuid(int column) {
+            return _columnMetadata[column][2];
+        }
+
+        public String getParam(int column) {
+            return _columnMetadata[column][3];
+        }
+
+        public double getAverage(int column) {
+            return _averages[column];
+        }
+    }
+
+    /**
+     * @param type the entity type of the columns to keep, host or vm
+     */
+    public XsRrdUpdatesParser(String type) {
+        _type = type;
+    }
+
+    /**
+     * @return the start parameter of the next rrd_updates request
+     */
+    public synchronized long getStart(long nowInSeconds) {
+        if (_lastEnd > 0 && nowInSeconds - _lastEnd < WINDOW_SECONDS) {
+            // rows are aligned to the step, so this only skips the row already seen
+            return _lastEnd + 1;
+        }
+        return nowInSeconds - WINDOW_SECONDS;
+    }
+
+    /**
+     * Parses an rrd_updates document. When it has no new rows, the stats of the previous update are returned again,
+     * unless its last row is more than MAX_STALE_SECONDS old.
+     * @return the averages, or null if there are no recent rows to report
+     */
+    public synchronized RrdStats parse(InputStream in, long nowInSeconds) throws XMLStreamException {
+        XMLStreamReader reader = s_inputFactory.createXMLStreamReader(in);
+        try {
+            long end = 0;
+            int rows = 0;
+            List<String> legend = new ArrayList<String>();
+            int[] indexByColumn = null;
+            double[] sums = null;
+            int[] counts = null;
+            int column = -1;
+
+            while (reader.hasNext()) {
+                if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                String name = reader.getLocalName();
+                if ("v".equals(name)) {
+                    column++;
+                    if (indexByColumn != null && column < indexByColumn.length && indexByColumn[column] >= 0) {
+                        double value = Double.parseDouble(reader.getElementText().trim());
+                        if (!Double.isNaN(value)) {
+                            sums[indexByColumn[column]] += value;
+                            counts[indexByColumn[column]]++;
+                        }
+                    }
+                } else if ("row".equals(name)) {
+                    rows++;
+                    column = -1;
+                } else if ("entry".equals(name)) {
+                    legend.add(reader.getElementText().trim());
+                } else if ("end".equals(name)) {
+                    end = Long.parseLong(reader.getElementText().trim());
+                } else if ("data".equals(name)) {
+                    indexByColumn = selectColumns(legend.toArray(new String[legend.size()]));
+                    sums = new double[_cachedColumnMetadata.length];
+                    counts = new int[_cachedColumnMetadata.length];
+                }
+            }
+
+            if (indexByColumn == null || rows == 0) {
+                if (_lastStats != null && nowInSeconds - _lastEnd > MAX_STALE_SECONDS) {
+                    s_logger.debug("No rrd updates of " + _type + " since " + _lastEnd + ", not reporting its last stats any longer");
+                    _lastStats = null;
+                }
+                return _lastStats;
+            }
+
+            double[] averages = new double[sums.length];
+            for (int i = 0; i < averages.length; i++) {
+                double average = counts[i] == 0 ? sums[i] : sums[i] / counts[i];
+                if (Double.isInfinite(average) || Double.isNaN(average)) {
+                    s_logger.warn("Found an invalid value (infinity/NaN) in rrd updates of " + _type + " " + getUuid(i) + ", " + getParam(i));
+                    average = 0;
+                }
+                averages[i] = average;
+            }
+            _lastEnd = end;
+            _lastStats = new RrdStats(_cachedColumnMetadata, averages);
+            return _lastStats;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * @return for each column of the legend the index of its average, or -1 if it is not kept
+     */
+    private int[] selectColumns(String[] legend) {
+        if (_cachedLegend != null && Arrays.equals(_cachedLegend, legend)) {
+            return _cachedColumnIndexes;
+        }
+        int[] indexByColumn = new int[legend.length];
+        List<String[]> columnMetadata = new ArrayList<String[]>();
+        for (int column = 0; column < legend.length; column++) {
+            indexByColumn[column] = -1;
+            String[] metadata = legend[column].split(":");
+            if (metadata.length == 4 && metadata[1].equalsIgnoreCase(_type)) {
+                indexByColumn[column] = columnMetadata.size();
+                columnMetadata.add(metadata);
+            }
+        }
+        _cachedLegend = legend;
+        _cachedColumnIndexes = indexByColumn;
+        _cachedColumnMetadata = columnMetadata.toArray(new String[columnMetadata.size()][]);
+        return indexByColumn;
+    }
+
+    private String getUuid(int index) {
+        return _cachedColumnMetadata[index][2];
+    }
+
+    private String getParam(int index) {
+        return _cachedColumnMetadata[index][3];
+    }
+}
@@ -0,0 +1,58 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.hypervisor.xenserver.resource;
+
+/**
+ * Compares averaging the vm columns of the rrd_updates samples of XsRrdUpdatesParserTest with the
+ * streaming parser, which reuses the legend selection of the previous update, and with the DOM based
+ * implementation it replaced. It is not a unit test, run it by hand with the test classpath of this module.
+ */
+public class XsRrdUpdatesParserBenchmark {
+    private static final int ITERATIONS = 200;
+
+    public static void main(final String[] args) throws Exception {
+        for (final String sample : XsRrdUpdatesParserTest.SAMPLES) {
+            final String xml = XsRrdUpdatesParserTest.loadSample(sample);
+            final XsRrdUpdatesParser parser = new XsRrdUpdatesParser("vm");
+
+            final long dom = benchmark(xml, null);
+            final long streamed = benchmark(xml, parser);
+
+            System.out.println(sample + " (" + xml.length() + " chars): " + dom / ITERATIONS / 1000 + " us with DOM, "
+                    + streamed / ITERATIONS / 1000 + " us streamed");
+        }
+    }
+
+    /**
+     * @return the time it took to average the vm columns ITERATIONS times, with the DOM if parser is null.
+     */
+    private static long benchmark(final String xml, final XsRrdUpdatesParser parser) throws Exception {
+        long start = 0;
+        // the first half warms up the JIT
+        for (int i = 0; i < ITERATIONS * 2; i++) {
+            if (i == ITERATIONS) {
+                start = System.nanoTime();
+            }
+            if (parser == null) {
+                XsRrdUpdatesParserTest.domAverages(xml, "vm");
+            } else {
+                XsRrdUpdatesParserTest.parse(parser, xml, 1602158400);
+            }
+        }
+        return System.nanoTime() - start;
+    }
+}
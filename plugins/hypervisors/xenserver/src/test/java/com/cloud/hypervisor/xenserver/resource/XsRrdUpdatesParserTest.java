@@ -0,0 +1,213 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.hypervisor.xenserver.resource;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+public class XsRrdUpdatesParserTest {
+    private static final String[] VM_PARAMS = {"cpu0", "cpu1", "vif_0_rx", "vif_0_tx", "vbd_xvda_read", "vbd_xvda_write", "memory", "memory_internal_free", "memory_target", "vbd_xvda_iops_total"};
+    private static final String[] HOST_PARAMS = {"pif_eth0_rx", "pif_eth0_tx", "memory_total_kib", "memory_free_kib", "cpu_avg"};
+
+    // rrd_updates documents of a host, in the layout and with the columns XenServer returns
+    static final String[] SAMPLES = {"host_3_vms.xml", "host_60_vms.xml"};
+
+    /**
+     * Builds an rrd_updates document in the layout returned by XenServer, with a NaN every seventh value.
+     */
+    private static String buildRrdUpdates(int vms, int rows, long end) {
+        StringBuilder xml = new StringBuilder("<xport><meta><start>").append(end - rows * 5).append("</start><step>5</step><end>").append(end).append("</end>");
+        xml.append("<rows>").append(rows).append("</rows><columns>").append(vms * VM_PARAMS.length + HOST_PARAMS.length).append("</columns><legend>");
+        for (int vm = 0; vm < vms; vm++) {
+            for (String param : VM_PARAMS) {
+                xml.append("<entry>AVERAGE:vm:").append(vmUuid(vm)).append(':').append(param).append("</entry>");
+            }
+        }
+        for (String param : HOST_PARAMS) {
+            xml.append("<entry>AVERAGE:host:2b7b6d3a-8c7d-4d2e-9c1f-000000000001:").append(param).append("</entry>");
+        }
+        xml.append("</legend></meta><data>");
+        int value = 0;
+        for (int row = 0; row < rows; row++) {
+            xml.append("<row><t>").append(end - row * 5).append("</t>");
+            for (int col = 0; col < vms * VM_PARAMS.length + HOST_PARAMS.length; col++) {
+                value++;
+                xml.append("<v>").append(value % 7 == 0 ? "NaN" : Double.toString(value * 1.5)).append("</v>");
+            }
+            xml.append("</row>");
+        }
+        return xml.append("</data></xport>").toString();
+    }
+
+    private static String vmUuid(int vm) {
+        return String.format("6f1e2c4a-0000-4000-8000-%012d", vm);
+    }
+
+    static String loadSample(String name) throws Exception {
+        try (InputStream in = XsRrdUpdatesParserTest.class.getResourceAsStream("/rrd_updates/" + name)) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Averages the columns of the given type the way the DOM based implementation did.
+     */
+    static Map<String, Double> domAverages(String xml, String type) throws Exception {
+        Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+        Node meta = doc.getDocumentElement().getChildNodes().item(0);
+        Node data = doc.getDocumentElement().getChildNodes().item(1);
+        int rows = 0;
+        Node legend = null;
+        NodeList metaChildren = meta.getChildNodes();
+        for (int i = 0; i < metaChildren.getLength(); i++) {
+            if (metaChildren.item(i).getNodeName().equals("rows")) {
+                rows = Integer.parseInt(metaChildren.item(i).getTextContent());
+            } else if (metaChildren.item(i).getNodeName().equals("legend")) {
+                legend = metaChildren.item(i);
+            }
+        }
+        Map<String, Double> averages = new HashMap<String, Double>();
+        NodeList entries = legend.getChildNodes();
+        for (int col = 0; col < entries.getLength(); col++) {
+            String[] metadata = entries.item(col).getTextContent().split(":");
+            if (metadata.length != 4 || !metadata[1].equalsIgnoreCase(type)) {
+                continue;
+            }
+            double sum = 0;
+            int used = 0;
+            for (int row = 0; row < rows; row++) {
+                double value = Double.valueOf(data.getChildNodes().item(row).getChildNodes().item(col + 1).getTextContent());
+                if (!Double.isNaN(value)) {
+                    sum += value;
+                    used++;
+                }
+            }
+            averages.put(metadata[2] + ":" + metadata[3], used == 0 ? sum : sum / used);
+        }
+        return averages;
+    }
+
+    static Map<String, Double> toMap(XsRrdUpdatesParser.RrdStats stats) {
+        Map<String, Double> averages = new HashMap<String, Double>();
+        for (int col = 0; col < stats.size(); col++) {
+            averages.put(stats.getUuid(col) + ":" + stats.getParam(col), stats.getAverage(col));
+        }
+        return averages;
+    }
+
+    static XsRrdUpdatesParser.RrdStats parse(XsRrdUpdatesParser parser, String xml, long now) throws Exception {
+        return parser.parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)), now);
+    }
+
+    private static XsRrdUpdatesParser.RrdStats parse(XsRrdUpdatesParser parser, String xml) throws Exception {
+        return parse(parser, xml, 1600000060);
+    }
+
+    @Test
+    public void testAveragesMatchDomParsing() throws Exception {
+        String xml = buildRrdUpdates(20, 12, 1600000000);
+
+        Assert.assertEquals(domAverages(xml, "vm"), toMap(parse(new XsRrdUpdatesParser("vm"), xml)));
+        Assert.assertEquals(domAverages(xml, "host"), toMap(parse(new XsRrdUpdatesParser("host"), xml)));
+    }
+
+    @Test
+    public void testSampleAveragesMatchDomParsing() throws Exception {
+        for (String sample : SAMPLES) {
+            String xml = loadSample(sample);
+
+            Assert.assertEquals(sample, domAverages(xml, "vm"), toMap(parse(new XsRrdUpdatesParser("vm"), xml)));
+            Assert.assertEquals(sample, domAverages(xml, "host"), toMap(parse(new XsRrdUpdatesParser("host"), xml)));
+        }
+    }
+
+    @Test
+    public void testInvalidAverageIsZero() throws Exception {
+        String xml = "<xport><meta><end>100</end><rows>1</rows><columns>2</columns><legend><entry>AVERAGE:host:h1:cpu_avg</entry>"
+                + "<entry>AVERAGE:host:h1:memory_free_kib</entry></legend></meta><data><row><t>100</t><v>Infinity</v><v>NaN</v></row></data></xport>";
+
+        XsRrdUpdatesParser.RrdStats stats = parse(new XsRrdUpdatesParser("host"), xml);
+
+        Assert.assertEquals(2, stats.size());
+        Assert.assertEquals(0, stats.getAverage(0), 0);
+        Assert.assertEquals(0, stats.getAverage(1), 0);
+    }
+
+    @Test
+    public void testStartFollowsLastEnd() throws Exception {
+        XsRrdUpdatesParser parser = new XsRrdUpdatesParser("vm");
+        long now = 1600000000;
+
+        Assert.assertEquals(now - XsRrdUpdatesParser.WINDOW_SECONDS, parser.getStart(now));
+
+        parse(parser, buildRrdUpdates(2, 3, now));
+        Assert.assertEquals(now + 1, parser.getStart(now + 60));
+        Assert.assertEquals(now + 5000 - XsRrdUpdatesParser.WINDOW_SECONDS, parser.getStart(now + 5000));
+    }
+
+    @Test
+    public void testEmptyUpdateReturnsPreviousStats() throws Exception {
+        XsRrdUpdatesParser parser = new XsRrdUpdatesParser("vm");
+        XsRrdUpdatesParser.RrdStats first = parse(parser, buildRrdUpdates(2, 3, 1600000000));
+
+        XsRrdUpdatesParser.RrdStats second = parse(parser, buildRrdUpdates(2, 0, 1600000000));
+
+        Assert.assertSame(first, second);
+        Assert.assertEquals(1600000001, parser.getStart(1600000060));
+    }
+
+    @Test
+    public void testEmptyUpdateDoesNotReuseStaleStats() throws Exception {
+        XsRrdUpdatesParser parser = new XsRrdUpdatesParser("vm");
+        long end = 1600000000;
+        XsRrdUpdatesParser.RrdStats first = parse(parser, buildRrdUpdates(2, 3, end), end);
+
+        Assert.assertSame(first, parse(parser, buildRrdUpdates(2, 0, end), end + XsRrdUpdatesParser.MAX_STALE_SECONDS));
+        Assert.assertNull(parse(parser, buildRrdUpdates(2, 0, end), end + XsRrdUpdatesParser.MAX_STALE_SECONDS + 1));
+        // not even once the last stats would be fresh again
+        Assert.assertNull(parse(parser, buildRrdUpdates(2, 0, end), end));
+    }
+
+    @Test
+    public void testEmptyFirstUpdateHasNoStats() throws Exception {
+        Assert.assertNull(parse(new XsRrdUpdatesParser("vm"), buildRrdUpdates(2, 0, 1600000000)));
+    }
+
+    @Test
+    public void testLegendSelectionIsReused() throws Exception {
+        XsRrdUpdatesParser parser = new XsRrdUpdatesParser("vm");
+
+        XsRrdUpdatesParser.RrdStats first = parse(parser, buildRrdUpdates(3, 3, 1600000000));
+        XsRrdUpdatesParser.RrdStats second = parse(parser, buildRrdUpdates(3, 2, 1600000060));
+        XsRrdUpdatesParser.RrdStats third = parse(parser, buildRrdUpdates(4, 2, 1600000120));
+
+        Assert.assertEquals(3 * VM_PARAMS.length, second.size());
+        Assert.assertSame(first.getParam(0), second.getParam(0));
+        Assert.assertEquals(4 * VM_PARAMS.length, third.size());
+    }
+}
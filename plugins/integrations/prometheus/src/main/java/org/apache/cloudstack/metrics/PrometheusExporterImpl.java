@@ -18,16 +18,27 @@ package org.apache.cloudstack.metrics;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.inject.Inject;
 
+import com.cloud.configuration.ResourceCountVO;
 import com.cloud.configuration.dao.ResourceCountDao;
 import com.cloud.dc.DedicatedResourceVO;
 import com.cloud.dc.dao.DedicatedResourceDao;
 import com.cloud.user.Account;
 import com.cloud.user.dao.AccountDao;
 import org.apache.cloudstack.engine.subsystem.api.storage.ZoneScope;
+import org.apache.cloudstack.managed.context.ManagedContextRunnable;
 import org.apache.cloudstack.storage.datastore.db.ImageStoreDao;
 import org.apache.log4j.Logger;
 
@@ -56,10 +67,12 @@ import com.cloud.network.dao.IPAddressDao;
 import com.cloud.storage.ImageStore;
 import com.cloud.storage.StorageStats;
 import com.cloud.storage.Volume;
-import com.cloud.storage.VolumeVO;
 import com.cloud.storage.dao.VolumeDao;
 import com.cloud.utils.component.Manager;
 import com.cloud.utils.component.ManagerBase;
+import com.cloud.utils.concurrency.NamedThreadFactory;
+import com.cloud.utils.db.SearchBuilder;
+import com.cloud.utils.db.SearchCriteria;
 import com.cloud.vm.VirtualMachine.State;
 import com.cloud.vm.dao.VMInstanceDao;
 import com.google.common.base.Strings;
@@ -74,7 +87,12 @@ public class PrometheusExporterImpl extends ManagerBase implements PrometheusExp
     private static final String ONLINE = "online";
     private static final String OFFLINE = "offline";
 
-    private static List<Item> metricsItems = new ArrayList<>();
+    private volatile String renderedMetrics;
+    private volatile long lastRefreshDuration;
+    private volatile long lastRefreshTime;
+    private final AtomicLong refreshFailures = new AtomicLong();
+    private final AtomicBoolean refreshScheduled = new AtomicBoolean();
+    private ScheduledExecutorService refreshExecutor;
 
     @Inject
     private DataCenterDao dcDao;
@@ -111,14 +129,122 @@ public class PrometheusExporterImpl extends ManagerBase implements PrometheusExp
         super();
     }
 
-    private void addHostMetrics(final List<Item> metricsList, final long dcId, final String zoneName, final String zoneUuid) {
+    @Override
+    public boolean start() {
+        if (PrometheusExporterServer.EnablePrometheusExporter.value()) {
+            refreshExecutor = Executors.newScheduledThreadPool(1, new NamedThreadFactory("PrometheusExporter-Refresh"));
+        }
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        if (refreshExecutor != null) {
+            refreshExecutor.shutdownNow();
+        }
+        return true;
+    }
+
+    /**
+     * Starts the background refresh on the first scrape, so that management servers nobody
+     * scrapes never collect the metrics.
+     */
+    private void scheduleRefresh() {
+        if (refreshExecutor != null && refreshScheduled.compareAndSet(false, true)) {
+            final int interval = PrometheusExporterServer.PrometheusExporterRefreshInterval.value();
+            refreshExecutor.scheduleWithFixedDelay(new MetricsRefreshTask(), 0L, interval > 0 ? interval : 60, TimeUnit.SECONDS);
+        }
+    }
+
+    protected class MetricsRefreshTask extends ManagedContextRunnable {
+        @Override
+        protected void runInContext() {
+            updateMetrics();
+        }
+    }
+
+    /**
+     * Holds everything that is needed to build the metrics of all zones, fetched with one
+     * query per table instead of one query per zone, host or domain.
+     */
+    private final class MetricsSnapshot {
+        final Map<Long, List<HostVO>> hostsByZone = new HashMap<>();
+        final Map<Long, DedicatedResourceVO> dedicatedByHost = new HashMap<>();
+        final Map<Long, Map<Short, CapacityVO>> capacitiesByHost = new HashMap<>();
+        final Map<Long, String> accountNames = new HashMap<>();
+        final Map<Long, String> domainNames = new HashMap<>();
+        final Map<Long, List<StoragePoolJoinVO>> poolsByZone = new HashMap<>();
+        final Map<Long, Map<Resource.ResourceType, Long>> domainResourceCounts = new HashMap<>();
+        final List<DomainJoinVO> domains;
+        final Map<Long, Long> vmsByHost;
+        final Map<Long, Map<State, Long>> vmsByZone;
+        final Map<Long, Map<Volume.State, Long>> volumesByZone;
+
+        MetricsSnapshot() {
+            for (final HostVO host : hostDao.listByType(Host.Type.Routing)) {
+                hostsByZone.computeIfAbsent(host.getDataCenterId(), k -> new ArrayList<>()).add(host);
+            }
+
+            for (final DedicatedResourceVO dr : _dedicatedDao.listAll()) {
+                if (dr.getHostId() != null) {
+                    dedicatedByHost.put(dr.getHostId(), dr);
+                }
+            }
+
+            final SearchBuilder<CapacityVO> capacitySearch = capacityDao.createSearchBuilder();
+            capacitySearch.and("type", capacitySearch.entity().getCapacityType(), SearchCriteria.Op.IN);
+            capacitySearch.done();
+            final SearchCriteria<CapacityVO> sc = capacitySearch.create();
+            sc.setParameters("type", Capacity.CAPACITY_TYPE_CPU, Capacity.CAPACITY_TYPE_MEMORY, Capacity.CAPACITY_TYPE_CPU_CORE);
+            for (final CapacityVO capacity : capacityDao.search(sc, null)) {
+                if (capacity.getHostOrPoolId() != null) {
+                    capacitiesByHost.computeIfAbsent(capacity.getHostOrPoolId(), k -> new HashMap<>()).put(capacity.getCapacityType(), capacity);
+                }
+            }
+
+            domains = domainDao.listAll();
+            for (final DomainJoinVO domain : domains) {
+                domainNames.put(domain.getId(), domain.getName());
+            }
+
+            for (final StoragePoolJoinVO pool : storagePoolJoinDao.listAll()) {
+                poolsByZone.computeIfAbsent(pool.getZoneId(), k -> new ArrayList<>()).add(pool);
+            }
+
+            for (final ResourceCountVO count : _resourceCountDao.listResourceCountByOwnerType(Resource.ResourceOwnerType.Domain)) {
+                domainResourceCounts.computeIfAbsent(count.getDomainId(), k -> new HashMap<>()).put(count.getType(), count.getCount());
+            }
+
+            vmsByHost = vmDao.countGroupedByHost();
+            vmsByZone = vmDao.countByZoneGroupedByState();
+            volumesByZone = volumeDao.countByZoneGroupedByState();
+        }
+
+        String getAccountName(final Long accountId) {
+            if (accountId == null) {
+                return "";
+            }
+            return accountNames.computeIfAbsent(accountId, id -> {
+                final Account account = _accountDao.findById(id);
+                return account != null ? account.getAccountName() : "";
+            });
+        }
+
+        long getDomainResourceCount(final long domainId, final Resource.ResourceType type) {
+            final Map<Resource.ResourceType, Long> counts = domainResourceCounts.get(domainId);
+            if (counts == null) {
+                return 0L;
+            }
+            final Long count = counts.get(type);
+            return count != null ? count : 0L;
+        }
+    }
+
+    private void addHostMetrics(final List<Item> metricsList, final MetricsSnapshot snapshot, final long dcId, final String zoneName, final String zoneUuid) {
         int total = 0;
         int up = 0;
         int down = 0;
-        for (final HostVO host : hostDao.listAll()) {
-            if (host == null || host.getType() != Host.Type.Routing || host.getDataCenterId() != dcId) {
-                continue;
-            }
+        for (final HostVO host : snapshot.hostsByZone.getOrDefault(dcId, Collections.emptyList())) {
             total++;
             if (host.getStatus() == Status.Up && !host.isInMaintenanceStates()) {
                 up++;
@@ -127,22 +253,21 @@ public class PrometheusExporterImpl extends ManagerBase implements PrometheusExp
                 down++;
             }
 
-            final DedicatedResourceVO dr = _dedicatedDao.findByHostId(host.getId());
+            final DedicatedResourceVO dr = snapshot.dedicatedByHost.get(host.getId());
             int isDedicated = (dr != null) ? 1 : 0;
             metricsList.add(new ItemHostIsDedicated(zoneName, zoneUuid, host.getName(), host.getUuid(), host.getPrivateIpAddress(), isDedicated));
 
             // Get account, domain details for dedicated hosts
             if (isDedicated == 1) {
-                String accountName;
-                Account account = (dr.getAccountId() != null) ? _accountDao.findById(dr.getAccountId()) : null;
-                accountName = (account != null) ? account.getAccountName() : "";
-
-                DomainJoinVO domain = domainDao.findById(dr.getDomainId());
-                metricsList.add(new ItemHostDedicatedToAccount(zoneName, host.getName(), accountName, domain.getName(), isDedicated));
+                final String accountName = snapshot.getAccountName(dr.getAccountId());
+                final String domainName = snapshot.domainNames.get(dr.getDomainId());
+                metricsList.add(new ItemHostDedicatedToAccount(zoneName, host.getName(), accountName, domainName, isDedicated));
             }
 
+            final Map<Short, CapacityVO> hostCapacities = snapshot.capacitiesByHost.getOrDefault(host.getId(), Collections.emptyMap());
+
             final String cpuFactor = String.valueOf(CapacityManager.CpuOverprovisioningFactor.valueIn(host.getClusterId()));
-            final CapacityVO cpuCapacity = capacityDao.findByHostIdType(host.getId(), Capacity.CAPACITY_TYPE_CPU);
+            final CapacityVO cpuCapacity = hostCapacities.get(Capacity.CAPACITY_TYPE_CPU);
             if (cpuCapacity != null) {
                 metricsList.add(new ItemHostCpu(zoneName, zoneUuid, host.getName(), host.getUuid(), host.getPrivateIpAddress(), cpuFactor, USED, cpuCapacity.getUsedCapacity()));
                 metricsList.add(new ItemHostCpu(zoneName, zoneUuid, host.getName(), host.getUuid(), host.getPrivateIpAddress(), cpuFactor, TOTAL, cpuCapacity.getTotalCapacity()));
@@ -152,7 +277,7 @@ public class PrometheusExporterImpl extends ManagerBase implements PrometheusExp
             }
 
             final String memoryFactor = String.valueOf(CapacityManager.MemOverprovisioningFactor.valueIn(host.getClusterId()));
-            final CapacityVO memCapacity = capacityDao.findByHostIdType(host.getId(), Capacity.CAPACITY_TYPE_MEMORY);
+            final CapacityVO memCapacity = hostCapacities.get(Capacity.CAPACITY_TYPE_MEMORY);
             if (memCapacity != null) {
                 metricsList.add(new ItemHostMemory(zoneName, zoneUuid, host.getName(), host.getUuid(), host.getPrivateIpAddress(), memoryFactor, USED, memCapacity.getUsedCapacity(), isDedicated));
                 metricsList.add(new ItemHostMemory(zoneName, zoneUuid, host.getName(), host.getUuid(), host.getPrivateIpAddress(), memoryFactor, TOTAL, memCapacity.getTotalCapacity(), isDedicated));
@@ -161,9 +286,10 @@ public class PrometheusExporterImpl extends ManagerBase implements PrometheusExp
                 metricsList.add(new ItemHostMemory(zoneName, zoneUuid, host.getName(), host.getUuid(), host.getPrivateIpAddress(), memoryFactor, TOTAL, 0L, isDedicated));
             }
 
-            metricsList.add(new ItemHostVM(zoneName, zoneUuid, host.getName(), host.getUuid(), host.getPrivateIpAddress(), vmDao.listByHostId(host.getId()).size()));
+            final Long vmCount = snapshot.vmsByHost.get(host.getId());
+            metricsList.add(new ItemHostVM(zoneName, zoneUuid, host.getName(), host.getUuid(), host.getPrivateIpAddress(), vmCount != null ? vmCount.intValue() : 0));
 
-            final CapacityVO coreCapacity = capacityDao.findByHostIdType(host.getId(), Capacity.CAPACITY_TYPE_CPU_CORE);
+            final CapacityVO coreCapacity = hostCapacities.get(Capacity.CAPACITY_TYPE_CPU_CORE);
             if (coreCapacity != null) {
                 metricsList.add(new ItemVMCore(zoneName, zoneUuid, host.getName(), host.getUuid(), host.getPrivateIpAddress(), USED, coreCapacity.getUsedCapacity(), isDedicated));
                 metricsList.add(new ItemVMCore(zoneName, zoneUuid, host.getName(), host.getUuid(), host.getPrivateIpAddress(), TOTAL, coreCapacity.getTotalCapacity(), isDedicated));
@@ -193,41 +319,33 @@ public class PrometheusExporterImpl extends ManagerBase implements PrometheusExp
         metricsList.add(new ItemHost(zoneName, zoneUuid, TOTAL, total));
     }
 
-    private void addVMMetrics(final List<Item> metricsList, final long dcId, final String zoneName, final String zoneUuid) {
+    private void addVMMetrics(final List<Item> metricsList, final MetricsSnapshot snapshot, final long dcId, final String zoneName, final String zoneUuid) {
+        final Map<State, Long> counts = snapshot.vmsByZone.getOrDefault(dcId, Collections.emptyMap());
         for (final State state : State.values()) {
-            final Long count = vmDao.countByZoneAndState(dcId, state);
-            if (count == null) {
-                continue;
-            }
-            metricsList.add(new ItemVM(zoneName, zoneUuid, state.name().toLowerCase(), count));
+            final Long count = counts.get(state);
+            metricsList.add(new ItemVM(zoneName, zoneUuid, state.name().toLowerCase(), count != null ? count : 0L));
         }
     }
 
-    private void addVolumeMetrics(final List<Item> metricsList, final long dcId, final String zoneName, final String zoneUuid) {
-        int total = 0;
-        int ready = 0;
-        int destroyed = 0;
-        for (final VolumeVO volume : volumeDao.findByDc(dcId)) {
-            if (volume == null) {
-                continue;
-            }
-            total++;
-            if (volume.getState() == Volume.State.Ready) {
-                ready++;
-            } else if (volume.getState() == Volume.State.Destroy) {
-                destroyed++;
+    private void addVolumeMetrics(final List<Item> metricsList, final MetricsSnapshot snapshot, final long dcId, final String zoneName, final String zoneUuid) {
+        long total = 0;
+        long ready = 0;
+        long destroyed = 0;
+        for (final Map.Entry<Volume.State, Long> entry : snapshot.volumesByZone.getOrDefault(dcId, Collections.emptyMap()).entrySet()) {
+            total += entry.getValue();
+            if (entry.getKey() == Volume.State.Ready) {
+                ready = entry.getValue();
+            } else if (entry.getKey() == Volume.State.Destroy) {
+                destroyed = entry.getValue();
             }
         }
-        metricsList.add(new ItemVolume(zoneName, zoneUuid, Volume.State.Ready.name().toLowerCase(), ready));
-        metricsList.add(new ItemVolume(zoneName, zoneUuid, Volume.State.Destroy.name().toLowerCase(), destroyed));
-        metricsList.add(new ItemVolume(zoneName, zoneUuid, TOTAL, total));
+        metricsList.add(new ItemVolume(zoneName, zoneUuid, Volume.State.Ready.name().toLowerCase(), (int) ready));
+        metricsList.add(new ItemVolume(zoneName, zoneUuid, Volume.State.Destroy.name().toLowerCase(), (int) destroyed));
+        metricsList.add(new ItemVolume(zoneName, zoneUuid, TOTAL, (int) total));
     }
 
-    private void addStorageMetrics(final List<Item> metricsList, final long dcId, final String zoneName, final String zoneUuid) {
-        for (final StoragePoolJoinVO pool: storagePoolJoinDao.listAll()) {
-            if (pool == null || pool.getZoneId() != dcId) {
-                continue;
-            }
+    private void addStorageMetrics(final List<Item> metricsList, final MetricsSnapshot snapshot, final long dcId, final String zoneName, final String zoneUuid) {
+        for (final StoragePoolJoinVO pool: snapshot.poolsByZone.getOrDefault(dcId, Collections.emptyList())) {
             final String poolName = pool.getName();
             final String poolPath = pool.getHostAddress() + ":" + pool.getPath();
 
@@ -270,11 +388,11 @@ public class PrometheusExporterImpl extends ManagerBase implements PrometheusExp
         metricsList.add(new ItemVlan(zoneName, zoneUuid, TOTAL, dcDao.countZoneVlans(dcId, false)));
     }
 
-    private void addDomainLimits(final List<Item> metricsList) {
+    private void addDomainLimits(final List<Item> metricsList, final MetricsSnapshot snapshot) {
         Long totalCpuLimit = 0L;
         Long totalMemoryLimit = 0L;
 
-        for (final DomainJoinVO domain: domainDao.listAll()) {
+        for (final DomainJoinVO domain: snapshot.domains) {
             if (domain == null || domain.getLevel() != 1) {
                 continue;
             }
@@ -310,21 +428,17 @@ public class PrometheusExporterImpl extends ManagerBase implements PrometheusExp
      *
      * @param metricsList
      */
-    private void addDomainResourceCount(final List<Item> metricsList) {
-        for (final DomainJoinVO domain: domainDao.listAll()) {
+    private void addDomainResourceCount(final List<Item> metricsList, final MetricsSnapshot snapshot) {
+        for (final DomainJoinVO domain: snapshot.domains) {
             // Display stats for ROOT domain also
             if (domain == null) {
                 continue;
             }
 
-            long memoryUsed = _resourceCountDao.getResourceCount(domain.getId(), Resource.ResourceOwnerType.Domain,
-                    Resource.ResourceType.memory);
-            long cpuUsed = _resourceCountDao.getResourceCount(domain.getId(), Resource.ResourceOwnerType.Domain,
-                    Resource.ResourceType.cpu);
-            long primaryStorageUsed = _resourceCountDao.getResourceCount(domain.getId(), Resource.ResourceOwnerType.Domain,
-                    Resource.ResourceType.primary_storage);
-            long secondaryStorageUsed = _resourceCountDao.getResourceCount(domain.getId(), Resource.ResourceOwnerType.Domain,
-                    Resource.ResourceType.secondary_storage);
+            long memoryUsed = snapshot.getDomainResourceCount(domain.getId(), Resource.ResourceType.memory);
+            long cpuUsed = snapshot.getDomainResourceCount(domain.getId(), Resource.ResourceType.cpu);
+            long primaryStorageUsed = snapshot.getDomainResourceCount(domain.getId(), Resource.ResourceType.primary_storage);
+            long secondaryStorageUsed = snapshot.getDomainResourceCount(domain.getId(), Resource.ResourceType.secondary_storage);
 
             metricsList.add(new ItemPerDomainResourceCount(memoryUsed, domain.getName(), Resource.ResourceType.memory.getName()));
             metricsList.add(new ItemPerDomainResourceCount(cpuUsed, domain.getName(), Resource.ResourceType.cpu.getName()));
@@ -335,36 +449,65 @@ public class PrometheusExporterImpl extends ManagerBase implements PrometheusExp
         }
     }
 
+    /**
+     * Rebuilds the metrics of all zones and renders them, so that scrapes only have to serve
+     * the already rendered text. Runs on the refresh thread, a failed refresh is retried on the
+     * next interval while scrapes keep getting the last complete set.
+     */
     @Override
-    public void updateMetrics() {
+    public synchronized void updateMetrics() {
+        final long startTime = System.nanoTime();
         final List<Item> latestMetricsItems = new ArrayList<Item>();
         try {
+            alertManager.recalculateCapacity();
+            final MetricsSnapshot snapshot = new MetricsSnapshot();
             for (final DataCenterVO dc : dcDao.listAll()) {
                 final String zoneName = dc.getName();
                 final String zoneUuid = dc.getUuid();
-                alertManager.recalculateCapacity();
-                addHostMetrics(latestMetricsItems, dc.getId(), zoneName, zoneUuid);
-                addVMMetrics(latestMetricsItems, dc.getId(), zoneName, zoneUuid);
-                addVolumeMetrics(latestMetricsItems, dc.getId(), zoneName, zoneUuid);
-                addStorageMetrics(latestMetricsItems, dc.getId(), zoneName, zoneUuid);
+                addHostMetrics(latestMetricsItems, snapshot, dc.getId(), zoneName, zoneUuid);
+                addVMMetrics(latestMetricsItems, snapshot, dc.getId(), zoneName, zoneUuid);
+                addVolumeMetrics(latestMetricsItems, snapshot, dc.getId(), zoneName, zoneUuid);
+                addStorageMetrics(latestMetricsItems, snapshot, dc.getId(), zoneName, zoneUuid);
                 addIpAddressMetrics(latestMetricsItems, dc.getId(), zoneName, zoneUuid);
                 addVlanMetrics(latestMetricsItems, dc.getId(), zoneName, zoneUuid);
             }
-            addDomainLimits(latestMetricsItems);
-            addDomainResourceCount(latestMetricsItems);
+            addDomainLimits(latestMetricsItems, snapshot);
+            addDomainResourceCount(latestMetricsItems, snapshot);
         } catch (Exception e) {
             LOG.warn("Getting metrics failed ", e);
+            refreshFailures.incrementAndGet();
+            lastRefreshDuration = System.nanoTime() - startTime;
+            if (renderedMetrics != null) {
+                // keep serving the last complete set, the staleness gauge shows its age
+                return;
+            }
         }
-        metricsItems = latestMetricsItems;
-    }
 
-    @Override
-    public String getMetrics() {
-        final StringBuilder stringBuilder = new StringBuilder();
+        final StringBuilder stringBuilder = new StringBuilder(latestMetricsItems.size() * 128);
         stringBuilder.append("# Cloudstack Prometheus Metrics\n");
-        for (final Item item : metricsItems) {
+        for (final Item item : latestMetricsItems) {
             stringBuilder.append(item.toMetricsString()).append("\n");
         }
+        renderedMetrics = stringBuilder.toString();
+        lastRefreshDuration = System.nanoTime() - startTime;
+        lastRefreshTime = System.currentTimeMillis();
+    }
+
+    @Override
+    public String getMetrics() {
+        scheduleRefresh();
+        final String metrics = renderedMetrics;
+        final StringBuilder stringBuilder = new StringBuilder((metrics == null ? 0 : metrics.length()) + 256);
+        if (metrics == null) {
+            // the first refresh is still running
+            stringBuilder.append("# Cloudstack Prometheus Metrics\n");
+        } else {
+            stringBuilder.append(metrics);
+            final double age = (System.currentTimeMillis() - lastRefreshTime) / 1000.0;
+            stringBuilder.append(String.format(Locale.ROOT, "cloudstack_exporter_metrics_age_seconds %.3f\n", age));
+        }
+        stringBuilder.append(String.format(Locale.ROOT, "cloudstack_exporter_refresh_duration_seconds %.3f\n", lastRefreshDuration / 1e9));
+        stringBuilder.append(String.format(Locale.ROOT, "cloudstack_exporter_refresh_failures_total %d\n", refreshFailures.get()));
         return stringBuilder.toString();
     }
 
@@ -53,7 +53,6 @@ public class PrometheusExporterServerImpl extends ManagerBase implements Prometh
             String response = "Forbidden";
             int responseCode = 403;
             if (Arrays.asList(PrometheusExporterAllowedAddresses.value().split(",")).contains(remoteClientAddress)) {
-                prometheusExporter.updateMetrics();
                 response = prometheusExporter.getMetrics();
                 responseCode = 200;
             }
@@ -112,7 +111,8 @@ public class PrometheusExporterServerImpl extends ManagerBase implements Prometh
         return new ConfigKey<?>[] {
                 EnablePrometheusExporter,
                 PrometheusExporterServerPort,
-                PrometheusExporterAllowedAddresses
+                PrometheusExporterAllowedAddresses,
+                PrometheusExporterRefreshInterval
         };
     }
 }
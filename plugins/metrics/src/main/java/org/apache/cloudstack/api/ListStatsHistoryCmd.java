@@ -0,0 +1,106 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.api;
+
+import java.util.Date;
+import java.util.List;
+
+import javax.inject.Inject;
+
+import org.apache.cloudstack.acl.RoleType;
+import org.apache.cloudstack.api.response.ListResponse;
+import org.apache.cloudstack.context.CallContext;
+import org.apache.cloudstack.metrics.MetricsService;
+import org.apache.cloudstack.response.StatsHistoryResponse;
+
+@APICommand(name = ListStatsHistoryCmd.APINAME, description = "Lists the recent statistics history of a host, VM, volume, storage pool or image store",
+        responseObject = StatsHistoryResponse.class, requestHasSensitiveInfo = false, responseHasSensitiveInfo = false,
+        since = "4.15.0", authorized = {RoleType.Admin, RoleType.ResourceAdmin, RoleType.DomainAdmin, RoleType.User})
+public class ListStatsHistoryCmd extends BaseCmd {
+    public static final String APINAME = "listStatsHistory";
+
+    @Inject
+    private MetricsService metricsService;
+
+    /////////////////////////////////////////////////////
+    //////////////// API parameters /////////////////////
+    /////////////////////////////////////////////////////
+
+    @Parameter(name = ApiConstants.RESOURCE_TYPE, type = CommandType.STRING, required = true,
+            description = "the type of the resource: Host, VirtualMachine, Volume, StoragePool or ImageStore")
+    private String resourceType;
+
+    @Parameter(name = ApiConstants.RESOURCE_ID, type = CommandType.STRING, required = true, description = "the UUID of the resource")
+    private String resourceId;
+
+    @Parameter(name = "metric", type = CommandType.STRING, description = "the metric to list, all the metrics of the resource are listed if not specified")
+    private String metric;
+
+    @Parameter(name = ApiConstants.INTERVAL, type = CommandType.STRING, description = "the length of the buckets: minute (default), hour or day")
+    private String interval;
+
+    @Parameter(name = ApiConstants.START_DATE, type = CommandType.DATE, description = "only list the buckets starting from this date. "
+            + "The date format is yyyy-MM-dd'T'HH:mm:ss")
+    private Date startDate;
+
+    /////////////////////////////////////////////////////
+    /////////////////// Accessors ///////////////////////
+    /////////////////////////////////////////////////////
+
+    public String getResourceType() {
+        return resourceType;
+    }
+
+    public String getResourceId() {
+        return resourceId;
+    }
+
+    public String getMetric() {
+        return metric;
+    }
+
+    public String getInterval() {
+        return interval;
+    }
+
+    public Date getStartDate() {
+        return startDate;
+    }
+
+    /////////////////////////////////////////////////////
+    /////////////// API Implementation///////////////////
+    /////////////////////////////////////////////////////
+
+    @Override
+    public String getCommandName() {
+        return APINAME.toLowerCase() + BaseCmd.RESPONSE_SUFFIX;
+    }
+
+    @Override
+    public long getEntityOwnerId() {
+        return CallContext.current().getCallingAccountId();
+    }
+
+    @Override
+    public void execute() {
+        final List<StatsHistoryResponse> histories = metricsService.listStatsHistory(this);
+        final ListResponse<StatsHistoryResponse> response = new ListResponse<>();
+        response.setResponses(histories, histories.size());
+        response.setResponseName(getCommandName());
+        setResponseObject(response);
+    }
+}
@@ -19,6 +19,7 @@ package org.apache.cloudstack.metrics;
 
 import com.cloud.utils.Pair;
 import com.cloud.utils.component.PluggableService;
+import org.apache.cloudstack.api.ListStatsHistoryCmd;
 import org.apache.cloudstack.api.response.ClusterResponse;
 import org.apache.cloudstack.api.response.HostResponse;
 import org.apache.cloudstack.api.response.StoragePoolResponse;
@@ -28,6 +29,7 @@ import org.apache.cloudstack.api.response.ZoneResponse;
 import org.apache.cloudstack.response.ClusterMetricsResponse;
 import org.apache.cloudstack.response.HostMetricsResponse;
 import org.apache.cloudstack.response.InfrastructureResponse;
+import org.apache.cloudstack.response.StatsHistoryResponse;
 import org.apache.cloudstack.response.StoragePoolMetricsResponse;
 import org.apache.cloudstack.response.VmMetricsResponse;
 import org.apache.cloudstack.response.VolumeMetricsResponse;
@@ -44,4 +46,5 @@ public interface MetricsService extends PluggableService {
     List<HostMetricsResponse> listHostMetrics(List<HostResponse> poolResponses);
     List<ClusterMetricsResponse> listClusterMetrics(Pair<List<ClusterResponse>, Integer> clusterResponses);
     List<ZoneMetricsResponse> listZoneMetrics(List<ZoneResponse> poolResponses);
+    List<StatsHistoryResponse> listStatsHistory(ListStatsHistoryCmd cmd);
 }
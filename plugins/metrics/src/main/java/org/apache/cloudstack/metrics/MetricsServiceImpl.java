@@ -19,14 +19,24 @@ package org.apache.cloudstack.metrics;
 
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 import javax.inject.Inject;
 
 import org.apache.cloudstack.api.ApiErrorCode;
+import org.apache.cloudstack.api.Identity;
 import org.apache.cloudstack.api.ListClustersMetricsCmd;
 import org.apache.cloudstack.api.ListHostsMetricsCmd;
 import org.apache.cloudstack.api.ListInfrastructureCmd;
+import org.apache.cloudstack.api.ListStatsHistoryCmd;
 import org.apache.cloudstack.api.ListStoragePoolsMetricsCmd;
 import org.apache.cloudstack.api.ListVMsMetricsCmd;
 import org.apache.cloudstack.api.ListVolumesMetricsCmd;
@@ -42,12 +52,16 @@ import org.apache.cloudstack.context.CallContext;
 import org.apache.cloudstack.response.ClusterMetricsResponse;
 import org.apache.cloudstack.response.HostMetricsResponse;
 import org.apache.cloudstack.response.InfrastructureResponse;
+import org.apache.cloudstack.response.StatsHistoryPointResponse;
+import org.apache.cloudstack.response.StatsHistoryResponse;
 import org.apache.cloudstack.response.StoragePoolMetricsResponse;
 import org.apache.cloudstack.response.VmMetricsResponse;
 import org.apache.cloudstack.response.VolumeMetricsResponse;
 import org.apache.cloudstack.response.ZoneMetricsResponse;
 import org.apache.cloudstack.storage.datastore.db.ImageStoreDao;
+import org.apache.cloudstack.storage.datastore.db.ImageStoreVO;
 import org.apache.cloudstack.storage.datastore.db.PrimaryDataStoreDao;
+import org.apache.cloudstack.storage.datastore.db.StoragePoolVO;
 import org.apache.commons.beanutils.BeanUtils;
 
 import com.cloud.alert.AlertManager;
@@ -60,23 +74,36 @@ import com.cloud.capacity.CapacityManager;
 import com.cloud.capacity.dao.CapacityDao;
 import com.cloud.capacity.dao.CapacityDaoImpl;
 import com.cloud.cluster.dao.ManagementServerHostDao;
+import com.cloud.dc.ClusterDetailsDao;
+import com.cloud.dc.ClusterVO;
 import com.cloud.dc.DataCenter;
+import com.cloud.dc.DataCenterVO;
 import com.cloud.dc.dao.ClusterDao;
 import com.cloud.dc.dao.DataCenterDao;
 import com.cloud.dc.dao.HostPodDao;
 import com.cloud.deploy.DeploymentClusterPlanner;
+import com.cloud.exception.InvalidParameterValueException;
+import com.cloud.exception.PermissionDeniedException;
 import com.cloud.host.Host;
 import com.cloud.host.HostStats;
+import com.cloud.host.HostVO;
 import com.cloud.host.Status;
 import com.cloud.host.dao.HostDao;
 import com.cloud.network.router.VirtualRouter;
 import com.cloud.org.Cluster;
 import com.cloud.org.Grouping;
 import com.cloud.org.Managed;
+import com.cloud.server.StatsHistory;
+import com.cloud.storage.Storage.ImageFormat;
+import com.cloud.storage.VolumeVO;
+import com.cloud.storage.dao.VolumeDao;
 import com.cloud.user.Account;
 import com.cloud.user.AccountManager;
 import com.cloud.utils.Pair;
 import com.cloud.utils.component.ComponentLifecycleBase;
+import com.cloud.utils.db.GenericDao;
+import com.cloud.utils.db.SearchBuilder;
+import com.cloud.utils.db.SearchCriteria;
 import com.cloud.vm.VMInstanceVO;
 import com.cloud.vm.VirtualMachine;
 import com.cloud.vm.dao.DomainRouterDao;
@@ -101,10 +128,14 @@ public class MetricsServiceImpl extends ComponentLifecycleBase implements Metric
     @Inject
     private VMInstanceDao vmInstanceDao;
     @Inject
+    private VolumeDao volumeDao;
+    @Inject
     private DomainRouterDao domainRouterDao;
     @Inject
     private CapacityDao capacityDao;
     @Inject
+    private ClusterDetailsDao clusterDetailsDao;
+    @Inject
     private AccountManager accountMgr;
     @Inject
     private ManagementServerHostDao managementServerHostDao;
@@ -144,18 +175,12 @@ public class MetricsServiceImpl extends ComponentLifecycleBase implements Metric
         response.setHosts(hostDao.countAllByType(Host.Type.Routing));
         response.setStoragePools(storagePoolDao.countAll());
         response.setImageStores(imageStoreDao.countAllImageStores());
-        response.setSystemvms(vmInstanceDao.listByTypes(VirtualMachine.Type.ConsoleProxy, VirtualMachine.Type.SecondaryStorageVm).size());
+        response.setSystemvms(vmInstanceDao.countByTypes(VirtualMachine.Type.ConsoleProxy, VirtualMachine.Type.SecondaryStorageVm));
         response.setRouters(domainRouterDao.countAllByRole(VirtualRouter.Role.VIRTUAL_ROUTER));
         response.setInternalLbs(domainRouterDao.countAllByRole(VirtualRouter.Role.INTERNAL_LB_VM));
         response.setAlerts(alertDao.countAll());
-        int cpuSockets = 0;
-        for (final Host host : hostDao.listByType(Host.Type.Routing)) {
-            if (host.getCpuSockets() != null) {
-                cpuSockets += host.getCpuSockets();
-            }
-        }
-        response.setCpuSockets(cpuSockets);
-        response.setManagementServers(managementServerHostDao.listAll().size());
+        response.setCpuSockets((int) hostDao.sumCpuSocketsByType(Host.Type.Routing));
+        response.setManagementServers(managementServerHostDao.countAll());
         return response;
     }
 
@@ -243,6 +268,23 @@ public class MetricsServiceImpl extends ComponentLifecycleBase implements Metric
     @Override
     public List<HostMetricsResponse> listHostMetrics(List<HostResponse> hostResponses) {
         final List<HostMetricsResponse> metricsResponses = new ArrayList<>();
+        final List<String> hostUuids = new ArrayList<>();
+        for (final HostResponse hostResponse: hostResponses) {
+            hostUuids.add(hostResponse.getId());
+        }
+        final Map<String, HostVO> hosts = findByUuids(hostDao, hostUuids);
+        final List<Long> hostIds = new ArrayList<>();
+        final Set<Long> clusterIds = new HashSet<>();
+        for (final HostVO host : hosts.values()) {
+            hostIds.add(host.getId());
+            if (host.getClusterId() != null) {
+                clusterIds.add(host.getClusterId());
+            }
+        }
+        final Map<Long, String> cpuOvercommitRatios = clusterDetailsDao.findDetailValues(new ArrayList<>(clusterIds), "cpuOvercommitRatio");
+        final Map<Long, String> memoryOvercommitRatios = clusterDetailsDao.findDetailValues(new ArrayList<>(clusterIds), "memoryOvercommitRatio");
+        final Map<Long, Map<VirtualMachine.State, Long>> userVmCounts = vmInstanceDao.countByHostsGroupedByState(hostIds, VirtualMachine.Type.User);
+
         for (final HostResponse hostResponse: hostResponses) {
             HostMetricsResponse metricsResponse = new HostMetricsResponse();
 
@@ -252,7 +294,7 @@ public class MetricsServiceImpl extends ComponentLifecycleBase implements Metric
                 throw new ServerApiException(ApiErrorCode.INTERNAL_ERROR, "Failed to generate host metrics response");
             }
 
-            final Host host = hostDao.findByUuid(hostResponse.getId());
+            final Host host = hosts.get(hostResponse.getId());
             if (host == null) {
                 continue;
             }
@@ -265,20 +307,15 @@ public class MetricsServiceImpl extends ComponentLifecycleBase implements Metric
             final Float cpuDisableThreshold = DeploymentClusterPlanner.ClusterCPUCapacityDisableThreshold.valueIn(clusterId);
             final Float memoryDisableThreshold = DeploymentClusterPlanner.ClusterMemoryCapacityDisableThreshold.valueIn(clusterId);
             // Over commit ratios
-            final Double cpuOvercommitRatio = findRatioValue(ApiDBUtils.findClusterDetails(clusterId, "cpuOvercommitRatio"));
-            final Double memoryOvercommitRatio = findRatioValue(ApiDBUtils.findClusterDetails(clusterId, "memoryOvercommitRatio"));
+            final Double cpuOvercommitRatio = findRatioValue(cpuOvercommitRatios.get(clusterId));
+            final Double memoryOvercommitRatio = findRatioValue(memoryOvercommitRatios.get(clusterId));
 
             Long upInstances = 0L;
             Long totalInstances = 0L;
-            for (final VMInstanceVO instance: vmInstanceDao.listByHostId(hostId)) {
-                if (instance == null) {
-                    continue;
-                }
-                if (instance.getType() == VirtualMachine.Type.User) {
-                    totalInstances++;
-                    if (instance.getState() == VirtualMachine.State.Running) {
-                        upInstances++;
-                    }
+            for (final Map.Entry<VirtualMachine.State, Long> count : userVmCounts.getOrDefault(hostId, Collections.emptyMap()).entrySet()) {
+                totalInstances += count.getValue();
+                if (count.getKey() == VirtualMachine.State.Running) {
+                    upInstances += count.getValue();
                 }
             }
             metricsResponse.setPowerState(hostResponse.getOutOfBandManagementResponse().getPowerState());
@@ -307,17 +344,69 @@ public class MetricsServiceImpl extends ComponentLifecycleBase implements Metric
         return metricsResponses;
     }
 
-    private CapacityDaoImpl.SummedCapacity getCapacity(final int capacityType, final Long zoneId, final Long clusterId) {
-        final List<CapacityDaoImpl.SummedCapacity> capacities = capacityDao.findCapacityBy(capacityType, zoneId, null, clusterId);
-        if (capacities == null || capacities.size() < 1) {
-            return null;
+    private <T extends Identity> Map<String, T> findByUuids(final GenericDao<T, Long> dao, final List<String> uuids) {
+        final Map<String, T> result = new HashMap<>();
+        if (uuids.isEmpty()) {
+            return result;
+        }
+        final SearchBuilder<T> sb = dao.createSearchBuilder();
+        sb.and("uuids", sb.entity().getUuid(), SearchCriteria.Op.IN);
+        sb.done();
+        final SearchCriteria<T> sc = sb.create();
+        sc.setParameters("uuids", uuids.toArray());
+        for (final T vo : dao.search(sc, null)) {
+            result.put(vo.getUuid(), vo);
+        }
+        return result;
+    }
+
+    private Map<Long, CapacityDaoImpl.SummedCapacity> getCapacityByCluster(final int capacityType, final List<Long> clusterIds) {
+        final Map<Long, CapacityDaoImpl.SummedCapacity> capacities = new HashMap<>();
+        for (final CapacityDaoImpl.SummedCapacity capacity : capacityDao.findCapacityByClusters(capacityType, clusterIds)) {
+            capacities.put(capacity.getClusterId(), capacity);
         }
-        return capacities.get(0);
+        return capacities;
+    }
+
+    private Map<Long, CapacityDaoImpl.SummedCapacity> getCapacityByZone(final int capacityType) {
+        final Map<Long, CapacityDaoImpl.SummedCapacity> capacities = new HashMap<>();
+        for (final CapacityDaoImpl.SummedCapacity capacity : capacityDao.findCapacityBy(capacityType, null, null, null)) {
+            capacities.put(capacity.getDataCenterId(), capacity);
+        }
+        return capacities;
+    }
+
+    /**
+     * Lists the routing hosts of the given clusters with one query, grouped by cluster id.
+     * The host view has a row per host tag, so hosts are deduplicated on their id.
+     */
+    private Map<Long, List<HostJoinVO>> listRoutingHostsByCluster(final List<Long> clusterIds) {
+        final Map<Long, List<HostJoinVO>> hostsByCluster = new HashMap<>();
+        final Set<Long> seenHostIds = new HashSet<>();
+        for (final HostJoinVO host : hostJoinDao.findByClusterIds(clusterIds, Host.Type.Routing)) {
+            if (seenHostIds.add(host.getId())) {
+                hostsByCluster.computeIfAbsent(host.getClusterId(), k -> new ArrayList<>()).add(host);
+            }
+        }
+        return hostsByCluster;
     }
 
     @Override
     public List<ClusterMetricsResponse> listClusterMetrics(Pair<List<ClusterResponse>, Integer> clusterResponses) {
         final List<ClusterMetricsResponse> metricsResponses = new ArrayList<>();
+        final List<String> clusterUuids = new ArrayList<>();
+        for (final ClusterResponse clusterResponse: clusterResponses.first()) {
+            clusterUuids.add(clusterResponse.getId());
+        }
+        final Map<String, ClusterVO> clusters = findByUuids(clusterDao, clusterUuids);
+        final List<Long> clusterIds = new ArrayList<>();
+        for (final ClusterVO cluster : clusters.values()) {
+            clusterIds.add(cluster.getId());
+        }
+        final Map<Long, CapacityDaoImpl.SummedCapacity> cpuCapacities = getCapacityByCluster((int) Capacity.CAPACITY_TYPE_CPU, clusterIds);
+        final Map<Long, CapacityDaoImpl.SummedCapacity> memoryCapacities = getCapacityByCluster((int) Capacity.CAPACITY_TYPE_MEMORY, clusterIds);
+        final Map<Long, List<HostJoinVO>> hostsByCluster = listRoutingHostsByCluster(clusterIds);
+
         for (final ClusterResponse clusterResponse: clusterResponses.first()) {
             ClusterMetricsResponse metricsResponse = new ClusterMetricsResponse();
 
@@ -327,7 +416,7 @@ public class MetricsServiceImpl extends ComponentLifecycleBase implements Metric
                 throw new ServerApiException(ApiErrorCode.INTERNAL_ERROR, "Failed to generate cluster metrics response");
             }
 
-            final Cluster cluster = clusterDao.findByUuid(clusterResponse.getId());
+            final Cluster cluster = clusters.get(clusterResponse.getId());
             if (cluster == null) {
                 continue;
             }
@@ -340,19 +429,14 @@ public class MetricsServiceImpl extends ComponentLifecycleBase implements Metric
             final Float memoryDisableThreshold = DeploymentClusterPlanner.ClusterMemoryCapacityDisableThreshold.valueIn(clusterId);
 
             // CPU and memory capacities
-            final CapacityDaoImpl.SummedCapacity cpuCapacity = getCapacity((int) Capacity.CAPACITY_TYPE_CPU, null, clusterId);
-            final CapacityDaoImpl.SummedCapacity memoryCapacity = getCapacity((int) Capacity.CAPACITY_TYPE_MEMORY, null, clusterId);
-            final Metrics metrics = new Metrics(cpuCapacity, memoryCapacity);
+            final Metrics metrics = new Metrics(cpuCapacities.get(clusterId), memoryCapacities.get(clusterId));
 
-            for (final Host host: hostDao.findByClusterId(clusterId)) {
-                if (host == null || host.getType() != Host.Type.Routing) {
-                    continue;
-                }
+            for (final HostJoinVO host: hostsByCluster.getOrDefault(clusterId, Collections.emptyList())) {
                 if (host.getStatus() == Status.Up) {
                     metrics.incrUpResources();
                 }
                 metrics.incrTotalResources();
-                updateHostMetrics(metrics, hostJoinDao.findById(host.getId()));
+                updateHostMetrics(metrics, host);
             }
 
             metricsResponse.setState(clusterResponse.getAllocationState(), clusterResponse.getManagedState());
@@ -390,6 +474,32 @@ public class MetricsServiceImpl extends ComponentLifecycleBase implements Metric
     @Override
     public List<ZoneMetricsResponse> listZoneMetrics(List<ZoneResponse> zoneResponses) {
         final List<ZoneMetricsResponse> metricsResponses = new ArrayList<>();
+        final List<String> zoneUuids = new ArrayList<>();
+        for (final ZoneResponse zoneResponse: zoneResponses) {
+            zoneUuids.add(zoneResponse.getId());
+        }
+        final Map<String, DataCenterVO> zones = findByUuids(dataCenterDao, zoneUuids);
+        final Map<Long, List<ClusterVO>> clustersByZone = new HashMap<>();
+        final List<Long> clusterIds = new ArrayList<>();
+        if (!zones.isEmpty()) {
+            final List<Long> zoneIds = new ArrayList<>();
+            for (final DataCenterVO zone : zones.values()) {
+                zoneIds.add(zone.getId());
+            }
+            final SearchBuilder<ClusterVO> sb = clusterDao.createSearchBuilder();
+            sb.and("zoneIds", sb.entity().getDataCenterId(), SearchCriteria.Op.IN);
+            sb.done();
+            final SearchCriteria<ClusterVO> sc = sb.create();
+            sc.setParameters("zoneIds", zoneIds.toArray());
+            for (final ClusterVO cluster : clusterDao.search(sc, null)) {
+                clustersByZone.computeIfAbsent(cluster.getDataCenterId(), k -> new ArrayList<>()).add(cluster);
+                clusterIds.add(cluster.getId());
+            }
+        }
+        final Map<Long, CapacityDaoImpl.SummedCapacity> cpuCapacities = getCapacityByZone((int) Capacity.CAPACITY_TYPE_CPU);
+        final Map<Long, CapacityDaoImpl.SummedCapacity> memoryCapacities = getCapacityByZone((int) Capacity.CAPACITY_TYPE_MEMORY);
+        final Map<Long, List<HostJoinVO>> hostsByCluster = listRoutingHostsByCluster(clusterIds);
+
         for (final ZoneResponse zoneResponse: zoneResponses) {
             ZoneMetricsResponse metricsResponse = new ZoneMetricsResponse();
 
@@ -399,7 +509,7 @@ public class MetricsServiceImpl extends ComponentLifecycleBase implements Metric
                 throw new ServerApiException(ApiErrorCode.INTERNAL_ERROR, "Failed to generate zone metrics response");
             }
 
-            final DataCenter zone = dataCenterDao.findByUuid(zoneResponse.getId());
+            final DataCenter zone = zones.get(zoneResponse.getId());
             if (zone == null) {
                 continue;
             }
@@ -412,25 +522,17 @@ public class MetricsServiceImpl extends ComponentLifecycleBase implements Metric
             final Float memoryDisableThreshold = DeploymentClusterPlanner.ClusterMemoryCapacityDisableThreshold.value();
 
             // CPU and memory capacities
-            final CapacityDaoImpl.SummedCapacity cpuCapacity = getCapacity((int) Capacity.CAPACITY_TYPE_CPU, zoneId, null);
-            final CapacityDaoImpl.SummedCapacity memoryCapacity = getCapacity((int) Capacity.CAPACITY_TYPE_MEMORY, zoneId, null);
-            final Metrics metrics = new Metrics(cpuCapacity, memoryCapacity);
+            final Metrics metrics = new Metrics(cpuCapacities.get(zoneId), memoryCapacities.get(zoneId));
 
-            for (final Cluster cluster : clusterDao.listClustersByDcId(zoneId)) {
-                if (cluster == null) {
-                    continue;
-                }
+            for (final Cluster cluster : clustersByZone.getOrDefault(zoneId, Collections.emptyList())) {
                 metrics.incrTotalResources();
                 if (cluster.getAllocationState() == Grouping.AllocationState.Enabled
                         && cluster.getManagedState() == Managed.ManagedState.Managed) {
                     metrics.incrUpResources();
                 }
 
-                for (final Host host: hostDao.findByClusterId(cluster.getId())) {
-                    if (host == null || host.getType() != Host.Type.Routing) {
-                        continue;
-                    }
-                    updateHostMetrics(metrics, hostJoinDao.findById(host.getId()));
+                for (final HostJoinVO host: hostsByCluster.getOrDefault(cluster.getId(), Collections.emptyList())) {
+                    updateHostMetrics(metrics, host);
                 }
             }
 
@@ -466,6 +568,103 @@ public class MetricsServiceImpl extends ComponentLifecycleBase implements Metric
         return metricsResponses;
     }
 
+    @Override
+    public List<StatsHistoryResponse> listStatsHistory(final ListStatsHistoryCmd cmd) {
+        final StatsHistory.ResourceType resourceType = parseStatsHistoryResourceType(cmd.getResourceType());
+        StatsHistory.Interval interval = StatsHistory.Interval.MINUTE;
+        if (cmd.getInterval() != null) {
+            try {
+                interval = StatsHistory.Interval.valueOf(cmd.getInterval().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new InvalidParameterValueException("Invalid interval " + cmd.getInterval() + ", valid values are minute, hour and day");
+            }
+        }
+        final String historyId = findStatsHistoryId(resourceType, cmd.getResourceId());
+        final StatsHistory statsHistory = ApiDBUtils.getStatsHistory();
+        final Collection<String> metrics = cmd.getMetric() != null ? Collections.singleton(cmd.getMetric())
+                : new TreeSet<String>(statsHistory.getMetrics(resourceType, historyId));
+
+        final List<StatsHistoryResponse> responses = new ArrayList<>();
+        for (final String metric : metrics) {
+            final List<StatsHistoryPointResponse> points = new ArrayList<>();
+            for (final StatsHistory.Point point : statsHistory.getPoints(resourceType, historyId, metric, interval, cmd.getStartDate())) {
+                final StatsHistoryPointResponse pointResponse = new StatsHistoryPointResponse();
+                pointResponse.setTimestamp(point.getTimestamp());
+                pointResponse.setAverage(point.getAverage());
+                pointResponse.setMinimum(point.getMinimum());
+                pointResponse.setMaximum(point.getMaximum());
+                pointResponse.setSamples(point.getSamples());
+                points.add(pointResponse);
+            }
+            final StatsHistoryResponse response = new StatsHistoryResponse();
+            response.setResourceId(cmd.getResourceId());
+            response.setResourceType(resourceType.name());
+            response.setMetric(metric);
+            response.setInterval(interval.name().toLowerCase());
+            response.setPoints(points);
+            responses.add(response);
+        }
+        return responses;
+    }
+
+    private StatsHistory.ResourceType parseStatsHistoryResourceType(final String resourceType) {
+        for (final StatsHistory.ResourceType type : StatsHistory.ResourceType.values()) {
+            if (type.name().equalsIgnoreCase(resourceType)) {
+                return type;
+            }
+        }
+        throw new InvalidParameterValueException("Invalid resource type " + resourceType + ", valid values are " + Arrays.toString(StatsHistory.ResourceType.values()));
+    }
+
+    /**
+     * Returns the id the stats history knows the resource by, after checking the caller may see it.
+     * Volumes are tracked by the same locator as the volume stats, which depends on the volume format.
+     */
+    private String findStatsHistoryId(final StatsHistory.ResourceType resourceType, final String uuid) {
+        final Account caller = CallContext.current().getCallingAccount();
+        switch (resourceType) {
+        case VirtualMachine:
+            final VMInstanceVO vm = vmInstanceDao.findByUuid(uuid);
+            if (vm == null) {
+                throw new InvalidParameterValueException("Unable to find a virtual machine with id " + uuid);
+            }
+            accountMgr.checkAccess(caller, null, true, vm);
+            return String.valueOf(vm.getId());
+        case Volume:
+            final VolumeVO volume = volumeDao.findByUuid(uuid);
+            if (volume == null) {
+                throw new InvalidParameterValueException("Unable to find a volume with id " + uuid);
+            }
+            accountMgr.checkAccess(caller, null, true, volume);
+            if (volume.getFormat() == ImageFormat.VHD) {
+                return volume.getPath();
+            } else if (volume.getFormat() == ImageFormat.OVA) {
+                return volume.getChainInfo();
+            }
+            return volume.getUuid();
+        default:
+            break;
+        }
+        if (!accountMgr.isRootAdmin(caller.getId())) {
+            throw new PermissionDeniedException("Only root admins may list the stats history of a " + resourceType);
+        }
+        Long id = null;
+        if (resourceType == StatsHistory.ResourceType.Host) {
+            final HostVO host = hostDao.findByUuid(uuid);
+            id = host == null ? null : host.getId();
+        } else if (resourceType == StatsHistory.ResourceType.StoragePool) {
+            final StoragePoolVO pool = storagePoolDao.findByUuid(uuid);
+            id = pool == null ? null : pool.getId();
+        } else if (resourceType == StatsHistory.ResourceType.ImageStore) {
+            final ImageStoreVO store = imageStoreDao.findByUuid(uuid);
+            id = store == null ? null : store.getId();
+        }
+        if (id == null) {
+            throw new InvalidParameterValueException("Unable to find a " + resourceType + " with id " + uuid);
+        }
+        return String.valueOf(id);
+    }
+
     @Override
     public List<Class<?>> getCommands() {
         List<Class<?>> cmdList = new ArrayList<Class<?>>();
@@ -476,6 +675,7 @@ public class MetricsServiceImpl extends ComponentLifecycleBase implements Metric
         cmdList.add(ListHostsMetricsCmd.class);
         cmdList.add(ListClustersMetricsCmd.class);
         cmdList.add(ListZonesMetricsCmd.class);
+        cmdList.add(ListStatsHistoryCmd.class);
         return cmdList;
     }
 
@@ -0,0 +1,71 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.response;
+
+import java.util.Date;
+
+import org.apache.cloudstack.api.BaseResponse;
+
+import com.cloud.serializer.Param;
+import com.google.gson.annotations.SerializedName;
+
+public class StatsHistoryPointResponse extends BaseResponse {
+
+    @SerializedName("timestamp")
+    @Param(description = "the start of the bucket")
+    private Date timestamp;
+
+    @SerializedName("average")
+    @Param(description = "the average of the samples in the bucket")
+    private Double average;
+
+    @SerializedName("minimum")
+    @Param(description = "the lowest sample in the bucket")
+    private Double minimum;
+
+    @SerializedName("maximum")
+    @Param(description = "the highest sample in the bucket")
+    private Double maximum;
+
+    @SerializedName("samples")
+    @Param(description = "the number of samples in the bucket")
+    private Integer samples;
+
+    public StatsHistoryPointResponse() {
+        setObjectName("point");
+    }
+
+    public void setTimestamp(final Date timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    public void setAverage(final Double average) {
+        this.average = average;
+    }
+
+    public void setMinimum(final Double minimum) {
+        this.minimum = minimum;
+    }
+
+    public void setMaximum(final Double maximum) {
+        this.maximum = maximum;
+    }
+
+    public void setSamples(final Integer samples) {
+        this.samples = samples;
+    }
+}
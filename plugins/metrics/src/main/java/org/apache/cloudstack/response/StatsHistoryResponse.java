@@ -0,0 +1,72 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.response;
+
+import java.util.List;
+
+import org.apache.cloudstack.api.ApiConstants;
+import org.apache.cloudstack.api.BaseResponse;
+
+import com.cloud.serializer.Param;
+import com.google.gson.annotations.SerializedName;
+
+public class StatsHistoryResponse extends BaseResponse {
+
+    @SerializedName(ApiConstants.RESOURCE_ID)
+    @Param(description = "the UUID of the resource")
+    private String resourceId;
+
+    @SerializedName(ApiConstants.RESOURCE_TYPE)
+    @Param(description = "the type of the resource")
+    private String resourceType;
+
+    @SerializedName("metric")
+    @Param(description = "the name of the metric")
+    private String metric;
+
+    @SerializedName(ApiConstants.INTERVAL)
+    @Param(description = "the length of the buckets")
+    private String interval;
+
+    @SerializedName("point")
+    @Param(description = "the buckets holding samples, oldest first", responseObject = StatsHistoryPointResponse.class)
+    private List<StatsHistoryPointResponse> points;
+
+    public StatsHistoryResponse() {
+        setObjectName("statshistory");
+    }
+
+    public void setResourceId(final String resourceId) {
+        this.resourceId = resourceId;
+    }
+
+    public void setResourceType(final String resourceType) {
+        this.resourceType = resourceType;
+    }
+
+    public void setMetric(final String metric) {
+        this.metric = metric;
+    }
+
+    public void setInterval(final String interval) {
+        this.interval = interval;
+    }
+
+    public void setPoints(final List<StatsHistoryPointResponse> points) {
+        this.points = points;
+    }
+}
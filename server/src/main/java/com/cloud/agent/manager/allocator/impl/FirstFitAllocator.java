@@ -18,6 +18,7 @@ package com.cloud.agent.manager.allocator.impl;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -32,6 +33,8 @@ import org.springframework.stereotype.Component;
 import com.cloud.agent.manager.allocator.HostAllocator;
 import com.cloud.capacity.CapacityManager;
 import com.cloud.capacity.CapacityVO;
+import com.cloud.capacity.HostCapacityIndex;
+import com.cloud.capacity.HostCapacityIndex.HostCapacity;
 import com.cloud.capacity.dao.CapacityDao;
 import com.cloud.configuration.Config;
 import com.cloud.dc.ClusterDetailsDao;
@@ -97,6 +100,8 @@ public class FirstFitAllocator extends AdapterBase implements HostAllocator {
     CapacityDao _capacityDao;
     @Inject
     UserVmDetailsDao _userVmDetailsDao;
+    @Inject
+    HostCapacityIndex _hostCapacityIndex;
 
     boolean _checkHvm = true;
     protected String _allocationAlgorithm = "random";
@@ -305,6 +310,9 @@ public class FirstFitAllocator extends AdapterBase implements HostAllocator {
         long serviceOfferingId = offering.getId();
         List<Host> suitableHosts = new ArrayList<Host>();
         ServiceOfferingDetailsVO offeringDetails = null;
+        int cpu_requested = offering.getCpu() * offering.getSpeed();
+        long ram_requested = offering.getRamSize() * 1024L * 1024L;
+        Map<Long, HostCapacity> hostCapacities = getHostCapacities(hosts);
 
         for (Host host : hosts) {
             if (suitableHosts.size() == returnUpTo) {
@@ -317,8 +325,11 @@ public class FirstFitAllocator extends AdapterBase implements HostAllocator {
                 continue;
             }
 
+            // hosts known to the capacity index are checked in memory, the capacity is checked again against the db when it gets reserved
+            HostCapacity hostCapacity = hostCapacities.get(host.getId());
+
             //find number of guest VMs occupying capacity on this host.
-            if (_capacityMgr.checkIfHostReachMaxGuestLimit(host)) {
+            if (hostCapacity != null ? hostCapacity.hasReachedMaxGuestLimit() : _capacityMgr.checkIfHostReachMaxGuestLimit(host)) {
                 if (s_logger.isDebugEnabled()) {
                     s_logger.debug("Host name: " + host.getName() + ", hostId: " + host.getId() +
                         " already has max Running VMs(count includes system VMs), skipping this and trying other available hosts");
@@ -337,17 +348,22 @@ public class FirstFitAllocator extends AdapterBase implements HostAllocator {
                 }
             }
 
-            int cpu_requested = offering.getCpu() * offering.getSpeed();
-            long ram_requested = offering.getRamSize() * 1024L * 1024L;
-            Cluster cluster = _clusterDao.findById(host.getClusterId());
-            ClusterDetailsVO clusterDetailsCpuOvercommit = _clusterDetailsDao.findDetail(cluster.getId(), "cpuOvercommitRatio");
-            ClusterDetailsVO clusterDetailsRamOvercommmt = _clusterDetailsDao.findDetail(cluster.getId(), "memoryOvercommitRatio");
-            Float cpuOvercommitRatio = Float.parseFloat(clusterDetailsCpuOvercommit.getValue());
-            Float memoryOvercommitRatio = Float.parseFloat(clusterDetailsRamOvercommmt.getValue());
-
-            boolean hostHasCpuCapability = _capacityMgr.checkIfHostHasCpuCapability(host.getId(), offering.getCpu(), offering.getSpeed());
-            boolean hostHasCapacity = _capacityMgr.checkIfHostHasCapacity(host.getId(), cpu_requested, ram_requested, false, cpuOvercommitRatio, memoryOvercommitRatio,
-                considerReservedCapacity);
+            boolean hostHasCpuCapability;
+            boolean hostHasCapacity;
+            if (hostCapacity != null) {
+                hostHasCpuCapability = hostCapacity.hasCpuCapability(offering.getCpu(), offering.getSpeed());
+                hostHasCapacity = hostCapacity.hasCapacity(cpu_requested, ram_requested, considerReservedCapacity);
+            } else {
+                Cluster cluster = _clusterDao.findById(host.getClusterId());
+                ClusterDetailsVO clusterDetailsCpuOvercommit = _clusterDetailsDao.findDetail(cluster.getId(), "cpuOvercommitRatio");
+                ClusterDetailsVO clusterDetailsRamOvercommmt = _clusterDetailsDao.findDetail(cluster.getId(), "memoryOvercommitRatio");
+                Float cpuOvercommitRatio = Float.parseFloat(clusterDetailsCpuOvercommit.getValue());
+                Float memoryOvercommitRatio = Float.parseFloat(clusterDetailsRamOvercommmt.getValue());
+
+                hostHasCpuCapability = _capacityMgr.checkIfHostHasCpuCapability(host.getId(), offering.getCpu(), offering.getSpeed());
+                hostHasCapacity = _capacityMgr.checkIfHostHasCapacity(host.getId(), cpu_requested, ram_requested, false, cpuOvercommitRatio, memoryOvercommitRatio,
+                    considerReservedCapacity);
+            }
 
             if (hostHasCpuCapability && hostHasCapacity) {
                 if (s_logger.isDebugEnabled()) {
@@ -379,7 +395,7 @@ public class FirstFitAllocator extends AdapterBase implements HostAllocator {
         if("RAM".equalsIgnoreCase(capacityTypeToOrder)){
             capacityType = CapacityVO.CAPACITY_TYPE_MEMORY;
         }
-        List<Long> hostIdsByFreeCapacity = _capacityDao.orderHostsByFreeCapacity(zoneId, clusterId, capacityType);
+        List<Long> hostIdsByFreeCapacity = orderHostsByFreeCapacity(zoneId, clusterId, capacityType, hosts);
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("List of hosts in descending order of free capacity in the cluster: "+ hostIdsByFreeCapacity);
         }
@@ -401,6 +417,28 @@ public class FirstFitAllocator extends AdapterBase implements HostAllocator {
         return reorderedHosts;
     }
 
+    private List<Long> orderHostsByFreeCapacity(Long zoneId, Long clusterId, final short capacityType, List<? extends Host> hosts) {
+        final Map<Long, HostCapacity> hostCapacities = getHostCapacities(hosts);
+        if (hostCapacities.size() < hosts.size()) {
+            return _capacityDao.orderHostsByFreeCapacity(zoneId, clusterId, capacityType);
+        }
+        List<Long> hostIds = new ArrayList<Long>(hostCapacities.keySet());
+        Collections.sort(hostIds, new Comparator<Long>() {
+            @Override
+            public int compare(Long hostId1, Long hostId2) {
+                return Double.compare(hostCapacities.get(hostId2).getFreeCapacityRatio(capacityType), hostCapacities.get(hostId1).getFreeCapacityRatio(capacityType));
+            }
+        });
+        return hostIds;
+    }
+
+    private Map<Long, HostCapacity> getHostCapacities(List<? extends Host> hosts) {
+        if (_hostCapacityIndex == null) {
+            return new HashMap<Long, HostCapacity>();
+        }
+        return _hostCapacityIndex.getHostCapacities(hosts);
+    }
+
     private List<? extends Host> reorderHostsByNumberOfVms(DeploymentPlan plan, List<? extends Host> hosts, Account account) {
         if (account == null) {
             return hosts;
@@ -20,13 +20,17 @@ import java.io.UnsupportedEncodingException;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.Timer;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.inject.Inject;
 import javax.mail.Authenticator;
@@ -43,6 +47,7 @@ import org.apache.cloudstack.framework.config.ConfigDepot;
 import org.apache.cloudstack.framework.config.ConfigKey;
 import org.apache.cloudstack.framework.config.Configurable;
 import org.apache.cloudstack.framework.config.dao.ConfigurationDao;
+import org.apache.cloudstack.managed.context.ManagedContextRunnable;
 import org.apache.cloudstack.managed.context.ManagedContextTimerTask;
 import org.apache.cloudstack.storage.datastore.db.PrimaryDataStoreDao;
 import org.apache.cloudstack.storage.datastore.db.StoragePoolVO;
@@ -72,14 +77,17 @@ import com.cloud.event.AlertGenerator;
 import com.cloud.event.EventTypes;
 import com.cloud.host.Host;
 import com.cloud.host.HostVO;
+import com.cloud.host.dao.HostDao;
 import com.cloud.network.dao.IPAddressDao;
 import com.cloud.org.Grouping.AllocationState;
 import com.cloud.resource.ResourceManager;
+import com.cloud.resource.ResourceState;
 import com.cloud.storage.StorageManager;
 import com.cloud.utils.NumbersUtil;
 import com.cloud.utils.component.ManagerBase;
 import com.cloud.utils.concurrency.NamedThreadFactory;
 import com.cloud.utils.db.SearchCriteria;
+import com.cloud.utils.mgmt.JmxUtil;
 import com.sun.mail.smtp.SMTPMessage;
 import com.sun.mail.smtp.SMTPSSLTransport;
 import com.sun.mail.smtp.SMTPTransport;
@@ -118,6 +126,8 @@ public class AlertManagerImpl extends ManagerBase implements AlertManager, Confi
     @Inject
     private ResourceManager _resourceMgr;
     @Inject
+    private HostDao _hostDao;
+    @Inject
     private ConfigurationManager _configMgr;
     @Inject
     protected ConfigDepot _configDepot;
@@ -133,6 +143,12 @@ public class AlertManagerImpl extends ManagerBase implements AlertManager, Confi
     Map<Short, Double> _capacityTypeThresholdMap = new HashMap<Short, Double>();
 
     private final ExecutorService _executor;
+    private ExecutorService _capacityExecutor;
+    private volatile long _lastFullCapacitySweep = 0L;
+    private CapacityRecalculationMBeanImpl _capacityRecalculationStats;
+
+    private static final Set<ResourceState> CapacityUntrackedResourceStates = EnumSet.of(ResourceState.Maintenance, ResourceState.ErrorInMaintenance,
+            ResourceState.ErrorInPrepareForMaintenance, ResourceState.PrepareForMaintenance, ResourceState.Error);
 
     public AlertManagerImpl() {
         _executor = Executors.newCachedThreadPool(new NamedThreadFactory("Email-Alerts-Sender"));
@@ -208,12 +224,20 @@ public class AlertManagerImpl extends ManagerBase implements AlertManager, Confi
         }
 
         _timer = new Timer("CapacityChecker");
+        _capacityRecalculationStats = new CapacityRecalculationMBeanImpl(_capacityMgr);
 
         return true;
     }
 
     @Override
     public boolean start() {
+        int workers = CapacityRecalculationWorkers.value();
+        _capacityExecutor = Executors.newFixedThreadPool(workers > 0 ? workers : 1, new NamedThreadFactory("Capacity-Recalculator"));
+        try {
+            JmxUtil.registerMBean("AlertManager", "CapacityRecalculation", _capacityRecalculationStats);
+        } catch (Exception e) {
+            s_logger.warn("Failed to register capacity recalculation MBean", e);
+        }
         _timer.schedule(new CapacityChecker(), INITIAL_CAPACITY_CHECK_DELAY, _capacityCheckPeriod);
         return true;
     }
@@ -221,6 +245,9 @@ public class AlertManagerImpl extends ManagerBase implements AlertManager, Confi
     @Override
     public boolean stop() {
         _timer.cancel();
+        if (_capacityExecutor != null) {
+            _capacityExecutor.shutdownNow();
+        }
         return true;
     }
 
@@ -263,36 +290,86 @@ public class AlertManagerImpl extends ManagerBase implements AlertManager, Confi
         //        is stopped we updated the amount allocated, and when VM sync reports a changed state, we update
         //        the amount allocated.  Hopefully it's limited to 3 entry points and will keep the amount allocated
         //        per host accurate.
+        recalculateCapacity(true);
+    }
 
+    /**
+     * Recalculates the cpu/ram capacity of hosts and the allocated capacity of storage pools, followed by the
+     * ip and vlan capacities. A full pass covers all hosts and pools; an incremental pass only covers those
+     * the capacity manager saw vm or volume state transitions for since the previous pass.
+     */
+    protected void recalculateCapacity(boolean full) {
         try {
+            final Date startTime = new Date();
+            final long start = System.currentTimeMillis();
 
             if (s_logger.isDebugEnabled()) {
-                s_logger.debug("recalculating system capacity");
+                s_logger.debug("recalculating " + (full ? "" : "changed ") + "system capacity");
                 s_logger.debug("Executing cpu/ram capacity update");
             }
 
+            // anything marked before a full sweep is covered by it
+            Set<Long> dirtyHostIds = _capacityMgr.pollDirtyHosts();
+            Set<Long> dirtyPoolIds = _capacityMgr.pollDirtyStoragePools();
+
             // Calculate CPU and RAM capacities
             //     get all hosts...even if they are not in 'UP' state
-            List<HostVO> hosts = _resourceMgr.listAllNotInMaintenanceHostsInOneZone(Host.Type.Routing, null);
+            List<HostVO> hosts;
+            if (full) {
+                hosts = _resourceMgr.listAllNotInMaintenanceHostsInOneZone(Host.Type.Routing, null);
+            } else {
+                hosts = new ArrayList<HostVO>();
+                for (Long hostId : dirtyHostIds) {
+                    HostVO host = _hostDao.findById(hostId);
+                    if (host != null && host.getType() == Host.Type.Routing && !CapacityUntrackedResourceStates.contains(host.getResourceState())) {
+                        hosts.add(host);
+                    }
+                }
+            }
+            List<Runnable> hostTasks = new ArrayList<Runnable>();
             if (hosts != null) {
-                for (HostVO host : hosts) {
-                    _capacityMgr.updateCapacityForHost(host);
+                for (final HostVO host : hosts) {
+                    hostTasks.add(new Runnable() {
+                        @Override
+                        public void run() {
+                            _capacityMgr.updateCapacityForHost(host);
+                        }
+                    });
                 }
             }
+            runCapacityTasks(hostTasks);
             if (s_logger.isDebugEnabled()) {
                 s_logger.debug("Done executing cpu/ram capacity update");
                 s_logger.debug("Executing storage capacity update");
             }
             // Calculate storage pool capacity
-            List<StoragePoolVO> storagePools = _storagePoolDao.listAll();
-            for (StoragePoolVO pool : storagePools) {
-                long disk = _capacityMgr.getAllocatedPoolCapacity(pool, null);
-                if (pool.isShared()) {
-                    _storageMgr.createCapacityEntry(pool, Capacity.CAPACITY_TYPE_STORAGE_ALLOCATED, disk);
-                } else {
-                    _storageMgr.createCapacityEntry(pool, Capacity.CAPACITY_TYPE_LOCAL_STORAGE, disk);
+            List<StoragePoolVO> storagePools;
+            if (full) {
+                storagePools = _storagePoolDao.listAll();
+            } else {
+                storagePools = new ArrayList<StoragePoolVO>();
+                for (Long poolId : dirtyPoolIds) {
+                    StoragePoolVO pool = _storagePoolDao.findById(poolId);
+                    if (pool != null) {
+                        storagePools.add(pool);
+                    }
                 }
             }
+            List<Runnable> poolTasks = new ArrayList<Runnable>();
+            for (final StoragePoolVO pool : storagePools) {
+                poolTasks.add(new Runnable() {
+                    @Override
+                    public void run() {
+                        long disk = _capacityMgr.getAllocatedPoolCapacity(pool, null);
+                        if (pool.isShared()) {
+                            _storageMgr.createCapacityEntry(pool, Capacity.CAPACITY_TYPE_STORAGE_ALLOCATED, disk);
+                        } else {
+                            _storageMgr.createCapacityEntry(pool, Capacity.CAPACITY_TYPE_LOCAL_STORAGE, disk);
+                        }
+                    }
+                });
+            }
+            runCapacityTasks(poolTasks);
 
             if (s_logger.isDebugEnabled()) {
                 s_logger.debug("Done executing storage capacity update");
@@ -337,9 +414,21 @@ public class AlertManagerImpl extends ManagerBase implements AlertManager, Confi
                 createOrUpdateIpCapacity(dcId, podId, Capacity.CAPACITY_TYPE_PRIVATE_IP, _configMgr.findPodAllocationState(pod));
             }
 
+            long duration = System.currentTimeMillis() - start;
+            if (full) {
+                _lastFullCapacitySweep = start;
+            }
+            if (_capacityRecalculationStats != null) {
+                if (full) {
+                    _capacityRecalculationStats.recordFullSweep(startTime, duration, hostTasks.size(), poolTasks.size());
+                } else {
+                    _capacityRecalculationStats.recordIncrementalPass(duration, hostTasks.size(), poolTasks.size());
+                }
+            }
+
             if (s_logger.isDebugEnabled()) {
                 s_logger.debug("Done executing capacity updates for private ip");
-                s_logger.debug("Done recalculating system capacity");
+                s_logger.debug("Done recalculating system capacity of " + hostTasks.size() + " hosts and " + poolTasks.size() + " storage pools in " + duration + " ms");
             }
 
         } catch (Throwable t) {
@@ -414,6 +503,43 @@ public class AlertManagerImpl extends ManagerBase implements AlertManager, Confi
         }
     }
 
+    /**
+     * Runs the given capacity updates on the recalculation workers and waits for all of them, or runs them
+     * in the calling thread if the workers are not started.
+     */
+    private void runCapacityTasks(List<Runnable> tasks) throws InterruptedException {
+        if (_capacityExecutor == null || tasks.size() < 2) {
+            for (Runnable task : tasks) {
+                runCapacityTask(task);
+            }
+            return;
+        }
+        List<Future<?>> futures = new ArrayList<Future<?>>(tasks.size());
+        for (final Runnable task : tasks) {
+            futures.add(_capacityExecutor.submit(new ManagedContextRunnable() {
+                @Override
+                protected void runInContext() {
+                    runCapacityTask(task);
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                s_logger.warn("Capacity recalculation task failed", e.getCause());
+            }
+        }
+    }
+
+    private void runCapacityTask(Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            s_logger.warn("Failed to recalculate capacity", e);
+        }
+    }
+
     class CapacityChecker extends ManagedContextTimerTask {
         @Override
         protected void runInContext() {
@@ -429,7 +555,8 @@ public class AlertManagerImpl extends ManagerBase implements AlertManager, Confi
 
     public void checkForAlerts() {
 
-        recalculateCapacity();
+        long fullInterval = CapacityFullRecalculationInterval.value() * 1000L;
+        recalculateCapacity(System.currentTimeMillis() - _lastFullCapacitySweep >= fullInterval);
 
         // abort if we can't possibly send an alert...
         if (_emailAlert == null) {
@@ -850,7 +977,8 @@ public class AlertManagerImpl extends ManagerBase implements AlertManager, Confi
 
     @Override
     public ConfigKey<?>[] getConfigKeys() {
-        return new ConfigKey<?>[] {CPUCapacityThreshold, MemoryCapacityThreshold, StorageAllocatedCapacityThreshold, StorageCapacityThreshold};
+        return new ConfigKey<?>[] {CPUCapacityThreshold, MemoryCapacityThreshold, StorageAllocatedCapacityThreshold, StorageCapacityThreshold,
+                CapacityRecalculationWorkers, CapacityFullRecalculationInterval};
     }
 
     @Override
@@ -0,0 +1,101 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.alert;
+
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.StandardMBean;
+
+import com.cloud.capacity.CapacityManager;
+
+public class CapacityRecalculationMBeanImpl extends StandardMBean implements CapacityRecalculationMBean {
+    private final CapacityManager _capacityMgr;
+
+    private final AtomicLong _fullSweepCount = new AtomicLong();
+    private final AtomicLong _incrementalPassCount = new AtomicLong();
+    private volatile long _lastFullSweepDurationMs;
+    private volatile long _lastIncrementalPassDurationMs;
+    private volatile Date _lastFullSweepTime;
+    private volatile int _lastRecalculatedHostCount;
+    private volatile int _lastRecalculatedStoragePoolCount;
+
+    protected CapacityRecalculationMBeanImpl(CapacityManager capacityMgr) {
+        super(CapacityRecalculationMBean.class, false);
+        _capacityMgr = capacityMgr;
+    }
+
+    void recordFullSweep(Date startTime, long durationMs, int hostCount, int poolCount) {
+        _fullSweepCount.incrementAndGet();
+        _lastFullSweepTime = startTime;
+        _lastFullSweepDurationMs = durationMs;
+        _lastRecalculatedHostCount = hostCount;
+        _lastRecalculatedStoragePoolCount = poolCount;
+    }
+
+    void recordIncrementalPass(long durationMs, int hostCount, int poolCount) {
+        _incrementalPassCount.incrementAndGet();
+        _lastIncrementalPassDurationMs = durationMs;
+        _lastRecalculatedHostCount = hostCount;
+        _lastRecalculatedStoragePoolCount = poolCount;
+    }
+
+    @Override
+    public long getFullSweepCount() {
+        return _fullSweepCount.get();
+    }
+
+    @Override
+    public long getLastFullSweepDurationMs() {
+        return _lastFullSweepDurationMs;
+    }
+
+    @Override
+    public Date getLastFullSweepTime() {
+        return _lastFullSweepTime;
+    }
+
+    @Override
+    public long getIncrementalPassCount() {
+        return _incrementalPassCount.get();
+    }
+
+    @Override
+    public long getLastIncrementalPassDurationMs() {
+        return _lastIncrementalPassDurationMs;
+    }
+
+    @Override
+    public int getLastRecalculatedHostCount() {
+        return _lastRecalculatedHostCount;
+    }
+
+    @Override
+    public int getLastRecalculatedStoragePoolCount() {
+        return _lastRecalculatedStoragePoolCount;
+    }
+
+    @Override
+    public int getDirtyHostCount() {
+        return _capacityMgr.getDirtyHostCount();
+    }
+
+    @Override
+    public int getDirtyStoragePoolCount() {
+        return _capacityMgr.getDirtyStoragePoolCount();
+    }
+}
@@ -257,6 +257,7 @@ import com.cloud.server.ResourceMetaDataService;
 import com.cloud.server.ResourceTag;
 import com.cloud.server.ResourceTag.ResourceObjectType;
 import com.cloud.server.StatsCollector;
+import com.cloud.server.StatsHistory;
 import com.cloud.server.TaggedResourceService;
 import com.cloud.service.ServiceOfferingDetailsVO;
 import com.cloud.service.ServiceOfferingVO;
@@ -983,6 +984,10 @@ public class ApiDBUtils {
         return s_statsCollector.getStorageStats(id);
     }
 
+    public static StatsHistory getStatsHistory() {
+        return s_statsCollector.getStatsHistory();
+    }
+
     public static CapacityVO getStoragePoolUsedStats(Long poolId, Long clusterId, Long podId, Long zoneId) {
         return s_storageMgr.getStoragePoolUsedStats(poolId, clusterId, podId, zoneId);
     }
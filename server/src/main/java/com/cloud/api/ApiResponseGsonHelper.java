@@ -16,6 +16,10 @@
 // under the License.
 package com.cloud.api;
 
+import java.lang.reflect.Modifier;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 import org.apache.cloudstack.acl.RoleType;
 import org.apache.cloudstack.api.ResponseObject;
 import org.apache.cloudstack.context.CallContext;
@@ -24,6 +28,7 @@ import com.cloud.serializer.Param;
 import com.cloud.user.Account;
 import com.google.gson.ExclusionStrategy;
 import com.google.gson.FieldAttributes;
+import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 
 /**
@@ -32,6 +37,7 @@ import com.google.gson.GsonBuilder;
 public class ApiResponseGsonHelper {
     private static final GsonBuilder s_gBuilder;
     private static final GsonBuilder s_gLogBuilder;
+    private static final Map<String, Gson> s_gsonCache = new ConcurrentHashMap<String, Gson>();
 
     static {
         s_gBuilder = new GsonBuilder().setDateFormat("yyyy-MM-dd'T'HH:mm:ssZ");
@@ -55,6 +61,33 @@ public class ApiResponseGsonHelper {
         return s_gLogBuilder;
     }
 
+    /**
+     * Returns a Gson serializing responses, or their secure log copy, for the current caller.
+     * Gson resolves the excluded fields once per class and the exclusion only depends on the caller's
+     * account type, so instances (and their per-class field metadata) are shared per account type.
+     */
+    public static Gson getResponseGson(final boolean forLog) {
+        final CallContext context = CallContext.current();
+        final Account caller = context != null ? context.getCallingAccount() : null;
+        if (caller == null) {
+            return createGson(forLog);
+        }
+        final String key = (forLog ? "log-" : "response-") + caller.getType();
+        Gson gson = s_gsonCache.get(key);
+        if (gson == null) {
+            gson = createGson(forLog);
+            s_gsonCache.put(key, gson);
+        }
+        return gson;
+    }
+
+    private static Gson createGson(final boolean forLog) {
+        final GsonBuilder builder = forLog ? s_gLogBuilder : s_gBuilder;
+        synchronized (builder) {
+            return builder.excludeFieldsWithModifiers(Modifier.TRANSIENT).create();
+        }
+    }
+
     private static class ApiResponseExclusionStrategy implements ExclusionStrategy {
         public boolean shouldSkipClass(Class<?> arg0) {
             return false;
@@ -584,9 +584,12 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
                     cmdObj.setHttpMethod(paramMap.get(ApiConstants.HTTPMETHOD).toString());
 
                     // This is where the command is either serialized, or directly dispatched
-                    StringBuilder log = new StringBuilder();
+                    // the secure copy of the response is only needed when the access log is written
+                    StringBuilder log = s_accessLogger.isInfoEnabled() ? new StringBuilder() : null;
                     response = queueCommand(cmdObj, paramMap, log);
-                    buildAuditTrail(auditTrailSb, command[0], log.toString());
+                    if (log != null) {
+                        buildAuditTrail(auditTrailSb, command[0], log.toString());
+                    }
                 } else {
                     final String errorString = "Unknown API command: " + command[0];
                     s_logger.warn(errorString);
@@ -757,7 +760,9 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
             // It might be nice to send this through scrubbing similar to how
             // ApiResponseSerializer.toSerializedStringWithSecureLogs works. For now, this gets jobid's
             // in the api logs.
-            log.append(response);
+            if (log != null) {
+                log.append(response);
+            }
             return response;
 
         } else {
@@ -43,4 +43,6 @@ public interface HostJoinDao extends GenericDao<HostJoinVO, Long> {
 
     List<HostJoinVO> findByClusterId(Long clusterId, Host.Type type);
 
+    List<HostJoinVO> findByClusterIds(List<Long> clusterIds, Host.Type type);
+
 }
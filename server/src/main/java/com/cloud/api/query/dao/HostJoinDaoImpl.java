@@ -76,6 +76,8 @@ public class HostJoinDaoImpl extends GenericDaoBase<HostJoinVO, Long> implements
 
     private final SearchBuilder<HostJoinVO> ClusterSearch;
 
+    private final SearchBuilder<HostJoinVO> ClustersSearch;
+
     protected HostJoinDaoImpl() {
 
         hostSearch = createSearchBuilder();
@@ -91,6 +93,11 @@ public class HostJoinDaoImpl extends GenericDaoBase<HostJoinVO, Long> implements
         ClusterSearch.and("type", ClusterSearch.entity().getType(), SearchCriteria.Op.EQ);
         ClusterSearch.done();
 
+        ClustersSearch = createSearchBuilder();
+        ClustersSearch.and("clusterIds", ClustersSearch.entity().getClusterId(), SearchCriteria.Op.IN);
+        ClustersSearch.and("type", ClustersSearch.entity().getType(), SearchCriteria.Op.EQ);
+        ClustersSearch.done();
+
         this._count = "select count(distinct id) from host_view WHERE ";
     }
 
@@ -469,6 +476,17 @@ public class HostJoinDaoImpl extends GenericDaoBase<HostJoinVO, Long> implements
         return listBy(sc);
     }
 
+    @Override
+    public List<HostJoinVO> findByClusterIds(List<Long> clusterIds, Host.Type type) {
+        if (clusterIds == null || clusterIds.isEmpty()) {
+            return new ArrayList<HostJoinVO>();
+        }
+        SearchCriteria<HostJoinVO> sc = ClustersSearch.create();
+        sc.setParameters("clusterIds", clusterIds.toArray());
+        sc.setParameters("type", type);
+        return listBy(sc);
+    }
+
     private String calculateResourceAllocatedPercentage(float resource, float resourceWithOverProvision) {
         DecimalFormat decimalFormat = new DecimalFormat("#.##");
         return decimalFormat.format(((float)resource / resourceWithOverProvision * 100.0f)) + "%";
@@ -48,169 +48,194 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class ApiResponseSerializer {
     private static final Logger s_logger = Logger.getLogger(ApiResponseSerializer.class.getName());
 
+    /* how deep nested objects are inspected for sensitive values before assuming there are some */
+    private static final int MAX_SENSITIVE_LOOKUP_DEPTH = 16;
+
+    private static final Map<Class<?>, ResponseField[]> s_responseFields = new ConcurrentHashMap<Class<?>, ResponseField[]>();
+
     public static String toSerializedString(ResponseObject result, String responseType) {
-        s_logger.trace("===Serializing Response===");
-        if (HttpUtils.RESPONSE_TYPE_JSON.equalsIgnoreCase(responseType)) {
-            return toJSONSerializedString(result, new StringBuilder());
-        } else {
-            return toXMLSerializedString(result, new StringBuilder());
-        }
+        return toSerializedStringWithSecureLogs(result, responseType, null);
     }
 
+    /**
+     * Serializes the response in a single pass, each object being rendered once. A copy without sensitive fields is
+     * appended to the log when one is given, reusing the rendered text of objects that carry no sensitive value.
+     * Callers that do not log the response should pass a null log to skip building the copy.
+     */
     public static String toSerializedStringWithSecureLogs(ResponseObject result, String responseType, StringBuilder log) {
         s_logger.trace("===Serializing Response===");
+        if (result == null) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder();
         if (HttpUtils.RESPONSE_TYPE_JSON.equalsIgnoreCase(responseType)) {
-            return toJSONSerializedString(result, log);
+            toJSONSerializedString(result, sb, log);
         } else {
-            return toXMLSerializedString(result, log);
+            toXMLSerializedString(result, sb, log);
         }
+        return sb.toString();
     }
 
-    private static final Pattern s_unicodeEscapePattern = Pattern.compile("\\\\u([0-9A-Fa-f]{4})");
-
     public static String unescape(String escaped) {
-        String str = escaped;
-        Matcher matcher = s_unicodeEscapePattern.matcher(str);
-        while (matcher.find()) {
-            str = str.replaceAll("\\" + matcher.group(0), Character.toString((char)Integer.parseInt(matcher.group(1), 16)));
+        if (escaped == null || escaped.indexOf("\\u") < 0) {
+            return escaped;
+        }
+        // single pass equivalent of replacing every unicode escape sequence by the character it encodes
+        final int length = escaped.length();
+        final StringBuilder sb = new StringBuilder(length);
+        int i = 0;
+        while (i < length) {
+            final char c = escaped.charAt(i);
+            if (c == '\\' && i + 5 < length && escaped.charAt(i + 1) == 'u' && isHexDigits(escaped, i + 2, i + 6)) {
+                sb.append((char)Integer.parseInt(escaped.substring(i + 2, i + 6), 16));
+                i += 6;
+            } else {
+                sb.append(c);
+                i++;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static boolean isHexDigits(String str, int from, int to) {
+        for (int i = from; i < to; i++) {
+            char c = str.charAt(i);
+            if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F'))) {
+                return false;
+            }
         }
-        return str;
+        return true;
+    }
+
+    private static void append(StringBuilder sb, StringBuilder log, CharSequence... parts) {
+        for (CharSequence part : parts) {
+            sb.append(part);
+            if (log != null) {
+                log.append(part);
+            }
+        }
+    }
+
+    private static String toLogJson(ResponseObject obj, String json) {
+        if (!hasSensitiveValue(obj, 0)) {
+            return json;
+        }
+        return unescape(ApiResponseGsonHelper.getResponseGson(true).toJson(obj));
     }
 
     public static String toJSONSerializedString(ResponseObject result, StringBuilder log) {
         if (result != null && log != null) {
-            Gson responseBuilder = ApiResponseGsonHelper.getBuilder().excludeFieldsWithModifiers(Modifier.TRANSIENT).create();
-            Gson logBuilder = ApiResponseGsonHelper.getLogBuilder().excludeFieldsWithModifiers(Modifier.TRANSIENT).create();
-
             StringBuilder sb = new StringBuilder();
+            toJSONSerializedString(result, sb, log);
+            return sb.toString();
+        }
+        return null;
+    }
 
-            sb.append("{\"").append(result.getResponseName()).append("\":");
-            log.append("{\"").append(result.getResponseName()).append("\":");
-            if (result instanceof ListResponse) {
-                List<? extends ResponseObject> responses = ((ListResponse)result).getResponses();
-                Integer count = ((ListResponse)result).getCount();
-                boolean nonZeroCount = (count != null && count.longValue() != 0);
-                if (nonZeroCount) {
-                    sb.append("{\"").append(ApiConstants.COUNT).append("\":").append(count);
-                    log.append("{\"").append(ApiConstants.COUNT).append("\":").append(count);
-                }
+    private static void toJSONSerializedString(ResponseObject result, StringBuilder sb, StringBuilder log) {
+        Gson responseBuilder = ApiResponseGsonHelper.getResponseGson(false);
 
-                if ((responses != null) && !responses.isEmpty()) {
-                    String jsonStr = responseBuilder.toJson(responses.get(0));
-                    jsonStr = unescape(jsonStr);
-                    String logStr = logBuilder.toJson(responses.get(0));
-                    logStr = unescape(logStr);
+        append(sb, log, "{\"", result.getResponseName(), "\":");
+        if (result instanceof ListResponse) {
+            List<? extends ResponseObject> responses = ((ListResponse)result).getResponses();
+            Integer count = ((ListResponse)result).getCount();
+            boolean nonZeroCount = (count != null && count.longValue() != 0);
+            if (nonZeroCount) {
+                append(sb, log, "{\"", ApiConstants.COUNT, "\":", String.valueOf(count));
+            }
 
-                    if (nonZeroCount) {
-                        sb.append(",\"").append(responses.get(0).getObjectName()).append("\":[").append(jsonStr);
-                        log.append(",\"").append(responses.get(0).getObjectName()).append("\":[").append(logStr);
+            if ((responses != null) && !responses.isEmpty()) {
+                for (int i = 0; i < responses.size(); i++) {
+                    ResponseObject response = responses.get(i);
+                    if (i == 0 && !nonZeroCount) {
+                        continue;
                     }
-
-                    for (int i = 1; i < ((ListResponse)result).getResponses().size(); i++) {
-                        jsonStr = responseBuilder.toJson(responses.get(i));
-                        jsonStr = unescape(jsonStr);
-                        logStr = logBuilder.toJson(responses.get(i));
-                        logStr = unescape(logStr);
-                        sb.append(",").append(jsonStr);
-                        log.append(",").append(logStr);
+                    String jsonStr = unescape(responseBuilder.toJson(response));
+                    if (i == 0) {
+                        append(sb, log, ",\"", response.getObjectName(), "\":[");
+                    } else {
+                        append(sb, log, ",");
                     }
-                    sb.append("]}");
-                    log.append("]}");
-                } else  {
-                    if (!nonZeroCount) {
-                        sb.append("{");
-                        log.append("{");
+                    sb.append(jsonStr);
+                    if (log != null) {
+                        log.append(toLogJson(response, jsonStr));
                     }
-
-                    sb.append("}");
-                    log.append("}");
                 }
-            } else if (result instanceof SuccessResponse || result instanceof ExceptionResponse) {
-                final String jsonErrorText = unescape(responseBuilder.toJson(result));
-                sb.append(jsonErrorText);
-                log.append(jsonErrorText);
-            } else {
-                String jsonStr = responseBuilder.toJson(result);
-                if (jsonStr != null && !jsonStr.isEmpty()) {
-                    jsonStr = unescape(jsonStr);
-                    if (result instanceof AsyncJobResponse || result instanceof CreateCmdResponse || result instanceof AuthenticationCmdResponse) {
-                        sb.append(jsonStr);
-                    } else {
-                        sb.append("{\"").append(result.getObjectName()).append("\":").append(jsonStr).append("}");
-                    }
-                } else {
-                    sb.append("{}");
+                append(sb, log, "]}");
+            } else  {
+                if (!nonZeroCount) {
+                    append(sb, log, "{");
                 }
-                String logStr = logBuilder.toJson(result);
-                if (logStr != null && !logStr.isEmpty()) {
-                    logStr = unescape(logStr);
-                    if (result instanceof AsyncJobResponse || result instanceof CreateCmdResponse || result instanceof AuthenticationCmdResponse) {
+
+                append(sb, log, "}");
+            }
+        } else if (result instanceof SuccessResponse || result instanceof ExceptionResponse) {
+            final String jsonErrorText = unescape(responseBuilder.toJson(result));
+            append(sb, log, jsonErrorText);
+        } else {
+            boolean unwrapped = result instanceof AsyncJobResponse || result instanceof CreateCmdResponse || result instanceof AuthenticationCmdResponse;
+            String jsonStr = responseBuilder.toJson(result);
+            if (jsonStr != null && !jsonStr.isEmpty()) {
+                jsonStr = unescape(jsonStr);
+                String logStr = log != null ? toLogJson(result, jsonStr) : null;
+                if (unwrapped) {
+                    sb.append(jsonStr);
+                    if (log != null) {
                         log.append(logStr);
-                    } else {
-                        log.append("{\"").append(result.getObjectName()).append("\":").append(logStr).append("}");
                     }
                 } else {
-                    log.append("{}");
+                    sb.append("{\"").append(result.getObjectName()).append("\":").append(jsonStr).append("}");
+                    if (log != null) {
+                        log.append("{\"").append(result.getObjectName()).append("\":").append(logStr).append("}");
+                    }
                 }
+            } else {
+                append(sb, log, "{}");
             }
-            sb.append("}");
-            log.append("}");
-            return sb.toString();
         }
-        return null;
+        append(sb, log, "}");
     }
 
-    private static String toXMLSerializedString(ResponseObject result, StringBuilder log) {
-        if (result != null && log != null) {
-            StringBuilder sb = new StringBuilder();
-            sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
-            sb.append("<").append(result.getResponseName()).append(" cloud-stack-version=\"").append(ApiDBUtils.getVersion()).append("\">");
-            log.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
-            log.append("<").append(result.getResponseName()).append(" cloud-stack-version=\"").append(ApiDBUtils.getVersion()).append("\">");
+    private static void toXMLSerializedString(ResponseObject result, StringBuilder sb, StringBuilder log) {
+        append(sb, log, "<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        append(sb, log, "<", result.getResponseName(), " cloud-stack-version=\"", ApiDBUtils.getVersion(), "\">");
 
-            if (result instanceof ListResponse) {
-                Integer count = ((ListResponse)result).getCount();
+        if (result instanceof ListResponse) {
+            Integer count = ((ListResponse)result).getCount();
 
-                if (count != null && count != 0) {
-                    sb.append("<").append(ApiConstants.COUNT).append(">").append(((ListResponse)result).getCount()).append("</").append(ApiConstants.COUNT).append(">");
-                    log.append("<").append(ApiConstants.COUNT).append(">").append(((ListResponse)result).getCount()).append("</").append(ApiConstants.COUNT).append(">");
-                }
-                List<? extends ResponseObject> responses = ((ListResponse)result).getResponses();
-                if ((responses != null) && !responses.isEmpty()) {
-                    for (ResponseObject obj : responses) {
-                        serializeResponseObjXML(sb, log, obj);
-                    }
+            if (count != null && count != 0) {
+                append(sb, log, "<", ApiConstants.COUNT, ">", String.valueOf(count), "</", ApiConstants.COUNT, ">");
+            }
+            List<? extends ResponseObject> responses = ((ListResponse)result).getResponses();
+            if ((responses != null) && !responses.isEmpty()) {
+                for (ResponseObject obj : responses) {
+                    serializeResponseObjXML(sb, log, obj);
                 }
+            }
+        } else {
+            if (result instanceof CreateCmdResponse || result instanceof AsyncJobResponse || result instanceof AuthenticationCmdResponse) {
+                serializeResponseObjFieldsXML(sb, log, result);
             } else {
-                if (result instanceof CreateCmdResponse || result instanceof AsyncJobResponse || result instanceof AuthenticationCmdResponse) {
-                    serializeResponseObjFieldsXML(sb, log, result);
-                } else {
-                    serializeResponseObjXML(sb, log, result);
-                }
+                serializeResponseObjXML(sb, log, result);
             }
-
-            sb.append("</").append(result.getResponseName()).append(">");
-            log.append("</").append(result.getResponseName()).append(">");
-            return sb.toString();
         }
-        return null;
+
+        append(sb, log, "</", result.getResponseName(), ">");
     }
 
     private static void serializeResponseObjXML(StringBuilder sb, StringBuilder log, ResponseObject obj) {
         if (!(obj instanceof SuccessResponse) && !(obj instanceof ExceptionResponse)) {
-            sb.append("<").append(obj.getObjectName()).append(">");
-            log.append("<").append(obj.getObjectName()).append(">");
+            append(sb, log, "<", obj.getObjectName(), ">");
         }
         serializeResponseObjFieldsXML(sb, log, obj);
         if (!(obj instanceof SuccessResponse) && !(obj instanceof ExceptionResponse)) {
-            sb.append("</").append(obj.getObjectName()).append(">");
-            log.append("</").append(obj.getObjectName()).append(">");
+            append(sb, log, "</", obj.getObjectName(), ">");
         }
     }
 
@@ -223,24 +248,84 @@ public class ApiResponseSerializer {
         return fields.toArray(new Field[] {});
     }
 
+    /**
+     * Reflection metadata of a response class, resolved once per class instead of on every serialized object.
+     */
+    private static ResponseField[] getResponseFields(Class<?> clz) {
+        ResponseField[] responseFields = s_responseFields.get(clz);
+        if (responseFields == null) {
+            List<ResponseField> fields = new ArrayList<ResponseField>();
+            for (Field field : getFlattenFields(clz)) {
+                if ((field.getModifiers() & (Modifier.TRANSIENT | Modifier.STATIC)) != 0) {
+                    continue;
+                }
+                field.setAccessible(true);
+                fields.add(new ResponseField(field));
+            }
+            responseFields = fields.toArray(new ResponseField[fields.size()]);
+            s_responseFields.put(clz, responseFields);
+        }
+        return responseFields;
+    }
+
+    /**
+     * Whether the object, or any object reachable from its fields, holds a value in a sensitive field. Only then does
+     * the log copy differ from the response.
+     */
+    private static boolean hasSensitiveValue(Object obj, int depth) {
+        if (obj == null) {
+            return false;
+        }
+        if (depth > MAX_SENSITIVE_LOOKUP_DEPTH) {
+            return true;
+        }
+        if (obj instanceof Collection<?>) {
+            for (Object value : (Collection<?>)obj) {
+                if (hasSensitiveValue(value, depth + 1)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (obj instanceof Map<?, ?>) {
+            return hasSensitiveValue(((Map<?, ?>)obj).values(), depth + 1);
+        }
+        if (obj.getClass().isArray()) {
+            return !obj.getClass().getComponentType().isPrimitive() && hasSensitiveValue(Arrays.asList((Object[])obj), depth + 1);
+        }
+        if (isLeafType(obj.getClass()) || obj.getClass().getName().startsWith("java")) {
+            return false;
+        }
+        for (ResponseField responseField : getResponseFields(obj.getClass())) {
+            if (responseField.leaf && !responseField.sensitive) {
+                continue;
+            }
+            Object value = responseField.get(obj);
+            if (value != null && (responseField.sensitive || hasSensitiveValue(value, depth + 1))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isLeafType(Class<?> clz) {
+        return clz.isPrimitive() || clz.isEnum() || CharSequence.class.isAssignableFrom(clz) || Number.class.isAssignableFrom(clz) || clz == Boolean.class
+                || clz == Character.class || Date.class.isAssignableFrom(clz);
+    }
+
     private static void serializeResponseObjFieldsXML(StringBuilder sb, StringBuilder log, ResponseObject obj) {
         boolean isAsync = false;
         if (obj instanceof AsyncJobResponse)
             isAsync = true;
 
-        Field[] fields = getFlattenFields(obj.getClass());
-        for (Field field : fields) {
-            if ((field.getModifiers() & Modifier.TRANSIENT) != 0) {
-                continue; // skip transient fields
-            }
-
-            SerializedName serializedName = field.getAnnotation(SerializedName.class);
-            if (serializedName == null) {
+        for (ResponseField responseField : getResponseFields(obj.getClass())) {
+            if (responseField.serializedName == null) {
                 continue; // skip fields w/o serialized name
             }
+            String serializedName = responseField.serializedName;
 
-            boolean logField = true;
-            Param param = field.getAnnotation(Param.class);
+            boolean logField = log != null;
+            Param param = responseField.param;
             if (param != null) {
                 RoleType[] allowedRoles = param.authorized();
                 if (allowedRoles.length > 0) {
@@ -261,27 +346,18 @@ public class ApiResponseSerializer {
                     logField = false;
                 }
             }
+            StringBuilder fieldLog = logField ? log : null;
 
-            field.setAccessible(true);
-            Object fieldValue = null;
-            try {
-                fieldValue = field.get(obj);
-            } catch (IllegalArgumentException e) {
-                throw new CloudRuntimeException("how illegal is it?", e);
-            } catch (IllegalAccessException e) {
-                throw new CloudRuntimeException("come on...we set accessible already", e);
-            }
+            Object fieldValue = responseField.get(obj);
             if (fieldValue != null) {
                 if (fieldValue instanceof ResponseObject) {
                     ResponseObject subObj = (ResponseObject)fieldValue;
                     if (isAsync) {
-                        sb.append("<jobresult>");
-                        log.append("<jobresult>");
+                        append(sb, log, "<jobresult>");
                     }
                     serializeResponseObjXML(sb, log, subObj);
                     if (isAsync) {
-                        sb.append("</jobresult>");
-                        log.append("</jobresult>");
+                        append(sb, log, "</jobresult>");
                     }
                 } else if (fieldValue instanceof Collection<?>) {
                     Collection<?> subResponseList = (Collection<?>)fieldValue;
@@ -289,9 +365,7 @@ public class ApiResponseSerializer {
                     for (Object value : subResponseList) {
                         if (value instanceof ResponseObject) {
                             ResponseObject subObj = (ResponseObject)value;
-                            if (serializedName != null) {
-                                subObj.setObjectName(serializedName.value());
-                            }
+                            subObj.setObjectName(serializedName);
                             serializeResponseObjXML(sb, log, subObj);
                         } else if (value instanceof ExceptionProxyObject) {
                             // Only exception reponses carry a list of
@@ -300,48 +374,64 @@ public class ApiResponseSerializer {
                             // If this is the first IdentityProxy field
                             // encountered, put in a uuidList tag.
                             if (!usedUuidList) {
-                                sb.append("<" + serializedName.value() + ">");
-                                log.append("<" + serializedName.value() + ">");
+                                append(sb, log, "<", serializedName, ">");
                                 usedUuidList = true;
                             }
-                            sb.append("<" + "uuid" + ">" + idProxy.getUuid() + "</" + "uuid" + ">");
-                            log.append("<" + "uuid" + ">" + idProxy.getUuid() + "</" + "uuid" + ">");
+                            append(sb, log, "<uuid>", idProxy.getUuid(), "</uuid>");
                             // Append the new descriptive property also.
                             String idFieldName = idProxy.getDescription();
                             if (idFieldName != null) {
-                                sb.append("<" + "uuidProperty" + ">" + idFieldName + "</" + "uuidProperty" + ">");
-                                log.append("<" + "uuidProperty" + ">" + idFieldName + "</" + "uuidProperty" + ">");
+                                append(sb, log, "<uuidProperty>", idFieldName, "</uuidProperty>");
                             }
                         } else if (value instanceof String) {
-                            sb.append("<").append(serializedName.value()).append(">").append(value).append("</").append(serializedName.value()).append(">");
-                            if (logField) {
-                                log.append("<").append(serializedName.value()).append(">").append(value).append("</").append(serializedName.value()).append(">");
-                            }
+                            append(sb, fieldLog, "<", serializedName, ">", (String)value, "</", serializedName, ">");
                         }
                     }
                     if (usedUuidList) {
                         // close the uuidList.
-                        sb.append("</").append(serializedName.value()).append(">");
-                        log.append("</").append(serializedName.value()).append(">");
+                        append(sb, log, "</", serializedName, ">");
                     }
                 } else if (fieldValue instanceof Date) {
-                    sb.append("<").append(serializedName.value()).append(">").append(BaseCmd.getDateString((Date)fieldValue)).append("</").append(serializedName.value()).append(">");
-                    log.append("<").append(serializedName.value()).append(">").append(BaseCmd.getDateString((Date)fieldValue)).append("</").append(serializedName.value()).append(">");
+                    append(sb, log, "<", serializedName, ">", BaseCmd.getDateString((Date)fieldValue), "</", serializedName, ">");
                 } else {
                     String resultString = escapeSpecialXmlChars(fieldValue.toString());
                     if (!(obj instanceof ExceptionResponse)) {
                         resultString = encodeParam(resultString);
                     }
 
-                    sb.append("<").append(serializedName.value()).append(">").append(resultString).append("</").append(serializedName.value()).append(">");
-                    if (logField) {
-                        log.append("<").append(serializedName.value()).append(">").append(resultString).append("</").append(serializedName.value()).append(">");
-                    }
+                    append(sb, fieldLog, "<", serializedName, ">", resultString, "</", serializedName, ">");
                 }
             }
         }
     }
 
+    private static final class ResponseField {
+        private final Field field;
+        private final String serializedName;
+        private final Param param;
+        private final boolean sensitive;
+        private final boolean leaf;
+
+        private ResponseField(Field field) {
+            this.field = field;
+            SerializedName name = field.getAnnotation(SerializedName.class);
+            this.serializedName = name != null ? name.value() : null;
+            this.param = field.getAnnotation(Param.class);
+            this.sensitive = param != null && param.isSensitive();
+            this.leaf = isLeafType(field.getType());
+        }
+
+        private Object get(Object obj) {
+            try {
+                return field.get(obj);
+            } catch (IllegalArgumentException e) {
+                throw new CloudRuntimeException("how illegal is it?", e);
+            } catch (IllegalAccessException e) {
+                throw new CloudRuntimeException("come on...we set accessible already", e);
+            }
+        }
+    }
+
     private static String escapeSpecialXmlChars(String originalString) {
         char[] origChars = originalString.toCharArray();
         StringBuilder resultString = new StringBuilder();
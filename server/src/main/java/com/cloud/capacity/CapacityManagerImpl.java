@@ -18,8 +18,11 @@ package com.cloud.capacity;
 
 import java.net.URI;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.inject.Inject;
 import javax.naming.ConfigurationException;
@@ -69,6 +72,8 @@ import com.cloud.service.dao.ServiceOfferingDao;
 import com.cloud.storage.StorageManager;
 import com.cloud.storage.VMTemplateStoragePoolVO;
 import com.cloud.storage.VMTemplateVO;
+import com.cloud.storage.Volume;
+import com.cloud.storage.VolumeVO;
 import com.cloud.storage.dao.VMTemplatePoolDao;
 import com.cloud.storage.dao.VolumeDao;
 import com.cloud.utils.DateUtil;
@@ -79,6 +84,7 @@ import com.cloud.utils.db.DB;
 import com.cloud.utils.db.SearchCriteria;
 import com.cloud.utils.db.Transaction;
 import com.cloud.utils.db.TransactionCallbackNoReturn;
+import com.cloud.utils.db.TransactionLegacy;
 import com.cloud.utils.db.TransactionStatus;
 import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.utils.fsm.StateListener;
@@ -135,7 +141,12 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
 
     @Inject
     ClusterDetailsDao _clusterDetailsDao;
+    @Inject
+    HostCapacityIndex _hostCapacityIndex;
     private int _vmCapacityReleaseInterval;
+
+    private final Set<Long> _dirtyHosts = ConcurrentHashMap.newKeySet();
+    private final Set<Long> _dirtyStoragePools = ConcurrentHashMap.newKeySet();
     long _extraBytesPerVolume = 0;
 
     @Inject
@@ -146,6 +157,7 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
         _vmCapacityReleaseInterval = NumbersUtil.parseInt(_configDao.getValue(Config.CapacitySkipcountingHours.key()), 3600);
 
         VirtualMachine.State.getStateMachine().registerListener(this);
+        Volume.State.getStateMachine().registerListener(new VolumeCapacityStateListener());
         _agentManager.registerForHostEvents(new StorageCapacityListener(_capacityDao, _storageMgr), true, false, false);
         _agentManager.registerForHostEvents(new ComputeCapacityListener(_capacityDao, this), true, false, false);
 
@@ -266,6 +278,7 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
                     _capacityDao.update(capacityCpu.getId(), capacityCpu);
                     _capacityDao.update(capacityMemory.getId(), capacityMemory);
                     _capacityDao.update(capacityCpuCore.getId(), capacityCpuCore);
+                    invalidateHostCapacity(hostId);
                 }
             });
 
@@ -395,6 +408,7 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
                     _capacityDao.update(capacityCpu.getId(), capacityCpu);
                     _capacityDao.update(capacityMem.getId(), capacityMem);
                     _capacityDao.update(capacityCpuCore.getId(), capacityCpuCore);
+                    invalidateHostCapacity(hostId);
                 }
             });
         } catch (Exception e) {
@@ -886,7 +900,7 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
             });
 
         }
-
+        invalidateHostCapacity(host.getId());
     }
 
     @Override
@@ -902,6 +916,9 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
       @SuppressWarnings("unchecked")
       Pair<Long, Long> hosts = (Pair<Long, Long>)opaque;
       Long oldHostId = hosts.first();
+      markHostDirty(oldHostId);
+      markHostDirty(vm.getHostId());
+      markHostDirty(vm.getLastHostId());
 
       State oldState = transition.getCurrentState();
       State newState = transition.getToState();
@@ -970,6 +987,79 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
       return true;
     }
 
+    private void markHostDirty(final Long hostId) {
+        if (hostId != null) {
+            // a pass that polls the mark before the commit would recalculate from the old rows and lose it
+            TransactionLegacy.runAfterCommit(() -> _dirtyHosts.add(hostId));
+            invalidateHostCapacity(hostId);
+        }
+    }
+
+    private void invalidateHostCapacity(final Long hostId) {
+        if (_hostCapacityIndex != null) {
+            // a planner that reloads the host before the commit would cache the old capacity again
+            TransactionLegacy.runAfterCommit(() -> _hostCapacityIndex.invalidate(hostId));
+        }
+    }
+
+    private void markStoragePoolDirty(final Long poolId) {
+        if (poolId != null) {
+            TransactionLegacy.runAfterCommit(() -> _dirtyStoragePools.add(poolId));
+        }
+    }
+
+    private static Set<Long> poll(Set<Long> dirty) {
+        Set<Long> polled = new HashSet<Long>();
+        for (Long id : dirty) {
+            if (dirty.remove(id)) {
+                polled.add(id);
+            }
+        }
+        return polled;
+    }
+
+    @Override
+    public Set<Long> pollDirtyHosts() {
+        return poll(_dirtyHosts);
+    }
+
+    @Override
+    public Set<Long> pollDirtyStoragePools() {
+        return poll(_dirtyStoragePools);
+    }
+
+    @Override
+    public int getDirtyHostCount() {
+        return _dirtyHosts.size();
+    }
+
+    @Override
+    public int getDirtyStoragePoolCount() {
+        return _dirtyStoragePools.size();
+    }
+
+    /**
+     * Marks the pools of volumes that change state, so that their allocated capacity gets
+     * recalculated by the next incremental pass instead of waiting for the full sweep.
+     */
+    protected class VolumeCapacityStateListener implements StateListener<Volume.State, Volume.Event, Volume> {
+        @Override
+        public boolean preStateTransitionEvent(Volume.State oldState, Volume.Event event, Volume.State newState, Volume vo, boolean status, Object opaque) {
+            return true;
+        }
+
+        @Override
+        public boolean postStateTransitionEvent(StateMachine2.Transition<Volume.State, Volume.Event> transition, Volume vo, boolean status, Object opaque) {
+            if (status) {
+                markStoragePoolDirty(vo.getPoolId());
+                if (vo instanceof VolumeVO) {
+                    markStoragePoolDirty(((VolumeVO)vo).getLastPoolId());
+                }
+            }
+            return true;
+        }
+    }
+
   // TODO: Get rid of this case once we've determined that the capacity listeners above have all the changes
     // create capacity entries if none exist for this server
     private void createCapacityEntry(StartupCommand startup, HostVO server) {
@@ -1035,6 +1125,7 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
                 _capacityDao.persist(capacity);
             }
         }
+        invalidateHostCapacity(server.getId());
 
     }
 
@@ -1211,6 +1302,6 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
     @Override
     public ConfigKey<?>[] getConfigKeys() {
         return new ConfigKey<?>[] {CpuOverprovisioningFactor, MemOverprovisioningFactor, StorageCapacityDisableThreshold, StorageOverprovisioningFactor,
-            StorageAllocatedCapacityDisableThreshold, StorageOperationsExcludeCluster, VmwareCreateCloneFull, ImageStoreNFSVersion};
+            StorageAllocatedCapacityDisableThreshold, StorageOperationsExcludeCluster, VmwareCreateCloneFull, ImageStoreNFSVersion, HostCapacityIndexTtl};
     }
 }
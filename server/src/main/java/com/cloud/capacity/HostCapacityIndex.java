@@ -0,0 +1,279 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.capacity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+
+import org.apache.log4j.Logger;
+
+import com.cloud.capacity.dao.CapacityDao;
+import com.cloud.dc.ClusterDetailsDao;
+import com.cloud.host.Host;
+import com.cloud.hypervisor.Hypervisor.HypervisorType;
+import com.cloud.hypervisor.dao.HypervisorCapabilitiesDao;
+import com.cloud.utils.Pair;
+import com.cloud.vm.dao.VMInstanceDao;
+
+/**
+ * Keeps the compute capacity of routing hosts in memory, so that host allocators can filter and
+ * order candidate hosts without querying the capacity, cluster details and vm tables for every
+ * host they look at. Entries are loaded in bulk for all hosts missing from the index, are dropped
+ * by the {@link CapacityManager} as soon as it updates the capacity of a host, and expire after
+ * {@link CapacityManager#HostCapacityIndexTtl} seconds to pick up changes made by other
+ * management servers.
+ *
+ * The index only narrows down the candidates, the capacity is still checked against the database
+ * when it gets reserved for the vm.
+ */
+public class HostCapacityIndex {
+    private static final Logger s_logger = Logger.getLogger(HostCapacityIndex.class);
+
+    private static final List<Short> CAPACITY_TYPES = Arrays.asList(Capacity.CAPACITY_TYPE_CPU, Capacity.CAPACITY_TYPE_MEMORY);
+
+    @Inject
+    CapacityDao _capacityDao;
+    @Inject
+    ClusterDetailsDao _clusterDetailsDao;
+    @Inject
+    VMInstanceDao _vmDao;
+    @Inject
+    HypervisorCapabilitiesDao _hypervisorCapabilitiesDao;
+
+    private final Map<Long, HostCapacity> _entries = new ConcurrentHashMap<Long, HostCapacity>();
+    /* bumped on every invalidation, entries loaded while it changed may hold the capacity from before it */
+    private final AtomicLong _invalidations = new AtomicLong();
+
+    /**
+     * Compute capacity of a single host, as it was when the entry was loaded.
+     */
+    public static class HostCapacity {
+        private final long hostId;
+        private final int cpus;
+        private final long cpuSpeed;
+        private final long totalCpu;
+        private final long usedCpu;
+        private final long reservedCpu;
+        private final long totalMemory;
+        private final long usedMemory;
+        private final long reservedMemory;
+        private final float cpuOvercommitRatio;
+        private final float memoryOvercommitRatio;
+        private final long guestCount;
+        private final long maxGuestLimit;
+        private final long loadedAt;
+
+        public HostCapacity(long hostId, int cpus, long cpuSpeed, CapacityVO cpuCapacity, CapacityVO memoryCapacity, float cpuOvercommitRatio, float memoryOvercommitRatio,
+                long guestCount, long maxGuestLimit, long loadedAt) {
+            this.hostId = hostId;
+            this.cpus = cpus;
+            this.cpuSpeed = cpuSpeed;
+            this.totalCpu = cpuCapacity.getTotalCapacity();
+            this.usedCpu = cpuCapacity.getUsedCapacity();
+            this.reservedCpu = cpuCapacity.getReservedCapacity();
+            this.totalMemory = memoryCapacity.getTotalCapacity();
+            this.usedMemory = memoryCapacity.getUsedCapacity();
+            this.reservedMemory = memoryCapacity.getReservedCapacity();
+            this.cpuOvercommitRatio = cpuOvercommitRatio;
+            this.memoryOvercommitRatio = memoryOvercommitRatio;
+            this.guestCount = guestCount;
+            this.maxGuestLimit = maxGuestLimit;
+            this.loadedAt = loadedAt;
+        }
+
+        public long getHostId() {
+            return hostId;
+        }
+
+        public float getCpuOvercommitRatio() {
+            return cpuOvercommitRatio;
+        }
+
+        public float getMemoryOvercommitRatio() {
+            return memoryOvercommitRatio;
+        }
+
+        /**
+         * Same as {@link CapacityManager#checkIfHostReachMaxGuestLimit(Host)}.
+         */
+        public boolean hasReachedMaxGuestLimit() {
+            return guestCount >= maxGuestLimit;
+        }
+
+        /**
+         * Same as {@link CapacityManager#checkIfHostHasCpuCapability(long, Integer, Integer)}.
+         */
+        public boolean hasCpuCapability(Integer cpuNum, Integer cpuSpeed) {
+            return cpus >= cpuNum && this.cpuSpeed >= cpuSpeed;
+        }
+
+        /**
+         * Same as {@link CapacityManager#checkIfHostHasCapacity(long, Integer, long, boolean, float, float, boolean)}
+         * when not allocating from the reserved capacity.
+         */
+        public boolean hasCapacity(int cpu, long ram, boolean considerReservedCapacity) {
+            long reservedCpuValueToUse = considerReservedCapacity ? reservedCpu : 0;
+            long reservedMemValueToUse = considerReservedCapacity ? reservedMemory : 0;
+            long totalCpuWithOvercommit = (long)(totalCpu * cpuOvercommitRatio);
+            long totalMemWithOvercommit = (long)(totalMemory * memoryOvercommitRatio);
+            return reservedCpuValueToUse + usedCpu + cpu <= totalCpuWithOvercommit
+                && reservedMemValueToUse + usedMemory + ram <= totalMemWithOvercommit;
+        }
+
+        /**
+         * Fraction of the capacity of the given type that is neither used nor reserved, as used by
+         * {@link CapacityDao#orderHostsByFreeCapacity(Long, Long, short)} to order hosts.
+         */
+        public double getFreeCapacityRatio(short capacityType) {
+            long total = capacityType == Capacity.CAPACITY_TYPE_MEMORY ? totalMemory : totalCpu;
+            long used = capacityType == Capacity.CAPACITY_TYPE_MEMORY ? usedMemory + reservedMemory : usedCpu + reservedCpu;
+            if (total <= 0) {
+                return 0;
+            }
+            return (double)(total - used) / total;
+        }
+
+        boolean isExpired(long now, long ttl) {
+            return now - loadedAt >= ttl;
+        }
+    }
+
+    public boolean isEnabled() {
+        return CapacityManager.HostCapacityIndexTtl.value() > 0;
+    }
+
+    /**
+     * Returns the capacity of the given hosts, keyed by host id. Hosts missing from the index,
+     * or whose entry expired, are loaded with a fixed number of queries. Hosts without cpu and
+     * memory capacity entries are left out of the result. Returns an empty map when the index is
+     * disabled, in which case callers should check the hosts against the database.
+     */
+    public Map<Long, HostCapacity> getHostCapacities(List<? extends Host> hosts) {
+        Map<Long, HostCapacity> result = new HashMap<Long, HostCapacity>();
+        if (!isEnabled() || hosts == null || hosts.isEmpty()) {
+            return result;
+        }
+
+        long now = System.currentTimeMillis();
+        long ttl = CapacityManager.HostCapacityIndexTtl.value() * 1000L;
+        List<Host> toLoad = new ArrayList<Host>();
+        for (Host host : hosts) {
+            HostCapacity entry = _entries.get(host.getId());
+            if (entry == null || entry.isExpired(now, ttl)) {
+                toLoad.add(host);
+            } else {
+                result.put(host.getId(), entry);
+            }
+        }
+
+        if (!toLoad.isEmpty()) {
+            long invalidations = _invalidations.get();
+            List<HostCapacity> loaded = load(toLoad, now);
+            boolean cache = invalidations == _invalidations.get();
+            for (HostCapacity entry : loaded) {
+                if (cache) {
+                    _entries.put(entry.getHostId(), entry);
+                }
+                result.put(entry.getHostId(), entry);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Drops the entry of the host, so that it gets loaded from the database the next time it is
+     * looked up. Called once the capacity or the number of vms of the host changed and the change
+     * is committed. Entries that are being loaded meanwhile are not kept.
+     */
+    public void invalidate(Long hostId) {
+        if (hostId != null) {
+            _invalidations.incrementAndGet();
+            _entries.remove(hostId);
+        }
+    }
+
+    public void invalidateAll() {
+        _invalidations.incrementAndGet();
+        _entries.clear();
+    }
+
+    public int size() {
+        return _entries.size();
+    }
+
+    protected List<HostCapacity> load(List<Host> hosts, long now) {
+        List<Long> hostIds = new ArrayList<Long>(hosts.size());
+        Set<Long> clusterIds = new HashSet<Long>();
+        for (Host host : hosts) {
+            hostIds.add(host.getId());
+            if (host.getClusterId() != null) {
+                clusterIds.add(host.getClusterId());
+            }
+        }
+
+        Map<Long, CapacityVO> cpuCapacities = new HashMap<Long, CapacityVO>();
+        Map<Long, CapacityVO> memoryCapacities = new HashMap<Long, CapacityVO>();
+        for (CapacityVO capacity : _capacityDao.listByHostIdsAndTypes(hostIds, CAPACITY_TYPES)) {
+            if (capacity.getCapacityType() == Capacity.CAPACITY_TYPE_CPU) {
+                cpuCapacities.put(capacity.getHostOrPoolId(), capacity);
+            } else {
+                memoryCapacities.put(capacity.getHostOrPoolId(), capacity);
+            }
+        }
+        List<Long> clusterIdList = new ArrayList<Long>(clusterIds);
+        Map<Long, String> cpuOvercommitRatios = _clusterDetailsDao.findDetailValues(clusterIdList, "cpuOvercommitRatio");
+        Map<Long, String> memoryOvercommitRatios = _clusterDetailsDao.findDetailValues(clusterIdList, "memoryOvercommitRatio");
+        Map<Long, Long> guestCounts = _vmDao.countActiveGroupedByHost(hostIds);
+        Map<Pair<HypervisorType, String>, Long> maxGuestLimits = new HashMap<Pair<HypervisorType, String>, Long>();
+
+        List<HostCapacity> entries = new ArrayList<HostCapacity>(hosts.size());
+        for (Host host : hosts) {
+            CapacityVO cpuCapacity = cpuCapacities.get(host.getId());
+            CapacityVO memoryCapacity = memoryCapacities.get(host.getId());
+            String cpuOvercommitRatio = cpuOvercommitRatios.get(host.getClusterId());
+            String memoryOvercommitRatio = memoryOvercommitRatios.get(host.getClusterId());
+            if (cpuCapacity == null || memoryCapacity == null || cpuOvercommitRatio == null || memoryOvercommitRatio == null) {
+                if (s_logger.isDebugEnabled()) {
+                    s_logger.debug("Not indexing host " + host.getId() + ", its capacity entries or cluster overcommit ratios are missing");
+                }
+                continue;
+            }
+
+            Pair<HypervisorType, String> hypervisor = new Pair<HypervisorType, String>(host.getHypervisorType(), host.getHypervisorVersion());
+            Long maxGuestLimit = maxGuestLimits.get(hypervisor);
+            if (maxGuestLimit == null) {
+                maxGuestLimit = _hypervisorCapabilitiesDao.getMaxGuestsLimit(host.getHypervisorType(), host.getHypervisorVersion());
+                maxGuestLimits.put(hypervisor, maxGuestLimit);
+            }
+            Long guestCount = guestCounts.get(host.getId());
+
+            entries.add(new HostCapacity(host.getId(), host.getCpus() == null ? 0 : host.getCpus(), host.getSpeed() == null ? 0 : host.getSpeed(),
+                    cpuCapacity, memoryCapacity, Float.parseFloat(cpuOvercommitRatio), Float.parseFloat(memoryOvercommitRatio),
+                    guestCount == null ? 0 : guestCount, maxGuestLimit, now));
+        }
+        return entries;
+    }
+}
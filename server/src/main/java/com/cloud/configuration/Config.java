@@ -1222,6 +1222,14 @@ public enum Config {
             "Interval (in days) to check sanity of usage data. To disable set it to 0 or negative.",
             null),
     UsageAggregationTimezone("Usage", ManagementServer.class, String.class, "usage.aggregation.timezone", "GMT", "The timezone to use for usage stats aggregation", null),
+    UsageParseWorkers(
+            "Usage",
+            ManagementServer.class,
+            Integer.class,
+            "usage.parse.workers",
+            "4",
+            "Number of threads the usage job uses to create the usage records of different accounts in parallel.",
+            null),
     TrafficSentinelIncludeZones(
             "Usage",
             ManagementServer.class,
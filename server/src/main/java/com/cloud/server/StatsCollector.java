@@ -219,6 +219,16 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
             "URI to send StatsCollector statistics to. The collector is defined on the URI scheme. Example: graphite://graphite-hostaddress:port or influxdb://influxdb-hostaddress/dbname. Note that the port is optional, if not added the default port for the respective collector (graphite or influxdb) will be used. Additionally, the database name '/dbname' is  also optional; default db name is 'cloudstack'. You must create and configure the database if using influxdb.",
             true);
 
+    private static final ConfigKey<Integer> statsHistoryMinuteBuckets = new ConfigKey<Integer>("Advanced", Integer.class, "stats.history.minute.buckets", "60",
+            "Number of one minute buckets of host, VM, volume and storage statistics kept in memory per resource and metric (about "
+                    + StatsHistory.BYTES_PER_BUCKET + " bytes each). 0 disables the per minute history.", true);
+    private static final ConfigKey<Integer> statsHistoryHourBuckets = new ConfigKey<Integer>("Advanced", Integer.class, "stats.history.hour.buckets", "24",
+            "Number of one hour buckets of host, VM, volume and storage statistics kept in memory per resource and metric (about "
+                    + StatsHistory.BYTES_PER_BUCKET + " bytes each). 0 disables the hourly history.", true);
+    private static final ConfigKey<Integer> statsHistoryDayBuckets = new ConfigKey<Integer>("Advanced", Integer.class, "stats.history.day.buckets", "7",
+            "Number of one day buckets of host, VM, volume and storage statistics kept in memory per resource and metric (about "
+                    + StatsHistory.BYTES_PER_BUCKET + " bytes each). 0 disables the daily history.", true);
+
     private static StatsCollector s_instance = null;
 
     private ScheduledExecutorService _executor = null;
@@ -288,6 +298,8 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
     private final Map<String, VolumeStats> _volumeStats = new ConcurrentHashMap<String, VolumeStats>();
     private ConcurrentHashMap<Long, StorageStats> _storageStats = new ConcurrentHashMap<Long, StorageStats>();
     private ConcurrentHashMap<Long, StorageStats> _storagePoolStats = new ConcurrentHashMap<Long, StorageStats>();
+    private final StatsHistory statsHistory = new StatsHistory(Integer.parseInt(statsHistoryMinuteBuckets.defaultValue()),
+            Integer.parseInt(statsHistoryHourBuckets.defaultValue()), Integer.parseInt(statsHistoryDayBuckets.defaultValue()));
 
     private long hostStatsInterval = -1L;
     private long hostAndVmStatsInterval = -1L;
@@ -340,6 +352,7 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
         storageStatsInterval = NumbersUtil.parseLong(configs.get("storage.stats.interval"), ONE_MINUTE_IN_MILLISCONDS);
         volumeStatsInterval = NumbersUtil.parseLong(configs.get("volume.stats.interval"), ONE_MINUTE_IN_MILLISCONDS);
         autoScaleStatsInterval = NumbersUtil.parseLong(configs.get("autoscale.stats.interval"), ONE_MINUTE_IN_MILLISCONDS);
+        configureStatsHistory();
 
         String statsUri = statsOutputUri.value();
         if (StringUtils.isNotBlank(statsUri)) {
@@ -504,6 +517,7 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
         protected void runInContext() {
             try {
                 s_logger.debug("HostStatsCollector is running...");
+                configureStatsHistory();
 
                 SearchCriteria<HostVO> sc = createSearchCriteriaForHostTypeRoutingStateUpAndNotInMaintenance();
 
@@ -516,6 +530,7 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
                         hostStatsEntry.setHostVo(host);
                         metrics.put(hostStatsEntry.getHostId(), hostStatsEntry);
                         _hostStats.put(host.getId(), hostStatsEntry);
+                        recordHostStatsHistory(host.getId(), hostStatsEntry);
                     } else {
                         s_logger.warn("The Host stats is null for host: " + host.getId());
                     }
@@ -590,6 +605,7 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
                                 statsForCurrentIteration.setUserVmVO(userVmVo);
 
                                 storeVirtualMachineStatsInMemory(statsForCurrentIteration);
+                                recordVmStatsHistory(statsForCurrentIteration);
 
                                 if (externalStatsType == ExternalStatsProtocol.GRAPHITE) {
                                     prepareVmMetricsForGraphite(metrics, statsForCurrentIteration);
@@ -614,6 +630,7 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
                     }
                 }
 
+                statsHistory.purge(System.currentTimeMillis());
             } catch (Throwable t) {
                 s_logger.error("Error trying to retrieve VM stats", t);
             }
@@ -962,6 +979,7 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
                                     continue;
                                 }
                                 _volumeStats.put(entry.getKey(), entry.getValue());
+                                recordVolumeStatsHistory(entry.getKey(), entry.getValue());
                             }
                         }
                     } catch (Exception e) {
@@ -1008,6 +1026,7 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
                     Answer answer = ssAhost.sendMessage(command);
                     if (answer != null && answer.getResult()) {
                         storageStats.put(storeId, (StorageStats)answer);
+                        recordStorageStatsHistory(StatsHistory.ResourceType.ImageStore, storeId, (StorageStats)answer);
                         s_logger.trace("HostId: " + storeId + " Used: " + toHumanReadableSize(((StorageStats)answer).getByteUsed()) + " Total Available: " + toHumanReadableSize(((StorageStats)answer).getCapacityBytes()));
                     }
                 }
@@ -1026,6 +1045,7 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
                         Answer answer = _storageManager.sendToPool(pool, command);
                         if (answer != null && answer.getResult()) {
                             storagePoolStats.put(pool.getId(), (StorageStats)answer);
+                            recordStorageStatsHistory(StatsHistory.ResourceType.StoragePool, poolId, (StorageStats)answer);
 
                             // Seems like we have dynamically updated the pool size since the prev. size and the current do not match
                             if (pool.getCapacityBytes() != ((StorageStats)answer).getCapacityBytes() ||
@@ -1434,6 +1454,66 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
         metrics.put(externalStatsPrefix + "cloudstack.stats.instances." + vmName + ".memory.target_kbs", statsForCurrentIteration.getTargetMemoryKBs());
     }
 
+    /**
+     * Applies the configured number of buckets per interval to the stats history, logging its estimated footprint.
+     */
+    protected void configureStatsHistory() {
+        statsHistory.configure(statsHistoryMinuteBuckets.value(), statsHistoryHourBuckets.value(), statsHistoryDayBuckets.value());
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug(String.format("Stats history holds %d series using about %s", statsHistory.getSeriesCount(),
+                    toHumanReadableSize(statsHistory.estimateMemoryBytes())));
+        }
+    }
+
+    private void recordHostStatsHistory(long hostId, HostStats hostStats) {
+        final String id = String.valueOf(hostId);
+        final long now = System.currentTimeMillis();
+        statsHistory.record(StatsHistory.ResourceType.Host, id, StatsHistory.CPU_UTILIZATION, now, hostStats.getCpuUtilization());
+        statsHistory.record(StatsHistory.ResourceType.Host, id, StatsHistory.LOAD_AVERAGE, now, hostStats.getLoadAverage());
+        statsHistory.record(StatsHistory.ResourceType.Host, id, StatsHistory.MEMORY_TOTAL_KBS, now, hostStats.getTotalMemoryKBs());
+        statsHistory.record(StatsHistory.ResourceType.Host, id, StatsHistory.MEMORY_FREE_KBS, now, hostStats.getFreeMemoryKBs());
+        statsHistory.record(StatsHistory.ResourceType.Host, id, StatsHistory.NETWORK_READ_KBS, now, hostStats.getNetworkReadKBs());
+        statsHistory.record(StatsHistory.ResourceType.Host, id, StatsHistory.NETWORK_WRITE_KBS, now, hostStats.getNetworkWriteKBs());
+    }
+
+    /**
+     * Records the stats of the current iteration, not the accumulated ones kept by {@link #storeVirtualMachineStatsInMemory(VmStatsEntry)}.
+     */
+    private void recordVmStatsHistory(VmStatsEntry vmStats) {
+        final String id = String.valueOf(vmStats.getVmId());
+        final long now = System.currentTimeMillis();
+        statsHistory.record(StatsHistory.ResourceType.VirtualMachine, id, StatsHistory.CPU_UTILIZATION, now, vmStats.getCPUUtilization());
+        statsHistory.record(StatsHistory.ResourceType.VirtualMachine, id, StatsHistory.MEMORY_KBS, now, vmStats.getMemoryKBs());
+        statsHistory.record(StatsHistory.ResourceType.VirtualMachine, id, StatsHistory.MEMORY_INTERNAL_FREE_KBS, now, vmStats.getIntFreeMemoryKBs());
+        statsHistory.record(StatsHistory.ResourceType.VirtualMachine, id, StatsHistory.NETWORK_READ_KBS, now, vmStats.getNetworkReadKBs());
+        statsHistory.record(StatsHistory.ResourceType.VirtualMachine, id, StatsHistory.NETWORK_WRITE_KBS, now, vmStats.getNetworkWriteKBs());
+        statsHistory.record(StatsHistory.ResourceType.VirtualMachine, id, StatsHistory.DISK_READ_KBS, now, vmStats.getDiskReadKBs());
+        statsHistory.record(StatsHistory.ResourceType.VirtualMachine, id, StatsHistory.DISK_WRITE_KBS, now, vmStats.getDiskWriteKBs());
+        statsHistory.record(StatsHistory.ResourceType.VirtualMachine, id, StatsHistory.DISK_READ_IOPS, now, vmStats.getDiskReadIOs());
+        statsHistory.record(StatsHistory.ResourceType.VirtualMachine, id, StatsHistory.DISK_WRITE_IOPS, now, vmStats.getDiskWriteIOs());
+    }
+
+    private void recordVolumeStatsHistory(String volumeLocator, VolumeStats volumeStats) {
+        final long now = System.currentTimeMillis();
+        statsHistory.record(StatsHistory.ResourceType.Volume, volumeLocator, StatsHistory.PHYSICAL_SIZE, now, volumeStats.getPhysicalSize());
+        statsHistory.record(StatsHistory.ResourceType.Volume, volumeLocator, StatsHistory.VIRTUAL_SIZE, now, volumeStats.getVirtualSize());
+    }
+
+    private void recordStorageStatsHistory(StatsHistory.ResourceType type, long storeId, StorageStats storageStats) {
+        final String id = String.valueOf(storeId);
+        final long now = System.currentTimeMillis();
+        statsHistory.record(type, id, StatsHistory.USED_BYTES, now, storageStats.getByteUsed());
+        statsHistory.record(type, id, StatsHistory.CAPACITY_BYTES, now, storageStats.getCapacityBytes());
+    }
+
+    /**
+     * In memory history of the collected stats. Volumes are identified by their stats locator, as in
+     * {@link #getVolumeStats(String)}, the other resources by their database id.
+     */
+    public StatsHistory getStatsHistory() {
+        return statsHistory;
+    }
+
     /**
      * Stores virtual machine stats in memory (map of {@link VmStatsEntry}).
      */
@@ -1605,7 +1685,8 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
 
     @Override
     public ConfigKey<?>[] getConfigKeys() {
-        return new ConfigKey<?>[] {vmDiskStatsInterval, vmDiskStatsIntervalMin, vmNetworkStatsInterval, vmNetworkStatsIntervalMin, StatsTimeout, statsOutputUri};
+        return new ConfigKey<?>[] {vmDiskStatsInterval, vmDiskStatsIntervalMin, vmNetworkStatsInterval, vmNetworkStatsIntervalMin, StatsTimeout, statsOutputUri,
+                statsHistoryMinuteBuckets, statsHistoryHourBuckets, statsHistoryDayBuckets};
     }
 
     public double getImageStoreCapacityThreshold() {
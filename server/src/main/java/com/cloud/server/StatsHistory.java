@@ -0,0 +1,305 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Memory bounded history of the statistics gathered by {@link StatsCollector}.<br>
+ * Each sample of a resource metric is folded into the current bucket of every {@link Interval}, so a series
+ * keeps the average, minimum and maximum per minute, hour and day in fixed size primitive ring buffers. The
+ * number of buckets kept per interval bounds the memory used, about {@value #BYTES_PER_BUCKET} bytes per bucket
+ * and series.
+ */
+public class StatsHistory {
+
+    public static final int BYTES_PER_BUCKET = 20;
+
+    public enum ResourceType {
+        Host, VirtualMachine, Volume, StoragePool, ImageStore
+    }
+
+    public enum Interval {
+        MINUTE(60 * 1000L), HOUR(60 * 60 * 1000L), DAY(24 * 60 * 60 * 1000L);
+
+        private final long length;
+
+        Interval(long length) {
+            this.length = length;
+        }
+
+        public long getLength() {
+            return length;
+        }
+    }
+
+    public static final String CPU_UTILIZATION = "cpu.utilization";
+    public static final String LOAD_AVERAGE = "load.average";
+    public static final String MEMORY_TOTAL_KBS = "memory.total.kbs";
+    public static final String MEMORY_FREE_KBS = "memory.free.kbs";
+    public static final String MEMORY_KBS = "memory.kbs";
+    public static final String MEMORY_INTERNAL_FREE_KBS = "memory.internal.free.kbs";
+    public static final String NETWORK_READ_KBS = "network.read.kbs";
+    public static final String NETWORK_WRITE_KBS = "network.write.kbs";
+    public static final String DISK_READ_KBS = "disk.read.kbs";
+    public static final String DISK_WRITE_KBS = "disk.write.kbs";
+    public static final String DISK_READ_IOPS = "disk.read.iops";
+    public static final String DISK_WRITE_IOPS = "disk.write.iops";
+    public static final String PHYSICAL_SIZE = "physical.size";
+    public static final String VIRTUAL_SIZE = "virtual.size";
+    public static final String USED_BYTES = "used.bytes";
+    public static final String CAPACITY_BYTES = "capacity.bytes";
+
+    public static class Point {
+        private final Date timestamp;
+        private final double average;
+        private final double minimum;
+        private final double maximum;
+        private final int samples;
+
+        Point(Date timestamp, double average, double minimum, double maximum, int samples) {
+            this.timestamp = timestamp;
+            this.average = average;
+            this.minimum = minimum;
+            this.maximum = maximum;
+            this.samples = samples;
+        }
+
+        public Date getTimestamp() {
+            return timestamp;
+        }
+
+        public double getAverage() {
+            return average;
+        }
+
+        public double getMinimum() {
+            return minimum;
+        }
+
+        public double getMaximum() {
+            return maximum;
+        }
+
+        public int getSamples() {
+            return samples;
+        }
+    }
+
+    /**
+     * Consecutive buckets of one interval, the newest one being {@link #head}. Slots of buckets that received
+     * no sample have a zero count.
+     */
+    private static final class RingBuffer {
+        private final long length;
+        private final double[] sums;
+        private final float[] minimums;
+        private final float[] maximums;
+        private final int[] counts;
+        private long head = -1;
+
+        RingBuffer(long length, int capacity) {
+            this.length = length;
+            sums = new double[capacity];
+            minimums = new float[capacity];
+            maximums = new float[capacity];
+            counts = new int[capacity];
+        }
+
+        private int slot(long bucket) {
+            return (int)(bucket % counts.length);
+        }
+
+        void add(long timestamp, double value) {
+            final long bucket = timestamp / length;
+            if (head < 0 || bucket >= head + counts.length) {
+                Arrays.fill(counts, 0);
+                head = bucket;
+            } else if (bucket > head) {
+                for (long b = head + 1; b <= bucket; b++) {
+                    counts[slot(b)] = 0;
+                }
+                head = bucket;
+            } else if (bucket <= head - counts.length) {
+                return;
+            }
+            final int slot = slot(bucket);
+            if (counts[slot] == 0) {
+                sums[slot] = 0;
+                minimums[slot] = (float)value;
+                maximums[slot] = (float)value;
+            } else {
+                minimums[slot] = Math.min(minimums[slot], (float)value);
+                maximums[slot] = Math.max(maximums[slot], (float)value);
+            }
+            sums[slot] += value;
+            counts[slot]++;
+        }
+
+        List<Point> points(long since) {
+            if (head < 0) {
+                return Collections.emptyList();
+            }
+            final List<Point> points = new ArrayList<Point>();
+            for (long bucket = Math.max(head - counts.length + 1, since / length); bucket <= head; bucket++) {
+                final int slot = slot(bucket);
+                if (counts[slot] > 0) {
+                    points.add(new Point(new Date(bucket * length), sums[slot] / counts[slot], minimums[slot], maximums[slot], counts[slot]));
+                }
+            }
+            return points;
+        }
+    }
+
+    private static final class Series {
+        private final RingBuffer[] buffers = new RingBuffer[Interval.values().length];
+
+        Series(int[] capacities) {
+            for (Interval interval : Interval.values()) {
+                if (capacities[interval.ordinal()] > 0) {
+                    buffers[interval.ordinal()] = new RingBuffer(interval.getLength(), capacities[interval.ordinal()]);
+                }
+            }
+        }
+
+        synchronized void add(long timestamp, double value) {
+            for (RingBuffer buffer : buffers) {
+                if (buffer != null) {
+                    buffer.add(timestamp, value);
+                }
+            }
+        }
+
+        synchronized List<Point> points(Interval interval, long since) {
+            final RingBuffer buffer = buffers[interval.ordinal()];
+            return buffer == null ? Collections.<Point>emptyList() : buffer.points(since);
+        }
+    }
+
+    private static final class Resource {
+        private final ConcurrentHashMap<String, Series> series = new ConcurrentHashMap<String, Series>();
+        private volatile long lastUpdate;
+    }
+
+    private final ConcurrentHashMap<String, Resource> resources = new ConcurrentHashMap<String, Resource>();
+    private volatile int[] capacities;
+
+    public StatsHistory(int minuteBuckets, int hourBuckets, int dayBuckets) {
+        capacities = new int[] {minuteBuckets, hourBuckets, dayBuckets};
+    }
+
+    private static String key(ResourceType type, String resourceId) {
+        return type.name() + "/" + resourceId;
+    }
+
+    /**
+     * Changes the number of buckets kept per interval. The history is dropped when they differ from the current ones.
+     */
+    public synchronized void configure(int minuteBuckets, int hourBuckets, int dayBuckets) {
+        final int[] newCapacities = new int[] {minuteBuckets, hourBuckets, dayBuckets};
+        if (!Arrays.equals(capacities, newCapacities)) {
+            capacities = newCapacities;
+            resources.clear();
+        }
+    }
+
+    public boolean isEnabled() {
+        for (int capacity : capacities) {
+            if (capacity > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void record(ResourceType type, String resourceId, String metric, long timestamp, double value) {
+        if (resourceId == null || Double.isNaN(value) || !isEnabled()) {
+            return;
+        }
+        final String key = key(type, resourceId);
+        Resource resource = resources.get(key);
+        if (resource == null) {
+            resource = new Resource();
+            final Resource existing = resources.putIfAbsent(key, resource);
+            if (existing != null) {
+                resource = existing;
+            }
+        }
+        Series series = resource.series.get(metric);
+        if (series == null) {
+            series = new Series(capacities);
+            final Series existing = resource.series.putIfAbsent(metric, series);
+            if (existing != null) {
+                series = existing;
+            }
+        }
+        series.add(timestamp, value);
+        resource.lastUpdate = timestamp;
+    }
+
+    public Set<String> getMetrics(ResourceType type, String resourceId) {
+        final Resource resource = resources.get(key(type, resourceId));
+        return resource == null ? Collections.<String>emptySet() : Collections.unmodifiableSet(resource.series.keySet());
+    }
+
+    public List<Point> getPoints(ResourceType type, String resourceId, String metric, Interval interval, Date since) {
+        final Resource resource = resources.get(key(type, resourceId));
+        final Series series = resource == null ? null : resource.series.get(metric);
+        if (series == null) {
+            return Collections.emptyList();
+        }
+        return series.points(interval, since == null ? 0L : since.getTime());
+    }
+
+    /**
+     * Drops the history of resources that got no sample for longer than the longest interval kept, e.g. removed VMs.
+     */
+    public void purge(long now) {
+        long retention = 0L;
+        for (Interval interval : Interval.values()) {
+            retention = Math.max(retention, interval.getLength() * capacities[interval.ordinal()]);
+        }
+        for (Iterator<Resource> it = resources.values().iterator(); it.hasNext();) {
+            if (now - it.next().lastUpdate > retention) {
+                it.remove();
+            }
+        }
+    }
+
+    public long getSeriesCount() {
+        long count = 0;
+        for (Resource resource : resources.values()) {
+            count += resource.series.size();
+        }
+        return count;
+    }
+
+    public long estimateMemoryBytes() {
+        long buckets = 0;
+        for (int capacity : capacities) {
+            buckets += capacity;
+        }
+        return getSeriesCount() * buckets * BYTES_PER_BUCKET;
+    }
+}
@@ -184,8 +184,18 @@ public interface AccountManager extends AccountService, Configurable {
 
     String MESSAGE_REMOVE_ACCOUNT_EVENT = "Message.RemoveAccount.Event";
 
+    /* published when the state, keys or account of a user, or the state of an account, changes */
+    String MESSAGE_USER_ACCOUNT_CHANGED_EVENT = "Message.UserAccountChanged.Event";
+
     ConfigKey<Boolean> UseSecretKeyInResponse = new ConfigKey<Boolean>("Advanced", Boolean.class, "use.secret.key.in.response", "false",
             "This parameter allows the users to enable or disable of showing secret key as a part of response for various APIs. By default it is set to false.", true);
 
+    ConfigKey<Integer> ApiKeyCacheTtl = new ConfigKey<Integer>("Advanced", Integer.class, "api.key.cache.ttl", "0",
+            "Seconds the user and account of an api key are cached for signed API requests, 0 disables the cache. Changes made through this management server "
+            + "are applied immediately, but disabled users, removed accounts and regenerated keys keep working on other management servers for up to this period.", false);
+
+    ConfigKey<Integer> ApiKeyCacheSize = new ConfigKey<Integer>("Advanced", Integer.class, "api.key.cache.size", "10000",
+            "Maximum number of api keys kept in the api key cache.", false);
+
     boolean moveUser(long id, Long domainId, Account newAccount);
 }
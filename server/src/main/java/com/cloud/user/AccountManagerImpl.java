@@ -57,6 +57,7 @@ import org.apache.cloudstack.engine.orchestration.service.NetworkOrchestrationSe
 import org.apache.cloudstack.framework.config.ConfigKey;
 import org.apache.cloudstack.framework.config.dao.ConfigurationDao;
 import org.apache.cloudstack.framework.messagebus.MessageBus;
+import org.apache.cloudstack.framework.messagebus.MessageSubscriber;
 import org.apache.cloudstack.framework.messagebus.PublishScope;
 import org.apache.cloudstack.managed.context.ManagedContextRunnable;
 import org.apache.cloudstack.region.gslb.GlobalLoadBalancerRuleDao;
@@ -158,6 +159,7 @@ import com.cloud.utils.db.SearchCriteria;
 import com.cloud.utils.db.Transaction;
 import com.cloud.utils.db.TransactionCallback;
 import com.cloud.utils.db.TransactionCallbackNoReturn;
+import com.cloud.utils.db.TransactionLegacy;
 import com.cloud.utils.db.TransactionStatus;
 import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.utils.net.NetUtils;
@@ -176,6 +178,8 @@ import com.cloud.vm.snapshot.VMSnapshot;
 import com.cloud.vm.snapshot.VMSnapshotManager;
 import com.cloud.vm.snapshot.VMSnapshotVO;
 import com.cloud.vm.snapshot.dao.VMSnapshotDao;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 
 public class AccountManagerImpl extends ManagerBase implements AccountManager, Manager {
     public static final Logger s_logger = Logger.getLogger(AccountManagerImpl.class);
@@ -274,6 +278,8 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
     @Inject
     private MessageBus _messageBus;
 
+    private Cache<String, Pair<User, Account>> _apiKeyCache;
+
     @Inject
     private GlobalLoadBalancingRulesService _gslbService;
 
@@ -359,9 +365,32 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
     @Override
     public boolean start() {
         _executor.scheduleAtFixedRate(new AccountCleanupTask(), _cleanupInterval, _cleanupInterval, TimeUnit.SECONDS);
+        initApiKeyCache();
         return true;
     }
 
+    protected void initApiKeyCache() {
+        final int ttl = ApiKeyCacheTtl.value();
+        if (ttl <= 0) {
+            return;
+        }
+        _apiKeyCache = CacheBuilder.newBuilder().maximumSize(ApiKeyCacheSize.value()).expireAfterWrite(ttl, TimeUnit.SECONDS).build();
+
+        final MessageSubscriber invalidator = new MessageSubscriber() {
+            @Override
+            public void onPublishMessage(String senderAddress, String subject, Object args) {
+                _apiKeyCache.invalidateAll();
+            }
+        };
+        _messageBus.subscribe(MESSAGE_USER_ACCOUNT_CHANGED_EVENT, invalidator);
+        _messageBus.subscribe(MESSAGE_REMOVE_ACCOUNT_EVENT, invalidator);
+    }
+
+    private void publishUserAccountChange() {
+        // a lookup between the publish and the commit would cache the old state again
+        TransactionLegacy.runAfterCommit(() -> _messageBus.publish(_name, MESSAGE_USER_ACCOUNT_CHANGED_EVENT, PublishScope.LOCAL, null));
+    }
+
     @Override
     public boolean stop() {
         return true;
@@ -630,7 +659,9 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
     private boolean doSetUserStatus(long userId, State state) {
         UserVO userForUpdate = _userDao.createForUpdate();
         userForUpdate.setState(state);
-        return _userDao.update(Long.valueOf(userId), userForUpdate);
+        boolean success = _userDao.update(Long.valueOf(userId), userForUpdate);
+        publishUserAccountChange();
+        return success;
     }
 
     @Override
@@ -640,6 +671,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
         acctForUpdate.setState(State.enabled);
         acctForUpdate.setNeedsCleanup(false);
         success = _accountDao.update(Long.valueOf(accountId), acctForUpdate);
+        publishUserAccountChange();
         return success;
     }
 
@@ -653,6 +685,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
                 AccountVO acctForUpdate = _accountDao.createForUpdate();
                 acctForUpdate.setState(State.locked);
                 success = _accountDao.update(Long.valueOf(accountId), acctForUpdate);
+                publishUserAccountChange();
             } else {
                 if (s_logger.isInfoEnabled()) {
                     s_logger.info("Attempting to lock a non-enabled account, current state is " + account.getState() + " (accountId: " + accountId + "), locking failed.");
@@ -961,6 +994,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
             AccountVO acctForUpdate = _accountDao.createForUpdate();
             acctForUpdate.setState(State.disabled);
             success = _accountDao.update(Long.valueOf(accountId), acctForUpdate);
+            publishUserAccountChange();
 
             if (success) {
                 boolean disableAccountResult = false;
@@ -1175,6 +1209,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
             user.setTimezone(timezone);
         }
         _userDao.update(user.getId(), user);
+        publishUserAccountChange();
         return _userAccountDao.findById(user.getId());
     }
 
@@ -1781,6 +1816,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
         });
 
         if (success) {
+            publishUserAccountChange();
             CallContext.current().putContextParameter(Account.class, account.getUuid());
             return _accountDao.findById(account.getId());
         } else {
@@ -1797,7 +1833,9 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
 
         // don't allow to delete the user from the account of type Project
         checkAccountAndAccess(user, account);
-        return _userDao.remove(deleteUserCmd.getId());
+        boolean success = _userDao.remove(deleteUserCmd.getId());
+        publishUserAccountChange();
+        return success;
     }
 
     @Override
@@ -1829,7 +1867,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
             return true; // no need to create a new user object for this user
         }
 
-        return Transaction.execute(new TransactionCallback<Boolean>() {
+        boolean moved = Transaction.execute(new TransactionCallback<Boolean>() {
             @Override
             public Boolean doInTransaction(TransactionStatus status) {
                 UserVO newUser = new UserVO(user);
@@ -1844,6 +1882,8 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
                 return success && persisted.getUuid().equals(user.getExternalEntity());
             }
         });
+        publishUserAccountChange();
+        return moved;
     }
 
     private long getNewAccountId(long domainId, String accountName, Long accountId) {
@@ -2425,7 +2465,17 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
 
     @Override
     public Pair<User, Account> findUserByApiKey(String apiKey) {
-        return _accountDao.findUserAccountByApiKey(apiKey);
+        if (_apiKeyCache == null || apiKey == null) {
+            return _accountDao.findUserAccountByApiKey(apiKey);
+        }
+        Pair<User, Account> userAcct = _apiKeyCache.getIfPresent(apiKey);
+        if (userAcct == null) {
+            userAcct = _accountDao.findUserAccountByApiKey(apiKey);
+            if (userAcct != null) {
+                _apiKeyCache.put(apiKey, userAcct);
+            }
+        }
+        return userAcct;
     }
 
     @Override
@@ -2523,6 +2573,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
             }
             updatedUser.setApiKey(encodedKey);
             _userDao.update(userId, updatedUser);
+            publishUserAccountChange();
             return encodedKey;
         } catch (NoSuchAlgorithmException ex) {
             s_logger.error("error generating secret key for user id=" + userId, ex);
@@ -2550,6 +2601,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
 
             updatedUser.setSecretKey(encodedKey);
             _userDao.update(userId, updatedUser);
+            publishUserAccountChange();
             return encodedKey;
         } catch (NoSuchAlgorithmException ex) {
             s_logger.error("error generating secret key for user id=" + userId, ex);
@@ -2907,6 +2959,6 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
 
     @Override
     public ConfigKey<?>[] getConfigKeys() {
-        return new ConfigKey<?>[] {UseSecretKeyInResponse};
+        return new ConfigKey<?>[] {UseSecretKeyInResponse, ApiKeyCacheTtl, ApiKeyCacheSize};
     }
 }
@@ -42,6 +42,8 @@ import org.apache.cloudstack.acl.RolePermissionEntity.Permission;
 import org.apache.cloudstack.context.CallContext;
 import org.apache.cloudstack.framework.config.ConfigKey;
 import org.apache.cloudstack.framework.config.Configurable;
+import org.apache.cloudstack.framework.messagebus.MessageBus;
+import org.apache.cloudstack.framework.messagebus.PublishScope;
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
@@ -59,6 +61,7 @@ import com.cloud.utils.component.PluggableService;
 import com.cloud.utils.db.Filter;
 import com.cloud.utils.db.Transaction;
 import com.cloud.utils.db.TransactionCallback;
+import com.cloud.utils.db.TransactionLegacy;
 import com.cloud.utils.db.TransactionStatus;
 import com.cloud.utils.exception.CloudRuntimeException;
 import com.google.common.base.Strings;
@@ -75,6 +78,8 @@ public class RoleManagerImpl extends ManagerBase implements RoleService, Configu
     private RolePermissionsDao rolePermissionsDao;
     @Inject
     private AccountManager accountManager;
+    @Inject
+    private MessageBus messageBus;
 
     public void checkCallerAccess() {
         if (!isEnabled()) {
@@ -194,7 +199,7 @@ public class RoleManagerImpl extends ManagerBase implements RoleService, Configu
             throw new CloudRuntimeException("Role already exists");
         }
 
-        return Transaction.execute(new TransactionCallback<RoleVO>() {
+        final RoleVO role = Transaction.execute(new TransactionCallback<RoleVO>() {
             @Override
             public RoleVO doInTransaction(TransactionStatus status) {
                 RoleVO newRole = null;
@@ -238,6 +243,8 @@ public class RoleManagerImpl extends ManagerBase implements RoleService, Configu
                 return newRole;
             }
         });
+        publishRoleChange(role.getId());
+        return role;
     }
 
     @Override
@@ -268,9 +275,14 @@ public class RoleManagerImpl extends ManagerBase implements RoleService, Configu
         }
 
         roleDao.update(role.getId(), roleVO);
+        publishRoleChange(role.getId());
         return role;
     }
 
+    private void publishRoleChange(final long roleId) {
+        TransactionLegacy.runAfterCommit(() -> messageBus.publish(null, MESSAGE_ROLE_CHANGED_EVENT, PublishScope.LOCAL, roleId));
+    }
+
     @Override
     @ActionEvent(eventType = EventTypes.EVENT_ROLE_DELETE, eventDescription = "deleting Role")
     public boolean deleteRole(final Role role) {
@@ -283,7 +295,7 @@ public class RoleManagerImpl extends ManagerBase implements RoleService, Configu
         }
         List<? extends Account> accounts = accountDao.findAccountsByRole(role.getId());
         if (accounts == null || accounts.size() == 0) {
-            return Transaction.execute(new TransactionCallback<Boolean>() {
+            final boolean removed = Transaction.execute(new TransactionCallback<Boolean>() {
                 @Override
                 public Boolean doInTransaction(TransactionStatus status) {
                     List<? extends RolePermission> rolePermissions = rolePermissionsDao.findAllByRoleIdSorted(role.getId());
@@ -300,6 +312,8 @@ public class RoleManagerImpl extends ManagerBase implements RoleService, Configu
                     return false;
                 }
             });
+            publishRoleChange(role.getId());
+            return removed;
         }
         throw new PermissionDeniedException("Found accounts that have role in use, won't allow to delete role");
     }
@@ -316,12 +330,14 @@ public class RoleManagerImpl extends ManagerBase implements RoleService, Configu
             throw new PermissionDeniedException("Rule already exists for the role: " + role.getName());
         }
 
-        return Transaction.execute(new TransactionCallback<RolePermissionVO>() {
+        final RolePermission rolePermission = Transaction.execute(new TransactionCallback<RolePermissionVO>() {
             @Override
             public RolePermissionVO doInTransaction(TransactionStatus status) {
                 return rolePermissionsDao.persist(new RolePermissionVO(role.getId(), rule.toString(), permission, description));
             }
         });
+        publishRoleChange(role.getId());
+        return rolePermission;
     }
 
     @Override
@@ -331,7 +347,9 @@ public class RoleManagerImpl extends ManagerBase implements RoleService, Configu
         if (role.isDefault()) {
             throw new PermissionDeniedException("Role permission cannot be updated for Default roles");
         }
-        return role != null && newOrder != null && rolePermissionsDao.update(role, newOrder);
+        final boolean updated = role != null && newOrder != null && rolePermissionsDao.update(role, newOrder);
+        publishRoleChange(role.getId());
+        return updated;
     }
 
     @Override
@@ -340,7 +358,9 @@ public class RoleManagerImpl extends ManagerBase implements RoleService, Configu
         if (role.isDefault()) {
             throw new PermissionDeniedException("Role permission cannot be updated for Default roles");
         }
-        return role != null && rolePermissionsDao.update(role, rolePermission, permission);
+        final boolean updated = role != null && rolePermissionsDao.update(role, rolePermission, permission);
+        publishRoleChange(role.getId());
+        return updated;
     }
 
     @Override
@@ -351,7 +371,9 @@ public class RoleManagerImpl extends ManagerBase implements RoleService, Configu
         if (role.isDefault()) {
             throw new PermissionDeniedException("Role permission cannot be deleted for Default roles");
         }
-        return rolePermission != null && rolePermissionsDao.remove(rolePermission.getId());
+        final boolean removed = rolePermission != null && rolePermissionsDao.remove(rolePermission.getId());
+        publishRoleChange(role.getId());
+        return removed;
     }
 
     @Override
@@ -457,7 +479,7 @@ public class RoleManagerImpl extends ManagerBase implements RoleService, Configu
 
     @Override
     public ConfigKey<?>[] getConfigKeys() {
-        return new ConfigKey<?>[] {RoleService.EnableDynamicApiChecker};
+        return new ConfigKey<?>[] {RoleService.EnableDynamicApiChecker, RoleService.DynamicApiCheckerCachePeriod};
     }
 
     @Override
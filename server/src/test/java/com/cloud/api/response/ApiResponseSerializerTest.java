@@ -0,0 +1,132 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api.response;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.cloudstack.api.response.ListResponse;
+import org.apache.cloudstack.api.response.UserResponse;
+import org.apache.cloudstack.context.CallContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cloud.user.Account;
+import com.cloud.user.AccountVO;
+import com.cloud.user.UserVO;
+import com.cloud.utils.HttpUtils;
+
+public class ApiResponseSerializerTest {
+
+    @Before
+    public void setUp() {
+        CallContext.register(new UserVO(2L), new AccountVO("admin", 1L, null, Account.ACCOUNT_TYPE_ADMIN, "uuid"));
+    }
+
+    @After
+    public void tearDown() {
+        CallContext.unregister();
+    }
+
+    private UserResponse createUserResponse(String username, String secretKey) {
+        UserResponse response = new UserResponse();
+        response.setObjectName("user");
+        response.setUsername(username);
+        response.setSecretKey(secretKey);
+        return response;
+    }
+
+    private ListResponse<UserResponse> createListResponse(UserResponse... users) {
+        List<UserResponse> responses = new ArrayList<UserResponse>();
+        for (UserResponse user : users) {
+            responses.add(user);
+        }
+        ListResponse<UserResponse> response = new ListResponse<UserResponse>();
+        response.setResponses(responses, responses.size());
+        response.setResponseName("listusersresponse");
+        return response;
+    }
+
+    /* the replaceAll based implementation this class used to have */
+    private static String regexUnescape(String escaped) {
+        String str = escaped;
+        Matcher matcher = Pattern.compile("\\\\u([0-9A-Fa-f]{4})").matcher(str);
+        while (matcher.find()) {
+            str = str.replaceAll("\\" + matcher.group(0), Character.toString((char)Integer.parseInt(matcher.group(1), 16)));
+        }
+        return str;
+    }
+
+    @Test
+    public void testUnescapeMatchesRegexImplementation() {
+        String[] samples = {"", "plain", "a\\u003db", "\\u003c\\u003E\\u0026\\u0027", "\\\\u003d", "\\u00zz", "\\u12", "end\\u", "x\\u2028y\\u003d\\u003d"};
+        for (String sample : samples) {
+            assertEquals(sample, regexUnescape(sample), ApiResponseSerializer.unescape(sample));
+        }
+    }
+
+    @Test
+    public void testLogCopyOmitsSensitiveValues() {
+        ListResponse<UserResponse> response = createListResponse(createUserResponse("alice", "topsecret"), createUserResponse("bob", null));
+        StringBuilder log = new StringBuilder();
+        String json = ApiResponseSerializer.toSerializedStringWithSecureLogs(response, HttpUtils.RESPONSE_TYPE_JSON, log);
+
+        assertTrue(json.contains("topsecret"));
+        assertFalse(log.toString().contains("topsecret"));
+        assertTrue(log.toString().contains("alice"));
+        assertTrue(log.toString().contains("bob"));
+        assertEquals(json.replace(",\"secretkey\":\"topsecret\"", ""), log.toString());
+    }
+
+    @Test
+    public void testLogCopyEqualsResponseWithoutSensitiveValues() {
+        ListResponse<UserResponse> response = createListResponse(createUserResponse("alice", null), createUserResponse("bob", null));
+        StringBuilder log = new StringBuilder();
+        String json = ApiResponseSerializer.toSerializedStringWithSecureLogs(response, HttpUtils.RESPONSE_TYPE_JSON, log);
+
+        assertEquals(json, log.toString());
+        assertEquals(json, ApiResponseSerializer.toSerializedString(response, HttpUtils.RESPONSE_TYPE_JSON));
+    }
+
+    @Test
+    public void testSerializeWithoutLog() {
+        ListResponse<UserResponse> response = createListResponse(createUserResponse("alice", "topsecret"));
+        String json = ApiResponseSerializer.toSerializedStringWithSecureLogs(response, HttpUtils.RESPONSE_TYPE_JSON, null);
+
+        assertTrue(json.startsWith("{\"listusersresponse\":{\"count\":1,\"user\":[{"));
+        assertTrue(json.contains("topsecret"));
+        assertNull(ApiResponseSerializer.toSerializedString(null, HttpUtils.RESPONSE_TYPE_JSON));
+    }
+
+    @Test
+    public void testEmptyListResponse() {
+        ListResponse<UserResponse> response = createListResponse();
+        StringBuilder log = new StringBuilder();
+        String json = ApiResponseSerializer.toSerializedStringWithSecureLogs(response, HttpUtils.RESPONSE_TYPE_JSON, log);
+
+        assertEquals("{\"listusersresponse\":{}}", json);
+        assertEquals(json, log.toString());
+    }
+}
@@ -23,6 +23,9 @@ import static org.mockito.Matchers.isA;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
+import java.util.Arrays;
+import java.util.HashSet;
+
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -31,6 +34,10 @@ import com.cloud.dc.ClusterDetailsDao;
 import com.cloud.dc.ClusterDetailsVO;
 import com.cloud.service.ServiceOfferingVO;
 import com.cloud.service.dao.ServiceOfferingDao;
+import com.cloud.storage.VolumeVO;
+import com.cloud.utils.db.Transaction;
+import com.cloud.utils.db.TransactionCallbackNoReturn;
+import com.cloud.utils.db.TransactionStatus;
 import com.cloud.vm.VirtualMachine;
 
 public class CapacityManagerTest {
@@ -76,4 +83,37 @@ public class CapacityManagerTest {
         Assert.assertTrue(hasCapacity);
 
     }
+
+    @Test
+    public void volumeStateTransitionMarksPoolsDirtyTest() {
+        capMgr = setUp();
+        VolumeVO volume = mock(VolumeVO.class);
+        when(volume.getPoolId()).thenReturn(5L);
+        when(volume.getLastPoolId()).thenReturn(3L);
+
+        capMgr.new VolumeCapacityStateListener().postStateTransitionEvent(null, volume, true, null);
+        Assert.assertEquals(2, capMgr.getDirtyStoragePoolCount());
+        Assert.assertEquals(new HashSet<Long>(Arrays.asList(3L, 5L)), capMgr.pollDirtyStoragePools());
+        Assert.assertTrue(capMgr.pollDirtyStoragePools().isEmpty());
+
+        capMgr.new VolumeCapacityStateListener().postStateTransitionEvent(null, volume, false, null);
+        Assert.assertEquals(0, capMgr.getDirtyStoragePoolCount());
+    }
+
+    @Test
+    public void volumeStateTransitionMarksPoolsDirtyAfterCommitTest() {
+        capMgr = setUp();
+        final VolumeVO volume = mock(VolumeVO.class);
+        when(volume.getPoolId()).thenReturn(5L);
+        when(volume.getLastPoolId()).thenReturn(null);
+
+        Transaction.execute(new TransactionCallbackNoReturn() {
+            @Override
+            public void doInTransactionWithoutResult(TransactionStatus status) {
+                capMgr.new VolumeCapacityStateListener().postStateTransitionEvent(null, volume, true, null);
+                Assert.assertTrue(capMgr.pollDirtyStoragePools().isEmpty());
+            }
+        });
+        Assert.assertEquals(new HashSet<Long>(Arrays.asList(5L)), capMgr.pollDirtyStoragePools());
+    }
 }
@@ -0,0 +1,174 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.capacity;
+
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cloud.capacity.HostCapacityIndex.HostCapacity;
+import com.cloud.capacity.dao.CapacityDao;
+import com.cloud.dc.ClusterDetailsDao;
+import com.cloud.host.Host;
+import com.cloud.hypervisor.Hypervisor.HypervisorType;
+import com.cloud.hypervisor.dao.HypervisorCapabilitiesDao;
+import com.cloud.utils.Pair;
+import com.cloud.utils.db.Transaction;
+import com.cloud.utils.db.TransactionCallbackNoReturn;
+import com.cloud.utils.db.TransactionStatus;
+import com.cloud.utils.fsm.StateMachine2;
+import com.cloud.vm.VirtualMachine;
+import com.cloud.vm.VirtualMachine.Event;
+import com.cloud.vm.VirtualMachine.State;
+import com.cloud.vm.dao.VMInstanceDao;
+
+public class HostCapacityIndexTest {
+    CapacityDao capacityDao = mock(CapacityDao.class);
+    ClusterDetailsDao clusterDetailsDao = mock(ClusterDetailsDao.class);
+    VMInstanceDao vmDao = mock(VMInstanceDao.class);
+    HypervisorCapabilitiesDao hypervisorCapabilitiesDao = mock(HypervisorCapabilitiesDao.class);
+    HostCapacityIndex index;
+
+    private Host host1 = mock(Host.class);
+    private Host host2 = mock(Host.class);
+
+    @Before
+    public void setUp() {
+        index = new HostCapacityIndex();
+        index._capacityDao = capacityDao;
+        index._clusterDetailsDao = clusterDetailsDao;
+        index._vmDao = vmDao;
+        index._hypervisorCapabilitiesDao = hypervisorCapabilitiesDao;
+
+        mockHost(host1, 1L);
+        mockHost(host2, 2L);
+
+        // host 2 has no memory capacity entry
+        when(capacityDao.listByHostIdsAndTypes(anyListOf(Long.class), anyListOf(Short.class))).thenReturn(Arrays.asList(
+                new CapacityVO(1L, 1L, 1L, 10L, 1000L, 4000L, Capacity.CAPACITY_TYPE_CPU),
+                new CapacityVO(1L, 1L, 1L, 10L, 512L, 1024L, Capacity.CAPACITY_TYPE_MEMORY),
+                new CapacityVO(2L, 1L, 1L, 10L, 0L, 4000L, Capacity.CAPACITY_TYPE_CPU)));
+        when(clusterDetailsDao.findDetailValues(anyListOf(Long.class), eq("cpuOvercommitRatio"))).thenReturn(Collections.singletonMap(10L, "2"));
+        when(clusterDetailsDao.findDetailValues(anyListOf(Long.class), eq("memoryOvercommitRatio"))).thenReturn(Collections.singletonMap(10L, "1.5"));
+        Map<Long, Long> guestCounts = new HashMap<Long, Long>();
+        guestCounts.put(1L, 3L);
+        when(vmDao.countActiveGroupedByHost(anyListOf(Long.class))).thenReturn(guestCounts);
+        when(hypervisorCapabilitiesDao.getMaxGuestsLimit(HypervisorType.KVM, "1.0")).thenReturn(3L);
+    }
+
+    private void mockHost(Host host, long id) {
+        when(host.getId()).thenReturn(id);
+        when(host.getClusterId()).thenReturn(10L);
+        when(host.getCpus()).thenReturn(4);
+        when(host.getSpeed()).thenReturn(1000L);
+        when(host.getHypervisorType()).thenReturn(HypervisorType.KVM);
+        when(host.getHypervisorVersion()).thenReturn("1.0");
+    }
+
+    @Test
+    public void hostsAreLoadedInBulkAndCachedTest() {
+        List<Host> hosts = Arrays.asList(host1, host2);
+        Map<Long, HostCapacity> capacities = index.getHostCapacities(hosts);
+
+        Assert.assertEquals(1, capacities.size());
+        HostCapacity capacity = capacities.get(1L);
+        Assert.assertEquals(2f, capacity.getCpuOvercommitRatio(), 0);
+        Assert.assertEquals(1.5f, capacity.getMemoryOvercommitRatio(), 0);
+        Assert.assertTrue(capacity.hasReachedMaxGuestLimit());
+        Assert.assertTrue(capacity.hasCpuCapability(4, 1000));
+        Assert.assertFalse(capacity.hasCpuCapability(8, 1000));
+        Assert.assertEquals(0.75, capacity.getFreeCapacityRatio(Capacity.CAPACITY_TYPE_CPU), 0.0001);
+
+        index.getHostCapacities(Collections.singletonList(host1));
+        verify(capacityDao, times(1)).listByHostIdsAndTypes(anyListOf(Long.class), anyListOf(Short.class));
+    }
+
+    @Test
+    public void invalidatedHostIsReloadedTest() {
+        List<Host> hosts = Collections.singletonList(host1);
+        index.getHostCapacities(hosts);
+        index.invalidate(1L);
+        Assert.assertEquals(0, index.size());
+
+        index.getHostCapacities(hosts);
+        verify(capacityDao, times(2)).listByHostIdsAndTypes(anyListOf(Long.class), anyListOf(Short.class));
+    }
+
+    @Test
+    public void hostInvalidatedWhileLoadingIsNotCachedTest() {
+        when(vmDao.countActiveGroupedByHost(anyListOf(Long.class))).then(invocation -> {
+            // the capacity of a host changes while the index reads the old rows
+            index.invalidate(2L);
+            return Collections.singletonMap(1L, 3L);
+        });
+
+        Map<Long, HostCapacity> capacities = index.getHostCapacities(Collections.singletonList(host1));
+        Assert.assertEquals(1, capacities.size());
+        Assert.assertEquals(0, index.size());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void hostIsInvalidatedAfterCommitTest() {
+        CapacityManagerImpl capacityManager = new CapacityManagerImpl();
+        capacityManager._hostCapacityIndex = index;
+        index.getHostCapacities(Collections.singletonList(host1));
+
+        final VirtualMachine vm = mock(VirtualMachine.class);
+        when(vm.getHostId()).thenReturn(1L);
+        final StateMachine2.Transition<State, Event> transition = mock(StateMachine2.Transition.class);
+        when(transition.getCurrentState()).thenReturn(State.Running);
+        when(transition.getEvent()).thenReturn(Event.StopRequested);
+        when(transition.getToState()).thenReturn(State.Stopping);
+
+        Transaction.execute(new TransactionCallbackNoReturn() {
+            @Override
+            public void doInTransactionWithoutResult(TransactionStatus status) {
+                capacityManager.postStateTransitionEvent(transition, vm, true, new Pair<Long, Long>(1L, 1L));
+                Assert.assertEquals(1, index.size());
+            }
+        });
+        Assert.assertEquals(0, index.size());
+    }
+
+    @Test
+    public void hasCapacityAppliesOvercommitAndReservedCapacityTest() {
+        CapacityVO cpu = new CapacityVO(1L, 1L, 1L, 10L, 1000L, 2000L, Capacity.CAPACITY_TYPE_CPU);
+        cpu.setReservedCapacity(2000L);
+        CapacityVO memory = new CapacityVO(1L, 1L, 1L, 10L, 512L, 1024L, Capacity.CAPACITY_TYPE_MEMORY);
+        HostCapacity capacity = new HostCapacity(1L, 4, 1000L, cpu, memory, 2f, 1.5f, 0, 50, 0);
+
+        Assert.assertTrue(capacity.hasCapacity(3000, 1024, false));
+        Assert.assertFalse(capacity.hasCapacity(3001, 1024, false));
+        Assert.assertFalse(capacity.hasCapacity(3000, 1024, true));
+        Assert.assertFalse(capacity.hasCapacity(1000, 1025, false));
+        Assert.assertFalse(capacity.hasReachedMaxGuestLimit());
+    }
+}
@@ -0,0 +1,111 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+package com.cloud.server;
+
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.cloud.server.StatsHistory.Interval;
+import com.cloud.server.StatsHistory.Point;
+import com.cloud.server.StatsHistory.ResourceType;
+
+public class StatsHistoryTest {
+
+    private static final long MINUTE = Interval.MINUTE.getLength();
+    private static final long HOUR = Interval.HOUR.getLength();
+
+    @Test
+    public void testSamplesAreAggregatedPerBucket() {
+        StatsHistory history = new StatsHistory(10, 2, 1);
+        long start = 100 * HOUR;
+        history.record(ResourceType.Host, "1", StatsHistory.CPU_UTILIZATION, start, 10);
+        history.record(ResourceType.Host, "1", StatsHistory.CPU_UTILIZATION, start + 30000, 30);
+        history.record(ResourceType.Host, "1", StatsHistory.CPU_UTILIZATION, start + MINUTE, 50);
+
+        List<Point> minutes = history.getPoints(ResourceType.Host, "1", StatsHistory.CPU_UTILIZATION, Interval.MINUTE, null);
+        Assert.assertEquals(2, minutes.size());
+        Assert.assertEquals(new Date(start), minutes.get(0).getTimestamp());
+        Assert.assertEquals(20, minutes.get(0).getAverage(), 0.001);
+        Assert.assertEquals(10, minutes.get(0).getMinimum(), 0.001);
+        Assert.assertEquals(30, minutes.get(0).getMaximum(), 0.001);
+        Assert.assertEquals(2, minutes.get(0).getSamples());
+        Assert.assertEquals(50, minutes.get(1).getAverage(), 0.001);
+
+        List<Point> hours = history.getPoints(ResourceType.Host, "1", StatsHistory.CPU_UTILIZATION, Interval.HOUR, null);
+        Assert.assertEquals(1, hours.size());
+        Assert.assertEquals(30, hours.get(0).getAverage(), 0.001);
+        Assert.assertEquals(3, hours.get(0).getSamples());
+    }
+
+    @Test
+    public void testOldBucketsAreOverwritten() {
+        StatsHistory history = new StatsHistory(3, 0, 0);
+        long start = 100 * HOUR;
+        for (int i = 0; i < 5; i++) {
+            history.record(ResourceType.VirtualMachine, "7", StatsHistory.MEMORY_KBS, start + i * MINUTE, i);
+        }
+        List<Point> minutes = history.getPoints(ResourceType.VirtualMachine, "7", StatsHistory.MEMORY_KBS, Interval.MINUTE, null);
+        Assert.assertEquals(3, minutes.size());
+        Assert.assertEquals(2, minutes.get(0).getAverage(), 0.001);
+        Assert.assertEquals(4, minutes.get(2).getAverage(), 0.001);
+
+        // samples older than the kept buckets are ignored, a gap larger than the buffer resets it
+        history.record(ResourceType.VirtualMachine, "7", StatsHistory.MEMORY_KBS, start, 100);
+        Assert.assertEquals(3, history.getPoints(ResourceType.VirtualMachine, "7", StatsHistory.MEMORY_KBS, Interval.MINUTE, null).size());
+        history.record(ResourceType.VirtualMachine, "7", StatsHistory.MEMORY_KBS, start + 20 * MINUTE, 1);
+        Assert.assertEquals(1, history.getPoints(ResourceType.VirtualMachine, "7", StatsHistory.MEMORY_KBS, Interval.MINUTE, null).size());
+        Assert.assertTrue(history.getPoints(ResourceType.VirtualMachine, "7", StatsHistory.MEMORY_KBS, Interval.HOUR, null).isEmpty());
+    }
+
+    @Test
+    public void testStartDateFiltersBuckets() {
+        StatsHistory history = new StatsHistory(10, 0, 0);
+        long start = 100 * HOUR;
+        for (int i = 0; i < 5; i++) {
+            history.record(ResourceType.StoragePool, "3", StatsHistory.USED_BYTES, start + i * MINUTE, i);
+        }
+        List<Point> minutes = history.getPoints(ResourceType.StoragePool, "3", StatsHistory.USED_BYTES, Interval.MINUTE, new Date(start + 3 * MINUTE));
+        Assert.assertEquals(2, minutes.size());
+        Assert.assertEquals(new Date(start + 3 * MINUTE), minutes.get(0).getTimestamp());
+    }
+
+    @Test
+    public void testPurgeAndConfigure() {
+        StatsHistory history = new StatsHistory(10, 2, 0);
+        long start = 100 * HOUR;
+        history.record(ResourceType.Host, "1", StatsHistory.CPU_UTILIZATION, start, 1);
+        history.record(ResourceType.Host, "2", StatsHistory.CPU_UTILIZATION, start + 3 * HOUR, 1);
+        history.record(ResourceType.Host, "2", StatsHistory.LOAD_AVERAGE, start + 3 * HOUR, 1);
+        Assert.assertEquals(3, history.getSeriesCount());
+        Assert.assertEquals(3 * 12 * StatsHistory.BYTES_PER_BUCKET, history.estimateMemoryBytes());
+
+        history.purge(start + 3 * HOUR);
+        Assert.assertTrue(history.getMetrics(ResourceType.Host, "1").isEmpty());
+        Assert.assertEquals(2, history.getMetrics(ResourceType.Host, "2").size());
+
+        history.configure(10, 2, 0);
+        Assert.assertEquals(2, history.getSeriesCount());
+        history.configure(0, 0, 0);
+        Assert.assertEquals(0, history.getSeriesCount());
+        Assert.assertFalse(history.isEnabled());
+        history.record(ResourceType.Host, "2", StatsHistory.CPU_UTILIZATION, start, 1);
+        Assert.assertEquals(0, history.getSeriesCount());
+    }
+}
@@ -17,6 +17,7 @@
 package com.cloud.user;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
@@ -191,6 +192,21 @@ public class MockUsageEventDao implements UsageEventDao{
         return entity;
     }
 
+    @Override
+    public List<Long> persistAll(Collection<UsageEventVO> entities) {
+        List<Long> ids = new ArrayList<Long>();
+        for (UsageEventVO entity : entities) {
+            persist(entity);
+            ids.add(entity.getId());
+        }
+        return ids;
+    }
+
+    @Override
+    public int updateAll(Collection<UsageEventVO> entities) {
+        return 0;
+    }
+
     @Override
     public boolean remove(Long id) {
         return false;
@@ -211,6 +227,11 @@ public class MockUsageEventDao implements UsageEventDao{
         return 0;
     }
 
+    @Override
+    public int expungeAll(Collection<Long> ids) {
+        return 0;
+    }
+
     @Override
     public void expunge() {
 
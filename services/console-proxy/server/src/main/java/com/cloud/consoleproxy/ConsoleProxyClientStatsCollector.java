@@ -67,6 +67,13 @@ public class ConsoleProxyClientStatsCollector {
                 conn.tag = client.getClientTag();
                 conn.createTime = client.getClientCreateTime();
                 conn.lastUsedTime = client.getClientLastFrontEndActivityTime();
+                if (client instanceof ConsoleProxyNoVncClient) {
+                    ConsoleProxyNoVncClient noVncClient = (ConsoleProxyNoVncClient)client;
+                    conn.bytesToViewer = noVncClient.getBytesToViewer();
+                    conn.framesToViewer = noVncClient.getFramesToViewer();
+                    conn.bytesFromViewer = noVncClient.getBytesFromViewer();
+                    conn.backpressureStalls = noVncClient.getBackpressureStalls();
+                }
                 conns.add(conn);
             }
         }
@@ -81,6 +88,11 @@ public class ConsoleProxyClientStatsCollector {
         public String tag;
         public long createTime;
         public long lastUsedTime;
+        // throughput of noVNC sessions, zero for the other viewers
+        public long bytesToViewer;
+        public long framesToViewer;
+        public long bytesFromViewer;
+        public long backpressureStalls;
 
         public ConsoleProxyConnection() {
         }
@@ -135,7 +135,10 @@ public class ConsoleProxyNoVNCHandler extends WebSocketHandler {
 
     @OnWebSocketClose
     public void onClose(Session session, int statusCode, String reason) throws IOException, InterruptedException {
-        ConsoleProxy.removeViewer(viewer);
+        if (viewer != null) {
+            // also releases the VNC connection, which would otherwise stay with the bridge until the server hangs up
+            viewer.closeClient();
+        }
     }
 
     @OnWebSocketFrame
@@ -0,0 +1,463 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.consoleproxy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+
+import com.cloud.consoleproxy.util.Logger;
+import com.cloud.consoleproxy.vnc.NoVncClient;
+
+/**
+ * Pumps the output of VNC servers into the websockets of their noVNC viewers.
+ *
+ * Directly connected sessions are multiplexed on a single selector thread. Tunnelled sessions run over TLS sockets,
+ * which cannot be registered with a selector, so they keep a reader thread each. Either way a session reads into
+ * large reusable buffers, has at most one websocket frame in flight, and coalesces whatever the VNC server sends in
+ * the meantime into the next frame. A slow viewer therefore stops the reads of its own VNC connection instead of
+ * queueing frames in memory.
+ */
+public class ConsoleProxyNoVncBridge implements Runnable {
+    private static final Logger s_logger = Logger.getLogger(ConsoleProxyNoVncBridge.class);
+
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    private static ConsoleProxyNoVncBridge s_instance;
+
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+    private volatile Thread thread;
+
+    private ConsoleProxyNoVncBridge(Selector selector) {
+        this.selector = selector;
+    }
+
+    public static synchronized ConsoleProxyNoVncBridge getInstance() throws IOException {
+        if (s_instance == null) {
+            s_instance = new ConsoleProxyNoVncBridge(Selector.open());
+            Thread thread = new Thread(s_instance, "NoVncBridge");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        return s_instance;
+    }
+
+    /**
+     * Takes over the traffic of a VNC connection that has completed its handshake.
+     */
+    public Link attach(NoVncClient vncClient, Session session, ConsoleProxyNoVncClient viewer) throws IOException {
+        SocketChannel channel = vncClient.getSocketChannel();
+        if (channel == null) {
+            StreamLink link = new StreamLink(vncClient, session, viewer);
+            Thread reader = new Thread(link, "NoVncReader-" + viewer.getClientId());
+            reader.setDaemon(true);
+            reader.start();
+            return link;
+        }
+
+        channel.configureBlocking(false);
+        final ChannelLink link = new ChannelLink(this, channel, session, viewer);
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                link.register(selector);
+            }
+        });
+        return link;
+    }
+
+    void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    boolean inBridgeThread() {
+        return Thread.currentThread() == thread;
+    }
+
+    @Override
+    public void run() {
+        thread = Thread.currentThread();
+        while (true) {
+            try {
+                selector.select();
+
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    try {
+                        task.run();
+                    } catch (Exception e) {
+                        s_logger.warn("Unexpected exception in noVNC bridge task", e);
+                    }
+                }
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    ChannelLink link = (ChannelLink)key.attachment();
+                    try {
+                        if (key.isValid() && key.isReadable()) {
+                            link.onReadable();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            link.onWritable();
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        s_logger.info("Closing noVNC session " + link.viewer.getClientId() + " after VNC connection error: " + e.getMessage());
+                        link.close();
+                    }
+                }
+            } catch (Throwable e) {
+                s_logger.error("Unexpected exception in noVNC bridge", e);
+            }
+        }
+    }
+
+    /**
+     * Traffic of one noVNC session, with its throughput counters.
+     */
+    public abstract static class Link implements WriteCallback {
+        protected final Session session;
+        protected final ConsoleProxyNoVncClient viewer;
+
+        // filled from the VNC server while the other buffer is in flight to the viewer
+        protected ByteBuffer readBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+        protected ByteBuffer sendBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+        protected boolean sending;
+        protected volatile boolean closed;
+
+        private final AtomicLong bytesToViewer = new AtomicLong();
+        private final AtomicLong framesToViewer = new AtomicLong();
+        private final AtomicLong bytesFromViewer = new AtomicLong();
+        private final AtomicLong backpressureStalls = new AtomicLong();
+
+        protected Link(Session session, ConsoleProxyNoVncClient viewer) {
+            this.session = session;
+            this.viewer = viewer;
+        }
+
+        /**
+         * Forwards input from the viewer to the VNC server.
+         */
+        public abstract void sendToServer(ByteBuffer payload) throws IOException;
+
+        public abstract void close();
+
+        /**
+         * Sends everything read so far as one frame. Only called while no frame is in flight.
+         */
+        protected void sendFrame() {
+            ByteBuffer frame = readBuffer;
+            readBuffer = sendBuffer;
+            sendBuffer = frame;
+            frame.flip();
+
+            sending = true;
+            bytesToViewer.addAndGet(frame.remaining());
+            framesToViewer.incrementAndGet();
+            viewer.updateFrontEndActivityTime();
+            session.getRemote().sendBytes(frame, this);
+        }
+
+        protected void onStall() {
+            backpressureStalls.incrementAndGet();
+        }
+
+        protected void onBytesFromViewer(int bytes) {
+            bytesFromViewer.addAndGet(bytes);
+        }
+
+        @Override
+        public void writeFailed(Throwable x) {
+            if (!closed) {
+                s_logger.info("Closing noVNC session " + viewer.getClientId() + " after websocket error: " + x.getMessage());
+                close();
+            }
+        }
+
+        protected void logClose() {
+            if (s_logger.isInfoEnabled()) {
+                s_logger.info("noVNC session " + viewer.getClientId() + " closed after " + (System.currentTimeMillis() - viewer.getClientCreateTime()) + " ms, "
+                        + getBytesToViewer() + " bytes in " + getFramesToViewer() + " frames to viewer, " + getBytesFromViewer() + " bytes from viewer, "
+                        + getBackpressureStalls() + " backpressure stalls");
+            }
+        }
+
+        public long getBytesToViewer() {
+            return bytesToViewer.get();
+        }
+
+        public long getFramesToViewer() {
+            return framesToViewer.get();
+        }
+
+        public long getBytesFromViewer() {
+            return bytesFromViewer.get();
+        }
+
+        public long getBackpressureStalls() {
+            return backpressureStalls.get();
+        }
+    }
+
+    /**
+     * Session on a plain socket channel, driven by the selector thread. All of its state is only touched on that
+     * thread; websocket callbacks and viewer input are handed over as tasks.
+     */
+    static class ChannelLink extends Link {
+        private final ConsoleProxyNoVncBridge bridge;
+        private final SocketChannel channel;
+        private final Queue<ByteBuffer> toServer = new ConcurrentLinkedQueue<ByteBuffer>();
+        private SelectionKey key;
+
+        ChannelLink(ConsoleProxyNoVncBridge bridge, SocketChannel channel, Session session, ConsoleProxyNoVncClient viewer) {
+            super(session, viewer);
+            this.bridge = bridge;
+            this.channel = channel;
+        }
+
+        void register(Selector selector) {
+            if (closed) {
+                return;
+            }
+            try {
+                key = channel.register(selector, SelectionKey.OP_READ, this);
+                updateInterest();
+            } catch (IOException e) {
+                s_logger.warn("Unable to register noVNC session " + viewer.getClientId() + " with the bridge", e);
+                close();
+            }
+        }
+
+        void onReadable() throws IOException {
+            int read = channel.read(readBuffer);
+            if (read < 0) {
+                close();
+                return;
+            }
+            flush();
+        }
+
+        void onWritable() throws IOException {
+            ByteBuffer buffer;
+            while ((buffer = toServer.peek()) != null) {
+                channel.write(buffer);
+                if (buffer.hasRemaining()) {
+                    break;
+                }
+                toServer.poll();
+            }
+            updateInterest();
+        }
+
+        private void flush() {
+            if (!sending && readBuffer.position() > 0) {
+                sendFrame();
+            }
+            updateInterest();
+        }
+
+        private void updateInterest() {
+            if (key == null || !key.isValid()) {
+                return;
+            }
+            int ops = 0;
+            if (readBuffer.hasRemaining()) {
+                ops |= SelectionKey.OP_READ;
+            } else if ((key.interestOps() & SelectionKey.OP_READ) != 0) {
+                onStall();
+            }
+            if (!toServer.isEmpty()) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+            key.interestOps(ops);
+        }
+
+        @Override
+        public void sendToServer(ByteBuffer payload) {
+            ByteBuffer copy = ByteBuffer.allocate(payload.remaining());
+            copy.put(payload);
+            copy.flip();
+            onBytesFromViewer(copy.remaining());
+            toServer.add(copy);
+            bridge.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (closed) {
+                        return;
+                    }
+                    try {
+                        onWritable();
+                    } catch (IOException e) {
+                        s_logger.info("Closing noVNC session " + viewer.getClientId() + " after VNC connection error: " + e.getMessage());
+                        close();
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void writeSuccess() {
+            bridge.execute(new Runnable() {
+                @Override
+                public void run() {
+                    sending = false;
+                    sendBuffer.clear();
+                    if (!closed) {
+                        flush();
+                    }
+                }
+            });
+        }
+
+        /**
+         * Also called from websocket threads, the session is then closed by a task on the selector thread.
+         */
+        @Override
+        public void close() {
+            if (!bridge.inBridgeThread()) {
+                bridge.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        close();
+                    }
+                });
+                return;
+            }
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                s_logger.debug("Failed to close VNC connection of noVNC session " + viewer.getClientId(), e);
+            }
+            viewer.onServerDisconnected();
+            logClose();
+        }
+    }
+
+    /**
+     * Session on a blocking (tunnelled) socket, driven by its own reader thread.
+     */
+    static class StreamLink extends Link implements Runnable {
+        private final NoVncClient vncClient;
+        private final Object sendLock = new Object();
+
+        StreamLink(NoVncClient vncClient, Session session, ConsoleProxyNoVncClient viewer) {
+            super(session, viewer);
+            this.vncClient = vncClient;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!closed) {
+                    if (!readIntoBuffer(true)) {
+                        break;
+                    }
+                    synchronized (sendLock) {
+                        if (sending) {
+                            onStall();
+                        }
+                        while (sending && !closed) {
+                            sendLock.wait();
+                        }
+                    }
+                    // coalesce what arrived while the previous frame was in flight
+                    if (!readIntoBuffer(false)) {
+                        break;
+                    }
+                    synchronized (sendLock) {
+                        if (!closed) {
+                            sendFrame();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                if (!closed) {
+                    s_logger.info("Closing noVNC session " + viewer.getClientId() + " after VNC connection error: " + e.getMessage());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            close();
+        }
+
+        /**
+         * Reads what the VNC server has sent into the remaining buffer space, blocking for the first byte if asked to.
+         * @return false on end of stream
+         */
+        private boolean readIntoBuffer(boolean block) throws IOException {
+            while (readBuffer.hasRemaining() && (block || vncClient.available() > 0)) {
+                int read = vncClient.read(readBuffer.array(), readBuffer.arrayOffset() + readBuffer.position(), readBuffer.remaining());
+                if (read < 0) {
+                    return false;
+                }
+                readBuffer.position(readBuffer.position() + read);
+                block = false;
+            }
+            return true;
+        }
+
+        @Override
+        public void sendToServer(ByteBuffer payload) throws IOException {
+            byte[] data = new byte[payload.remaining()];
+            payload.get(data);
+            onBytesFromViewer(data.length);
+            vncClient.write(data);
+        }
+
+        @Override
+        public void writeSuccess() {
+            synchronized (sendLock) {
+                sending = false;
+                sendBuffer.clear();
+                sendLock.notifyAll();
+            }
+        }
+
+        @Override
+        public void close() {
+            synchronized (sendLock) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                sendLock.notifyAll();
+            }
+            vncClient.close();
+            viewer.onServerDisconnected();
+            logClose();
+        }
+    }
+}
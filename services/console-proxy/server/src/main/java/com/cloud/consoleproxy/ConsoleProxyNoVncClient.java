@@ -42,7 +42,8 @@ public class ConsoleProxyNoVncClient implements ConsoleProxyClient {
     protected long createTime = System.currentTimeMillis();
     protected long lastFrontEndActivityTime = System.currentTimeMillis();
 
-    private boolean connectionAlive;
+    private volatile boolean connectionAlive;
+    private volatile ConsoleProxyNoVncBridge.Link link;
 
     private ConsoleProxyClientParam clientParam;
 
@@ -78,18 +79,32 @@ public class ConsoleProxyNoVncClient implements ConsoleProxyClient {
     }
 
     public void sendClientFrame(Frame f) throws IOException {
-        byte[] data = new byte[f.getPayloadLength()];
-        f.getPayload().get(data);
-        client.write(data);
+        ConsoleProxyNoVncBridge.Link currentLink = link;
+        if (currentLink != null) {
+            currentLink.sendToServer(f.getPayload());
+            return;
+        }
+        synchronized (this) {
+            if (link != null) {
+                link.sendToServer(f.getPayload());
+                return;
+            }
+            // still handshaking, the VNC connection is in blocking mode
+            byte[] data = new byte[f.getPayloadLength()];
+            f.getPayload().get(data);
+            client.write(data);
+        }
     }
 
     @Override
     public void initClient(ConsoleProxyClientParam param) {
         setClientParam(param);
+        closeLink();
         client = new NoVncClient();
         connectionAlive = true;
 
         updateFrontEndActivityTime();
+        // only connects and handshakes, the bridge takes over the session afterwards
         Thread worker = new Thread(new Runnable() {
             public void run() {
                 try {
@@ -127,28 +142,59 @@ public class ConsoleProxyNoVncClient implements ConsoleProxyClient {
                     byte[] b = client.authenticate(getClientHostPassword());
                     session.getRemote().sendBytes(ByteBuffer.wrap(b, 0, 4));
 
-                    int readBytes;
-                    while (connectionAlive) {
-                        b = new byte[100];
-                        readBytes = client.read(b);
-                        if (readBytes == -1) {
-                            break;
-                        }
-                        if (readBytes > 0) {
-                            session.getRemote().sendBytes(ByteBuffer.wrap(b, 0, readBytes));
-                            updateFrontEndActivityTime();
+                    synchronized (ConsoleProxyNoVncClient.this) {
+                        if (connectionAlive) {
+                            link = ConsoleProxyNoVncBridge.getInstance().attach(client, session, ConsoleProxyNoVncClient.this);
+                        } else {
+                            client.close();
                         }
                     }
-                    connectionAlive = false;
                 } catch (IOException e) {
-                    e.printStackTrace();
+                    s_logger.error("Unable to set up noVNC session " + clientId, e);
+                    connectionAlive = false;
+                    client.close();
                 }
             }
 
         });
+        worker.setName("NoVncConnect-" + clientId);
         worker.start();
     }
 
+    /**
+     * Called by the bridge once the VNC server side of the session is gone.
+     */
+    void onServerDisconnected() {
+        connectionAlive = false;
+    }
+
+    private synchronized void closeLink() {
+        if (link != null) {
+            link.close();
+            link = null;
+        }
+    }
+
+    public long getBytesToViewer() {
+        ConsoleProxyNoVncBridge.Link currentLink = link;
+        return currentLink == null ? 0 : currentLink.getBytesToViewer();
+    }
+
+    public long getFramesToViewer() {
+        ConsoleProxyNoVncBridge.Link currentLink = link;
+        return currentLink == null ? 0 : currentLink.getFramesToViewer();
+    }
+
+    public long getBytesFromViewer() {
+        ConsoleProxyNoVncBridge.Link currentLink = link;
+        return currentLink == null ? 0 : currentLink.getBytesFromViewer();
+    }
+
+    public long getBackpressureStalls() {
+        ConsoleProxyNoVncBridge.Link currentLink = link;
+        return currentLink == null ? 0 : currentLink.getBackpressureStalls();
+    }
+
     private void setClientParam(ConsoleProxyClientParam param) {
         this.clientParam = param;
     }
@@ -156,6 +202,7 @@ public class ConsoleProxyNoVncClient implements ConsoleProxyClient {
     @Override
     public void closeClient() {
         this.connectionAlive = false;
+        closeLink();
         ConsoleProxy.removeViewer(this);
     }
 
@@ -19,8 +19,10 @@ package com.cloud.consoleproxy.vnc;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.Charset;
 import java.security.spec.KeySpec;
 
@@ -58,7 +60,8 @@ public class NoVncClient {
     public void connectTo(String host, int port) throws UnknownHostException, IOException {
         // Connect to server
         s_logger.info("Connecting to VNC server " + host + ":" + port + "...");
-        socket = new Socket(host, port);
+        // opened through a channel so that the session can be handed to the selector of the noVNC bridge after the handshake
+        socket = SocketChannel.open(new InetSocketAddress(host, port)).socket();
         setStreams();
     }
 
@@ -212,8 +215,34 @@ public class NoVncClient {
         return is.read(b);
     }
 
+    public int read(byte[] b, int off, int len) throws IOException {
+        return is.read(b, off, len);
+    }
+
+    public int available() throws IOException {
+        return is.available();
+    }
+
     public void write(byte[] b) throws IOException {
         os.write(b);
     }
 
+    /**
+     * @return the channel of a direct connection, or null for a tunnelled one
+     */
+    public SocketChannel getSocketChannel() {
+        return socket.getChannel();
+    }
+
+    public void close() {
+        if (socket == null) {
+            return;
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            s_logger.debug("Failed to close VNC connection: " + e.getMessage());
+        }
+    }
+
 }
\ No newline at end of file
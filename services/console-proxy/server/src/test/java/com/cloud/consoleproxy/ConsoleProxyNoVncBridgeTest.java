@@ -0,0 +1,145 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.consoleproxy;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.websocket.api.RemoteEndpoint;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.cloud.consoleproxy.vnc.NoVncClient;
+
+public class ConsoleProxyNoVncBridgeTest {
+
+    private final BlockingQueue<String> frames = new LinkedBlockingQueue<String>();
+
+    private ServerSocketChannel vncServer;
+    private SocketChannel vncServerSide;
+    private ConsoleProxyNoVncClient viewer;
+    private ConsoleProxyNoVncBridge.Link link;
+
+    @Before
+    public void setUp() throws IOException {
+        vncServer = ServerSocketChannel.open();
+        vncServer.bind(new InetSocketAddress("127.0.0.1", 0));
+        SocketChannel channel = SocketChannel.open(vncServer.getLocalAddress());
+        vncServerSide = vncServer.accept();
+
+        RemoteEndpoint remote = Mockito.mock(RemoteEndpoint.class);
+        Mockito.doAnswer(invocation -> {
+            ByteBuffer frame = invocation.getArgument(0);
+            byte[] data = new byte[frame.remaining()];
+            frame.get(data);
+            frames.add(new String(data, StandardCharsets.US_ASCII));
+            return null;
+        }).when(remote).sendBytes(Mockito.any(ByteBuffer.class), Mockito.any(WriteCallback.class));
+        Session session = Mockito.mock(Session.class);
+        Mockito.when(session.getRemote()).thenReturn(remote);
+
+        NoVncClient vncClient = Mockito.mock(NoVncClient.class);
+        Mockito.when(vncClient.getSocketChannel()).thenReturn(channel);
+        viewer = Mockito.spy(new ConsoleProxyNoVncClient(session));
+        link = ConsoleProxyNoVncBridge.getInstance().attach(vncClient, session, viewer);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        link.close();
+        vncServerSide.close();
+        vncServer.close();
+    }
+
+    private void sendFromVncServer(String data) throws IOException {
+        vncServerSide.write(ByteBuffer.wrap(data.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    @Test
+    public void testServerOutputIsCoalescedWhileAFrameIsInFlight() throws Exception {
+        sendFromVncServer("first");
+        Assert.assertEquals("first", frames.poll(5, TimeUnit.SECONDS));
+
+        sendFromVncServer("second");
+        Assert.assertNull(frames.poll(200, TimeUnit.MILLISECONDS));
+        sendFromVncServer("third");
+
+        link.writeSuccess();
+        Assert.assertEquals("secondthird", frames.poll(5, TimeUnit.SECONDS));
+        Assert.assertEquals(2, link.getFramesToViewer());
+        Assert.assertEquals(16, link.getBytesToViewer());
+    }
+
+    @Test
+    public void testViewerInputReachesServer() throws Exception {
+        link.sendToServer(ByteBuffer.wrap("key".getBytes(StandardCharsets.US_ASCII)));
+
+        ByteBuffer received = ByteBuffer.allocate(3);
+        while (received.hasRemaining()) {
+            Assert.assertTrue(vncServerSide.read(received) >= 0);
+        }
+        Assert.assertEquals("key", new String(received.array(), StandardCharsets.US_ASCII));
+        Assert.assertEquals(3, link.getBytesFromViewer());
+    }
+
+    @Test
+    public void testEndOfStreamClosesTheSession() throws Exception {
+        vncServerSide.close();
+        Mockito.verify(viewer, Mockito.timeout(5000)).onServerDisconnected();
+    }
+
+    @Test
+    public void testConcurrentClosesCloseOnce() throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] closers = new Thread[4];
+        for (int i = 0; i < closers.length; i++) {
+            closers[i] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                link.writeFailed(new IOException("websocket closed"));
+                link.close();
+            });
+            closers[i].start();
+        }
+        start.countDown();
+        for (Thread closer : closers) {
+            closer.join();
+        }
+
+        // the VNC connection gets closed, which the server side reads as the end of the stream
+        Assert.assertEquals(-1, vncServerSide.read(ByteBuffer.allocate(1)));
+        Mockito.verify(viewer, Mockito.timeout(5000)).onServerDisconnected();
+        Thread.sleep(200);
+        Mockito.verify(viewer, Mockito.times(1)).onServerDisconnected();
+    }
+}
@@ -22,9 +22,14 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
@@ -87,6 +92,8 @@ import com.cloud.user.VmDiskStatisticsVO;
 import com.cloud.user.dao.AccountDao;
 import com.cloud.user.dao.UserStatisticsDao;
 import com.cloud.user.dao.VmDiskStatisticsDao;
+import com.cloud.utils.NumbersUtil;
+import com.cloud.utils.Pair;
 import com.cloud.utils.component.ManagerBase;
 import com.cloud.utils.concurrency.NamedThreadFactory;
 import com.cloud.utils.db.DB;
@@ -109,6 +116,8 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
     private static final int HOURLY_TIME = 60;
     private static final int DAILY_TIME = 60 * 24;
     private static final int THREE_DAYS_IN_MINUTES = 60 * 24 * 3;
+    private static final int ACCOUNT_PAGE_SIZE = 500;
+    private static final int ACCOUNTS_PER_PARSE_TASK = 25;
 
     @Inject
     private AccountDao _accountDao;
@@ -181,6 +190,8 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
     private Future _scheduledFuture = null;
     private Future _heartbeat = null;
     private Future _sanity = null;
+    private ExecutorService _parseExecutor = null;
+    private int _parseWorkers = 4;
     private boolean  usageSnapshotSelection = false;
 
     public UsageManagerImpl() {
@@ -222,6 +233,7 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
         String quotaEnable = configs.get("quota.enable.service");
         _runQuota = Boolean.valueOf(quotaEnable == null ? "false" : quotaEnable );
         usageSnapshotSelection  = Boolean.valueOf(configs.get("usage.snapshot.virtualsize.select"));
+        _parseWorkers = Math.max(NumbersUtil.parseInt(configs.get("usage.parse.workers"), 4), 1);
         if (sanityCheckInterval != null) {
             _sanityCheckInterval = Integer.parseInt(sanityCheckInterval);
         }
@@ -288,6 +300,8 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
             s_logger.info("Starting Usage Manager");
         }
 
+        _parseExecutor = Executors.newFixedThreadPool(_parseWorkers, new NamedThreadFactory("Usage-Parse"));
+
         // use the configured exec time and aggregation duration for scheduling the job
         _scheduledFuture =
                 _executor.scheduleAtFixedRate(this, _jobExecTime.getTimeInMillis() - System.currentTimeMillis(), _aggregationDuration * 60 * 1000, TimeUnit.MILLISECONDS);
@@ -329,6 +343,9 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
         if (_sanity != null) {
             _sanity.cancel(true);
         }
+        if (_parseExecutor != null) {
+            _parseExecutor.shutdownNow();
+        }
         return true;
     }
 
@@ -448,6 +465,22 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
                 startDateMillis = lastSuccess + 1; // 1 millisecond after
             }
 
+            // a job that was interrupted while creating usage records left checkpoints behind, finish its range first
+            Pair<Long, Long> checkpointRange = getParseCheckpointRange();
+            boolean resuming = false;
+            if (checkpointRange != null) {
+                if (checkpointRange.first() <= startDateMillis && checkpointRange.second() >= startDateMillis) {
+                    s_logger.info("Resuming the interrupted usage job for range " + new Date(checkpointRange.first()) + " to " + new Date(checkpointRange.second()));
+                    startDateMillis = checkpointRange.first();
+                    endDateMillis = checkpointRange.second();
+                    resuming = true;
+                } else {
+                    s_logger.warn("Discarding usage parse checkpoints for range " + new Date(checkpointRange.first()) + " to " + new Date(checkpointRange.second()) +
+                            " as it does not follow the last successful usage job");
+                    removeParseCheckpoints();
+                }
+            }
+
             if (startDateMillis >= endDateMillis) {
                 if (s_logger.isInfoEnabled()) {
                     s_logger.info("not parsing usage records since start time mills (" + startDateMillis + ") is on or after end time millis (" + endDateMillis + ")");
@@ -619,7 +652,14 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
 
             // - get a list of the latest events
             // - insert the latest events into the usage.events table
-            List<UsageEventVO> events = _usageEventDao.getRecentEvents(new Date(endDateMillis));
+            // a resumed job parses the rest of its accounts with the helper records the interrupted job created, events that
+            // came in since then are left to the next job, which moves its start back to the oldest of them
+            List<UsageEventVO> events = null;
+            if (resuming) {
+                s_logger.info("Leaving the unprocessed usage events to the job after the resumed one");
+            } else {
+                events = _usageEventDao.getRecentEvents(new Date(endDateMillis));
+            }
 
             TransactionLegacy usageTxn = TransactionLegacy.open(TransactionLegacy.USAGE_DB);
             try {
@@ -750,9 +790,6 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
                 usageTxn.commit();
                 usageTxn.start();
 
-                boolean parsed = false;
-                numAcctsProcessed = 0;
-
                 Date currentStartDate = startDate;
                 Date currentEndDate = endDate;
                 Date tempDate = endDate;
@@ -767,58 +804,21 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
                 }
 
                 while (!currentEndDate.after(endDate) || (currentEndDate.getTime() - endDate.getTime() < 60000)) {
-                    Long offset = Long.valueOf(0);
-                    Long limit = Long.valueOf(500);
-
-                    do {
-                        Filter filter = new Filter(AccountVO.class, "id", true, offset, limit);
-                        accounts = _accountDao.listAll(filter);
-                        if ((accounts != null) && !accounts.isEmpty()) {
-                            for (AccountVO account : accounts) {
-                                parsed = parseHelperTables(account, currentStartDate, currentEndDate);
-                                numAcctsProcessed++;
-                            }
-                        }
-                        offset = new Long(offset.longValue() + limit.longValue());
-                    } while ((accounts != null) && !accounts.isEmpty());
+                    // an account deleted after the active ones were listed is listed again with the deleted ones, it is parsed once
+                    Set<Long> parsedAccountIds = new HashSet<Long>();
+                    if (resuming) {
+                        parsedAccountIds.addAll(_usageDao.listParseCheckpointAccountIds(currentEndDate.getTime()));
+                    }
 
+                    numAcctsProcessed = parseAccounts(false, recentlyDeletedDate, currentStartDate, currentEndDate, startDateMillis, endDateMillis, parsedAccountIds);
                     if (s_logger.isDebugEnabled()) {
                         s_logger.debug("processed VM/Network Usage for " + numAcctsProcessed + " ACTIVE accts");
                     }
-                    numAcctsProcessed = 0;
-
-                    // reset offset
-                    offset = Long.valueOf(0);
-
-                    do {
-                        Filter filter = new Filter(AccountVO.class, "id", true, offset, limit);
-
-                        accounts = _accountDao.findRecentlyDeletedAccounts(null, recentlyDeletedDate, filter);
-
-                        if ((accounts != null) && !accounts.isEmpty()) {
-                            for (AccountVO account : accounts) {
-                                parsed = parseHelperTables(account, currentStartDate, currentEndDate);
-                                List<Long> publicTemplates = _usageDao.listPublicTemplatesByAccount(account.getId());
-                                for (Long templateId : publicTemplates) {
-                                    //mark public templates owned by deleted accounts as deleted
-                                    List<UsageStorageVO> storageVOs = _usageStorageDao.listById(account.getId(), templateId, StorageTypes.TEMPLATE);
-                                    if (storageVOs.size() > 1) {
-                                        s_logger.warn("More that one usage entry for storage: " + templateId + " assigned to account: " + account.getId() +
-                                                "; marking them all as deleted...");
-                                    }
-                                    for (UsageStorageVO storageVO : storageVOs) {
-                                        if (s_logger.isDebugEnabled()) {
-                                            s_logger.debug("deleting template: " + storageVO.getId() + " from account: " + storageVO.getAccountId());
-                                        }
-                                        storageVO.setDeleted(account.getRemoved());
-                                        _usageStorageDao.update(storageVO);
-                                    }
-                                }
-                                numAcctsProcessed++;
-                            }
-                        }
-                        offset = new Long(offset.longValue() + limit.longValue());
-                    } while ((accounts != null) && !accounts.isEmpty());
+
+                    numAcctsProcessed = parseAccounts(true, recentlyDeletedDate, currentStartDate, currentEndDate, startDateMillis, endDateMillis, parsedAccountIds);
+                    if (s_logger.isDebugEnabled()) {
+                        s_logger.debug("processed Usage for " + numAcctsProcessed + " RECENTLY DELETED accts");
+                    }
 
                     currentStartDate = new Date(currentEndDate.getTime() + 1);
                     aggregateCal.setTime(currentEndDate);
@@ -826,23 +826,16 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
                     currentEndDate = aggregateCal.getTime();
                 }
 
-                if (s_logger.isDebugEnabled()) {
-                    s_logger.debug("processed Usage for " + numAcctsProcessed + " RECENTLY DELETED accts");
-                }
-
-                // FIXME: we don't break the above loop if something fails to parse, so it gets reset every account,
-                //        do we want to break out of processing accounts and rollback if there are errors?
-                if (!parsed) {
-                    usageTxn.rollback();
-                } else {
-                    success = true;
-                }
+                success = true;
             } catch (Exception ex) {
                 s_logger.error("Exception in usage manager", ex);
                 usageTxn.rollback();
             } finally {
                 // everything seemed to work...set endDate as the last success date
                 _usageJobDao.updateJobSuccess(job.getId(), startDateMillis, endDateMillis, System.currentTimeMillis() - timeStart, success);
+                if (success) {
+                    _usageDao.removeParseCheckpoints();
+                }
 
                 // create a new job if this is a recurring job
                 if (job.getJobType() == UsageJobVO.JOB_TYPE_RECURRING) {
@@ -867,6 +860,121 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
         }
     }
 
+    protected Pair<Long, Long> getParseCheckpointRange() {
+        TransactionLegacy txn = TransactionLegacy.open(TransactionLegacy.USAGE_DB);
+        try {
+            return _usageDao.getParseCheckpointRange();
+        } finally {
+            txn.close();
+        }
+    }
+
+    protected void removeParseCheckpoints() {
+        TransactionLegacy txn = TransactionLegacy.open(TransactionLegacy.USAGE_DB);
+        try {
+            _usageDao.removeParseCheckpoints();
+        } finally {
+            txn.close();
+        }
+    }
+
+    protected List<AccountVO> listAccountsAfter(long lastAccountId, boolean recentlyDeleted, Date recentlyDeletedDate) {
+        SearchCriteria<AccountVO> sc = _accountDao.createSearchCriteria();
+        sc.addAnd("id", SearchCriteria.Op.GT, lastAccountId);
+        Filter filter = new Filter(AccountVO.class, "id", true, 0L, (long)ACCOUNT_PAGE_SIZE);
+        if (!recentlyDeleted) {
+            return _accountDao.search(sc, filter);
+        }
+        sc.addAnd("removed", SearchCriteria.Op.NNULL);
+        sc.addAnd("removed", SearchCriteria.Op.GTEQ, recentlyDeletedDate);
+        return _accountDao.searchIncludingRemoved(sc, filter, null, false);
+    }
+
+    /**
+     * Creates the usage records of one aggregation window for the active or the recently deleted accounts.
+     * Accounts are paged by id and each page is split into slices that the parse workers handle concurrently,
+     * every slice committing its records together with a checkpoint of its accounts. Accounts in parsedAccountIds
+     * are skipped, the ones parsed here are added to it.
+     */
+    protected int parseAccounts(boolean recentlyDeleted, Date recentlyDeletedDate, Date startDate, Date endDate, long jobStartMillis, long jobEndMillis,
+            Set<Long> parsedAccountIds) throws InterruptedException, ExecutionException {
+        int numAcctsProcessed = 0;
+        long lastAccountId = 0;
+        List<AccountVO> accounts = null;
+        do {
+            accounts = listAccountsAfter(lastAccountId, recentlyDeleted, recentlyDeletedDate);
+            if (CollectionUtils.isEmpty(accounts)) {
+                break;
+            }
+            lastAccountId = accounts.get(accounts.size() - 1).getId();
+
+            List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+            List<AccountVO> slice = new ArrayList<AccountVO>(ACCOUNTS_PER_PARSE_TASK);
+            for (AccountVO account : accounts) {
+                if (!parsedAccountIds.add(account.getId())) {
+                    continue;
+                }
+                slice.add(account);
+                if (slice.size() == ACCOUNTS_PER_PARSE_TASK) {
+                    tasks.add(new ParseAccountsTask(slice, recentlyDeleted, startDate, endDate, jobStartMillis, jobEndMillis));
+                    slice = new ArrayList<AccountVO>(ACCOUNTS_PER_PARSE_TASK);
+                }
+            }
+            if (!slice.isEmpty()) {
+                tasks.add(new ParseAccountsTask(slice, recentlyDeleted, startDate, endDate, jobStartMillis, jobEndMillis));
+            }
+
+            for (Future<Integer> future : _parseExecutor.invokeAll(tasks)) {
+                numAcctsProcessed += future.get();
+            }
+        } while (accounts.size() == ACCOUNT_PAGE_SIZE);
+        return numAcctsProcessed;
+    }
+
+    protected void parseAccountSlice(List<AccountVO> accounts, boolean recentlyDeleted, Date startDate, Date endDate, long jobStartMillis, long jobEndMillis) {
+        TransactionLegacy txn = TransactionLegacy.open(TransactionLegacy.USAGE_DB);
+        try {
+            txn.start();
+            _usageDao.bufferUsageRecords();
+            List<Long> accountIds = new ArrayList<Long>(accounts.size());
+            for (AccountVO account : accounts) {
+                parseHelperTables(account, startDate, endDate);
+                if (recentlyDeleted) {
+                    markPublicTemplatesDeleted(account);
+                }
+                accountIds.add(account.getId());
+            }
+            _usageDao.flushUsageRecords();
+            _usageDao.saveParseCheckpoints(jobStartMillis, jobEndMillis, endDate.getTime(), accountIds);
+            txn.commit();
+        } catch (RuntimeException e) {
+            _usageDao.discardUsageRecords();
+            txn.rollback();
+            throw e;
+        } finally {
+            txn.close();
+        }
+    }
+
+    private void markPublicTemplatesDeleted(AccountVO account) {
+        List<Long> publicTemplates = _usageDao.listPublicTemplatesByAccount(account.getId());
+        for (Long templateId : publicTemplates) {
+            //mark public templates owned by deleted accounts as deleted
+            List<UsageStorageVO> storageVOs = _usageStorageDao.listById(account.getId(), templateId, StorageTypes.TEMPLATE);
+            if (storageVOs.size() > 1) {
+                s_logger.warn("More that one usage entry for storage: " + templateId + " assigned to account: " + account.getId() +
+                        "; marking them all as deleted...");
+            }
+            for (UsageStorageVO storageVO : storageVOs) {
+                if (s_logger.isDebugEnabled()) {
+                    s_logger.debug("deleting template: " + storageVO.getId() + " from account: " + storageVO.getAccountId());
+                }
+                storageVO.setDeleted(account.getRemoved());
+                _usageStorageDao.update(storageVO);
+            }
+        }
+    }
+
     private boolean parseHelperTables(AccountVO account, Date currentStartDate, Date currentEndDate) {
         boolean parsed = false;
 
@@ -2042,6 +2150,30 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
         }
     }
 
+    private class ParseAccountsTask implements Callable<Integer> {
+        private final List<AccountVO> _accounts;
+        private final boolean _recentlyDeleted;
+        private final Date _startDate;
+        private final Date _endDate;
+        private final long _jobStartMillis;
+        private final long _jobEndMillis;
+
+        ParseAccountsTask(List<AccountVO> accounts, boolean recentlyDeleted, Date startDate, Date endDate, long jobStartMillis, long jobEndMillis) {
+            _accounts = accounts;
+            _recentlyDeleted = recentlyDeleted;
+            _startDate = startDate;
+            _endDate = endDate;
+            _jobStartMillis = jobStartMillis;
+            _jobEndMillis = jobEndMillis;
+        }
+
+        @Override
+        public Integer call() {
+            parseAccountSlice(_accounts, _recentlyDeleted, _startDate, _endDate, _jobStartMillis, _jobEndMillis);
+            return _accounts.size();
+        }
+    }
+
     private class Heartbeat extends ManagedContextRunnable {
         @Override
         protected void runInContext() {
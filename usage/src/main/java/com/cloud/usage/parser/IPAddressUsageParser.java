@@ -160,7 +160,7 @@ public class IPAddressUsageParser {
         UsageVO usageRecord =
             new UsageVO(zoneId, account.getAccountId(), account.getDomainId(), usageDesc, usageDisplay + " Hrs", UsageTypes.IP_ADDRESS, new Double(usage), ipId,
                 (isSystem ? 1 : 0), (isSourceNat ? "SourceNat" : ""), startDate, endDate);
-        s_usageDao.persist(usageRecord);
+        s_usageDao.saveUsageRecord(usageRecord);
     }
 
     private static class IpInfo {
@@ -159,7 +159,7 @@ public class NetworkOfferingUsageParser {
         UsageVO usageRecord =
             new UsageVO(zoneId, account.getId(), account.getDomainId(), usageDesc, usageDisplay + " Hrs", type, new Double(usage), vmId, null, noId, null, defaultNic,
                 null, startDate, endDate);
-        s_usageDao.persist(usageRecord);
+        s_usageDao.saveUsageRecord(usageRecord);
     }
 
     private static class NOInfo {
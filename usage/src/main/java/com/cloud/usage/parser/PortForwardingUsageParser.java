@@ -157,7 +157,7 @@ public class PortForwardingUsageParser {
         UsageVO usageRecord =
             new UsageVO(zoneId, account.getId(), account.getDomainId(), usageDesc, usageDisplay + " Hrs", type, new Double(usage), null, null, null, null, pfId, null,
                 startDate, endDate);
-        s_usageDao.persist(usageRecord);
+        s_usageDao.saveUsageRecord(usageRecord);
     }
 
     private static class PFInfo {
@@ -17,13 +17,20 @@
 package com.cloud.usage;
 
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
 
 import com.cloud.event.dao.UsageEventDetailsDao;
 import com.cloud.usage.dao.UsageVMSnapshotDao;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
@@ -34,7 +41,9 @@ import com.cloud.event.UsageEventVO;
 import com.cloud.usage.dao.UsageVPNUserDao;
 import com.cloud.user.AccountVO;
 import com.cloud.user.dao.AccountDao;
+import com.cloud.utils.exception.CloudRuntimeException;
 import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.test.util.ReflectionTestUtils;
 
 @RunWith(MockitoJUnitRunner.class)
 public class UsageManagerImplTest {
@@ -243,4 +252,67 @@ public class UsageManagerImplTest {
         Mockito.verify(usageManagerImpl, Mockito.never()).createUsageVpnUser(usageEventVOMock,accountMock);
         Mockito.verify(usageManagerImpl, Mockito.never()).deleteUsageVpnUser(usageEventVOMock, accountMock);
     }
-}
\ No newline at end of file
+
+    private List<AccountVO> createAccounts(long firstId, int count) {
+        List<AccountVO> accounts = new ArrayList<AccountVO>();
+        for (long id = firstId; id < firstId + count; id++) {
+            accounts.add(new AccountVO(id));
+        }
+        return accounts;
+    }
+
+    @Test
+    public void parseAccountsPagesByIdAndSkipsCheckpointedAccounts() throws Exception {
+        ReflectionTestUtils.setField(usageManagerImpl, "_parseExecutor", Executors.newFixedThreadPool(2));
+        Date startDate = new Date(0);
+        Date endDate = new Date(3600000);
+        Set<Long> parsedAccountIds = new HashSet<Long>();
+        for (long id = 1; id <= 30; id++) {
+            parsedAccountIds.add(id);
+        }
+
+        Mockito.doReturn(createAccounts(1, 500)).when(usageManagerImpl).listAccountsAfter(0, false, null);
+        Mockito.doReturn(createAccounts(501, 10)).when(usageManagerImpl).listAccountsAfter(500, false, null);
+        Mockito.doNothing().when(usageManagerImpl).parseAccountSlice(Mockito.anyList(), Mockito.anyBoolean(), Mockito.any(Date.class), Mockito.any(Date.class),
+                Mockito.anyLong(), Mockito.anyLong());
+
+        int processed = usageManagerImpl.parseAccounts(false, null, startDate, endDate, 0, 3600000, parsedAccountIds);
+
+        Assert.assertEquals(480, processed);
+        Mockito.verify(usageManagerImpl, Mockito.times(2)).listAccountsAfter(Mockito.anyLong(), Mockito.eq(false), Mockito.any());
+        Mockito.verify(usageManagerImpl, Mockito.times(20)).parseAccountSlice(Mockito.anyList(), Mockito.eq(false), Mockito.eq(startDate), Mockito.eq(endDate),
+                Mockito.eq(0L), Mockito.eq(3600000L));
+    }
+
+    @Test(expected = ExecutionException.class)
+    public void parseAccountsFailsWhenASliceFails() throws Exception {
+        ReflectionTestUtils.setField(usageManagerImpl, "_parseExecutor", Executors.newFixedThreadPool(2));
+
+        Mockito.doReturn(createAccounts(1, 60)).when(usageManagerImpl).listAccountsAfter(0, true, null);
+        Mockito.doThrow(new CloudRuntimeException("parse failed")).when(usageManagerImpl).parseAccountSlice(Mockito.anyList(), Mockito.anyBoolean(),
+                Mockito.any(Date.class), Mockito.any(Date.class), Mockito.anyLong(), Mockito.anyLong());
+
+        usageManagerImpl.parseAccounts(true, null, new Date(0), new Date(3600000), 0, 3600000, new HashSet<Long>());
+    }
+
+    @Test
+    public void parseAccountsSkipsAccountDeletedAfterTheActivePass() throws Exception {
+        ReflectionTestUtils.setField(usageManagerImpl, "_parseExecutor", Executors.newFixedThreadPool(2));
+        Set<Long> parsedAccountIds = new HashSet<Long>();
+
+        // account 3 is deleted after the active accounts were listed
+        Mockito.doReturn(createAccounts(1, 3)).when(usageManagerImpl).listAccountsAfter(0, false, null);
+        Mockito.doReturn(createAccounts(3, 2)).when(usageManagerImpl).listAccountsAfter(0, true, null);
+        Mockito.doNothing().when(usageManagerImpl).parseAccountSlice(Mockito.anyList(), Mockito.anyBoolean(), Mockito.any(Date.class), Mockito.any(Date.class),
+                Mockito.anyLong(), Mockito.anyLong());
+
+        Assert.assertEquals(3, usageManagerImpl.parseAccounts(false, null, new Date(0), new Date(3600000), 0, 3600000, parsedAccountIds));
+        Assert.assertEquals(1, usageManagerImpl.parseAccounts(true, null, new Date(0), new Date(3600000), 0, 3600000, parsedAccountIds));
+
+        ArgumentCaptor<List<AccountVO>> slice = ArgumentCaptor.forClass(List.class);
+        Mockito.verify(usageManagerImpl).parseAccountSlice(slice.capture(), Mockito.eq(true), Mockito.any(Date.class), Mockito.any(Date.class),
+                Mockito.anyLong(), Mockito.anyLong());
+        Assert.assertEquals(1, slice.getValue().size());
+        Assert.assertEquals(4, slice.getValue().get(0).getId());
+    }
+}
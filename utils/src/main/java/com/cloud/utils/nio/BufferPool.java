@@ -0,0 +1,108 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.utils.nio;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * BufferPool hands out direct buffers of a fixed size so that the SSL
+ * write path of {@link Link} doesn't allocate a packet buffer per message.
+ * Requests for buffers larger than the pooled size are served with one-off
+ * buffers that are not kept when released.
+ */
+public class BufferPool {
+    /* Large enough for a few SSL records, each one is at most ~16k plus header */
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    public static final int DEFAULT_MAX_POOLED = 16;
+
+    private static final BufferPool s_default = new BufferPool(DEFAULT_BUFFER_SIZE, DEFAULT_MAX_POOLED);
+
+    private final int _bufferSize;
+    private final int _maxPooled;
+    private final ConcurrentLinkedQueue<ByteBuffer> _free = new ConcurrentLinkedQueue<ByteBuffer>();
+    private final AtomicInteger _pooled = new AtomicInteger();
+    private final AtomicLong _hits = new AtomicLong();
+    private final AtomicLong _misses = new AtomicLong();
+
+    public BufferPool(final int bufferSize, final int maxPooled) {
+        _bufferSize = bufferSize;
+        _maxPooled = maxPooled;
+    }
+
+    /**
+     * @return the pool used by the static write path of Link.
+     */
+    public static BufferPool getDefault() {
+        return s_default;
+    }
+
+    /**
+     * @param minCapacity minimum capacity needed by the caller.
+     * @return a cleared buffer with at least minCapacity bytes.
+     */
+    public ByteBuffer acquire(final int minCapacity) {
+        if (minCapacity <= _bufferSize) {
+            final ByteBuffer buffer = _free.poll();
+            if (buffer != null) {
+                _pooled.decrementAndGet();
+                _hits.incrementAndGet();
+                buffer.clear();
+                return buffer;
+            }
+        }
+        _misses.incrementAndGet();
+        return ByteBuffer.allocateDirect(Math.max(minCapacity, _bufferSize));
+    }
+
+    public void release(final ByteBuffer buffer) {
+        if (buffer == null || buffer.capacity() != _bufferSize || !buffer.isDirect()) {
+            return;
+        }
+        if (_pooled.incrementAndGet() > _maxPooled) {
+            _pooled.decrementAndGet();
+            return;
+        }
+        _free.offer(buffer);
+    }
+
+    public int getBufferSize() {
+        return _bufferSize;
+    }
+
+    public int getPooledCount() {
+        return _pooled.get();
+    }
+
+    public long getHits() {
+        return _hits.get();
+    }
+
+    public long getMisses() {
+        return _misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return "BufferPool[size=" + _bufferSize + ", pooled=" + _pooled.get() + ", hits=" + _hits.get() + ", misses=" + _misses.get() + "]";
+    }
+}
@@ -64,6 +64,7 @@ public class Link {
     private final ConcurrentLinkedQueue<ByteBuffer[]> _writeQueue;
     private ByteBuffer _readBuffer;
     private ByteBuffer _plaintextBuffer;
+    private ByteBuffer _appBuffer;
     private Object _attach;
     private boolean _readHeader;
     private boolean _gotFollowingPacket;
@@ -103,58 +104,60 @@ public class Link {
         _sslEngine = sslEngine;
     }
 
-    private static void doWrite(SocketChannel ch, ByteBuffer[] buffers, SSLEngine sslEngine) throws IOException {
-        SSLSession sslSession = sslEngine.getSession();
-        ByteBuffer pkgBuf = ByteBuffer.allocate(sslSession.getPacketBufferSize() + 40);
-        SSLEngineResult engResult;
-
-        ByteBuffer headBuf = ByteBuffer.allocate(4);
+    /**
+     * Wraps one message into SSL records appended to out, each record is
+     * preceded by its length and HEADER_FLAG_FOLLOWING is set on all but the
+     * last record of the message. out is flushed to the channel whenever it
+     * can't hold another record.
+     *
+     * @return the number of bytes produced by the SSL engine.
+     */
+    private static long wrap(SocketChannel ch, ByteBuffer[] buffers, SSLEngine sslEngine, ByteBuffer out) throws IOException {
+        final int packetSize = sslEngine.getSession().getPacketBufferSize() + 40;
 
-        int totalLen = 0;
+        long totalLen = 0;
         for (ByteBuffer buffer : buffers) {
-            totalLen += buffer.limit();
+            totalLen += buffer.remaining();
         }
 
-        int processedLen = 0;
+        long processedLen = 0;
+        long wrappedLen = 0;
         while (processedLen < totalLen) {
-            headBuf.clear();
-            pkgBuf.clear();
-            engResult = sslEngine.wrap(buffers, pkgBuf);
+            if (out.remaining() < packetSize + 4) {
+                flush(ch, out);
+            }
+            final int headerPos = out.position();
+            out.position(headerPos + 4);
+            SSLEngineResult engResult = sslEngine.wrap(buffers, out);
             if (engResult.getHandshakeStatus() != HandshakeStatus.FINISHED && engResult.getHandshakeStatus() != HandshakeStatus.NOT_HANDSHAKING &&
                     engResult.getStatus() != SSLEngineResult.Status.OK) {
                 throw new IOException("SSL: SSLEngine return bad result! " + engResult);
             }
-
-            processedLen = 0;
-            for (ByteBuffer buffer : buffers) {
-                processedLen += buffer.position();
+            if (engResult.bytesConsumed() == 0 && engResult.bytesProduced() == 0) {
+                throw new IOException("SSL: SSLEngine made no progress! " + engResult);
             }
 
-            int dataRemaining = pkgBuf.position();
-            int header = dataRemaining;
-            int headRemaining = 4;
-            pkgBuf.flip();
+            processedLen += engResult.bytesConsumed();
+            wrappedLen += engResult.bytesProduced();
+
+            int header = engResult.bytesProduced();
             if (processedLen < totalLen) {
                 header = header | HEADER_FLAG_FOLLOWING;
             }
-            headBuf.putInt(header);
-            headBuf.flip();
+            out.putInt(headerPos, header);
+        }
+        return wrappedLen;
+    }
 
-            while (headRemaining > 0) {
-                if (s_logger.isTraceEnabled()) {
-                    s_logger.trace("Writing Header " + headRemaining);
-                }
-                long count = ch.write(headBuf);
-                headRemaining -= count;
-            }
-            while (dataRemaining > 0) {
-                if (s_logger.isTraceEnabled()) {
-                    s_logger.trace("Writing Data " + dataRemaining);
-                }
-                long count = ch.write(pkgBuf);
-                dataRemaining -= count;
+    private static void flush(SocketChannel ch, ByteBuffer out) throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            if (s_logger.isTraceEnabled()) {
+                s_logger.trace("Writing Data " + out.remaining());
             }
+            ch.write(out);
         }
+        out.clear();
     }
 
     /**
@@ -168,13 +171,24 @@ public class Link {
      */
     public static void write(SocketChannel ch, ByteBuffer[] buffers, SSLEngine sslEngine) throws IOException {
         synchronized (ch) {
-            doWrite(ch, buffers, sslEngine);
+            final BufferPool pool = BufferPool.getDefault();
+            final ByteBuffer out = pool.acquire(sslEngine.getSession().getPacketBufferSize() + 44);
+            try {
+                wrap(ch, buffers, sslEngine, out);
+                flush(ch, out);
+            } finally {
+                pool.release(out);
+            }
         }
     }
 
     /* SSL has limitation of 16k, we may need to split packets. 18000 is 16k + some extra SSL informations */
     protected static final int MAX_SIZE_PER_PACKET = 18000;
     protected static final int HEADER_FLAG_FOLLOWING = 0x10000;
+    /* Plaintext buffers grown beyond this size for a large message are not kept for the next one */
+    protected static final int MAX_RETAINED_PLAINTEXT_SIZE = 256 * 1024;
+    /* Marker queued by send() to close the connection once everything before it is written */
+    private static final ByteBuffer[] CLOSE_MARKER = new ByteBuffer[0];
 
     public byte[] read(SocketChannel ch) throws IOException {
         if (_readHeader) {   // Start of a packet
@@ -202,7 +216,11 @@ public class Link {
             }
 
             if (!_gotFollowingPacket) {
-                _plaintextBuffer = ByteBuffer.allocate(2000);
+                if (_plaintextBuffer == null || _plaintextBuffer.capacity() > MAX_RETAINED_PLAINTEXT_SIZE) {
+                    _plaintextBuffer = ByteBuffer.allocate(2000);
+                } else {
+                    _plaintextBuffer.clear();
+                }
             }
 
             if ((header & HEADER_FLAG_FOLLOWING) != 0) {
@@ -218,7 +236,8 @@ public class Link {
                 if (s_logger.isTraceEnabled()) {
                     s_logger.trace("Resizing the byte buffer from " + _readBuffer.capacity());
                 }
-                _readBuffer = ByteBuffer.allocate(readSize);
+                // packets are never larger than MAX_SIZE_PER_PACKET, so resize only once
+                _readBuffer = ByteBuffer.allocate(MAX_SIZE_PER_PACKET);
             }
             _readBuffer.limit(readSize);
         }
@@ -236,15 +255,19 @@ public class Link {
 
         _readBuffer.flip();
 
-        ByteBuffer appBuf;
-
         SSLSession sslSession = _sslEngine.getSession();
         SSLEngineResult engResult;
         int remaining = 0;
 
+        final int appBufferSize = sslSession.getApplicationBufferSize() + 40;
+        if (_appBuffer == null || _appBuffer.capacity() < appBufferSize) {
+            _appBuffer = ByteBuffer.allocate(appBufferSize);
+        }
+        final ByteBuffer appBuf = _appBuffer;
+
         while (_readBuffer.hasRemaining()) {
             remaining = _readBuffer.remaining();
-            appBuf = ByteBuffer.allocate(sslSession.getApplicationBufferSize() + 40);
+            appBuf.clear();
             engResult = _sslEngine.unwrap(_readBuffer, appBuf);
             if (engResult.getHandshakeStatus() != HandshakeStatus.FINISHED && engResult.getHandshakeStatus() != HandshakeStatus.NOT_HANDSHAKING &&
                     engResult.getStatus() != SSLEngineResult.Status.OK) {
@@ -257,7 +280,7 @@ public class Link {
             appBuf.flip();
             if (_plaintextBuffer.remaining() < appBuf.limit()) {
                 // We need to expand _plaintextBuffer for more data
-                ByteBuffer newBuffer = ByteBuffer.allocate(_plaintextBuffer.capacity() + appBuf.limit() * 5);
+                ByteBuffer newBuffer = ByteBuffer.allocate(Math.max(_plaintextBuffer.capacity() * 2, _plaintextBuffer.position() + appBuf.limit()));
                 _plaintextBuffer.flip();
                 newBuffer.put(_plaintextBuffer);
                 _plaintextBuffer = newBuffer;
@@ -293,24 +316,17 @@ public class Link {
     }
 
     public void send(ByteBuffer[] data, boolean close) throws ClosedChannelException {
-        ByteBuffer[] item = new ByteBuffer[data.length + 1];
-        int remaining = 0;
-        for (int i = 0; i < data.length; i++) {
-            remaining += data[i].remaining();
-            item[i + 1] = data[i];
-        }
-
-        item[0] = ByteBuffer.allocate(4);
-        item[0].putInt(remaining);
-        item[0].flip();
-
         if (s_logger.isTraceEnabled()) {
+            int remaining = 0;
+            for (ByteBuffer buffer : data) {
+                remaining += buffer.remaining();
+            }
             s_logger.trace("Sending packet of length " + remaining);
         }
 
-        _writeQueue.add(item);
+        _writeQueue.add(data);
         if (close) {
-            _writeQueue.add(new ByteBuffer[0]);
+            _writeQueue.add(CLOSE_MARKER);
         }
         synchronized (this) {
             if (_key == null) {
@@ -330,20 +346,39 @@ public class Link {
         }
     }
 
+    /**
+     * Writes all queued messages.  The SSL records of the messages are
+     * gathered in one pooled buffer so that a burst of small messages costs a
+     * single socket write instead of two per record.
+     *
+     * @return true if the connection should be closed.
+     */
     public boolean write(SocketChannel ch) throws IOException {
-        ByteBuffer[] data = null;
-        while ((data = _writeQueue.poll()) != null) {
-            if (data.length == 0) {
-                if (s_logger.isTraceEnabled()) {
-                    s_logger.trace("Closing connection requested");
-                }
-                return true;
-            }
-
-            ByteBuffer[] raw_data = new ByteBuffer[data.length - 1];
-            System.arraycopy(data, 1, raw_data, 0, data.length - 1);
+        ByteBuffer[] data = _writeQueue.poll();
+        if (data == null) {
+            return false;
+        }
 
-            doWrite(ch, raw_data, _sslEngine);
+        final BufferPool pool = _connection.getBufferPool();
+        final ByteBuffer out = pool.acquire(_sslEngine.getSession().getPacketBufferSize() + 44);
+        int frames = 0;
+        long wrapped = 0;
+        try {
+            do {
+                if (data == CLOSE_MARKER) {
+                    if (s_logger.isTraceEnabled()) {
+                        s_logger.trace("Closing connection requested");
+                    }
+                    flush(ch, out);
+                    return true;
+                }
+                wrapped += wrap(ch, data, _sslEngine, out);
+                frames++;
+            } while ((data = _writeQueue.poll()) != null);
+            flush(ch, out);
+        } finally {
+            pool.release(out);
+            _connection.recordWrite(frames, wrapped);
         }
         return false;
     }
@@ -43,6 +43,7 @@ import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.net.ssl.SSLEngine;
 
@@ -73,6 +74,10 @@ public abstract class NioConnection implements Callable<Boolean> {
     protected ExecutorService _executor;
     protected ExecutorService _sslHandshakeExecutor;
     protected CAService caService;
+    protected final BufferPool _bufferPool = new BufferPool(BufferPool.DEFAULT_BUFFER_SIZE, BufferPool.DEFAULT_MAX_POOLED);
+    protected final AtomicLong _framesWritten = new AtomicLong();
+    protected final AtomicLong _writeBatches = new AtomicLong();
+    protected final AtomicLong _bytesWrapped = new AtomicLong();
 
     public NioConnection(final String name, final int port, final int workers, final HandlerFactory factory) {
         _name = name;
@@ -111,6 +116,9 @@ public abstract class NioConnection implements Callable<Boolean> {
     }
 
     public void stop() {
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug(_name + " write statistics: " + getWriteStatistics());
+        }
         _executor.shutdown();
         _isRunning = false;
         if (_threadExecutor != null) {
@@ -127,6 +135,38 @@ public abstract class NioConnection implements Callable<Boolean> {
         return _isStartup;
     }
 
+    public BufferPool getBufferPool() {
+        return _bufferPool;
+    }
+
+    /**
+     * Called by the links after draining their write queue.
+     *
+     * @param frames number of messages written in one go.
+     * @param bytesWrapped number of bytes produced by the SSL engine for them.
+     */
+    protected void recordWrite(final int frames, final long bytesWrapped) {
+        _writeBatches.incrementAndGet();
+        _framesWritten.addAndGet(frames);
+        _bytesWrapped.addAndGet(bytesWrapped);
+    }
+
+    public long getFramesWritten() {
+        return _framesWritten.get();
+    }
+
+    public long getWriteBatches() {
+        return _writeBatches.get();
+    }
+
+    public long getBytesWrapped() {
+        return _bytesWrapped.get();
+    }
+
+    public String getWriteStatistics() {
+        return "frames=" + _framesWritten.get() + ", batches=" + _writeBatches.get() + ", bytesWrapped=" + _bytesWrapped.get() + ", " + _bufferPool;
+    }
+
     @Override
     public Boolean call() throws NioConnectionException {
         while (_isRunning) {
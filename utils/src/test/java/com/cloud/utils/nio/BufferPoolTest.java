@@ -0,0 +1,72 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.utils.nio;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BufferPoolTest {
+
+    @Test
+    public void testAcquireReusesReleasedBuffer() {
+        final BufferPool pool = new BufferPool(1024, 2);
+        final ByteBuffer first = pool.acquire(100);
+        Assert.assertTrue(first.isDirect());
+        Assert.assertEquals(1024, first.capacity());
+        Assert.assertEquals(0, pool.getHits());
+        Assert.assertEquals(1, pool.getMisses());
+
+        first.put((byte)1);
+        pool.release(first);
+        Assert.assertEquals(1, pool.getPooledCount());
+
+        final ByteBuffer second = pool.acquire(1024);
+        Assert.assertSame(first, second);
+        Assert.assertEquals(0, second.position());
+        Assert.assertEquals(1, pool.getHits());
+        Assert.assertEquals(0, pool.getPooledCount());
+    }
+
+    @Test
+    public void testOversizedBuffersAreNotPooled() {
+        final BufferPool pool = new BufferPool(1024, 2);
+        final ByteBuffer big = pool.acquire(4096);
+        Assert.assertEquals(4096, big.capacity());
+        pool.release(big);
+        Assert.assertEquals(0, pool.getPooledCount());
+        pool.release(ByteBuffer.allocate(1024));
+        Assert.assertEquals(0, pool.getPooledCount());
+    }
+
+    @Test
+    public void testPoolIsBounded() {
+        final BufferPool pool = new BufferPool(1024, 2);
+        final ByteBuffer b1 = pool.acquire(1);
+        final ByteBuffer b2 = pool.acquire(1);
+        final ByteBuffer b3 = pool.acquire(1);
+        pool.release(b1);
+        pool.release(b2);
+        pool.release(b3);
+        Assert.assertEquals(2, pool.getPooledCount());
+        Assert.assertEquals(3, pool.getMisses());
+    }
+}
@@ -17,16 +17,16 @@
 package com.cloud.hypervisor.vmware.mo;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 import com.vmware.vim25.PerfCounterInfo;
 import com.vmware.vim25.PerfSummaryType;
 
 public class PerfCounterInfoMapper {
-    // map <group name, counter name, list of PerfCounterInfo based on rollupType>
-    Map<String, Map<String, List<PerfCounterInfo>>> _mapCounterInfos = new HashMap<String, Map<String, List<PerfCounterInfo>>>();
+    // map <group name, counter name, list of PerfCounterInfo based on rollupType>, names are matched ignoring case
+    Map<String, Map<String, List<PerfCounterInfo>>> _mapCounterInfos = new TreeMap<String, Map<String, List<PerfCounterInfo>>>(String.CASE_INSENSITIVE_ORDER);
 
     public PerfCounterInfoMapper(PerfCounterInfo[] counterInfos) {
         if (counterInfos != null) {
@@ -72,7 +72,7 @@ public class PerfCounterInfoMapper {
     private Map<String, List<PerfCounterInfo>> getSafeGroupMap(String groupName) {
         Map<String, List<PerfCounterInfo>> groupMap = _mapCounterInfos.get(groupName);
         if (groupMap == null) {
-            groupMap = new HashMap<String, List<PerfCounterInfo>>();
+            groupMap = new TreeMap<String, List<PerfCounterInfo>>(String.CASE_INSENSITIVE_ORDER);
             _mapCounterInfos.put(groupName, groupMap);
         }
         return groupMap;
@@ -37,6 +37,8 @@ import com.vmware.vim25.PerfQuerySpec;
 import com.cloud.hypervisor.vmware.util.VmwareContext;
 
 public class PerfManagerMO extends BaseMO {
+    private static final String COUNTER_INFO_STOCK_NAME = "perfcounterinfomapper";
+
     public PerfManagerMO(VmwareContext context, ManagedObjectReference mor) {
         super(context, mor);
     }
@@ -117,6 +119,20 @@ public class PerfManagerMO extends BaseMO {
         return _context.getVimClient().getDynamicProperty(_mor, "perfCounter");
     }
 
+    /**
+     * Returns the performance counter catalog of the server. The catalog does not change during a session, so it is
+     * fetched once and kept with the context.
+     */
+    public PerfCounterInfoMapper getCounterInfoMapper() throws Exception {
+        PerfCounterInfoMapper mapper = _context.getStockObject(COUNTER_INFO_STOCK_NAME);
+        if (mapper == null) {
+            List<PerfCounterInfo> counterInfos = getCounterInfo();
+            mapper = new PerfCounterInfoMapper(counterInfos != null ? counterInfos.toArray(new PerfCounterInfo[0]) : null);
+            _context.registerStockObject(COUNTER_INFO_STOCK_NAME, mapper);
+        }
+        return mapper;
+    }
+
     public List<PerfInterval> getIntervalInfo() throws Exception {
         return _context.getVimClient().getDynamicProperty(_mor, "historicalInterval");
     }